@@ -205,6 +205,40 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
         this.useHardLinkCheckpoints = useHardLinkCheckpoints;
     }
     
+    /**
+     * Maximum count of distinct objects (queues, hosts, servers) per
+     * object cache awaiting a background write to BDB, after leaving
+     * the cache's dirty set. With write-behind, threads which happen to
+     * cause such cache churn (often ToeThreads looking for work) don't
+     * wait on those writes. 0 (the default) disables write-behind: 
+     * writes happen on the thread causing them.
+     */
+    protected int cacheWriteBehindMaxPending = 0;
+    public int getCacheWriteBehindMaxPending() {
+        return cacheWriteBehindMaxPending;
+    }
+    public void setCacheWriteBehindMaxPending(int maxPending) {
+        this.cacheWriteBehindMaxPending = maxPending;
+    }
+    
+    /**
+     * Whether to collect a checkpoint's BDB log files (by hard-link, when
+     * useHardLinkCheckpoints) on a background thread. The BDB checkpoint
+     * and the list of log files in the backup set are still taken within
+     * doCheckpoint(), so the snapshot is the same, but the crawl may
+     * resume while the links are made; BDB won't delete the listed files
+     * until they're done. The CheckpointService waits for this work, via
+     * awaitBackgroundCheckpoint(), before marking the checkpoint valid.
+     * Default is false.
+     */
+    protected boolean backgroundCheckpointLinks = false;
+    public boolean getBackgroundCheckpointLinks() {
+        return backgroundCheckpointLinks;
+    }
+    public void setBackgroundCheckpointLinks(boolean backgroundCheckpointLinks) {
+        this.backgroundCheckpointLinks = backgroundCheckpointLinks;
+    }
+    
     private transient EnhancedEnvironment bdbEnvironment;
         
     private transient StoredClassCatalog classCatalog;
@@ -216,6 +250,10 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
     private Map<String,DatabasePlusConfig> databases =
         new ConcurrentHashMap<String,DatabasePlusConfig>();
 
+    /** background completion of the last checkpoint, if any */
+    protected Thread checkpointLinker;
+    protected volatile IOException checkpointLinkerFailure;
+
     protected boolean isRunning = false;
 
     public BdbModule() {
@@ -398,6 +436,7 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
             }
         }
         ObjectIdentityBdbManualCache<V> oic = new ObjectIdentityBdbManualCache<V>();
+        oic.setWriteBehindMaxPending(getCacheWriteBehindMaxPending());
         oic.initialize(bdbEnvironment, dbName, valueClass, classCatalog);
         oiCaches.put(dbName, oic);
         return oic;
@@ -440,6 +479,9 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
     public void startCheckpoint(Checkpoint checkpointInProgress) {}
 
     public void doCheckpoint(final Checkpoint checkpointInProgress) throws IOException {
+        // a previous checkpoint's backup must end before another begins
+        awaitBackgroundCheckpoint();
+        
         // First sync objectCaches
         for (@SuppressWarnings("rawtypes") ObjectIdentityCache oic : oiCaches.values()) {
             oic.sync();
@@ -472,33 +514,100 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
             bdbEnvironment.checkpoint(chkptConfig);
             LOGGER.fine("Finished bdb checkpoint.");
         
-            DbBackup dbBackup = new DbBackup(bdbEnvironment);
+            final DbBackup dbBackup = new DbBackup(bdbEnvironment);
+            dbBackup.startBackup();
+            boolean inBackground = false;
             try {
-                dbBackup.startBackup();
-                
-                File envCpDir = new File(dir.getFile(),checkpointInProgress.getName());
+                final File envCpDir = new File(dir.getFile(),checkpointInProgress.getName());
                 org.archive.util.FileUtils.ensureWriteableDirectory(envCpDir);
-                File logfilesList = new File(envCpDir,"jdbfiles.manifest");
-                String[] filedata = dbBackup.getLogFilesInBackupSet();
+                // lengths as of the snapshot, whenever the links are made
+                final String[] filedata = dbBackup.getLogFilesInBackupSet();
                 for (int i=0; i<filedata.length;i++) {
                     File f = new File(dir.getFile(),filedata[i]);
                     filedata[i] += ","+f.length();
-                    if(getUseHardLinkCheckpoints()) {
-                        File hardLink = new File(envCpDir,filedata[i]);
-                        if (!FilesystemLinkMaker.makeHardLink(f.getAbsolutePath(), hardLink.getAbsolutePath())) {
-                            LOGGER.log(Level.SEVERE, "unable to create required checkpoint link "+hardLink); 
+                }
+                if (getBackgroundCheckpointLinks()) {
+                    checkpointLinkerFailure = null;
+                    checkpointLinker = new Thread(
+                            "BdbModule checkpoint " + checkpointInProgress.getName()) {
+                        public void run() {
+                            try {
+                                linkLogFiles(envCpDir, filedata);
+                                forgetOldCheckpoints(checkpointInProgress);
+                            } catch (IOException e) {
+                                checkpointLinkerFailure = e;
+                            } finally {
+                                dbBackup.endBackup();
+                            }
                         }
-                    }
+                    };
+                    checkpointLinker.setDaemon(true);
+                    checkpointLinker.start();
+                    inBackground = true;
+                    return;
                 }
-                FileUtils.writeLines(logfilesList,Arrays.asList(filedata));
-                LOGGER.fine("Finished processing bdb log files.");
+                linkLogFiles(envCpDir, filedata);
             } finally {
-                dbBackup.endBackup();
+                if (!inBackground) {
+                    dbBackup.endBackup();
+                }
             }
         } catch (DatabaseException e) {
             throw new IOException(e);
         }
         
+        forgetOldCheckpoints(checkpointInProgress);
+    }
+    
+    /**
+     * Hard-link (if so configured) the listed log files into the
+     * checkpoint's environment directory, and write its manifest.
+     * 
+     * @param envCpDir checkpoint's environment directory
+     * @param filedata log file names, each followed by ",length"
+     */
+    protected void linkLogFiles(File envCpDir, String[] filedata) throws IOException {
+        if(getUseHardLinkCheckpoints()) {
+            for (String line : filedata) {
+                File f = new File(dir.getFile(),line.substring(0,line.indexOf(',')));
+                File hardLink = new File(envCpDir,line);
+                if (!FilesystemLinkMaker.makeHardLink(f.getAbsolutePath(), hardLink.getAbsolutePath())) {
+                    LOGGER.log(Level.SEVERE, "unable to create required checkpoint link "+hardLink); 
+                }
+            }
+        }
+        File logfilesList = new File(envCpDir,"jdbfiles.manifest");
+        FileUtils.writeLines(logfilesList,Arrays.asList(filedata));
+        LOGGER.fine("Finished processing bdb log files.");
+    }
+    
+    /**
+     * Wait for any background completion of the last checkpoint begun
+     * by doCheckpoint() (see backgroundCheckpointLinks). 
+     * 
+     * @throws IOException if that completion failed
+     */
+    public void awaitBackgroundCheckpoint() throws IOException {
+        Thread linker = checkpointLinker;
+        if (linker == null) {
+            return;
+        }
+        try {
+            linker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted awaiting " + linker.getName());
+        }
+        checkpointLinker = null;
+        IOException failure = checkpointLinkerFailure;
+        checkpointLinkerFailure = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    protected void forgetOldCheckpoints(final Checkpoint checkpointInProgress) 
+    throws IOException {
         if (checkpointInProgress.getForgetAllButLatest()) {
             File[] oldEnvCpDirs = dir.getFile().listFiles(new FilenameFilter() {
                 @Override
@@ -610,6 +719,12 @@ public class BdbModule implements Lifecycle, Checkpointable, Closeable, Disposab
             return;
         }
         
+        try {
+            awaitBackgroundCheckpoint();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error completing checkpoint.", e);
+        }
+        
         for(@SuppressWarnings("rawtypes") ObjectIdentityCache cache : oiCaches.values()) {
             try {
                 cache.close();
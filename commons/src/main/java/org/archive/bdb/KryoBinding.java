@@ -18,7 +18,7 @@
  */
 package org.archive.bdb;
 
-import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.ObjectBuffer;
@@ -35,12 +35,15 @@ public class KryoBinding<K> implements EntryBinding<K> {
 
     protected Class<K> baseClass;
     protected AutoKryo kryo = new AutoKryo(); 
-    protected ThreadLocal<WeakReference<ObjectBuffer>> threadBuffer = new ThreadLocal<WeakReference<ObjectBuffer>>() {
-        @Override
-        protected WeakReference<ObjectBuffer> initialValue() {
-            return new WeakReference<ObjectBuffer>(new ObjectBuffer(kryo,16*1024,Integer.MAX_VALUE));
-        }
-    };
+    /**
+     * Idle ObjectBuffers, strongly held so that their (possibly grown)
+     * backing arrays survive GC. A buffer is borrowed only for the
+     * duration of one conversion, so the pool size tracks peak concurrent
+     * conversions rather than the count of threads that ever used this
+     * binding.
+     */
+    protected ConcurrentLinkedQueue<ObjectBuffer> bufferPool =
+        new ConcurrentLinkedQueue<ObjectBuffer>();
     
     /**
      * Constructor. Save parameters locally, as superclass 
@@ -60,14 +63,16 @@ public class KryoBinding<K> implements EntryBinding<K> {
         return kryo;
     }
     
-    private ObjectBuffer getBuffer() {
-        WeakReference<ObjectBuffer> ref = threadBuffer.get();
-        ObjectBuffer ob = ref.get();
+    protected ObjectBuffer borrowBuffer() {
+        ObjectBuffer ob = bufferPool.poll();
         if (ob == null) {
             ob = new ObjectBuffer(kryo,16*1024,Integer.MAX_VALUE);
-            threadBuffer.set(new WeakReference<ObjectBuffer>(ob));
         }
-        return ob;        
+        return ob;
+    }
+    
+    protected void releaseBuffer(ObjectBuffer ob) {
+        bufferPool.offer(ob);
     }
     
     /**
@@ -76,11 +81,21 @@ public class KryoBinding<K> implements EntryBinding<K> {
      * @see com.sleepycat.bind.serial.SerialBinding#entryToObject
      */
     public void objectToEntry(K object, DatabaseEntry entry) {
-        entry.setData(getBuffer().writeObjectData(object));
+        ObjectBuffer ob = borrowBuffer();
+        try {
+            entry.setData(ob.writeObjectData(object));
+        } finally {
+            releaseBuffer(ob);
+        }
     }
 
     @Override
     public K entryToObject(DatabaseEntry entry) {
-        return getBuffer().readObjectData(entry.getData(), baseClass);
+        ObjectBuffer ob = borrowBuffer();
+        try {
+            return ob.readObjectData(entry.getData(), baseClass);
+        } finally {
+            releaseBuffer(ob);
+        }
     }
 }
@@ -21,10 +21,15 @@ package org.archive.util;
 
 import java.io.Closeable;
 import java.io.Serializable;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -55,6 +60,12 @@ import com.sleepycat.je.Environment;
  * The backing disk is only guaranteed to be up-to-date after a flush 
  * of all dirty values to disk, as can be forced by sync().
  * <p>
+ * By default, values are written to disk on whichever thread causes 
+ * them to leave the dirty-items map. With write-behind enabled (see
+ * {@link #setWriteBehindMaxPending(int)}), such writes are instead 
+ * handed to a background writer thread, with repeated writes of the 
+ * same key coalesced while pending; sync() flushes all pending writes.
+ * <p>
  * 
  * <p>
  * 
@@ -99,6 +110,34 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
     transient private AtomicLong useStatsSyncUsed = new AtomicLong(0);
     /** Count of times Supplier was used for new object */
     private AtomicLong evictions = new AtomicLong(0);
+    /** Count of writes done by the write-behind thread */
+    private AtomicLong writeBehindWrites = new AtomicLong(0);
+    /** Count of writes coalesced into an already-pending write */
+    private AtomicLong writeBehindCoalesced = new AtomicLong(0);
+    /** Count of writes done by the caller because too many were pending */
+    private AtomicLong writeBehindOverflows = new AtomicLong(0);
+
+    /**
+     * Maximum count of distinct keys awaiting write-behind, beyond which 
+     * writes are done synchronously by the caller. 0 (the default) 
+     * disables write-behind. Must be set before initialize().
+     */
+    protected int writeBehindMaxPending = 0;
+    public int getWriteBehindMaxPending() {
+        return writeBehindMaxPending;
+    }
+    public void setWriteBehindMaxPending(int maxPending) {
+        this.writeBehindMaxPending = maxPending;
+    }
+
+    /** latest value of each key awaiting write-behind */
+    protected transient ConcurrentMap<String,V> pendingWrites;
+    /** keys awaiting write-behind, in order first made pending */
+    protected transient BlockingQueue<String> pendingKeys;
+    /** held while taking a pending write and putting it to disk */
+    protected transient Object writeBehindLock;
+    protected transient Thread writeBehindThread;
+    protected transient volatile boolean writeBehindRunning = false;
 
     /**
      * Constructor. You must call
@@ -116,7 +155,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
                     @Override
                     public void onRemoval(RemovalNotification<String, V> stringVRemovalNotification) {
                         evictions.incrementAndGet();
-                        diskMap.put(stringVRemovalNotification.getKey(), stringVRemovalNotification.getValue());
+                        write(stringVRemovalNotification.getKey(), stringVRemovalNotification.getValue());
                     }
                 })
                 .<String, V>build()
@@ -149,6 +188,109 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
         // unchanged after 5 minutes, or more than 10K would collect
 
         this.count = new AtomicLong(diskMap.size());
+        if (writeBehindMaxPending > 0) {
+            startWriteBehind(dbName);
+        }
+    }
+
+    /**
+     * Persist the given value, directly or via the write-behind thread.
+     * 
+     * @param key
+     * @param val
+     */
+    protected void write(String key, V val) {
+        if (!writeBehindRunning) {
+            diskMap.put(key, val);
+            return;
+        }
+        if (pendingWrites.size() >= writeBehindMaxPending
+                && !pendingWrites.containsKey(key)) {
+            // writer has fallen behind; push back on the caller
+            writeBehindOverflows.incrementAndGet();
+            diskMap.put(key, val);
+            return;
+        }
+        if (pendingWrites.put(key, val) == null) {
+            pendingKeys.add(key);
+        } else {
+            writeBehindCoalesced.incrementAndGet();
+        }
+    }
+
+    protected void startWriteBehind(String dbName) {
+        pendingWrites = new ConcurrentHashMap<String,V>();
+        pendingKeys = new LinkedBlockingQueue<String>();
+        writeBehindLock = new Object();
+        writeBehindRunning = true;
+        writeBehindThread = new Thread("writeBehind-" + dbName) {
+            public void run() {
+                writeBehindLoop();
+            }
+        };
+        writeBehindThread.setDaemon(true);
+        writeBehindThread.start();
+    }
+
+    protected void writeBehindLoop() {
+        while (writeBehindRunning) {
+            String key;
+            try {
+                key = pendingKeys.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (key == null) {
+                continue;
+            }
+            try {
+                synchronized (writeBehindLock) {
+                    V val = pendingWrites.remove(key);
+                    if (val != null) {
+                        diskMap.put(key, val);
+                        writeBehindWrites.incrementAndGet();
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "write-behind of " + key + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Write all pending write-behind values to disk, on the calling thread.
+     */
+    protected void flushPendingWrites() {
+        if (pendingWrites == null) {
+            return;
+        }
+        synchronized (writeBehindLock) {
+            // take keys first, then their values: a key being added 
+            // concurrently by write() keeps its pendingKeys entry, and is
+            // left for the write-behind thread
+            List<String> keys = new ArrayList<String>(pendingKeys.size());
+            pendingKeys.drainTo(keys);
+            for (String key : keys) {
+                V val = pendingWrites.remove(key);
+                if (val != null) {
+                    diskMap.put(key, val);
+                }
+            }
+        }
+    }
+
+    protected void stopWriteBehind() {
+        if (!writeBehindRunning) {
+            return;
+        }
+        // flag rather than interrupt, as BDB-JE dislikes interrupts
+        writeBehindRunning = false;
+        try {
+            writeBehindThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeBehindThread = null;
     }
 
     @SuppressWarnings("unchecked")
@@ -184,6 +326,7 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
         // Close out my bdb db.
         if (this.db != null) {
             try {
+                stopWriteBehind();
                 sync(); 
                 this.db.sync();
                 this.db.close();
@@ -225,7 +368,13 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
             val.setIdentityCache(this); 
             return val;
         }
-        val = diskMap.get(key);
+        if (pendingWrites != null) {
+            // may have left the dirty-items map but not yet reached disk
+            val = pendingWrites.get(key);
+        }
+        if (val == null) {
+            val = diskMap.get(key);
+        }
         V prevVal; 
         if(val == null) {
             // never yet created, consider creating
@@ -301,6 +450,14 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
           .append(dirtyItems.size())
           .append(" evictions=")
           .append(evictions.get())
+          .append(" pendingWrites=")
+          .append(pendingWrites == null ? 0 : pendingWrites.size())
+          .append(" writeBehinds=")
+          .append(writeBehindWrites.get())
+          .append(" coalesced=")
+          .append(writeBehindCoalesced.get())
+          .append(" overflows=")
+          .append(writeBehindOverflows.get())
           .append(" syncs=")
           .append(useStatsSyncUsed.get());
         return sb.toString();
@@ -347,8 +504,11 @@ implements ObjectIdentityCache<V>, Closeable, Serializable {
         while(iter.hasNext()) {
             Entry<String, V> entry = iter.next(); 
             iter.remove();
-            diskMap.put(entry.getKey(), entry.getValue());
+            if (!writeBehindRunning) {
+                diskMap.put(entry.getKey(), entry.getValue());
+            } // else removal listener made it pending; flushed below
         }
+        flushPendingWrites();
         
         try {
             this.db.sync();
@@ -0,0 +1,74 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.bdb;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseEntry;
+
+public class BdbModuleTest extends TmpDirTestCase {
+
+    public void testBackgroundCheckpointLinks() throws Exception {
+        File testDir = new File(getTmpDir(), "BdbModuleTest");
+        FileUtils.deleteDirectory(testDir);
+        BdbModule bdb = new BdbModule();
+        bdb.setDir(new ConfigPath("test", new File(testDir, "state").getAbsolutePath()));
+        bdb.setBackgroundCheckpointLinks(true);
+        bdb.start();
+        try {
+            Database db = bdb.openDatabase("test", StoredQueue.databaseConfig(), false);
+            db.put(null, new DatabaseEntry("key".getBytes("UTF-8")), 
+                    new DatabaseEntry("value".getBytes("UTF-8")));
+
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.generateFrom(new ConfigPath("test", 
+                    new File(testDir, "checkpoints").getAbsolutePath()), 1);
+            bdb.doCheckpoint(checkpoint);
+            bdb.awaitBackgroundCheckpoint();
+
+            File envCpDir = new File(bdb.getDir().getFile(), checkpoint.getName());
+            @SuppressWarnings("unchecked")
+            List<String> manifest = FileUtils.readLines(
+                    new File(envCpDir, "jdbfiles.manifest"));
+            assertFalse(manifest.isEmpty());
+            for (String line : manifest) {
+                assertTrue(line, new File(envCpDir, line).exists());
+            }
+
+            // a second checkpoint may begin once the first's backup ends
+            Checkpoint second = new Checkpoint();
+            second.generateFrom(new ConfigPath("test", 
+                    new File(testDir, "checkpoints").getAbsolutePath()), 2);
+            bdb.doCheckpoint(second);
+            bdb.awaitBackgroundCheckpoint();
+            assertTrue(new File(new File(bdb.getDir().getFile(), second.getName()),
+                    "jdbfiles.manifest").exists());
+        } finally {
+            bdb.close();
+            FileUtils.deleteDirectory(testDir);
+        }
+    }
+}
@@ -124,6 +124,36 @@ public class ObjectIdentityBdbManualCacheTest extends TmpDirTestCase {
         }
     }
     
+    public void testWriteBehind() throws Exception {
+        ObjectIdentityBdbManualCache<IdentityCacheableWrapper<HashMap<String,String>>> wbCache =
+            new ObjectIdentityBdbManualCache<IdentityCacheableWrapper<HashMap<String,String>>>();
+        wbCache.setWriteBehindMaxPending(100);
+        wbCache.initialize(env, "writeBehindCache",
+                IdentityCacheableWrapper.class, env.getClassCatalog());
+        try {
+            for (int i = 0; i < 1000; i++) {
+                String key = "key" + i;
+                IdentityCacheableWrapper<HashMap<String,String>> wrap = wbCache.getOrUse(
+                    key, 
+                    new Supplier<IdentityCacheableWrapper<HashMap<String,String>>>(
+                        new IdentityCacheableWrapper<HashMap<String,String>>(
+                            key, new HashMap<String,String>())));
+                wrap.get().put("value", "" + i);
+                // repeated dirtying of the same key
+                wrap.makeDirty();
+                wrap.makeDirty();
+            }
+            wbCache.sync();
+            assertEquals("pending writes not flushed", 0, wbCache.pendingWrites.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals("disk not updated", "" + i,
+                        wbCache.diskMap.get("key" + i).get().get("value"));
+            }
+        } finally {
+            wbCache.close();
+        }
+    }
+
     /**
      * Test that in scarce memory conditions, the memory map is 
      * expunged of otherwise unreferenced entries as expected.
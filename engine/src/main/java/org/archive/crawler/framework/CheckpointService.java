@@ -25,17 +25,24 @@ import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.archive.bdb.BdbModule;
 import org.archive.checkpointing.Checkpoint;
 import org.archive.checkpointing.Checkpointable;
 import org.archive.crawler.reporting.CrawlStatSnapshot;
@@ -124,6 +131,42 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
         }
     }
     
+    /**
+     * Number of threads running Checkpointable beans' doCheckpoint()
+     * at once. 1 (the default) checkpoints the beans one after another.
+     * With more, all beans but the BdbModule write their state in 
+     * parallel, and BdbModule goes last, as it syncs and backs up the
+     * databases the others may have just flushed. (The crawl is held 
+     * still, by the frontier, from the first bean's doCheckpoint() until
+     * BdbModule's has returned; see also BdbModule's 
+     * backgroundCheckpointLinks.)
+     */
+    protected int checkpointThreads = 1;
+    public int getCheckpointThreads() {
+        return checkpointThreads;
+    }
+    public void setCheckpointThreads(int checkpointThreads) {
+        this.checkpointThreads = checkpointThreads;
+    }
+    
+    /** 
+     * milliseconds taken by each step of the last checkpoint; always a 
+     * synchronizedMap of its own, replaced (not cleared) by each checkpoint
+     */
+    protected volatile Map<String,Long> lastCheckpointTimings = 
+        Collections.synchronizedMap(new LinkedHashMap<String,Long>());
+    /**
+     * @return milliseconds taken by each step of the last (or current)
+     * checkpoint, including each bean's doCheckpoint(), in completion order
+     */
+    public Map<String,Long> getLastCheckpointTimings() {
+        // the synchronizedMap's own lock, held while copying it
+        Map<String,Long> timings = lastCheckpointTimings;
+        synchronized (timings) {
+            return new LinkedHashMap<String,Long>(timings);
+        }
+    }
+    
     protected Checkpoint recoveryCheckpoint;
     @Autowired(required=false)
     public void setRecoveryCheckpoint(Checkpoint checkpoint) {
@@ -264,7 +307,12 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
             LOGGER.fine("checkpointing beans " + toCheckpoint);
         }
         
+        Map<String,Long> timings = 
+            Collections.synchronizedMap(new LinkedHashMap<String,Long>());
+        lastCheckpointTimings = timings;
         checkpointInProgress = new Checkpoint();
+        boolean written = false;
+        String progressStamp = null;
         try {
             checkpointInProgress.setForgetAllButLatest(getForgetAllButLatest());
             checkpointInProgress.generateFrom(getCheckpointsDir(),
@@ -275,55 +323,69 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
             for (Checkpointable c : toCheckpoint.values()) {
                 c.startCheckpoint(checkpointInProgress);
             }
+            long startDuration = System.currentTimeMillis() - startStart;
+            timings.put("all startCheckpoint()", startDuration);
             LOGGER.info("all startCheckpoint() completed in "
-                    + (System.currentTimeMillis() - startStart) + "ms");
+                    + startDuration + "ms");
 
             // flush/write
             long doStart = System.currentTimeMillis();
-            for (Checkpointable c : toCheckpoint.values()) {
-                long doMs = System.currentTimeMillis();
-                c.doCheckpoint(checkpointInProgress);
-                long doDuration = System.currentTimeMillis() - doMs;
-                LOGGER.fine("doCheckpoint() " + c + " in " + doDuration + "ms");
-            }
+            doCheckpoints(toCheckpoint, timings);
+            long doDuration = System.currentTimeMillis() - doStart;
+            timings.put("all doCheckpoint()", doDuration);
             LOGGER.info("all doCheckpoint() completed in "
-                    + (System.currentTimeMillis() - doStart) + "ms");
-            
-            if (getForgetAllButLatest() && lastCheckpoint != null) {
-                try {
-                    long deleteStart = System.currentTimeMillis();
-                    FileUtils.deleteDirectory(lastCheckpoint.getCheckpointDir().getFile());
-                    lastCheckpoint = null;
-                    LOGGER.info("deleted old checkpoint in "
-                            + (System.currentTimeMillis() - deleteStart) + "ms");
-                } catch (IOException e) {
-                    LOGGER.log(Level.SEVERE,
-                            "problem deleting last checkpoint directory "
-                                    + lastCheckpoint.getCheckpointDir().getFile(),
-                                    e);
-                }
-            }
-            
-            checkpointInProgress.setSuccess(true);
-            
-            appCtx.publishEvent(new CheckpointSuccessEvent(this,
-                    checkpointInProgress));
+                    + doDuration + "ms");
+            written = true;
         } catch (Exception e) {
             checkpointFailed(e);
         } finally {
-            checkpointInProgress.writeValidity(
-                controller.getStatisticsTracker().getProgressStamp());
+            progressStamp = controller.getStatisticsTracker().getProgressStamp();
             lastCheckpointSnapshot = controller.getStatisticsTracker().getSnapshot();
             // close (incl. release locks)
             long finishStart = System.currentTimeMillis();
             for (Checkpointable c : toCheckpoint.values()) {
                 c.finishCheckpoint(checkpointInProgress);
             }
+            long finishDuration = System.currentTimeMillis() - finishStart;
+            timings.put("all finishCheckpoint()", finishDuration);
             LOGGER.info("all finishCheckpoint() completed in "
-                    + (System.currentTimeMillis() - finishStart) + "ms");
+                    + finishDuration + "ms");
+        }
+        
+        // crawl may now proceed, while any background work completes
+        if (written) {
+            try {
+                awaitBackgroundCheckpoints(toCheckpoint, timings);
+                
+                if (getForgetAllButLatest() && lastCheckpoint != null) {
+                    try {
+                        long deleteStart = System.currentTimeMillis();
+                        FileUtils.deleteDirectory(lastCheckpoint.getCheckpointDir().getFile());
+                        lastCheckpoint = null;
+                        LOGGER.info("deleted old checkpoint in "
+                                + (System.currentTimeMillis() - deleteStart) + "ms");
+                    } catch (IOException e) {
+                        LOGGER.log(Level.SEVERE,
+                                "problem deleting last checkpoint directory "
+                                        + lastCheckpoint.getCheckpointDir().getFile(),
+                                        e);
+                    }
+                }
+                
+                checkpointInProgress.setSuccess(true);
+                
+                appCtx.publishEvent(new CheckpointSuccessEvent(this,
+                        checkpointInProgress));
+            } catch (Exception e) {
+                checkpointFailed(e);
+            } finally {
+                checkpointInProgress.writeValidity(progressStamp);
+            }
         }
+        long totalDuration = System.currentTimeMillis() - checkpointStart;
+        timings.put("total", totalDuration);
         LOGGER.info("completed checkpoint " + checkpointInProgress.getName()
-                + " in " + (System.currentTimeMillis() - checkpointStart) + "ms");
+                + " in " + totalDuration + "ms");
         
         this.nextCheckpointNumber++;
         String nameToReport = checkpointInProgress.getSuccess() ? checkpointInProgress.getName() : null;
@@ -333,6 +395,89 @@ public class CheckpointService implements Lifecycle, ApplicationContextAware, Ha
     }
 
     
+    /**
+     * Run each bean's doCheckpoint(), one after another or (with 
+     * checkpointThreads above 1) in parallel, BdbModules last, noting the
+     * time each takes. 
+     */
+    protected void doCheckpoints(Map<String,Checkpointable> toCheckpoint,
+            final Map<String,Long> timings) throws Exception {
+        if (getCheckpointThreads() <= 1) {
+            for (Map.Entry<String,Checkpointable> entry : toCheckpoint.entrySet()) {
+                timedDoCheckpoint(entry.getKey(), entry.getValue(), timings);
+            }
+            return;
+        }
+        
+        Map<String,Checkpointable> last = new LinkedHashMap<String,Checkpointable>();
+        List<Future<Void>> futures = new LinkedList<Future<Void>>();
+        ExecutorService executor = 
+            Executors.newFixedThreadPool(getCheckpointThreads());
+        try {
+            for (final Map.Entry<String,Checkpointable> entry : toCheckpoint.entrySet()) {
+                if (entry.getValue() instanceof BdbModule) {
+                    last.put(entry.getKey(), entry.getValue());
+                    continue;
+                }
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        timedDoCheckpoint(entry.getKey(), entry.getValue(), timings);
+                        return null;
+                    }
+                }));
+            }
+            // wait on all, even after a failure, so none is still writing 
+            // when locks are released
+            Exception failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        for (Map.Entry<String,Checkpointable> entry : last.entrySet()) {
+            timedDoCheckpoint(entry.getKey(), entry.getValue(), timings);
+        }
+    }
+    
+    protected void timedDoCheckpoint(String beanName, Checkpointable c,
+            Map<String,Long> timings) throws IOException {
+        long doMs = System.currentTimeMillis();
+        c.doCheckpoint(checkpointInProgress);
+        long doDuration = System.currentTimeMillis() - doMs;
+        timings.put(beanName, doDuration);
+        LOGGER.fine("doCheckpoint() " + c + " in " + doDuration + "ms");
+    }
+    
+    /**
+     * Wait for any checkpoint work which beans continue after 
+     * finishCheckpoint(), so the checkpoint isn't marked valid early. 
+     */
+    protected void awaitBackgroundCheckpoints(
+            Map<String,Checkpointable> toCheckpoint, Map<String,Long> timings)
+            throws IOException {
+        for (Map.Entry<String,Checkpointable> entry : toCheckpoint.entrySet()) {
+            if (entry.getValue() instanceof BdbModule) {
+                long awaitStart = System.currentTimeMillis();
+                ((BdbModule) entry.getValue()).awaitBackgroundCheckpoint();
+                long awaitDuration = System.currentTimeMillis() - awaitStart;
+                timings.put(entry.getKey() + " (background)", awaitDuration);
+                LOGGER.info(entry.getKey() + " background checkpoint completed "
+                        + awaitDuration + "ms after release");
+            }
+        }
+    }
+    
     /**
      * @return True if a checkpoint is in progress.
      */
@@ -24,7 +24,9 @@ import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -211,9 +213,53 @@ implements Serializable,
         this.pauseAtStart = pauseAtStart;
     }
     
+    /**
+     * Whether ToeThreads share a pool of Recorders, each borrowing one only
+     * while processing a URI, rather than each keeping its own. Allows 
+     * many more ToeThreads (most of which wait on the frontier or on 
+     * network I/O) without a Recorder's buffers and scratch files for each.
+     * Only consulted when the crawl starts.
+     */
+    protected boolean pooledRecorders = false;
+    public boolean getPooledRecorders() {
+        return pooledRecorders;
+    }
+    public void setPooledRecorders(boolean pooledRecorders) {
+        this.pooledRecorders = pooledRecorders;
+    }
+    
+    /**
+     * Optional pool to which ToeThreads hand off extraction and 
+     * disposition of fetched URIs (requires pooledRecorders). 
+     */
+    protected ExtractionPool extractionPool;
+    public ExtractionPool getExtractionPool() {
+        return this.extractionPool;
+    }
+    @Autowired(required=false)
+    public void setExtractionPool(ExtractionPool extractionPool) {
+        this.extractionPool = extractionPool;
+    }
+    
+    /**
+     * Stack size in bytes requested for each ToeThread, or 0 for the JVM 
+     * default. A smaller stack (such as 256KiB) reduces the memory 
+     * reserved per thread when running very many ToeThreads; too small
+     * a stack risks StackOverflowErrors in deep processing. Applies to
+     * ToeThreads created after a change.
+     */
+    protected long toeThreadStackSize = 0;
+    public long getToeThreadStackSize() {
+        return toeThreadStackSize;
+    }
+    public void setToeThreadStackSize(long toeThreadStackSize) {
+        this.toeThreadStackSize = toeThreadStackSize;
+    }
+
     /**
      * Size in bytes of in-memory buffer to record outbound traffic. One such 
-     * buffer is reserved for every ToeThread. 
+     * buffer is reserved for every ToeThread (or every pooled Recorder, if
+     * pooledRecorders). 
      */
     protected int recorderOutBufferBytes = 16 * 1024; // 16KiB
     public int getRecorderOutBufferBytes() {
@@ -225,7 +271,8 @@ implements Serializable,
     
     /**
      * Size in bytes of in-memory buffer to record inbound traffic. One such 
-     * buffer is reserved for every ToeThread.
+     * buffer is reserved for every ToeThread (or every pooled Recorder, if
+     * pooledRecorders).
      */
     protected int recorderInBufferBytes = 512 * 1024; // 512KiB
     public int getRecorderInBufferBytes() {
@@ -235,6 +282,23 @@ implements Serializable,
         this.recorderInBufferBytes = recorderInBufferBytes;
     }
 
+    /**
+     * If pooledRecorders, optional sizes in bytes of in-memory buffer to 
+     * record inbound traffic, one per class of pooled Recorder; each URI 
+     * borrows a Recorder of the smallest class expected (from its fetch 
+     * history, if any) to hold its response, spilling anything larger to 
+     * the Recorder's backing file. Empty (the default) for a single class
+     * of recorderInBufferBytes. Only consulted when the crawl starts.
+     */
+    protected List<Integer> recorderInBufferSizeClasses = 
+        new ArrayList<Integer>();
+    public List<Integer> getRecorderInBufferSizeClasses() {
+        return recorderInBufferSizeClasses;
+    }
+    public void setRecorderInBufferSizeClasses(List<Integer> sizeClasses) {
+        this.recorderInBufferSizeClasses = sizeClasses;
+    }
+
     protected CrawlerLoggerModule loggerModule;
     public CrawlerLoggerModule getLoggerModule() {
         return this.loggerModule;
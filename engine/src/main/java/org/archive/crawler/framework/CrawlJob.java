@@ -58,6 +58,8 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.archive.crawler.event.CrawlStateEvent;
 import org.archive.crawler.framework.CrawlController.StopCompleteEvent;
+import org.archive.crawler.frontier.AbstractFrontier;
+import org.archive.crawler.frontier.RecoveryLogReplay;
 import org.archive.crawler.frontier.WorkQueue;
 import org.archive.crawler.reporting.AlertThreadGroup;
 import org.archive.crawler.reporting.CrawlStatSnapshot;
@@ -927,6 +929,16 @@ public class CrawlJob implements Comparable<CrawlJob>, ApplicationListener<Appli
         return cc.getFrontier().shortReportMap();
     }
 
+    public Map<String,Object> recoveryReportData() {
+        CrawlController cc = getCrawlController();
+        if (cc == null || !(cc.getFrontier() instanceof AbstractFrontier)) {
+            return null;
+        }
+        RecoveryLogReplay replay = 
+            ((AbstractFrontier) cc.getFrontier()).getRecoveryLogReplay();
+        return replay == null ? null : replay.getProgressData();
+    }
+
     public String frontierReport() {
         CrawlController cc = getCrawlController();
         if(cc==null) {
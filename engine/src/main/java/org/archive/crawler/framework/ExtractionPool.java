@@ -0,0 +1,310 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.framework;
+
+import static org.archive.modules.CoreAttributeConstants.A_RUNTIME_EXCEPTION;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_RUNTIME_EXCEPTION;
+import static org.archive.modules.fetcher.FetchStatusCodes.S_SERIOUS_ERROR;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.DispositionChain;
+import org.archive.modules.FetchChain;
+import org.archive.spring.KeyedProperties;
+import org.archive.util.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.Lifecycle;
+
+/**
+ * Optional pool of threads to which ToeThreads hand off the extraction
+ * (and subsequent disposition) of fetched URIs.
+ *
+ * When a ToeThread reaches the fetch-chain processor named by handoffAt
+ * with a successfully-fetched URI, it passes the URI, along with the
+ * Recorder holding its (possibly disk-spooled) content, to this pool,
+ * then goes on to its next URI. A pool thread runs the rest of the fetch
+ * chain (usually the extractors), the disposition chain (writing,
+ * candidate scheduling), and finally reports the URI finished to the
+ * frontier. So CPU-heavy parsing of large HTML, PDF, or SWF content
+ * no longer occupies a ToeThread.
+ *
+ * The URI's queue remains in-process until its disposition completes,
+ * as before; pausing and checkpointing wait for handed-off URIs like
+ * any other. When maxOutstanding URIs are already queued or being
+ * processed here, the ToeThread instead finishes the URI itself, which
+ * slows fetching to the pace extraction can sustain.
+ *
+ * Requires CrawlController's pooledRecorders, as each handed-off URI
+ * keeps its Recorder until done; without it, URIs are always processed
+ * entirely on ToeThreads. Enabled by declaring this bean, which is
+ * autowired into the CrawlController.
+ */
+public class ExtractionPool implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(ExtractionPool.class.getName());
+
+    protected FetchChain fetchChain;
+    public FetchChain getFetchChain() {
+        return this.fetchChain;
+    }
+    @Autowired
+    public void setFetchChain(FetchChain fetchChain) {
+        this.fetchChain = fetchChain;
+    }
+
+    protected DispositionChain dispositionChain;
+    public DispositionChain getDispositionChain() {
+        return this.dispositionChain;
+    }
+    @Autowired
+    public void setDispositionChain(DispositionChain dispositionChain) {
+        this.dispositionChain = dispositionChain;
+    }
+
+    protected Frontier frontier;
+    public Frontier getFrontier() {
+        return this.frontier;
+    }
+    @Autowired
+    public void setFrontier(Frontier frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * Bean name of the first fetch-chain processor to run in this pool
+     * rather than on the ToeThread.
+     */
+    protected String handoffAt = "extractorHttp";
+    public String getHandoffAt() {
+        return handoffAt;
+    }
+    public void setHandoffAt(String handoffAt) {
+        this.handoffAt = handoffAt;
+    }
+
+    /**
+     * Number of extraction threads; 0 means one per available processor.
+     * Only consulted at start.
+     */
+    protected int parallelism = 0;
+    public int getParallelism() {
+        return parallelism;
+    }
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Maximum number of URIs queued or in process in this pool, each
+     * holding a Recorder. Beyond this, ToeThreads process URIs
+     * themselves. Only consulted at start.
+     */
+    protected int maxOutstanding = 50;
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+    public void setMaxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * Minimum content length, in bytes, of a URI to hand off; smaller
+     * content, cheap to extract, stays on the ToeThread.
+     */
+    protected long minContentBytes = 0;
+    public long getMinContentBytes() {
+        return minContentBytes;
+    }
+    public void setMinContentBytes(long minContentBytes) {
+        this.minContentBytes = minContentBytes;
+    }
+
+    protected ForkJoinPool pool;
+    protected int permits;
+    protected Semaphore outstanding;
+    protected AtomicLong handedOffCount = new AtomicLong(0);
+    protected AtomicLong declinedCount = new AtomicLong(0);
+
+    protected boolean isRunning = false;
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        int threads = parallelism > 0
+            ? parallelism : Runtime.getRuntime().availableProcessors();
+        permits = Math.max(1, maxOutstanding);
+        outstanding = new Semaphore(permits);
+        pool = new ForkJoinPool(threads,
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    public ForkJoinWorkerThread newThread(ForkJoinPool p) {
+                        ForkJoinWorkerThread t = ForkJoinPool
+                            .defaultForkJoinWorkerThreadFactory.newThread(p);
+                        t.setName("ExtractionPool #" + t.getPoolIndex());
+                        return t;
+                    }
+                }, null, true);
+        isRunning = true;
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warning("extraction still in progress after 60s; "
+                        + "abandoning " + getOutstandingCount() + " URIs");
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Offer a URI, whose fetch chain has been processed up to (but not
+     * including) handoffAt, for completion in this pool. If accepted,
+     * the pool owns the URI and the Recorder from then on, and will
+     * release the Recorder to recorderPool when done; the caller must
+     * not touch either again.
+     *
+     * @param curi
+     * @param recorder Recorder holding curi's content
+     * @param recorderPool pool to which to return recorder
+     * @return true if accepted; false if the caller should continue
+     * processing the URI itself
+     */
+    public boolean offer(final CrawlURI curi, final Recorder recorder,
+            final RecorderPool recorderPool) {
+        if (!isRunning || recorderPool == null || !isEligible(curi)) {
+            return false;
+        }
+        if (!outstanding.tryAcquire()) {
+            declinedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        complete(curi, recorder);
+                    } finally {
+                        recorderPool.release(recorder, curi);
+                        outstanding.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // rejected, as when shutting down
+            outstanding.release();
+            return false;
+        }
+        handedOffCount.incrementAndGet();
+        return true;
+    }
+
+    protected boolean isEligible(CrawlURI curi) {
+        return curi.getFetchStatus() > 0
+            && curi.getContentLength() > 0
+            && curi.getContentLength() >= getMinContentBytes();
+    }
+
+    /**
+     * Finish processing a handed-off URI, as a ToeThread would have:
+     * the remainder of the fetch chain, the disposition chain, then
+     * frontier.finished().
+     */
+    protected void complete(CrawlURI curi, Recorder recorder) {
+        Recorder.setHttpRecorder(recorder);
+        try {
+            try {
+                KeyedProperties.loadOverridesFrom(curi);
+                fetchChain.process(curi, null, handoffAt, null);
+                frontier.beginDisposition(curi);
+                dispositionChain.process(curi, null);
+            } catch (InterruptedException e) {
+                recoverableProblem(curi, e);
+                Thread.interrupted(); // clear interrupt status
+            } catch (RuntimeException e) {
+                recoverableProblem(curi, e);
+            } catch (StackOverflowError err) {
+                recoverableProblem(curi, err);
+            } catch (Error err) {
+                // OutOfMemory and any others; unlike on a ToeThread,
+                // don't attempt a crawl pause from here
+                curi.getAnnotations().add("err=" + err.getClass().getName());
+                curi.setFetchStatus(S_SERIOUS_ERROR);
+                logger.log(Level.SEVERE, "Serious error occurred trying to "
+                        + "process '" + curi + "' after handoff", err);
+            } finally {
+                recorder.endReplays();
+                KeyedProperties.clearOverridesFrom(curi);
+            }
+            frontier.finished(curi);
+        } finally {
+            frontier.endDisposition();
+            Recorder.setHttpRecorder(null);
+        }
+    }
+
+    protected void recoverableProblem(CrawlURI curi, Throwable e) {
+        curi.setFetchStatus(S_RUNTIME_EXCEPTION);
+        // store exception temporarily for logging
+        curi.getAnnotations().add("err=" + e.getClass().getName());
+        curi.getData().put(A_RUNTIME_EXCEPTION, e);
+        logger.log(Level.SEVERE, "Problem " + e + " occurred when trying to "
+                + "process '" + curi + "' after handoff\n", e);
+    }
+
+    /**
+     * @return count of URIs handed off to this pool
+     */
+    public long getHandedOffCount() {
+        return handedOffCount.get();
+    }
+
+    /**
+     * @return count of eligible URIs left to their ToeThreads because
+     * the pool was saturated
+     */
+    public long getDeclinedCount() {
+        return declinedCount.get();
+    }
+
+    /**
+     * @return count of URIs queued or in process in this pool
+     */
+    public int getOutstandingCount() {
+        return outstanding == null ? 0 : permits - outstanding.availablePermits();
+    }
+}
@@ -274,7 +274,7 @@ public interface Frontier extends Lifecycle, Reporter {
      * <p>"scopeSchedules": if non-null, any URI imported be checked
      * against the frontier's configured scope before scheduling 
      * 
-     * <p>If the "format" is "recoveryLog", 7 more keys are significant:
+     * <p>If the "format" is "recoveryLog", 9 more keys are significant:
      * 
      * <p>"includeSuccesses": if non-null, success lines ("Fs") in the log
      * will be considered-included. (Usually, this is the aim of
@@ -296,6 +296,11 @@ public interface Frontier extends Lifecycle, Reporter {
      * <p>"scheduleScheduleds": if non-null, scheduled lines ("F+") in the 
      * log will be considered-included. (Usually, this is the aim of a
      * recovery-log import.)
+     * <p>"threads": number of threads parsing and applying recovery-log
+     * lines (default 1, keeping log order); more speed the replay of large
+     * logs, keeping log order only within batches of lines.
+     * <p>"batchSize": number of recovery-log lines handed to one such
+     * thread at once (default 1000).
      * 
      * TODO: add parameter for auto-unpause-at-good-time
      * 
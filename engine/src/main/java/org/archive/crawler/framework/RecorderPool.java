@@ -0,0 +1,268 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.framework;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.modules.CrawlURI;
+import org.archive.util.Recorder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Pool of Recorders shared by ToeThreads, so that a thread holds a
+ * Recorder (with its in-memory buffers and scratch backing files) only
+ * while processing a URI, rather than for its whole life. With many
+ * ToeThreads, most of which are usually waiting on the frontier, the
+ * number of Recorders then tracks peak concurrent processing rather than
+ * thread count.
+ *
+ * Recorders may come in several size classes, differing in the size of
+ * in-memory buffer for inbound traffic. Each URI borrows from the
+ * smallest class expected to hold its response in memory. As a Recorder
+ * is borrowed before the fetch chain runs (so usually before any fetch
+ * history is loaded), the expected size is the running average size of
+ * responses recently released from the URI's queue (its class key); or,
+ * if fetch history is already present, its reference length. With 
+ * neither, the URI borrows from the middle class (the smaller of the 
+ * two middle classes, given an even number). Anything larger than the
+ * buffer spills to the Recorder's backing file,
+ * which, like the buffers, is reused by each later borrower. Since most
+ * responses are small, most Recorders in use then hold only a small
+ * buffer.
+ *
+ * Recorders are created on demand and retained once released; each
+ * class never holds more than its peak number simultaneously in use.
+ */
+public class RecorderPool {
+    /** allowance for response headers when choosing a size class */
+    protected static final int HEADER_ALLOWANCE = 4 * 1024;
+    /** most queues whose average response size is remembered */
+    protected static final int MAX_TRACKED_QUEUES = 10000;
+
+    protected class SizeClass {
+        protected final int inBufferSize;
+        protected ConcurrentLinkedQueue<Recorder> idle =
+            new ConcurrentLinkedQueue<Recorder>();
+        protected AtomicInteger created = new AtomicInteger(0);
+        protected AtomicInteger inUse = new AtomicInteger(0);
+
+        protected SizeClass(int inBufferSize) {
+            this.inBufferSize = inBufferSize;
+        }
+    }
+
+    protected File scratchDir;
+    protected int outBufferSize;
+    /** size classes, in ascending order of inBufferSize */
+    protected SizeClass[] sizeClasses;
+    protected Map<Recorder,SizeClass> sizeClassOf =
+        new ConcurrentHashMap<Recorder,SizeClass>();
+
+    protected AtomicInteger nextSerialNumber = new AtomicInteger(1);
+
+    /** running average response size, by queue (class key) */
+    protected Cache<String,AtomicLong> queueAverageSizes = CacheBuilder.newBuilder()
+        .maximumSize(MAX_TRACKED_QUEUES)
+        .<String,AtomicLong>build();
+
+    public RecorderPool(File scratchDir, int outBufferSize, int inBufferSize) {
+        this(scratchDir, outBufferSize, new int[] {inBufferSize});
+    }
+
+    public RecorderPool(File scratchDir, int outBufferSize,
+            int[] inBufferSizes) {
+        this.scratchDir = scratchDir;
+        this.outBufferSize = outBufferSize;
+        int[] sizes = inBufferSizes.clone();
+        Arrays.sort(sizes);
+        sizeClasses = new SizeClass[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            sizeClasses[i] = new SizeClass(sizes[i]);
+        }
+    }
+
+    /**
+     * @return an idle Recorder of the largest size class, or a
+     * newly-created one if none is idle
+     */
+    public Recorder borrow() {
+        return borrow(sizeClasses[sizeClasses.length - 1]);
+    }
+
+    /**
+     * @return an idle Recorder of the size class suited to curi, or a
+     * newly-created one if none is idle
+     */
+    public Recorder borrow(CrawlURI curi) {
+        return borrow(sizeClassFor(curi));
+    }
+
+    protected Recorder borrow(SizeClass sizeClass) {
+        sizeClass.inUse.incrementAndGet();
+        Recorder recorder = sizeClass.idle.poll();
+        if (recorder == null) {
+            recorder = new Recorder(scratchDir,
+                    "rp" + nextSerialNumber.getAndIncrement() + "http",
+                    outBufferSize, sizeClass.inBufferSize);
+            sizeClass.created.incrementAndGet();
+            sizeClassOf.put(recorder, sizeClass);
+        }
+        return recorder;
+    }
+
+    protected SizeClass sizeClassFor(CrawlURI curi) {
+        long expected = expectedSize(curi);
+        if (expected >= 0) {
+            for (SizeClass sizeClass : sizeClasses) {
+                if (sizeClass.inBufferSize >= expected + HEADER_ALLOWANCE) {
+                    return sizeClass;
+                }
+            }
+            return sizeClasses[sizeClasses.length - 1];
+        }
+        return sizeClasses[(sizeClasses.length - 1) / 2];
+    }
+
+    /**
+     * @return length of curi's content at its last fetch, if known from
+     * fetch history; otherwise the average size of responses from its 
+     * queue, if any noted; otherwise -1
+     */
+    protected long expectedSize(CrawlURI curi) {
+        Map<String,Object>[] history = curi.getFetchHistory();
+        if (history != null && history.length > 0 && history[0] != null) {
+            Object length = history[0].get(A_REFERENCE_LENGTH);
+            if (length instanceof Number) {
+                return ((Number) length).longValue();
+            }
+        }
+        if (curi.getClassKey() != null) {
+            AtomicLong average = queueAverageSizes.getIfPresent(curi.getClassKey());
+            if (average != null) {
+                return average.get();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Fold the size of curi's response into its queue's running average
+     * (approximate under concurrent updates, which is good enough here).
+     */
+    protected void noteSize(CrawlURI curi) {
+        String key = curi.getClassKey();
+        long size = curi.getContentSize();
+        if (key == null || size <= 0) {
+            return;
+        }
+        AtomicLong average = queueAverageSizes.asMap().putIfAbsent(key, 
+                new AtomicLong(size));
+        if (average != null) {
+            long old = average.get();
+            average.set(old + (size - old) / 4);
+        }
+    }
+
+    /**
+     * Return a Recorder borrowed for curi, noting the size of curi's 
+     * response for later borrowers from the same queue.
+     */
+    public void release(Recorder recorder, CrawlURI curi) {
+        noteSize(curi);
+        release(recorder);
+    }
+
+    /**
+     * Return a borrowed Recorder for reuse.
+     *
+     * @param recorder
+     */
+    public void release(Recorder recorder) {
+        SizeClass sizeClass = sizeClassOf.get(recorder);
+        sizeClass.inUse.decrementAndGet();
+        sizeClass.idle.offer(recorder);
+    }
+
+    /**
+     * @return count of Recorders currently borrowed
+     */
+    public int getInUseCount() {
+        int count = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            count += sizeClass.inUse.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return count of Recorders ever created, whether in use or idle
+     */
+    public int getCreatedCount() {
+        return nextSerialNumber.get() - 1;
+    }
+
+    /**
+     * @return bytes of in-memory buffers held by all created Recorders
+     */
+    public long getBufferBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            bytes += (long) sizeClass.created.get()
+                * (sizeClass.inBufferSize + outBufferSize);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return for each size class, by inbound buffer size in bytes, a
+     * two-element array of Recorders in use and created
+     */
+    public Map<Integer,int[]> getSizeClassOccupancy() {
+        Map<Integer,int[]> occupancy = new LinkedHashMap<Integer,int[]>();
+        for (SizeClass sizeClass : sizeClasses) {
+            occupancy.put(sizeClass.inBufferSize, new int[] {
+                    sizeClass.inUse.get(), sizeClass.created.get() });
+        }
+        return occupancy;
+    }
+
+    /**
+     * Close all idle Recorders.
+     */
+    public void cleanup() {
+        for (SizeClass sizeClass : sizeClasses) {
+            Recorder recorder;
+            while ((recorder = sizeClass.idle.poll()) != null) {
+                sizeClassOf.remove(recorder);
+                recorder.closeRecorders();
+            }
+        }
+    }
+}
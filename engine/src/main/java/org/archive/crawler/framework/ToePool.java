@@ -23,6 +23,7 @@ import java.io.PrintWriter;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -50,6 +51,9 @@ public class ToePool extends ThreadGroup implements Reporter {
     protected CrawlController controller;
     protected int nextSerialNumber = 1;
     protected int targetSize = 0; 
+    /** Recorders shared by ToeThreads, if controller's pooledRecorders; 
+     * otherwise null and each ToeThread has its own */
+    protected RecorderPool recorderPool;
 
     /**
      * Constructor. Creates a pool of ToeThreads. 
@@ -60,6 +64,27 @@ public class ToePool extends ThreadGroup implements Reporter {
         super(atg, "ToeThreads");        
         this.controller = c;
         setDaemon(true);
+        if (c.getPooledRecorders()) {
+            List<Integer> sizeClasses = c.getRecorderInBufferSizeClasses();
+            int[] inBufferSizes;
+            if (sizeClasses == null || sizeClasses.isEmpty()) {
+                inBufferSizes = new int[] {c.getRecorderInBufferBytes()};
+            } else {
+                inBufferSizes = new int[sizeClasses.size()];
+                for (int i = 0; i < inBufferSizes.length; i++) {
+                    inBufferSizes[i] = sizeClasses.get(i);
+                }
+            }
+            recorderPool = new RecorderPool(c.getScratchDir().getFile(),
+                    c.getRecorderOutBufferBytes(), inBufferSizes);
+        }
+    }
+    
+    /**
+     * @return shared pool of Recorders, or null if each ToeThread has its own
+     */
+    public RecorderPool getRecorderPool() {
+        return recorderPool;
     }
     
     public void cleanup() {
@@ -71,6 +96,10 @@ public class ToePool extends ThreadGroup implements Reporter {
             }
         }
         
+        if (recorderPool != null) {
+            recorderPool.cleanup();
+        }
+        
         // see HER-2036
         this.controller = null;
     }
@@ -199,7 +228,26 @@ public class ToePool extends ThreadGroup implements Reporter {
         writer.print(" Job being crawled: "
                 + this.controller.getMetadata().getJobName() + "\n");
         writer.print(" Number of toe threads in pool: " + getToeCount() + " ("
-                + getActiveToeCount() + " active)\n\n");
+                + getActiveToeCount() + " active)\n");
+        if (recorderPool != null) {
+            writer.print(" Pooled recorders: " + recorderPool.getCreatedCount()
+                    + " (" + recorderPool.getInUseCount() + " in use, "
+                    + (recorderPool.getBufferBytes() / 1024) + "KiB buffers)\n");
+            for (Entry<Integer,int[]> sizeClass 
+                    : recorderPool.getSizeClassOccupancy().entrySet()) {
+                writer.print("  " + (sizeClass.getKey() / 1024) + "KiB: "
+                        + sizeClass.getValue()[1] + " ("
+                        + sizeClass.getValue()[0] + " in use)\n");
+            }
+        }
+        ExtractionPool extractionPool = controller.getExtractionPool();
+        if (extractionPool != null) {
+            writer.print(" Extraction pool: " 
+                    + extractionPool.getOutstandingCount() + " outstanding, "
+                    + extractionPool.getHandedOffCount() + " handed off, "
+                    + extractionPool.getDeclinedCount() + " declined\n");
+        }
+        writer.print("\n");
         
         Thread[] toes = this.getToes();
         synchronized (toes) {
@@ -262,6 +310,17 @@ public class ToePool extends ThreadGroup implements Reporter {
         Map<String,Object> data = new LinkedHashMap<String, Object>();
 
         data.put("toeCount", getToeCount());
+        if (recorderPool != null) {
+            data.put("pooledRecorders", recorderPool.getCreatedCount());
+            data.put("pooledRecordersInUse", recorderPool.getInUseCount());
+            data.put("pooledRecorderBufferBytes", recorderPool.getBufferBytes());
+        }
+        ExtractionPool extractionPool = controller.getExtractionPool();
+        if (extractionPool != null) {
+            data.put("extractionOutstanding", extractionPool.getOutstandingCount());
+            data.put("extractionHandedOff", extractionPool.getHandedOffCount());
+            data.put("extractionDeclined", extractionPool.getDeclinedCount());
+        }
         
         LinkedList<String> unwound = new LinkedList<String>(); 
         for (Entry<?, Long> step: steps.getSortedByCounts()) {
@@ -73,11 +73,15 @@ implements Reporter, ProgressStatisticsReporter,
     
     /**
      * Each ToeThead has an instance of HttpRecord that gets used
-     * over and over by each request.
+     * over and over by each request. (If the pool shares Recorders, 
+     * this is instead only set while a URI is being processed.)
      * 
      * @see org.archive.util.RecorderMarker
      */
     private Recorder httpRecorder = null;
+    
+    /** pool from which to borrow a Recorder per URI, or null */
+    private RecorderPool recorderPool = null;
 
     // activity monitoring, debugging, and problem detection
     private Step step = Step.NASCENT;
@@ -105,15 +109,19 @@ implements Reporter, ProgressStatisticsReporter,
      */
     public ToeThread(ToePool g, int sn) {
         // TODO: add crawl name?
-        super(g,"ToeThread #" + sn);
+        super(g, null, "ToeThread #" + sn, 
+                g.getController().getToeThreadStackSize());
         coreName="ToeThread #" + sn + ": ";
         controller = g.getController();
         serialNumber = sn;
         setPriority(DEFAULT_PRIORITY);
-        int outBufferSize = controller.getRecorderOutBufferBytes();
-        int inBufferSize = controller.getRecorderInBufferBytes();
-        httpRecorder = new Recorder(controller.getScratchDir().getFile(),
-            "tt" + sn + "http", outBufferSize, inBufferSize);
+        recorderPool = g.getRecorderPool();
+        if (recorderPool == null) {
+            int outBufferSize = controller.getRecorderOutBufferBytes();
+            int inBufferSize = controller.getRecorderInBufferBytes();
+            httpRecorder = new Recorder(controller.getScratchDir().getFile(),
+                "tt" + sn + "http", outBufferSize, inBufferSize);
+        }
         lastFinishTime = System.currentTimeMillis();
     }
 
@@ -139,17 +147,35 @@ implements Reporter, ProgressStatisticsReporter,
                     setCurrentCuri(curi);
                     currentCuri.setThreadNumber(this.serialNumber);
                     lastStartTime = System.currentTimeMillis();
+                    if (recorderPool != null) {
+                        httpRecorder = recorderPool.borrow(curi);
+                        Recorder.setHttpRecorder(httpRecorder);
+                    }
                     currentCuri.setRecorder(httpRecorder);
                 }
                 
+                boolean handedOff = false;
                 try {
                     KeyedProperties.loadOverridesFrom(curi);
                     
-                    controller.getFetchChain().process(curi,this);
-                    
-                    controller.getFrontier().beginDisposition(curi);
+                    ExtractionPool extractionPool = controller.getExtractionPool();
+                    if (extractionPool != null && recorderPool != null) {
+                        String handoffAt = extractionPool.getHandoffAt();
+                        if (controller.getFetchChain().process(curi, this, null, handoffAt)) {
+                            handedOff = extractionPool.offer(curi, httpRecorder, recorderPool);
+                            if (!handedOff) {
+                                controller.getFetchChain().process(curi, this, handoffAt, null);
+                            }
+                        }
+                    } else {
+                        controller.getFetchChain().process(curi,this);
+                    }
                     
-                    controller.getDispositionChain().process(curi,this);
+                    if (!handedOff) {
+                        controller.getFrontier().beginDisposition(curi);
+                        
+                        controller.getDispositionChain().process(curi,this);
+                    }
   
                 } catch (RuntimeExceptionWrapper e) {
                     // Workaround to get cause from BDB
@@ -176,7 +202,16 @@ implements Reporter, ProgressStatisticsReporter,
                     // OutOfMemory and any others
                     seriousError(err); 
                 } finally {
-                    httpRecorder.endReplays();
+                    if (handedOff) {
+                        synchronized(this) {
+                            // extraction pool now owns both URI and Recorder
+                            setCurrentCuri(null);
+                            Recorder.setHttpRecorder(null);
+                            httpRecorder = null;
+                        }
+                    } else {
+                        httpRecorder.endReplays();
+                    }
                     KeyedProperties.clearOverridesFrom(curi); 
                 }
                 
@@ -184,9 +219,16 @@ implements Reporter, ProgressStatisticsReporter,
                 ArchiveUtils.continueCheck();
 
                 synchronized(this) {
-                    controller.getFrontier().finished(currentCuri);
-                    controller.getFrontier().endDisposition();
-                    setCurrentCuri(null);
+                    if (!handedOff) {
+                        controller.getFrontier().finished(currentCuri);
+                        controller.getFrontier().endDisposition();
+                        setCurrentCuri(null);
+                    }
+                    if (httpRecorder != null && recorderPool != null) {
+                        Recorder.setHttpRecorder(null);
+                        recorderPool.release(httpRecorder, curi);
+                        httpRecorder = null;
+                    }
                 }
                 curi = null;
                 
@@ -214,7 +256,14 @@ implements Reporter, ProgressStatisticsReporter,
 
         setCurrentCuri(null);
         // Do cleanup so that objects can be GC.
-        this.httpRecorder.closeRecorders();
+        if (recorderPool != null) {
+            if (this.httpRecorder != null) {
+                // left mid-URI; don't return a possibly-busy recorder 
+                this.httpRecorder.closeRecorders();
+            }
+        } else {
+            this.httpRecorder.closeRecorders();
+        }
         this.httpRecorder = null;
 
         logger.fine(getName()+" finished for order '"+name+"'");
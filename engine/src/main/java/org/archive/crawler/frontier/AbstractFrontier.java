@@ -980,7 +980,10 @@ public abstract class AbstractFrontier
             throw ioe;
         }
         if("recoveryLog".equals(params.optString("format"))) {
-            FrontierJournal.importRecoverLog(params, this);
+            // published before replay begins, so progress of the first
+            // (blocking) pass is visible too
+            recoveryLogReplay = FrontierJournal.newRecoveryLogReplay(params);
+            FrontierJournal.importRecoverLog(recoveryLogReplay, params, this);
             return;
         }
         // otherwise, do a 'simple' import
@@ -1131,6 +1134,15 @@ public abstract class AbstractFrontier
     public FrontierJournal getFrontierJournal() {
         return this.recover;
     }
+    
+    /** latest recovery-log import, if any */
+    protected volatile RecoveryLogReplay recoveryLogReplay = null;
+    /**
+     * @return latest recovery-log import (perhaps still running), or null
+     */
+    public RecoveryLogReplay getRecoveryLogReplay() {
+        return this.recoveryLogReplay;
+    }
 
     public void crawlEnded(String sExitMessage) {
         if (logger.isLoggable(Level.INFO)) {
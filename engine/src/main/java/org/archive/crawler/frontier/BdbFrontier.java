@@ -27,8 +27,6 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -103,6 +101,22 @@ implements Checkpointable, BeanNameAware {
         this.dumpPendingAtClose = dumpPendingAtClose;
     }
 
+    /**
+     * Whether to store queued URIs in a compact explicit format (with
+     * common data keys written as small tags) rather than Kryo's default
+     * field-by-field format. Smaller records mean fewer bytes through the
+     * BDB cache and log per URI. Records in one format can't be read in
+     * the other, so this must not be changed when resuming from a
+     * checkpoint.
+     */
+    protected boolean compactUriSerialization = false; 
+    public boolean getCompactUriSerialization() {
+        return compactUriSerialization;
+    }
+    public void setCompactUriSerialization(boolean compactUriSerialization) {
+        this.compactUriSerialization = compactUriSerialization;
+    }
+
     /* (non-Javadoc)
      * @see org.archive.crawler.frontier.WorkQueueFrontier#getInactiveQueuesByPrecedence()
      */
@@ -137,7 +151,8 @@ implements Checkpointable, BeanNameAware {
         // before a page-out is required need never cause disk IO.
         db = bdb.openDatabase("pending", dbConfig, recycle);
         
-        return new BdbMultipleWorkQueues(db, bdb.getClassCatalog());
+        return new BdbMultipleWorkQueues(db, bdb.getClassCatalog(),
+                getCompactUriSerialization());
     }
 
 
@@ -335,16 +350,14 @@ implements Checkpointable, BeanNameAware {
     protected void initOtherQueues() throws DatabaseException {
         boolean recycle = (recoveryCheckpoint != null);
         
-        // tiny risk of OutOfMemoryError: if giant number of snoozed
-        // queues all wake-to-ready at once
-        readyClassQueues = new LinkedBlockingQueue<String>();
+        readyClassQueues = createReadyClassQueues();
 
         inactiveQueuesByPrecedence = new ConcurrentSkipListMap<Integer,Queue<String>>();
         
         retiredQueues = bdb.getStoredQueue("retiredQueues", String.class, recycle);
 
         // primary snoozed queues
-        snoozedClassQueues = new DelayQueue<DelayedWorkQueue>();
+        snoozedClassQueues = createSnoozedClassQueues();
         // just in case: overflow for extreme situations
         snoozedOverflow = bdb.getStoredMap(
                 "snoozedOverflow", Long.class, DelayedWorkQueue.class, true, false);
@@ -23,6 +23,9 @@ import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -79,10 +82,27 @@ public class BdbMultipleWorkQueues {
      */
     public BdbMultipleWorkQueues(Database db,
         StoredClassCatalog classCatalog)
+    throws DatabaseException {
+        this(db, classCatalog, false);
+    }
+
+    /**
+     * Create the multi queue in the given environment, optionally using
+     * the compact CrawlURI serialization.
+     * 
+     * @see CrawlURI#registerCompactSerializer(com.esotericsoftware.kryo.Kryo)
+     * @throws DatabaseException
+     */
+    public BdbMultipleWorkQueues(Database db,
+        StoredClassCatalog classCatalog, boolean compactSerialization)
     throws DatabaseException {
         this.pendingUrisDB = db;
-        crawlUriBinding =
+        KryoBinding<CrawlURI> kryoBinding =
               new KryoBinding<CrawlURI>(CrawlURI.class);
+        if (compactSerialization) {
+            CrawlURI.registerCompactSerializer(kryoBinding.getKryo());
+        }
+        crawlUriBinding = kryoBinding;
 //            new RecyclingSerialBinding<CrawlURI>(classCatalog, CrawlURI.class);
 //            new BenchmarkingBinding<CrawlURI>(new EntryBinding[] {
 //                new KryoBinding<CrawlURI>(CrawlURI.class,true),
@@ -348,10 +368,114 @@ public class BdbMultipleWorkQueues {
         }
     }
     
+    /**
+     * Put the given CrawlURIs in at their appropriate places, as one
+     * batch: sorted into key order, then written through a single cursor,
+     * for better B-tree locality than separate puts. 
+     * 
+     * @param curis CrawlURIs to insert
+     * @param overwriteIfPresent
+     * @throws DatabaseException
+     */
+    public void putAll(List<CrawlURI> curis, boolean overwriteIfPresent) 
+    throws DatabaseException {
+        if (curis.size() == 1) {
+            put(curis.get(0), overwriteIfPresent);
+            return;
+        }
+        List<CrawlURI> sorted = new ArrayList<CrawlURI>(curis);
+        for (CrawlURI curi : sorted) {
+            if (curi.getHolderKey() == null) {
+                curi.setHolderKey(calculateInsertKey(curi));
+            }
+        }
+        Collections.sort(sorted, INSERT_KEY_ORDER);
+        
+        DatabaseEntry[] values = new DatabaseEntry[sorted.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new DatabaseEntry();
+            crawlUriBinding.objectToEntry(sorted.get(i), values[i]);
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            tallyAverageEntrySizes(sorted, values);
+        }
+        
+        Cursor cursor = pendingUrisDB.openCursor(null, null);
+        try {
+            for (int i = 0; i < values.length; i++) {
+                CrawlURI curi = sorted.get(i);
+                DatabaseEntry insertKey = (DatabaseEntry)curi.getHolderKey();
+                OperationStatus status;
+                if(overwriteIfPresent) {
+                    status = cursor.put(insertKey, values[i]);
+                } else {
+                    status = cursor.putNoOverwrite(insertKey, values[i]);
+                }
+                if (status!=OperationStatus.SUCCESS) {
+                    LOGGER.log(Level.SEVERE,"URI enqueueing failed; "+status+ " "+curi, new RuntimeException());
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+    
+    /**
+     * Orders CrawlURIs by their (already-assigned) insert keys, as the 
+     * database's default unsigned-bytewise key comparison does. 
+     */
+    protected static final Comparator<CrawlURI> INSERT_KEY_ORDER = 
+        new Comparator<CrawlURI>() {
+        public int compare(CrawlURI c1, CrawlURI c2) {
+            byte[] k1 = ((DatabaseEntry)c1.getHolderKey()).getData();
+            byte[] k2 = ((DatabaseEntry)c2.getHolderKey()).getData();
+            int len = Math.min(k1.length, k2.length);
+            for (int i = 0; i < len; i++) {
+                int diff = (k1[i] & 0xFF) - (k2[i] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return k1.length - k2.length;
+        }
+    };
+    
     private long entryCount = 0;
     private long entrySizeSum = 0;
     private int largestEntry = 0;
     
+    /**
+     * Log average size of database entries, for a whole batch at once.
+     * @param curis CrawlURIs the entries are for.
+     * @param values Database entry values, in same order.
+     */
+    private synchronized void tallyAverageEntrySizes(List<CrawlURI> curis,
+            DatabaseEntry[] values) {
+        long priorCount = entryCount;
+        int batchLargest = 0;
+        CrawlURI batchLargestCuri = null;
+        for (int i = 0; i < values.length; i++) {
+            int length = values[i].getData().length;
+            entrySizeSum += length;
+            if (length > batchLargest) {
+                batchLargest = length;
+                batchLargestCuri = curis.get(i);
+            }
+        }
+        entryCount += values.length;
+        int avg = (int) (entrySizeSum/entryCount);
+        if(entryCount / 1000 != priorCount / 1000) {
+            LOGGER.fine("Average entry size at "+entryCount+": "+avg);
+        }
+        if (batchLargest>largestEntry) {
+            largestEntry = batchLargest; 
+            LOGGER.fine("Largest entry: "+batchLargest+" "+batchLargestCuri);
+            if(batchLargest>(2*avg)) {
+                LOGGER.fine("excessive?");
+            }
+        }
+    }
+    
     /**
      * Log average size of database entry.
      * @param curi CrawlURI this entry is for.
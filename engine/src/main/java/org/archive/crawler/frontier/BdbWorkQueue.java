@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -152,6 +153,23 @@ implements Serializable {
         }
     }
     
+    @Override
+    protected void insertItems(final WorkQueueFrontier frontier,
+            List<CrawlURI> curis, boolean overwriteIfPresent) throws IOException {
+        try {
+            final BdbMultipleWorkQueues queues = ((BdbFrontier) frontier)
+                .getWorkQueues();
+            queues.putAll(curis, overwriteIfPresent);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Inserted " + curis.size() + " into " 
+                    + getPrefixClassKey(this.origin) + " (count " 
+                    + Long.toString(getCount())+ ")");
+            }
+        } catch (DatabaseException e) {
+            throw new IOException(e);
+        }
+    }
+    
     /**
      * @param byteArray Byte array to get hex string of.
      * @return Hex string of passed in byte array (Used logging
@@ -18,8 +18,6 @@
  */
 package org.archive.crawler.frontier;
 
-import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.CountDownLatch;
@@ -31,7 +29,6 @@ import org.archive.crawler.framework.Frontier;
 import org.archive.io.CrawlerJournal;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.deciderules.DecideRule;
-import org.archive.util.ArchiveUtils;
 import org.json.JSONObject;
 
 /**
@@ -59,8 +56,8 @@ public class FrontierJournal extends CrawlerJournal {
     public final static String F_SUCCESS = "Fs ";
     public final static String F_FAILURE = "Ff ";
     
-    //  show recovery progress every this many lines
-    private final static int PROGRESS_INTERVAL = 1000000; 
+    // recovery log lines handed to a replay thread at once
+    private final static int DEFAULT_BATCH_SIZE = 1000; 
     
     // once this many URIs are queued during recovery, allow 
     // crawl to begin, while enqueuing of other URIs from log
@@ -119,25 +116,59 @@ public class FrontierJournal extends CrawlerJournal {
      * Utility method for scanning a recovery journal and applying it to
      * a Frontier.
      * 
+     * Besides the options described at Frontier.importURIs(), params 
+     * may give "threads", the number of threads parsing and applying 
+     * lines of the log (default 1), and "batchSize", the number of lines
+     * handed to such a thread at once.
+     * 
      * @param params JSONObject of import parameters; see Frontier.importURIS()
      * @param frontier
+     * @return the replay, for progress reporting; queues are still being
+     * recovered in the background
      * @throws IOException
      * 
      * @see org.archive.crawler.framework.Frontier#importURIs(String)
      */
-    public static void importRecoverLog(final JSONObject params, final Frontier frontier)
+    public static RecoveryLogReplay importRecoverLog(final JSONObject params, 
+            final Frontier frontier)
     throws IOException {
+        RecoveryLogReplay replay = newRecoveryLogReplay(params);
+        importRecoverLog(replay, params, frontier);
+        return replay;
+    }
+    
+    /**
+     * @param params JSONObject of import parameters, giving "path", and
+     * optionally "threads" and "batchSize"
+     * @return a replay of the recovery log, not yet begun
+     */
+    public static RecoveryLogReplay newRecoveryLogReplay(JSONObject params) {
         String path = params.optString("path");
         if (path == null) {
             throw new IllegalArgumentException("Passed source file is null.");
         }
-        final File source = new File(path);
+        return new RecoveryLogReplay(new File(path), 
+                params.optInt("threads", 1), 
+                params.optInt("batchSize", DEFAULT_BATCH_SIZE));
+    }
+    
+    /**
+     * Scan a recovery journal and apply it to a Frontier, by way of the
+     * given replay (which the caller may already have made visible, for 
+     * progress reporting).
+     * 
+     * @see #importRecoverLog(JSONObject, Frontier)
+     */
+    public static void importRecoverLog(final RecoveryLogReplay replay,
+            final JSONObject params, final Frontier frontier)
+    throws IOException {
+        final File source = replay.getSource();
         LOGGER.info("recovering frontier completion state from "+source);
         
         // first, fill alreadyIncluded with successes (and possibly failures),
         // and count the total lines
-        final int lines =
-            importCompletionInfoFromLog(source, frontier, params);
+        long lines = importCompletionInfoFromLog(replay, frontier, params);
+        replay.setTotalLines(lines);
         
         LOGGER.info("finished completion state; recovering queues from " +
             source);
@@ -148,7 +179,7 @@ public class FrontierJournal extends CrawlerJournal {
         final CountDownLatch recoveredEnough = new CountDownLatch(1);
         new Thread(new Runnable() {
             public void run() {
-                importQueuesFromLog(source, frontier, params, lines, 
+                importQueuesFromLog(replay, frontier, params, 
                         recoveredEnough);
             }
         }, "queuesRecoveryThread").start();
@@ -165,165 +196,102 @@ public class FrontierJournal extends CrawlerJournal {
      * Import just the SUCCESS (and possibly FAILURE) URIs from the given
      * recovery log into the frontier as considered included. 
      * 
-     * @param source recovery log file to use
-     * @param controller CrawlController of crawl to update
-     * @param retainFailures whether failure ('Ff') URIs should count as done
+     * @param replay replay of the recovery log to use
+     * @param frontier Frontier to update
+     * @param params Map of options to apply
      * @return number of lines in recovery log (for reference)
      * @throws IOException
      */
-    private static int importCompletionInfoFromLog(File source, 
-            Frontier frontier, JSONObject params) throws IOException {
+    private static long importCompletionInfoFromLog(RecoveryLogReplay replay, 
+            final Frontier frontier, JSONObject params) throws IOException {
         // Scan log for 'Fs' (+maybe 'Ff') lines: add as 'alreadyIncluded'
-        boolean includeSuccesses = !params.isNull("includeSuccesses");
-        boolean includeFailures = !params.isNull("includeFailures");
-        boolean includeScheduleds = !params.isNull("includeScheduleds");
+        final boolean includeSuccesses = !params.isNull("includeSuccesses");
+        final boolean includeFailures = !params.isNull("includeFailures");
+        final boolean includeScheduleds = !params.isNull("includeScheduleds");
         boolean scopeIncludes = !params.isNull("scopeIncludes");
         
-        DecideRule scope = (scopeIncludes) ? frontier.getScope() : null;
-        FrontierJournal newJournal = frontier.getFrontierJournal();
+        final DecideRule scope = (scopeIncludes) ? frontier.getScope() : null;
+        final FrontierJournal newJournal = frontier.getFrontierJournal();
         
-        BufferedReader br = ArchiveUtils.getBufferedReader(source);
-        String read;
-        int lines = 0; 
-        try {
-            while ((read = br.readLine())!=null) {
-                lines++;
-                if(read.length()<4) {
-                    continue;
-                }
-                String lineType = read.substring(0, 3);
-                if(includeSuccesses && F_SUCCESS.equals(lineType) 
+        return replay.replay("completion state", new RecoveryLogReplay.LineHandler() {
+            public boolean accepts(String lineType) {
+                return includeSuccesses && F_SUCCESS.equals(lineType) 
                         || includeFailures && F_FAILURE.equals(lineType) 
-                        || includeScheduleds && F_ADD.equals(lineType)) {
-                    try {
-                        CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                        if(scope!=null) {
-                            //TODO:SPRINGY
-///                            caUri.setStateProvider(controller.getSheetManager());
-                            // skip out-of-scope URIs if so configured
-                            if(!scope.accepts(caUri)) {
-                                continue;
-                            }
-                        }
-                        frontier.considerIncluded(caUri);
-                        if (newJournal != null) {
-                            // write same line as read
-                            newJournal.writeLine(read);
-                        }
-                    } catch (URIException e) {
-                        LOGGER.log(Level.WARNING,"bad hopsViaString: "+read.substring(3),e);
-                    }
+                        || includeScheduleds && F_ADD.equals(lineType);
+            }
+            public CrawlURI parse(String line) throws URIException {
+                CrawlURI caUri = CrawlURI.fromHopsViaString(line.substring(3));
+                // skip out-of-scope URIs if so configured
+                if(scope!=null && !scope.accepts(caUri)) {
+                    return null;
                 }
-                if((lines%PROGRESS_INTERVAL)==0) {
-                    // every 1 million lines, print progress
-                    LOGGER.info(
-                            "at line " + lines 
-                            + " alreadyIncluded count = " +
-                            frontier.discoveredUriCount());
+                return caUri;
+            }
+            public void apply(String line, CrawlURI caUri) {
+                frontier.considerIncluded(caUri);
+                if (newJournal != null) {
+                    // write same line as read
+                    newJournal.writeLine(line);
                 }
             }
-        } catch (EOFException e) {
-            // expected in some uncleanly-closed recovery logs; ignore
-        } finally {
-            br.close();
-        }
-        return lines;
+        });
     }
 
     /**
      * Import all ADDs from given recovery log into the frontier's queues
      * (excepting those the frontier drops as already having been included)
      * 
-     * @param source recovery log file to use
-     * @param controller CrawlController of crawl to update
+     * @param replay replay of the recovery log to use
+     * @param frontier Frontier to update
      * @param params Map of options to apply
      * @param enough latch signalling 'enough' URIs queued to begin crawling
      */
-    private static void importQueuesFromLog(File source, Frontier frontier,
-            JSONObject params, int lines, CountDownLatch enough) {
-        BufferedReader br;
-        String read;
+    private static void importQueuesFromLog(RecoveryLogReplay replay, 
+            final Frontier frontier, JSONObject params, 
+            final CountDownLatch enough) {
+        final long queuedAtStart = frontier.queuedUriCount();
         
-        long queuedAtStart = frontier.queuedUriCount();
-        long queuedDuringRecovery = 0;
-        int qLines = 0;
-        
-        boolean scheduleSuccesses = !params.isNull("scheduleSuccesses");
-        boolean scheduleFailures = !params.isNull("scheduleFailures");
-        boolean scheduleScheduleds = !params.isNull("scheduleScheduleds");
+        final boolean scheduleSuccesses = !params.isNull("scheduleSuccesses");
+        final boolean scheduleFailures = !params.isNull("scheduleFailures");
+        final boolean scheduleScheduleds = !params.isNull("scheduleScheduleds");
         boolean scopeScheduleds = !params.isNull("scopeScheduleds");
-        boolean forceRevisit = !params.isNull("forceRevisit");
+        final boolean forceRevisit = !params.isNull("forceRevisit");
         
-        DecideRule scope = (scopeScheduleds) ? frontier.getScope() : null;
+        final DecideRule scope = (scopeScheduleds) ? frontier.getScope() : null;
         
+        long qLines = 0;
         try {
             // Scan log for all 'F+' lines: if not alreadyIncluded, schedule for
             // visitation
-            br = ArchiveUtils.getBufferedReader(source);
-            try {
-                while ((read = br.readLine())!=null) {
-                    qLines++;
-                    if(read.length()<4) {
-                        continue;
-                    }
-                    String lineType = read.substring(0, 3);
-                    if(scheduleSuccesses && F_SUCCESS.equals(lineType) 
+            qLines = replay.replay("queues", new RecoveryLogReplay.LineHandler() {
+                public boolean accepts(String lineType) {
+                    return scheduleSuccesses && F_SUCCESS.equals(lineType) 
                             || scheduleFailures && F_FAILURE.equals(lineType) 
-                            || scheduleScheduleds && F_ADD.equals(lineType)) {
-                        
-                        try {
-                            CrawlURI caUri = CrawlURI.fromHopsViaString(read.substring(3));
-                            
-                            //TODO:SPRINGY
-//                            caUri.setStateProvider(controller.getSheetManager());
-                            if(scope!=null) {
-                                // skip out-of-scope URIs if so configured
-                                if(!scope.accepts(caUri)) {
-                                    continue;
-                                }
-                            }
-                            
-                            caUri.setForceFetch(forceRevisit);
-                            
-                            frontier.schedule(caUri);
-                            
-                            queuedDuringRecovery =
-                                frontier.queuedUriCount() - queuedAtStart;
-                            if(((queuedDuringRecovery + 1) %
-                                    ENOUGH_TO_START_CRAWLING) == 0) {
-                                enough.countDown();
-                            }
-                        } catch (URIException e) {
-                            LOGGER.log(Level.WARNING, "bad URI during " +
-                                "log-recovery of queue contents ",e);
-                            // and continue...
-                        } catch (RuntimeException e) {
-                            LOGGER.log(Level.SEVERE, "exception during " +
-                                    "log-recovery of queue contents ",e);
-                            // and continue, though this may be risky
-                            // if the exception wasn't a trivial NPE 
-                            // or wrapped interrupted-exception...
-                        }
+                            || scheduleScheduleds && F_ADD.equals(lineType);
+                }
+                public CrawlURI parse(String line) throws URIException {
+                    CrawlURI caUri = CrawlURI.fromHopsViaString(line.substring(3));
+                    // skip out-of-scope URIs if so configured
+                    if(scope!=null && !scope.accepts(caUri)) {
+                        return null;
                     }
-                    if((qLines%PROGRESS_INTERVAL)==0) {
-                        // every 1 million lines, print progress
-                        LOGGER.info(
-                                "through line " 
-                                + qLines + "/" + lines 
-                                + " queued count = " +
-                                frontier.queuedUriCount());
+                    caUri.setForceFetch(forceRevisit);
+                    return caUri;
+                }
+                public void apply(String line, CrawlURI caUri) {
+                    frontier.schedule(caUri);
+                    if (frontier.queuedUriCount() - queuedAtStart 
+                            >= ENOUGH_TO_START_CRAWLING) {
+                        enough.countDown();
                     }
                 }
-            } catch (EOFException e) {
-                // no problem: untidy end of recovery journal
-            } finally {
-        	    br.close(); 
-            }
+            });
         } catch (IOException e) {
             LOGGER.log(Level.WARNING,"problem importQueuesFromLog",e);
         }
-        LOGGER.info("finished recovering frontier from "+source+" "
+        LOGGER.info("finished recovering frontier from "+replay.getSource()+" "
                 +qLines+" lines processed");
+        replay.setFinished();
         enough.countDown();
     }
 }
@@ -0,0 +1,413 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.crawler.frontier.precedence.PrecedenceProvider;
+import org.archive.crawler.frontier.precedence.SimplePrecedenceProvider;
+import org.archive.modules.fetcher.FetchStats;
+import org.archive.util.ArchiveUtils;
+
+/**
+ * Background helper for a WorkQueueFrontier that periodically measures
+ * the recent yield of each recently-active queue -- novel URIs and bytes
+ * per second, and the share of fetch attempts ending in error -- and
+ * adjusts each queue's session budget and precedence relative to the
+ * others: productive queues get longer sessions and a higher precedence,
+ * so more turns; erroring or unproductive queues get shorter sessions
+ * and a lower precedence, so rotate out sooner.
+ *
+ * Adjustments are applied on top of the configured
+ * 'balanceReplenishAmount' and the queue precedence policy's value each
+ * time a queue is activated or reevaluated. Precedence is only adjusted
+ * for queues using a SimplePrecedenceProvider (as installed by
+ * BaseQueuePrecedencePolicy and its subclasses). Decisions are soft
+ * state, rebuilt from fresh measurements after a restart.
+ */
+public class QueueYieldRebalancer {
+    private static final Logger logger =
+        Logger.getLogger(QueueYieldRebalancer.class.getName());
+
+    /** seconds between measurements */
+    protected int intervalSeconds = 60;
+    public int getIntervalSeconds() {
+        return intervalSeconds;
+    }
+    public void setIntervalSeconds(int intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /** smallest multiple of the configured session budget to assign */
+    protected double minBudgetFactor = 0.25;
+    public double getMinBudgetFactor() {
+        return minBudgetFactor;
+    }
+    public void setMinBudgetFactor(double minBudgetFactor) {
+        this.minBudgetFactor = minBudgetFactor;
+    }
+
+    /** largest multiple of the configured session budget to assign */
+    protected double maxBudgetFactor = 4.0;
+    public double getMaxBudgetFactor() {
+        return maxBudgetFactor;
+    }
+    public void setMaxBudgetFactor(double maxBudgetFactor) {
+        this.maxBudgetFactor = maxBudgetFactor;
+    }
+
+    /**
+     * share of fetch attempts in an interval ending in failure or no
+     * response at or above which a queue is demoted regardless of yield
+     */
+    protected double errorRateThreshold = 0.5;
+    public double getErrorRateThreshold() {
+        return errorRateThreshold;
+    }
+    public void setErrorRateThreshold(double errorRateThreshold) {
+        this.errorRateThreshold = errorRateThreshold;
+    }
+
+    /**
+     * ratio to the median yield at or above which a queue's precedence
+     * is raised one rank, and at or below whose inverse it is lowered
+     */
+    protected double precedenceYieldRatio = 2.0;
+    public double getPrecedenceYieldRatio() {
+        return precedenceYieldRatio;
+    }
+    public void setPrecedenceYieldRatio(double precedenceYieldRatio) {
+        this.precedenceYieldRatio = precedenceYieldRatio;
+    }
+
+    /** intervals without activation after which a queue is forgotten */
+    protected int forgetAfterIntervals = 10;
+    public int getForgetAfterIntervals() {
+        return forgetAfterIntervals;
+    }
+    public void setForgetAfterIntervals(int forgetAfterIntervals) {
+        this.forgetAfterIntervals = forgetAfterIntervals;
+    }
+
+    /**
+     * Measurements and current decision for one queue.
+     */
+    protected static class QueueYield {
+        final String classKey;
+        volatile long lastActivated;
+        long lastSampleTime = -1;
+        long lastNovelUrls;
+        long lastNovelBytes;
+        long lastSuccesses;
+        long lastErrors;
+
+        double urisPerSecond;
+        double bytesPerSecond;
+        double errorRate;
+        long attempts;
+
+        volatile double budgetFactor = 1.0;
+        volatile int precedenceAdjustment = 0;
+        volatile String reason = "unmeasured";
+
+        QueueYield(String classKey) {
+            this.classKey = classKey;
+        }
+    }
+
+    protected Map<String,QueueYield> tracked =
+        new ConcurrentHashMap<String,QueueYield>();
+
+    protected WorkQueueFrontier frontier;
+    protected Thread thread;
+    protected volatile boolean running = false;
+    protected final Object sleepMonitor = new Object();
+    protected long lastRebalanceTime = 0;
+    protected double lastMedianUrisPerSecond = 0;
+
+    public synchronized void start(WorkQueueFrontier frontier) {
+        if (running) {
+            return;
+        }
+        this.frontier = frontier;
+        running = true;
+        thread = new Thread(frontier + ".queueYieldRebalancer") {
+            public void run() {
+                QueueYieldRebalancer.this.runLoop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        // flag, not interrupt: sampling may be inside BDB-JE
+        running = false;
+        synchronized (sleepMonitor) {
+            sleepMonitor.notifyAll();
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    protected void runLoop() {
+        while (running) {
+            synchronized (sleepMonitor) {
+                try {
+                    sleepMonitor.wait(intervalSeconds * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                rebalance(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "queue rebalancing failed", e);
+            }
+        }
+    }
+
+    /**
+     * Note that the given queue is being activated, and return the
+     * session budget it should be given in place of the configured one.
+     *
+     * @param wq queue being activated
+     * @param budget configured session budget
+     * @return adjusted session budget
+     */
+    public int adjustSessionBudget(WorkQueue wq, int budget) {
+        QueueYield qy = tracked.get(wq.getClassKey());
+        if (qy == null) {
+            qy = new QueueYield(wq.getClassKey());
+            tracked.put(wq.getClassKey(), qy);
+        }
+        qy.lastActivated = System.currentTimeMillis();
+        if (budget <= 0) {
+            // unlimited stays unlimited
+            return budget;
+        }
+        return Math.max(1, (int) Math.round(budget * qy.budgetFactor));
+    }
+
+    /**
+     * Apply the current precedence adjustment, if any, to the given queue,
+     * whose precedence provider has just been (re)set by the queue
+     * precedence policy.
+     *
+     * @param wq queue being reevaluated
+     */
+    public void adjustPrecedence(WorkQueue wq) {
+        QueueYield qy = tracked.get(wq.getClassKey());
+        if (qy == null || qy.precedenceAdjustment == 0) {
+            return;
+        }
+        PrecedenceProvider provider = wq.getPrecedenceProvider();
+        if (provider instanceof SimplePrecedenceProvider) {
+            ((SimplePrecedenceProvider) provider).setPrecedence(Math.max(1,
+                    provider.getPrecedence() + qy.precedenceAdjustment));
+        }
+    }
+
+    /**
+     * Measure all tracked queues, and revise decisions for those with
+     * fetch activity since the last measurement.
+     *
+     * @param now current time in ms
+     */
+    protected void rebalance(long now) {
+        long forgetBefore =
+            now - forgetAfterIntervals * (long) intervalSeconds * 1000L;
+        List<QueueYield> measured = new ArrayList<QueueYield>();
+        Iterator<QueueYield> iter = tracked.values().iterator();
+        while (iter.hasNext()) {
+            QueueYield qy = iter.next();
+            if (qy.lastActivated < forgetBefore) {
+                iter.remove();
+                continue;
+            }
+            WorkQueue wq = frontier.allQueues.get(qy.classKey);
+            if (wq == null) {
+                iter.remove();
+                continue;
+            }
+            if (measure(qy, wq.getSubstats(), now)) {
+                measured.add(qy);
+            }
+        }
+        if (measured.isEmpty()) {
+            return;
+        }
+        decideAll(measured);
+        lastRebalanceTime = now;
+    }
+
+    /**
+     * Revise decisions for all freshly-measured queues, relative to their
+     * median yield.
+     *
+     * @param measured queues with fetch activity since last measurement
+     */
+    protected void decideAll(List<QueueYield> measured) {
+        List<Double> yields = new ArrayList<Double>(measured.size());
+        for (QueueYield qy : measured) {
+            yields.add(qy.urisPerSecond);
+        }
+        Collections.sort(yields);
+        double median = yields.get(yields.size() / 2);
+
+        for (QueueYield qy : measured) {
+            decide(qy, median);
+        }
+        lastMedianUrisPerSecond = median;
+    }
+
+    /**
+     * Update the measurements of one queue from its current stats.
+     *
+     * @return true if there were fetch attempts since the previous
+     * measurement
+     */
+    protected boolean measure(QueueYield qy, FetchStats stats, long now) {
+        long novelUrls, novelBytes, successes, errors;
+        // FetchStats tallies under its own lock
+        synchronized (stats) {
+            novelUrls = stats.getNovelUrls();
+            novelBytes = stats.getNovelBytes();
+            successes = stats.getFetchSuccesses();
+            errors = stats.get(FetchStats.FETCH_FAILURES)
+                    + stats.getFetchNonResponses();
+        }
+        boolean hadActivity = false;
+        if (qy.lastSampleTime >= 0 && now > qy.lastSampleTime) {
+            double seconds = (now - qy.lastSampleTime) / 1000.0;
+            long successDelta = successes - qy.lastSuccesses;
+            long errorDelta = errors - qy.lastErrors;
+            qy.attempts = successDelta + errorDelta;
+            if (qy.attempts > 0) {
+                qy.urisPerSecond = (novelUrls - qy.lastNovelUrls) / seconds;
+                qy.bytesPerSecond = (novelBytes - qy.lastNovelBytes) / seconds;
+                qy.errorRate = errorDelta / (double) qy.attempts;
+                hadActivity = true;
+            }
+        }
+        qy.lastSampleTime = now;
+        qy.lastNovelUrls = novelUrls;
+        qy.lastNovelBytes = novelBytes;
+        qy.lastSuccesses = successes;
+        qy.lastErrors = errors;
+        return hadActivity;
+    }
+
+    /**
+     * Set the budget factor and precedence adjustment for a queue with
+     * fresh measurements.
+     *
+     * @param qy queue measurements
+     * @param median median novel URIs per second among measured queues
+     */
+    protected void decide(QueueYield qy, double median) {
+        if (qy.errorRate >= errorRateThreshold) {
+            qy.budgetFactor = minBudgetFactor;
+            qy.precedenceAdjustment = 1;
+            qy.reason = "errors";
+            return;
+        }
+        if (median <= 0) {
+            // nothing to compare against
+            qy.budgetFactor = (qy.urisPerSecond > 0) ? maxBudgetFactor : 1.0;
+            qy.precedenceAdjustment = 0;
+            qy.reason = "no median";
+            return;
+        }
+        double ratio = qy.urisPerSecond / median;
+        qy.budgetFactor =
+            Math.min(maxBudgetFactor, Math.max(minBudgetFactor, ratio));
+        if (ratio >= precedenceYieldRatio) {
+            qy.precedenceAdjustment = -1;
+            qy.reason = "high yield";
+        } else if (ratio <= 1 / precedenceYieldRatio) {
+            qy.precedenceAdjustment = 1;
+            qy.reason = "low yield";
+        } else {
+            qy.precedenceAdjustment = 0;
+            qy.reason = "typical yield";
+        }
+    }
+
+    /**
+     * Write a report of current decisions, most productive queues first.
+     *
+     * @param writer
+     */
+    public void reportTo(PrintWriter writer) {
+        List<QueueYield> all = new ArrayList<QueueYield>(tracked.values());
+        Collections.sort(all, new Comparator<QueueYield>() {
+            public int compare(QueueYield a, QueueYield b) {
+                return Double.compare(b.urisPerSecond, a.urisPerSecond);
+            }
+        });
+        writer.print("Queue yield rebalancer: ");
+        writer.print(all.size());
+        writer.print(" queues tracked; last rebalance ");
+        writer.print(lastRebalanceTime == 0 ? "never"
+                : ArchiveUtils.getLog17Date(lastRebalanceTime));
+        writer.print("; median novel URIs/sec ");
+        writer.println(String.format("%.3f", lastMedianUrisPerSecond));
+        writer.println();
+        writer.println("[queue] [novel URIs/sec] [novel KB/sec] "
+                + "[error rate] [attempts] [budget factor] "
+                + "[precedence adjustment] [reason]");
+        for (QueueYield qy : all) {
+            writer.print(qy.classKey);
+            writer.print(" ");
+            writer.print(String.format("%.3f", qy.urisPerSecond));
+            writer.print(" ");
+            writer.print(String.format("%.1f", qy.bytesPerSecond / 1024));
+            writer.print(" ");
+            writer.print(String.format("%.2f", qy.errorRate));
+            writer.print(" ");
+            writer.print(qy.attempts);
+            writer.print(" ");
+            writer.print(String.format("%.2f", qy.budgetFactor));
+            writer.print(" ");
+            writer.print(qy.precedenceAdjustment);
+            writer.print(" ");
+            writer.println(qy.reason);
+        }
+    }
+}
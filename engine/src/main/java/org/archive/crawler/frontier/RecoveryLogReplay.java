@@ -0,0 +1,291 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.util.ArchiveUtils;
+
+/**
+ * Pipelined replay of a recovery log (see FrontierJournal) in one or more
+ * passes. In each pass, the calling thread reads (and decompresses) the
+ * log, handing batches of the lines the pass wants to a pool of worker
+ * threads. Each worker parses its batch to CrawlURIs (UURI 
+ * canonicalization being most of the per-line cost) and then applies 
+ * the whole batch to the frontier. With a single worker, lines are 
+ * applied in log order, as before; with more, order is kept only within
+ * each batch.
+ * 
+ * Progress of the current pass is available from getProgressData(), 
+ * as shown on the job page.
+ */
+public class RecoveryLogReplay {
+    private static final Logger LOGGER = 
+        Logger.getLogger(RecoveryLogReplay.class.getName());
+
+    //  log recovery progress every this many lines
+    protected final static int PROGRESS_INTERVAL = 1000000; 
+    //  update progress data every this many lines
+    protected final static int PROGRESS_UPDATE_INTERVAL = 1000; 
+    
+    /** marks the end of input to a worker */
+    protected static final List<String> END = Collections.emptyList();
+
+    /**
+     * What a pass does with each recovery log line.
+     */
+    public interface LineHandler {
+        /**
+         * @param lineType first 3 characters of the line
+         * @return whether the line is wanted (cheap: runs on the reader)
+         */
+        boolean accepts(String lineType);
+        /**
+         * @return CrawlURI for the wanted line, or null to skip it
+         */
+        CrawlURI parse(String line) throws URIException;
+        void apply(String line, CrawlURI curi);
+    }
+    
+    protected File source;
+    protected int threads;
+    protected int batchSize;
+    
+    protected volatile String phase = "starting";
+    protected volatile long phaseStartMs = System.currentTimeMillis();
+    protected volatile long linesRead = 0;
+    protected volatile long totalLines = -1;
+    protected AtomicLong urisApplied = new AtomicLong(0);
+    protected volatile boolean finished = false;
+    
+    /**
+     * @param source recovery log, possibly gzip-compressed
+     * @param threads number of parsing/applying threads
+     * @param batchSize number of wanted lines handed to a worker at once
+     */
+    public RecoveryLogReplay(File source, int threads, int batchSize) {
+        this.source = source;
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+    }
+    
+    public File getSource() {
+        return source;
+    }
+    
+    /**
+     * Run one pass over the whole log, returning once every wanted line 
+     * has been applied. 
+     * 
+     * @param phaseName name of the pass, for progress reporting
+     * @param handler what to do with each line
+     * @return number of lines in the log
+     */
+    public long replay(String phaseName, final LineHandler handler) 
+    throws IOException {
+        phase = phaseName;
+        phaseStartMs = System.currentTimeMillis();
+        linesRead = 0;
+        urisApplied.set(0);
+        
+        final BlockingQueue<List<String>> batches = 
+            new ArrayBlockingQueue<List<String>>(threads * 2);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread("recoveryReplay-" + phaseName + "-" + i) {
+                public void run() {
+                    work(batches, handler);
+                }
+            };
+            workers[i].start();
+        }
+        
+        long lines = 0;
+        BufferedReader br = ArchiveUtils.getBufferedReader(source);
+        try {
+            List<String> batch = new ArrayList<String>(batchSize);
+            String read;
+            while ((read = br.readLine()) != null) {
+                lines++;
+                if (read.length() >= 4 && handler.accepts(read.substring(0, 3))) {
+                    batch.add(read);
+                    if (batch.size() >= batchSize) {
+                        batches.put(batch);
+                        batch = new ArrayList<String>(batchSize);
+                    }
+                }
+                if ((lines % PROGRESS_UPDATE_INTERVAL) == 0) {
+                    linesRead = lines;
+                }
+                if ((lines % PROGRESS_INTERVAL) == 0) {
+                    LOGGER.info(phaseName + " through line " + lines
+                            + (totalLines > 0 ? "/" + totalLines : "")
+                            + ", " + urisApplied.get() + " URIs applied, "
+                            + getLinesPerSecond() + " lines/sec");
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.put(batch);
+            }
+        } catch (EOFException e) {
+            // expected in some uncleanly-closed recovery logs; ignore
+        } catch (InterruptedException e) {
+            IOException ioe = new IOException("interrupted replaying " + source);
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            br.close();
+            linesRead = lines;
+            for (int i = 0; i < threads; i++) {
+                putUninterruptibly(batches, END);
+            }
+            for (Thread worker : workers) {
+                joinUninterruptibly(worker);
+            }
+        }
+        return lines;
+    }
+    
+    protected void work(BlockingQueue<List<String>> batches, LineHandler handler) {
+        List<CrawlURI> curis = new ArrayList<CrawlURI>(batchSize);
+        while (true) {
+            List<String> batch;
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == END) {
+                return;
+            }
+            // parse all, then apply all
+            curis.clear();
+            for (String line : batch) {
+                CrawlURI curi = null;
+                try {
+                    curi = handler.parse(line);
+                } catch (URIException e) {
+                    LOGGER.log(Level.WARNING, "bad URI during log-recovery: "
+                            + line.substring(3), e);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "exception during log-recovery: "
+                            + line.substring(3), e);
+                }
+                curis.add(curi);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                CrawlURI curi = curis.get(i);
+                if (curi == null) {
+                    continue;
+                }
+                try {
+                    handler.apply(batch.get(i), curi);
+                    urisApplied.incrementAndGet();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.SEVERE, "exception during log-recovery: "
+                            + batch.get(i).substring(3), e);
+                    // and continue, though this may be risky
+                    // if the exception wasn't a trivial NPE 
+                    // or wrapped interrupted-exception...
+                }
+            }
+        }
+    }
+    
+    protected static void putUninterruptibly(BlockingQueue<List<String>> queue, 
+            List<String> batch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(batch);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    protected static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Note the total line count of the log, once known from a first pass,
+     * for progress reporting.
+     */
+    public void setTotalLines(long totalLines) {
+        this.totalLines = totalLines;
+    }
+    
+    public void setFinished() {
+        phase = "finished";
+        finished = true;
+    }
+    
+    public boolean isFinished() {
+        return finished;
+    }
+    
+    public long getLinesPerSecond() {
+        long elapsedMs = System.currentTimeMillis() - phaseStartMs;
+        return elapsedMs > 0 ? linesRead * 1000 / elapsedMs : 0;
+    }
+    
+    public Map<String,Object> getProgressData() {
+        Map<String,Object> map = new LinkedHashMap<String,Object>();
+        map.put("source", source.getPath());
+        map.put("phase", phase);
+        map.put("linesRead", linesRead);
+        map.put("totalLines", totalLines);
+        map.put("urisApplied", urisApplied.get());
+        map.put("linesPerSecond", getLinesPerSecond());
+        map.put("elapsedMs", System.currentTimeMillis() - phaseStartMs);
+        map.put("threads", threads);
+        return map;
+    }
+}
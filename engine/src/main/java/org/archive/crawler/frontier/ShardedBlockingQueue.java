@@ -0,0 +1,257 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BlockingQueue partitioned into a fixed number of independent shard
+ * queues, so that concurrent producers and consumers mostly contend on
+ * different locks.
+ *
+ * Elements are assigned to a shard by a hash of their key (for frontier
+ * use, the queue classKey), so all entries for one queue always land in
+ * the same shard. Consumers start polling at a 'home' shard derived from
+ * the calling thread, then steal from the other shards in turn, so an
+ * element in any shard is always found by a poll().
+ *
+ * Ordering is FIFO (or per the shard queue's own ordering) within a shard
+ * only; there is no global ordering across shards.
+ */
+public abstract class ShardedBlockingQueue<E> extends AbstractQueue<E>
+implements BlockingQueue<E> {
+    /** maximum time a blocking take/poll waits on its home shard before
+     * rechecking the others */
+    protected static final long STEAL_RECHECK_MS = 50;
+
+    protected final List<BlockingQueue<E>> shards;
+
+    public ShardedBlockingQueue(List<BlockingQueue<E>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard required");
+        }
+        this.shards = Collections.unmodifiableList(
+                new ArrayList<BlockingQueue<E>>(shards));
+    }
+
+    /**
+     * Return the key by which the given element is assigned to a shard.
+     * Must be stable for the life of the element.
+     */
+    protected abstract String shardKey(E e);
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    protected BlockingQueue<E> shardFor(E e) {
+        int h = shardKey(e).hashCode();
+        // spread bits so adjacent keys do not cluster in small shard counts
+        h ^= (h >>> 16);
+        return shards.get((h & Integer.MAX_VALUE) % shards.size());
+    }
+
+    protected int homeShardIndex() {
+        return (int) (Thread.currentThread().getId() % shards.size());
+    }
+
+    public boolean offer(E e) {
+        return shardFor(e).offer(e);
+    }
+
+    public void put(E e) throws InterruptedException {
+        shardFor(e).put(e);
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return shardFor(e).offer(e, timeout, unit);
+    }
+
+    /**
+     * Poll the calling thread's home shard first, then steal from each
+     * other shard in turn.
+     */
+    public E poll() {
+        int n = shards.size();
+        int home = homeShardIndex();
+        for (int i = 0; i < n; i++) {
+            E e = shards.get((home + i) % n).poll();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public E take() throws InterruptedException {
+        BlockingQueue<E> home = shards.get(homeShardIndex());
+        while (true) {
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            e = home.poll(STEAL_RECHECK_MS, TimeUnit.MILLISECONDS);
+            if (e != null) {
+                return e;
+            }
+        }
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        BlockingQueue<E> home = shards.get(homeShardIndex());
+        while (true) {
+            E e = poll();
+            if (e != null) {
+                return e;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            e = home.poll(
+                    Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(STEAL_RECHECK_MS)),
+                    TimeUnit.NANOSECONDS);
+            if (e != null) {
+                return e;
+            }
+        }
+    }
+
+    public E peek() {
+        int n = shards.size();
+        int home = homeShardIndex();
+        for (int i = 0; i < n; i++) {
+            E e = shards.get((home + i) % n).peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        int size = 0;
+        for (BlockingQueue<E> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (BlockingQueue<E> shard : shards) {
+            if (!shard.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int remainingCapacity() {
+        long remaining = 0;
+        for (BlockingQueue<E> shard : shards) {
+            remaining += shard.remainingCapacity();
+        }
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for (BlockingQueue<E> shard : shards) {
+            if (shard.remove(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        for (BlockingQueue<E> shard : shards) {
+            if (shard.contains(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (BlockingQueue<E> shard : shards) {
+            shard.clear();
+        }
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int drained = 0;
+        for (BlockingQueue<E> shard : shards) {
+            if (drained >= maxElements) {
+                break;
+            }
+            drained += shard.drainTo(c, maxElements - drained);
+        }
+        return drained;
+    }
+
+    /**
+     * Weakly-consistent iterator visiting each shard in turn, with
+     * the same guarantees as the underlying shard iterators.
+     */
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            int shardIndex = 0;
+            Iterator<E> current = shards.get(0).iterator();
+
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (++shardIndex >= shards.size()) {
+                        return false;
+                    }
+                    current = shards.get(shardIndex).iterator();
+                }
+                return true;
+            }
+
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+
+            public void remove() {
+                current.remove();
+            }
+        };
+    }
+}
@@ -24,6 +24,7 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
@@ -158,6 +159,28 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
         return count;
     }
 
+    /**
+     * Add the given CrawlURIs, as one batch, noting their addition in 
+     * running count once. (None should already be present.)
+     * 
+     * @param frontier Work queues manager.
+     * @param curis CrawlURIs to insert.
+     */
+    protected synchronized long enqueue(final WorkQueueFrontier frontier,
+        List<CrawlURI> curis) {
+        try {
+            insertItems(frontier, curis, false);
+            lastQueued = curis.get(curis.size()-1).toString();
+        } catch (IOException e) {
+            //FIXME better exception handling
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        count += curis.size();
+        enqueueCount += curis.size();
+        return count;
+    }
+
     /**
      * Return the topmost queue item -- and remember it,
      * such that even later higher-priority inserts don't
@@ -415,6 +438,21 @@ public abstract class WorkQueue implements Frontier.FrontierGroup,
     protected abstract void insertItem(final WorkQueueFrontier frontier,
         CrawlURI curi, boolean overwriteIfPresent) throws IOException;
 
+    /**
+     * Insert the given curis, whether already present or not. Hook for
+     * subclasses able to insert in bulk; by default inserts each in turn.
+     * 
+     * @param frontier WorkQueueFrontier.
+     * @param curis CrawlURIs to insert.
+     * @throws IOException  if there was a problem while inserting the items
+     */
+    protected void insertItems(final WorkQueueFrontier frontier,
+        List<CrawlURI> curis, boolean overwriteIfPresent) throws IOException {
+        for (CrawlURI curi : curis) {
+            insertItem(frontier, curi, overwriteIfPresent);
+        }
+    }
+
     /**
      * Delete URIs matching the given pattern from this queue. 
      * @param frontier WorkQueues manager.
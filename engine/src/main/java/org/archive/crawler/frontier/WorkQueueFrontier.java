@@ -35,6 +35,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -44,6 +45,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -58,6 +60,7 @@ import org.archive.crawler.frontier.precedence.BaseQueuePrecedencePolicy;
 import org.archive.crawler.frontier.precedence.QueuePrecedencePolicy;
 import org.archive.crawler.util.TopNSet;
 import org.archive.modules.CrawlURI;
+import org.archive.modules.recrawl.FetchHistoryCache;
 import org.archive.spring.KeyedProperties;
 import org.archive.util.ArchiveUtils;
 import org.archive.util.ObjectIdentityCache;
@@ -170,6 +173,81 @@ implements Closeable,
         this.precedenceFloor = floor;
     }
 
+    /**
+     * Number of independent shards across which ready and snoozed queues
+     * are partitioned, by classKey. With the default of 1, single shared
+     * structures are used. Larger values reduce lock contention among
+     * many ToeThreads in findEligibleURI(); each thread polls its own
+     * 'home' shard first and steals from the others when that is empty.
+     * Inactive queues remain shared, so precedence ordering is global.
+     * Only consulted at frontier start.
+     */
+    protected int queueShardCount = 1;
+    public int getQueueShardCount() {
+        return this.queueShardCount;
+    }
+    public void setQueueShardCount(int count) {
+        this.queueShardCount = count;
+    }
+
+    /**
+     * Whether to wake snoozed queues, and reenqueue future-scheduled URIs,
+     * from a dedicated thread exactly as each comes due, rather than by
+     * checking on every findEligibleURI() call. ToeThreads finding nothing
+     * ready then wait to be signalled of a newly-ready queue, rather than
+     * sleeping a fixed interval. Only consulted at frontier start.
+     */
+    protected boolean useQueueWakerThread = false;
+    public boolean getUseQueueWakerThread() {
+        return this.useQueueWakerThread;
+    }
+    public void setUseQueueWakerThread(boolean useWaker) {
+        this.useQueueWakerThread = useWaker;
+    }
+
+    /**
+     * Whether URIs scheduled while a ToeThread disposes of a fetched URI
+     * (usually its outlinks, via the CandidatesProcessor) are held and 
+     * enqueued at the end of that disposition, in one batch per queue,
+     * rather than enqueued one by one. Batches are written to the queue 
+     * store in key order via a single cursor. 
+     */
+    protected boolean batchEnqueues = false;
+    public boolean getBatchEnqueues() {
+        return this.batchEnqueues;
+    }
+    public void setBatchEnqueues(boolean batchEnqueues) {
+        this.batchEnqueues = batchEnqueues;
+    }
+
+    /**
+     * Optional helper which measures recent per-queue yield and adjusts
+     * session budgets and precedence so that productive queues get more
+     * turns, and erroring or unproductive queues rotate out sooner. Null
+     * (the default) for none.
+     */
+    protected QueueYieldRebalancer queueRebalancer = null;
+    public QueueYieldRebalancer getQueueRebalancer() {
+        return this.queueRebalancer;
+    }
+    public void setQueueRebalancer(QueueYieldRebalancer rebalancer) {
+        this.queueRebalancer = rebalancer;
+    }
+
+    /**
+     * Optional in-memory tier over fetch history (as also given to the
+     * persist processors), into which the history of each queue's head
+     * URI is read in the background as the queue becomes ready. Null
+     * (the default) for none.
+     */
+    protected FetchHistoryCache fetchHistoryCache = null;
+    public FetchHistoryCache getFetchHistoryCache() {
+        return this.fetchHistoryCache;
+    }
+    public void setFetchHistoryCache(FetchHistoryCache fetchHistoryCache) {
+        this.fetchHistoryCache = fetchHistoryCache;
+    }
+
     /** truncate reporting of queues at this large but not unbounded number */
     protected int maxQueuesPerReportCategory = 2000; 
     public int getMaxQueuesPerReportCategory() {
@@ -197,7 +275,7 @@ implements Closeable,
     /**
      * All per-class queues held in snoozed state, sorted by wake time.
      */
-    transient protected DelayQueue<DelayedWorkQueue> snoozedClassQueues;
+    transient protected BlockingQueue<DelayedWorkQueue> snoozedClassQueues;
     protected StoredSortedMap<Long,DelayedWorkQueue> snoozedOverflow; 
     protected AtomicInteger snoozedOverflowCount = new AtomicInteger(0); 
     protected static int MAX_SNOOZED_IN_MEMORY = 10000; 
@@ -205,6 +283,24 @@ implements Closeable,
     /** URIs scheduled to be re-enqueued at future date */
     protected StoredSortedMap<Long, CrawlURI> futureUris; 
     
+    /** URIs accepted for queueing during the current thread's disposition,
+     * by classKey, if batchEnqueues; enqueued at finished() or 
+     * endDisposition() */
+    transient protected ThreadLocal<Map<String,List<CrawlURI>>> pendingEnqueues = 
+        new ThreadLocal<Map<String,List<CrawlURI>>>();
+    
+    /** monitor signalled whenever a queue is readied or deactivated, to 
+     * release a ToeThread waiting in findEligibleURI() */
+    transient protected final Object readyQueueNotifier = new Object();
+    /** count of ToeThreads in awaitReadyQueue(), so readying a queue 
+     * only takes the notifier monitor when someone is waiting */
+    transient protected AtomicInteger readyQueueWaiters = new AtomicInteger(0);
+    
+    /** dedicated thread waking snoozed queues at their wake time, if 
+     * useQueueWakerThread; otherwise null */
+    transient protected Thread queueWakerThread;
+    transient protected volatile boolean queueWakerRunning = false;
+    
     /** remember keys of small number of largest queues for reporting */
     transient protected TopNSet largestQueues = new TopNSet(20);
     /** remember this many largest queues for reporting's sake; actual tracking
@@ -250,7 +346,12 @@ implements Closeable,
         } catch (Exception e) {
             throw new IllegalStateException(e);
         }
-
+        if (getUseQueueWakerThread()) {
+            startQueueWakerThread();
+        }
+        if (queueRebalancer != null) {
+            queueRebalancer.start(this);
+        }
     }
 
     /**
@@ -278,6 +379,67 @@ implements Closeable,
         }
     }
     
+    /**
+     * Create the structure holding keys of ready queues: a simple
+     * LinkedBlockingQueue, or one sharded by classKey if 
+     * queueShardCount is greater than 1.
+     * 
+     * @return BlockingQueue&lt;String&gt; for ready queue keys
+     */
+    protected BlockingQueue<String> createReadyClassQueues() {
+        // tiny risk of OutOfMemoryError: if giant number of snoozed
+        // queues all wake-to-ready at once
+        if (getQueueShardCount() <= 1) {
+            return new LinkedBlockingQueue<String>();
+        }
+        List<BlockingQueue<String>> shards = 
+            new ArrayList<BlockingQueue<String>>(getQueueShardCount());
+        for (int i = 0; i < getQueueShardCount(); i++) {
+            shards.add(new LinkedBlockingQueue<String>());
+        }
+        return new ShardedBlockingQueue<String>(shards) {
+            protected String shardKey(String classKey) {
+                return classKey;
+            }
+        };
+    }
+
+    /**
+     * Create the structure holding in-memory snoozed queues: a simple
+     * DelayQueue, or one sharded by classKey if queueShardCount is
+     * greater than 1. 
+     * 
+     * @return BlockingQueue&lt;DelayedWorkQueue&gt; for snoozed queues
+     */
+    protected BlockingQueue<DelayedWorkQueue> createSnoozedClassQueues() {
+        if (getQueueShardCount() <= 1) {
+            return new DelayQueue<DelayedWorkQueue>();
+        }
+        List<BlockingQueue<DelayedWorkQueue>> shards = 
+            new ArrayList<BlockingQueue<DelayedWorkQueue>>(getQueueShardCount());
+        for (int i = 0; i < getQueueShardCount(); i++) {
+            shards.add(new DelayQueue<DelayedWorkQueue>());
+        }
+        return new ShardedBlockingQueue<DelayedWorkQueue>(shards) {
+            protected String shardKey(DelayedWorkQueue dq) {
+                return dq.getClassKey();
+            }
+            /** earliest-waking head of all shards, as DelayQueue.peek() */
+            @Override
+            public DelayedWorkQueue peek() {
+                DelayedWorkQueue earliest = null;
+                for (BlockingQueue<DelayedWorkQueue> shard : shards) {
+                    DelayedWorkQueue head = shard.peek();
+                    if (head != null 
+                            && (earliest == null || head.compareTo(earliest) < 0)) {
+                        earliest = head;
+                    }
+                }
+                return earliest;
+            }
+        };
+    }
+
     /**
      * Initialize the allQueues field in an implementation-appropriate
      * way.
@@ -300,6 +462,10 @@ implements Closeable,
     @Override
     public void stop() {
         super.stop();
+        stopQueueWakerThread();
+        if (queueRebalancer != null) {
+            queueRebalancer.stop();
+        }
     }
     
     public void destroy() {
@@ -311,6 +477,7 @@ implements Closeable,
      * Release resources only needed when running
      */
     public void close() {
+        stopQueueWakerThread();
         ArchiveUtils.closeQuietly(uriUniqFilter);     
         ArchiveUtils.closeQuietly(allQueues);
     }
@@ -329,7 +496,67 @@ implements Closeable,
         assert KeyedProperties.overridesActiveFrom(curi); 
         
         prepForFrontier(curi);
-        sendToQueue(curi);
+        Map<String,List<CrawlURI>> pending = pendingEnqueues.get();
+        if(pending != null) {
+            List<CrawlURI> batch = pending.get(curi.getClassKey());
+            if(batch == null) {
+                batch = new ArrayList<CrawlURI>();
+                pending.put(curi.getClassKey(), batch);
+            }
+            batch.add(curi);
+        } else {
+            sendToQueue(curi);
+        }
+    }
+    
+    @Override
+    public void beginDisposition(CrawlURI curi) {
+        super.beginDisposition(curi);
+        if(getBatchEnqueues() && pendingEnqueues.get() == null) {
+            pendingEnqueues.set(new LinkedHashMap<String,List<CrawlURI>>());
+        }
+    }
+    
+    /**
+     * Enqueue URIs held back (as outlinks and prerequisites) so far in 
+     * the current thread's disposition, before the disposed URI itself
+     * is finished: as without batching, a deferred URI's prerequisite is
+     * then in its queue before the URI's queue can be readied for another
+     * thread, and queue counts and activation reflect the batch.
+     */
+    @Override
+    public void finished(CrawlURI curi) {
+        sendPendingEnqueues();
+        super.finished(curi);
+    }
+    
+    @Override
+    public void endDisposition() {
+        try {
+            sendPendingEnqueues();
+        } finally {
+            pendingEnqueues.set(null);
+            super.endDisposition();
+        }
+    }
+    
+    /**
+     * Enqueue, in one batch per queue, any URIs held back in the current
+     * thread's disposition. Called while still inside the disposition 
+     * lock, so no checkpoint can see these URIs neither enqueued nor 
+     * pending.
+     */
+    protected void sendPendingEnqueues() {
+        Map<String,List<CrawlURI>> pending = pendingEnqueues.get();
+        if(pending == null || pending.isEmpty()) {
+            return;
+        }
+        List<List<CrawlURI>> batches = 
+            new ArrayList<List<CrawlURI>>(pending.values());
+        pending.clear();
+        for(List<CrawlURI> batch : batches) {
+            sendToQueue(batch);
+        }
     }
     
     
@@ -390,20 +617,7 @@ implements Closeable,
         synchronized(wq) {
             int originalPrecedence = wq.getPrecedence();
             wq.enqueue(this, curi);
-            // always take budgeting values from current curi
-            // (whose overlay settings should be active here)
-            wq.setSessionBudget(getBalanceReplenishAmount());
-            wq.setTotalBudget(getQueueTotalBudget());
-            
-            if(!wq.isRetired()) {
-                incrementQueuedUriCount();
-                int currentPrecedence = wq.getPrecedence();
-                if(!wq.isManaged() || currentPrecedence < originalPrecedence) {
-                    // queue newly filled or bumped up in precedence; ensure enqueuing
-                    // at precedence level (perhaps duplicate; if so that's handled elsewhere)
-                    deactivateQueue(wq);
-                }
-            }
+            noteEnqueued(wq, originalPrecedence, 1);
             // Update recovery log.
             doJournalAdded(curi);
             wq.makeDirty();
@@ -411,6 +625,56 @@ implements Closeable,
         largestQueues.update(wq.getClassKey(), wq.getCount());
     }
 
+    /**
+     * Send a batch of CrawlURIs, all sharing one classKey, to their 
+     * subqueue, with queue bookkeeping done once for the batch. Overlay
+     * settings of the last CrawlURI are used for queue budgets.
+     * 
+     * @param curis
+     */
+    protected void sendToQueue(List<CrawlURI> curis) {
+        CrawlURI last = curis.get(curis.size()-1);
+        sheetOverlaysManager.applyOverlaysTo(last);
+        try {
+            KeyedProperties.loadOverridesFrom(last);
+            WorkQueue wq = getQueueFor(last.getClassKey());
+            synchronized(wq) {
+                int originalPrecedence = wq.getPrecedence();
+                wq.enqueue(this, curis);
+                noteEnqueued(wq, originalPrecedence, curis.size());
+                // Update recovery log.
+                for(CrawlURI curi : curis) {
+                    doJournalAdded(curi);
+                }
+                wq.makeDirty();
+            }
+            largestQueues.update(wq.getClassKey(), wq.getCount());
+        } finally {
+            KeyedProperties.clearOverridesFrom(last);
+        }
+    }
+
+    /**
+     * Update queue budgets, frontier counts and queue activation after 
+     * URIs were enqueued to the given queue.
+     */
+    protected void noteEnqueued(WorkQueue wq, int originalPrecedence, int added) {
+        // always take budgeting values from current curi
+        // (whose overlay settings should be active here)
+        wq.setSessionBudget(getBalanceReplenishAmount());
+        wq.setTotalBudget(getQueueTotalBudget());
+        
+        if(!wq.isRetired()) {
+            incrementQueuedUriCount(added);
+            int currentPrecedence = wq.getPrecedence();
+            if(!wq.isManaged() || currentPrecedence < originalPrecedence) {
+                // queue newly filled or bumped up in precedence; ensure enqueuing
+                // at precedence level (perhaps duplicate; if so that's handled elsewhere)
+                deactivateQueue(wq);
+            }
+        }
+    }
+
     /**
      * Put the given queue on the readyClassQueues queue
      * @param wq
@@ -418,8 +682,15 @@ implements Closeable,
     protected void readyQueue(WorkQueue wq) {
 //        assert Thread.currentThread() == managerThread;
 
+        if (fetchHistoryCache != null) {
+            CrawlURI head = wq.peek(this);
+            if (head != null) {
+                fetchHistoryCache.prefetch(head);
+            }
+        }
         try {
             readyClassQueues.put(wq.getClassKey());
+            notifyReadyQueueWaiter();
             if(logger.isLoggable(Level.FINE)) {
                 logger.log(Level.FINE,
                         "queue readied: " + wq.getClassKey());
@@ -452,6 +723,7 @@ implements Closeable,
                     highestPrecedenceWaiting = wq.getPrecedence();
                 }
             }
+            notifyReadyQueueWaiter();
 
             if(logger.isLoggable(Level.FINE)) {
                 logger.log(Level.FINE,
@@ -579,14 +851,19 @@ implements Closeable,
      * @see org.archive.crawler.framework.Frontier#next()
      */
     protected CrawlURI findEligibleURI() {
-            // wake any snoozed queues
-            wakeQueues();
-            // consider rescheduled URIS
-            checkFutures();
+            if(!queueWakerRunning) {
+                // wake any snoozed queues
+                wakeQueues();
+                // consider rescheduled URIS
+                checkFutures();
+            }
                    
             // find a non-empty ready queue, if any 
             // TODO: refactor to untangle these loops, early-exits, etc!
             WorkQueue readyQ = null;
+            // CrawlURI most recently given overlays, usually the head of
+            // the just-activated queue, which needn't get them again
+            CrawlURI overlaidUri = null;
             findauri: while(true) {
                 findaqueue: do {
                     String key = readyClassQueues.poll();
@@ -633,9 +910,15 @@ implements Closeable,
                     CrawlURI readyQUri = readyQ.peek(this);
                     // see HER-1973 and HER-1946
                     sheetOverlaysManager.applyOverlaysTo(readyQUri);
+                    overlaidUri = readyQUri;
                     try {
                         KeyedProperties.loadOverridesFrom(readyQUri);
-                        readyQ.setSessionBudget(getBalanceReplenishAmount());
+                        int sessionBudget = getBalanceReplenishAmount();
+                        if (queueRebalancer != null) {
+                            sessionBudget = queueRebalancer
+                                    .adjustSessionBudget(readyQ, sessionBudget);
+                        }
+                        readyQ.setSessionBudget(sessionBudget);
                         readyQ.setTotalBudget(getQueueTotalBudget());
                     } finally {
                         KeyedProperties.clearOverridesFrom(readyQUri);
@@ -673,11 +956,12 @@ implements Closeable,
                         break returnauri;
                     }
                     
-                    // from queues, override names persist but not map source
-                    curi.setOverlayMapsSource(sheetOverlaysManager);
-                    // TODO: consider optimizations avoiding this recalc of
-                    // overrides when not necessary
-                    sheetOverlaysManager.applyOverlaysTo(curi);
+                    if (curi != overlaidUri) {
+                        // from queues, override names persist but not map source
+                        curi.setOverlayMapsSource(sheetOverlaysManager);
+                        sheetOverlaysManager.applyOverlaysTo(curi);
+                        overlaidUri = curi;
+                    }
                     // check if curi belongs in different queue
                     String currentQueueKey;
                     try {
@@ -727,7 +1011,7 @@ implements Closeable,
             // next time
             if(getTotalEligibleInactiveQueues()==0) {
                 try {
-                    Thread.sleep(1000);
+                    awaitReadyQueue();
                 } catch (InterruptedException e) {
                     // 
                 } 
@@ -737,6 +1021,146 @@ implements Closeable,
             return null; 
     }
 
+    /**
+     * Wait until signalled that a queue has been readied (or deactivated,
+     * and so perhaps activatable), for at most one second. Without the 
+     * waker thread, also wait no longer than until the earliest snoozed 
+     * queue is due, since the next findEligibleURI() will wake it.
+     * 
+     * @throws InterruptedException
+     */
+    protected void awaitReadyQueue() throws InterruptedException {
+        long waitMs = 1000;
+        if(!queueWakerRunning) {
+            waitMs = Math.min(waitMs, getMaxInWait());
+        }
+        if(waitMs <= 0) {
+            return;
+        }
+        readyQueueWaiters.incrementAndGet();
+        try {
+            synchronized(readyQueueNotifier) {
+                // readyQueue() puts, then checks for waiters, then notifies
+                // holding this monitor; so a queue readied after this check
+                // cannot be missed
+                if(readyClassQueues.isEmpty()) {
+                    readyQueueNotifier.wait(waitMs);
+                }
+            }
+        } finally {
+            readyQueueWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Release one ToeThread, if any, waiting in awaitReadyQueue().
+     */
+    protected void notifyReadyQueueWaiter() {
+        if(readyQueueWaiters.get() > 0) {
+            synchronized(readyQueueNotifier) {
+                readyQueueNotifier.notify();
+            }
+        }
+    }
+
+    /**
+     * Start the dedicated thread which wakes snoozed queues, and checks
+     * overflow-snoozed queues and future-scheduled URIs, as they come due.
+     */
+    protected void startQueueWakerThread() {
+        queueWakerRunning = true;
+        queueWakerThread = new Thread(this+".queueWakerThread") {
+            public void run() {
+                WorkQueueFrontier.this.queueWakerTasks();
+            }
+        };
+        queueWakerThread.setDaemon(true);
+        queueWakerThread.setPriority(Thread.NORM_PRIORITY+1);
+        queueWakerThread.start();
+    }
+
+    /**
+     * Signal the waker thread, if any, to end, and wait (a bounded time)
+     * for it to do so, as it usually does within a second, so it doesn't
+     * touch queues or stores being closed. (It is not interrupted, as it
+     * may be mid-BDB-operation.)
+     */
+    protected void stopQueueWakerThread() {
+        queueWakerRunning = false;
+        Thread waker = queueWakerThread;
+        if (waker != null && waker != Thread.currentThread()) {
+            try {
+                waker.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        queueWakerThread = null;
+    }
+
+    /**
+     * Main loop of the queue waker thread. Blocks on the snoozed queues 
+     * until the earliest is due, so queues wake at their wake time rather 
+     * than at the next findEligibleURI(). The BDB-backed snoozedOverflow 
+     * and futureUris are only consulted when their earliest entry is due,
+     * or once a second in case of an earlier new entry. 
+     * 
+     * Like ToeThreads in next(), holds the outboundLock read lock while 
+     * acting, so frontier PAUSE (and checkpointing) sees a stable state. 
+     */
+    protected void queueWakerTasks() {
+        long nextScheduledCheck = 0;
+        try {
+            while(queueWakerRunning) {
+                if(!outboundLock.readLock().tryLock(1, TimeUnit.SECONDS)) {
+                    // paused or finishing
+                    continue;
+                }
+                try {
+                    long waitMs = Math.max(1, Math.min(1000, 
+                            nextScheduledCheck - System.currentTimeMillis()));
+                    DelayedWorkQueue waked = 
+                        snoozedClassQueues.poll(waitMs, TimeUnit.MILLISECONDS);
+                    if(waked != null) {
+                        wakeQueue(waked);
+                        wakeSnoozedQueues();
+                    }
+                    long now = System.currentTimeMillis();
+                    if(now >= nextScheduledCheck) {
+                        wakeOverflowQueues();
+                        checkFutures();
+                        nextScheduledCheck = Math.min(
+                                firstKeyOrElse(snoozedOverflow, now + 1000),
+                                firstKeyOrElse(futureUris, now + 1000));
+                    }
+                } finally {
+                    outboundLock.readLock().unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            // end thread
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "queue waker thread ending; "
+                    + "ToeThreads resume waking queues", e);
+        }
+        queueWakerRunning = false;
+        notifyReadyQueueWaiter();
+    }
+
+    /**
+     * @return lowest key of given time-keyed map, if lower than orElse, 
+     * or orElse
+     */
+    protected long firstKeyOrElse(StoredSortedMap<Long,?> map, long orElse) {
+        synchronized(map) {
+            if(map.isEmpty()) {
+                return orElse; 
+            }
+            Long first = map.firstKey();
+            return (first == null) ? orElse : Math.min(first, orElse);
+        }
+    }
+
     /**
      * Check for any future-scheduled URIs now eligible for reenqueuing
      */
@@ -880,16 +1304,25 @@ implements Closeable,
      * Wake any queues sitting in the snoozed queue whose time has come.
      */
     protected void wakeQueues() {
+        wakeSnoozedQueues();
+        // also consider overflow (usually empty)
+        wakeOverflowQueues();
+    }
+
+    /**
+     * Wake any in-memory snoozed queues whose time has come.
+     */
+    protected void wakeSnoozedQueues() {
         DelayedWorkQueue waked; 
         while((waked = snoozedClassQueues.poll())!=null) {
-            WorkQueue queue = waked.getWorkQueue(this);
-            synchronized(queue) {
-                queue.setWakeTime(0);
-                queue.makeDirty();
-            }
-            reenqueueQueue(queue);
+            wakeQueue(waked);
         }
-        // also consider overflow (usually empty)
+    }
+
+    /**
+     * Wake any overflow snoozed queues whose time has come.
+     */
+    protected void wakeOverflowQueues() {
         if(!snoozedOverflow.isEmpty()) {
             synchronized(snoozedOverflow) {
                 Iterator<DelayedWorkQueue> iter = 
@@ -898,16 +1331,28 @@ implements Closeable,
                     DelayedWorkQueue dq = iter.next();
                     iter.remove();
                     snoozedOverflowCount.decrementAndGet();
-                    WorkQueue queue = dq.getWorkQueue(this);
-                    synchronized(queue) {
-                        queue.setWakeTime(0);
-                        queue.makeDirty();
-                    }
-                    reenqueueQueue(queue);
+                    wakeQueue(dq);
                 }
             }
         }
     }
+
+    /**
+     * Return the given no-longer-snoozed queue to ready or inactive status.
+     */
+    protected void wakeQueue(DelayedWorkQueue waked) {
+        WorkQueue queue = waked.getWorkQueue(this);
+        synchronized(queue) {
+            queue.setWakeTime(0);
+            if (queueRebalancer != null) {
+                // most queues snooze between fetches, so come back here
+                // rather than by way of handleQueue's immediate reenqueue
+                reevaluatePrecedence(queue);
+            }
+            queue.makeDirty();
+        }
+        reenqueueQueue(queue);
+    }
     
     /**
      * Note that the previously emitted CrawlURI has completed
@@ -1044,11 +1489,25 @@ implements Closeable,
         } else if (delay_ms > 0) {
             snoozeQueue(wq, now, delay_ms);
         } else {
-            getQueuePrecedencePolicy().queueReevaluate(wq);
+            reevaluatePrecedence(wq);
             reenqueueQueue(wq);
         }
     }
 
+    /**
+     * Recompute the queue's precedence by policy, then apply any
+     * rebalancer adjustment (which is relative to the policy's value, so
+     * is only ever applied just after it).
+     * 
+     * @param wq
+     */
+    protected void reevaluatePrecedence(WorkQueue wq) {
+        getQueuePrecedencePolicy().queueReevaluate(wq);
+        if (queueRebalancer != null) {
+            queueRebalancer.adjustPrecedence(wq);
+        }
+    }
+
     /**
      * Place the given queue into 'snoozed' state, ineligible to
      * supply any URIs for crawling, for the given amount of time. 
@@ -0,0 +1,169 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.io;
+
+import java.util.Collection;
+
+import org.archive.modules.CoreAttributeConstants;
+import org.archive.modules.CrawlURI;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.MimetypeUtils;
+
+/**
+ * The values making up one 'crawl.log' line, captured from a completed
+ * CrawlURI (which may change again as soon as it's logged), so that the
+ * line may be assembled later, on another thread. 
+ */
+public class CrawlLogRecord implements CoreAttributeConstants {
+    private final static String NA = "-";
+
+    protected long time;
+    protected int fetchStatus;
+    protected String length;
+    protected String uri;
+    protected String pathFromSeed;
+    protected String via;
+    protected String mime;
+    protected int threadNumber;
+    protected boolean hasFetchTimes = false;
+    protected long fetchBeginTime;
+    protected long fetchDuration;
+    protected String digest;
+    protected String sourceTag;
+    protected String[] annotations;
+    protected String extraInfo;
+    
+    protected CrawlLogRecord() {
+    }
+
+    /**
+     * @param curi completed CrawlURI
+     * @param time time to log it as having completed
+     * @param logExtraInfo whether to include the "extra info" field
+     */
+    public static CrawlLogRecord capture(CrawlURI curi, long time, 
+            boolean logExtraInfo) {
+        CrawlLogRecord record = new CrawlLogRecord();
+        record.time = time;
+        record.fetchStatus = curi.getFetchStatus();
+        String length = NA;
+        if (curi.isHttpTransaction()) {
+            if(curi.getContentLength() >= 0) {
+                length = Long.toString(curi.getContentLength());
+            } else if (curi.getContentSize() > 0) {
+                length = Long.toString(curi.getContentSize());
+            }
+        } else {
+            if (curi.getContentSize() > 0) {
+                length = Long.toString(curi.getContentSize());
+            } 
+        }
+        record.length = length;
+        record.uri = curi.getUURI().toString();
+        record.pathFromSeed = curi.getPathFromSeed();
+        record.via = curi.flattenVia();
+        record.mime = MimetypeUtils.truncate(curi.getContentType());
+        record.threadNumber = curi.getThreadNumber();
+        if(curi.containsDataKey(A_FETCH_COMPLETED_TIME)) {
+            record.hasFetchTimes = true;
+            record.fetchBeginTime = curi.getFetchBeginTime();
+            record.fetchDuration = 
+                curi.getFetchCompletedTime() - record.fetchBeginTime;
+        }
+        record.digest = curi.getContentDigestSchemeString();
+        record.sourceTag = curi.containsDataKey(A_SOURCE_TAG) 
+                ? curi.getSourceTag()
+                : null;
+        Collection<String> anno = curi.getAnnotations();
+        if ((anno != null) && (anno.size() > 0)) {
+            record.annotations = anno.toArray(new String[anno.size()]);
+        }
+        if (logExtraInfo) {
+            record.extraInfo = String.valueOf(curi.getExtraInfo());
+        }
+        return record;
+    }
+    
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Append the complete line, including the trailing newline.
+     */
+    public void appendTo(StringBuilder buffer) {
+        buffer.append(ArchiveUtils.getLog17Date(time))
+            .append(" ")
+            .append(ArchiveUtils.padTo(fetchStatus, 5))
+            .append(" ")
+            .append(ArchiveUtils.padTo(length, 10))
+            .append(" ")
+            .append(uri)
+            .append(" ")
+            .append(checkForNull(pathFromSeed))
+            .append(" ")
+            .append(checkForNull(via))
+            .append(" ")
+            .append(mime)
+            .append(" ")
+            .append("#")
+            // Pad threads to be 3 digits.  For Igor.
+            .append(ArchiveUtils.padTo(
+                Integer.toString(threadNumber), 3, '0'))
+            .append(" ");
+        
+        // arcTimeAndDuration
+        if(hasFetchTimes) {
+            buffer.append(ArchiveUtils.get17DigitDate(fetchBeginTime))
+                    .append("+")
+                    .append(Long.toString(fetchDuration));
+        } else {
+            buffer.append(NA);
+        }
+        
+        buffer.append(" ")
+            .append(checkForNull(digest))
+            .append(" ")
+            .append(checkForNull(sourceTag))
+            .append(" ");
+        if (annotations != null) {
+            buffer.append(annotations[0]);
+            for (int i = 1; i < annotations.length; i++) {
+                buffer.append(',');
+                buffer.append(annotations[i]);
+            }
+        } else {
+            buffer.append(NA);
+        }
+        
+        if (extraInfo != null) {
+            buffer.append(" ").append(extraInfo);
+        }
+        
+        buffer.append("\n");
+    }
+
+    /**
+     * @param str String to check.
+     * @return Return passed string or <code>NA</code> if null.
+     */
+    protected static String checkForNull(String str) {
+        return (str == null || str.length() <= 0)? NA: str;
+    }
+}
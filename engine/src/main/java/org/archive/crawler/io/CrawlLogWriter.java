@@ -0,0 +1,391 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.archive.crawler.util.LogIndex;
+import org.archive.modules.CrawlURI;
+
+/**
+ * Asynchronous 'crawl.log' Handler. Logging threads only capture each
+ * completed CrawlURI as a compact CrawlLogRecord and hand it to a 
+ * lock-free ring buffer; a single writer thread formats the records and
+ * writes them in batches, so ToeThreads don't contend over formatting,
+ * writing and flushing. 
+ * 
+ * The log may optionally be gzip-compressed, as one gzip member per batch
+ * (so the whole file still reads as a single gzip stream). Alongside the
+ * log, the writer keeps a LogIndex of line number, offset and time: an
+ * entry every indexInterval lines, or at the start of every gzip member.
+ * 
+ * If the ring is full, logging threads wait for room. 
+ */
+public class CrawlLogWriter extends Handler {
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /** max time writer waits, with nothing to write, before checking again */
+    protected static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(10);
+    /** time a logging thread waits for room in a full ring before retrying */
+    protected static final long FULL_PARK_NS = TimeUnit.MICROSECONDS.toNanos(50);
+    
+    /**
+     * Bounded multiple-producer, single-consumer ring of records. 
+     * Producers claim a sequence number by CAS, then publish into its 
+     * slot; the consumer takes slots in sequence order, clearing each.
+     */
+    protected static class RecordRing {
+        protected final AtomicReferenceArray<CrawlLogRecord> slots;
+        protected final int mask;
+        protected final AtomicLong claimed = new AtomicLong(0);
+        protected volatile long consumed = 0;
+        
+        public RecordRing(int minCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+            slots = new AtomicReferenceArray<CrawlLogRecord>(capacity);
+            mask = capacity - 1;
+        }
+        
+        public boolean offer(CrawlLogRecord record) {
+            while (true) {
+                long seq = claimed.get();
+                if (seq - consumed >= slots.length()) {
+                    return false;
+                }
+                if (claimed.compareAndSet(seq, seq + 1)) {
+                    slots.lazySet((int) (seq & mask), record);
+                    return true;
+                }
+            }
+        }
+        
+        /** 
+         * @return next record, or null if none yet published; only to be
+         * called by one thread at a time
+         */
+        public CrawlLogRecord poll() {
+            int index = (int) (consumed & mask);
+            CrawlLogRecord record = slots.get(index);
+            if (record == null) {
+                return null;
+            }
+            slots.lazySet(index, null);
+            consumed = consumed + 1;
+            return record;
+        }
+        
+        public int size() {
+            return (int) (claimed.get() - consumed);
+        }
+        
+        public int capacity() {
+            return slots.length();
+        }
+    }
+    
+    protected final File file;
+    protected final boolean gzip;
+    protected final int indexInterval;
+    protected final int batchSize;
+    protected final boolean logExtraInfo;
+    protected final RecordRing ring;
+    
+    /** held by whichever thread (normally the writer) consumes the ring */
+    protected final Object writeLock = new Object();
+    protected Thread writer;
+    protected volatile boolean closed = false;
+    
+    // state guarded by writeLock
+    protected CountingOutputStream fileOut;
+    protected OutputStream out;
+    protected DataOutputStream indexOut;
+    protected long lineNumber = 0;
+    protected StringBuilder buffer = new StringBuilder(1000);
+    
+    protected AtomicLong fullWaits = new AtomicLong(0);
+    protected volatile long written = 0;
+    
+    /**
+     * @param file log file to write (replacing any existing), with its
+     * index alongside
+     * @param gzip whether to gzip-compress the log, per batch
+     * @param ringCapacity records which may await the writer
+     * @param batchSize max records per written batch (and gzip member)
+     * @param indexInterval lines between index entries, if not gzipping
+     * @param logExtraInfo whether to include CrawlURI "extra info"
+     */
+    public CrawlLogWriter(File file, boolean gzip, int ringCapacity, 
+            int batchSize, int indexInterval, boolean logExtraInfo) 
+    throws IOException {
+        this.file = file;
+        this.gzip = gzip;
+        this.ring = new RecordRing(ringCapacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.indexInterval = Math.max(1, indexInterval);
+        this.logExtraInfo = logExtraInfo;
+        open();
+        writer = new Thread("CrawlLogWriter " + file.getName()) {
+            public void run() {
+                writeLoop();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    public File getFile() {
+        return file;
+    }
+    
+    protected void open() throws IOException {
+        fileOut = new CountingOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 64 * 1024));
+        out = gzip ? null : fileOut;
+        indexOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(LogIndex.indexFileFor(file))));
+        lineNumber = 0;
+    }
+    
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        CrawlURI curi = (CrawlURI) record.getParameters()[0];
+        CrawlLogRecord logRecord = CrawlLogRecord.capture(curi, 
+                System.currentTimeMillis(), logExtraInfo);
+        while (!ring.offer(logRecord)) {
+            if (closed) {
+                return;
+            }
+            if (!writer.isAlive()) {
+                // no writer thread to make room: write on this thread
+                synchronized (writeLock) {
+                    try {
+                        drain();
+                    } catch (IOException e) {
+                        reportError("problem writing " + file, e, ErrorManager.WRITE_FAILURE);
+                        return;
+                    } catch (RuntimeException e) {
+                        reportError("problem writing " + file, e, ErrorManager.WRITE_FAILURE);
+                        return;
+                    }
+                }
+                continue;
+            }
+            fullWaits.incrementAndGet();
+            LockSupport.parkNanos(FULL_PARK_NS);
+        }
+    }
+    
+    protected void writeLoop() {
+        while (!closed) {
+            int count;
+            try {
+                synchronized (writeLock) {
+                    count = writeBatch();
+                    if (count == 0) {
+                        flushStreams();
+                    }
+                }
+            } catch (IOException e) {
+                reportError("problem writing " + file, e, ErrorManager.WRITE_FAILURE);
+                count = 0;
+            } catch (Throwable t) {
+                // keep consuming: ToeThreads wait on a full ring
+                reportError("problem writing " + file, 
+                        t instanceof Exception ? (Exception) t : new Exception(t), 
+                        ErrorManager.WRITE_FAILURE);
+                count = 0;
+            }
+            if (count == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+    }
+    
+    /**
+     * Format and write up to batchSize records from the ring. A record
+     * that can't be formatted is reported and skipped.
+     * 
+     * @return number of records taken from the ring (written or skipped)
+     */
+    protected int writeBatch() throws IOException {
+        CrawlLogRecord record = ring.poll();
+        if (record == null) {
+            return 0;
+        }
+        GZIPOutputStream member = null;
+        if (gzip) {
+            LogIndex.writeEntry(indexOut, lineNumber, fileOut.getByteCount(), 
+                    record.getTime());
+            member = new GZIPOutputStream(new CloseShieldOutputStream(fileOut), 
+                    64 * 1024);
+            out = member;
+        }
+        int count = 0;
+        int taken = 0;
+        while (record != null) {
+            taken++;
+            buffer.setLength(0);
+            try {
+                record.appendTo(buffer);
+            } catch (RuntimeException e) {
+                // skip just the record that can't be formatted
+                reportError("problem formatting record for " + file, e, 
+                        ErrorManager.FORMAT_FAILURE);
+                record = taken >= batchSize ? null : ring.poll();
+                continue;
+            }
+            if (!gzip && lineNumber % indexInterval == 0) {
+                LogIndex.writeEntry(indexOut, lineNumber, fileOut.getByteCount(), 
+                        record.getTime());
+            }
+            out.write(buffer.toString().getBytes(UTF8));
+            lineNumber++;
+            count++;
+            if (taken >= batchSize) {
+                break;
+            }
+            record = ring.poll();
+        }
+        if (member != null) {
+            member.finish();
+            out = null;
+        }
+        written += count;
+        return taken;
+    }
+    
+    protected void flushStreams() throws IOException {
+        // log before index, so entries don't point past written data
+        fileOut.flush();
+        indexOut.flush();
+    }
+    
+    /**
+     * Write everything logged so far, then close the log (and its index),
+     * rename both with the given suffix before any extension (".gz"), 
+     * and begin a new log.
+     * 
+     * @param storeSuffix suffix for the rotated-off log
+     * @return the rotated-off log
+     */
+    public File rotate(String storeSuffix) throws IOException {
+        synchronized (writeLock) {
+            drain();
+            closeStreams();
+            String name = file.getName();
+            String extension = "";
+            if (name.endsWith(".gz")) {
+                extension = ".gz";
+                name = name.substring(0, name.length() - extension.length());
+            }
+            File stored = new File(file.getParentFile(), name + storeSuffix + extension);
+            if (!file.renameTo(stored)) {
+                throw new IOException("unable to rename " + file + " to " + stored);
+            }
+            if (!LogIndex.indexFileFor(file).renameTo(LogIndex.indexFileFor(stored))) {
+                throw new IOException("unable to rename index of " + file);
+            }
+            open();
+            return stored;
+        }
+    }
+    
+    protected void drain() throws IOException {
+        while (writeBatch() > 0) {
+            // continue
+        }
+        flushStreams();
+    }
+    
+    protected void closeStreams() {
+        IOUtils.closeQuietly(fileOut);
+        IOUtils.closeQuietly(indexOut);
+    }
+    
+    @Override
+    public void flush() {
+        synchronized (writeLock) {
+            try {
+                if (!closed) {
+                    drain();
+                }
+            } catch (IOException e) {
+                reportError("problem flushing " + file, e, ErrorManager.FLUSH_FAILURE);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            try {
+                drain();
+            } catch (IOException e) {
+                reportError("problem closing " + file, e, ErrorManager.CLOSE_FAILURE);
+            }
+            closeStreams();
+        }
+    }
+    
+    /** @return records awaiting the writer */
+    public int getPendingCount() {
+        return ring.size();
+    }
+    
+    /** @return records written since start */
+    public long getWrittenCount() {
+        return written;
+    }
+    
+    /** @return times a logging thread found the ring full, and waited */
+    public long getFullWaitCount() {
+        return fullWaits.get();
+    }
+}
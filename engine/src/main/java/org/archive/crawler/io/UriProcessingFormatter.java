@@ -18,16 +18,11 @@
  */
 package org.archive.crawler.io;
 
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
 import org.archive.io.Preformatter;
-import org.archive.modules.CoreAttributeConstants;
 import org.archive.modules.CrawlURI;
-import org.archive.util.ArchiveUtils;
-import org.archive.util.MimetypeUtils;
 
 /**
  * Formatter for 'crawl.log'. Expects completed CrawlURI as parameter.
@@ -35,9 +30,7 @@ import org.archive.util.MimetypeUtils;
  * @author gojomo
  */
 public class UriProcessingFormatter
-extends Formatter implements Preformatter, CoreAttributeConstants {
-    private final static String NA = "-";
-    
+extends Formatter implements Preformatter {
     /**
      * Guess at line length. Used to preallocated the buffer we accumulate the
      * log line in. Hopefully we get it right most of the time and no need to
@@ -75,97 +68,14 @@ extends Formatter implements Preformatter, CoreAttributeConstants {
             return cachedFormat.get();
         }
         CrawlURI curi = (CrawlURI)lr.getParameters()[0];
-        String length = NA;
-        String mime = null;
-        if (curi.isHttpTransaction()) {
-            if(curi.getContentLength() >= 0) {
-                length = Long.toString(curi.getContentLength());
-            } else if (curi.getContentSize() > 0) {
-                length = Long.toString(curi.getContentSize());
-            }
-        } else {
-            if (curi.getContentSize() > 0) {
-                length = Long.toString(curi.getContentSize());
-            } 
-        }
-        mime = MimetypeUtils.truncate(curi.getContentType());
-
-        long time = System.currentTimeMillis();
-
-        String via = curi.flattenVia();
-        
-        String digest = curi.getContentDigestSchemeString();
-
-        String sourceTag = curi.containsDataKey(A_SOURCE_TAG) 
-                ? curi.getSourceTag()
-                : null;
-             
+        CrawlLogRecord record = CrawlLogRecord.capture(curi, 
+                System.currentTimeMillis(), logExtraInfo);
         StringBuilder buffer = bufLocal.get();
         buffer.setLength(0);
-        buffer.append(ArchiveUtils.getLog17Date(time))
-            .append(" ")
-            .append(ArchiveUtils.padTo(curi.getFetchStatus(), 5))
-            .append(" ")
-            .append(ArchiveUtils.padTo(length, 10))
-            .append(" ")
-            .append(curi.getUURI().toString())
-            .append(" ")
-            .append(checkForNull(curi.getPathFromSeed()))
-            .append(" ")
-            .append(checkForNull(via))
-            .append(" ")
-            .append(mime)
-            .append(" ")
-            .append("#")
-            // Pad threads to be 3 digits.  For Igor.
-            .append(ArchiveUtils.padTo(
-                Integer.toString(curi.getThreadNumber()), 3, '0'))
-            .append(" ");
-        
-        // arcTimeAndDuration
-        if(curi.containsDataKey(A_FETCH_COMPLETED_TIME)) {
-            long completedTime = curi.getFetchCompletedTime();
-            long beganTime = curi.getFetchBeginTime();
-            buffer.append(ArchiveUtils.get17DigitDate(beganTime))
-                    .append("+")
-                    .append(Long.toString(completedTime - beganTime));
-        } else {
-            buffer.append(NA);
-        }
-        
-        buffer.append(" ")
-            .append(checkForNull(digest))
-            .append(" ")
-            .append(checkForNull(sourceTag))
-            .append(" ");
-        Collection<String> anno = curi.getAnnotations();
-        if ((anno != null) && (anno.size() > 0)) {
-        	Iterator<String> iter = anno.iterator();
-            buffer.append(iter.next());
-            while (iter.hasNext()) {
-            	buffer.append(',');
-            	buffer.append(iter.next());
-            }
-        } else {
-            buffer.append(NA);
-        }
-        
-        if (logExtraInfo) {
-            buffer.append(" ").append(curi.getExtraInfo());
-        }
-        
-        buffer.append("\n");
+        record.appendTo(buffer);
         return buffer.toString(); 
     }
 
-    /**
-     * @param str String to check.
-     * @return Return passed string or <code>NA</code> if null.
-     */
-    protected String checkForNull(String str) {
-        return (str == null || str.length() <= 0)? NA: str;
-    }
-
     @Override
     public void clear() {
         cachedFormat.set(null); 
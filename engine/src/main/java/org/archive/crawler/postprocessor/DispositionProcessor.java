@@ -34,6 +34,7 @@ import org.apache.commons.httpclient.URIException;
 import org.archive.modules.CrawlMetadata;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.Processor;
+import org.archive.modules.fetcher.BandwidthLimiter;
 import org.archive.modules.net.CrawlHost;
 import org.archive.modules.net.CrawlServer;
 import org.archive.modules.net.IgnoreRobotsPolicy;
@@ -67,6 +68,19 @@ public class DispositionProcessor extends Processor {
     public void setServerCache(ServerCache serverCache) {
         this.serverCache = serverCache;
     }
+
+    /**
+     * Optional shared bandwidth budget, as also given to the fetcher. If
+     * set, a URI's host, IP, or subnet that has overdrawn its bandwidth
+     * allowance isn't revisited until the debt is repaid.
+     */
+    protected BandwidthLimiter bandwidthLimiter;
+    public BandwidthLimiter getBandwidthLimiter() {
+        return this.bandwidthLimiter;
+    }
+    public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+        this.bandwidthLimiter = bandwidthLimiter;
+    }
     
     /**
      * How many multiples of last fetch elapsed time to wait before recontacting
@@ -289,6 +303,16 @@ public class DispositionProcessor extends Processor {
                     durationToWait = minDurationToWait;
                 }
             }
+
+            BandwidthLimiter limiter = getBandwidthLimiter();
+            if (limiter != null) {
+                CrawlHost host = getServerCache().getHostFor(curi.getUURI());
+                long debtMs = limiter.delayFor(host.getHostName(), host.getIP());
+                if (debtMs > durationToWait) {
+                    // wait out any overdrawn bandwidth allowance
+                    durationToWait = debtMs;
+                }
+            }
         }
         return durationToWait;
     }
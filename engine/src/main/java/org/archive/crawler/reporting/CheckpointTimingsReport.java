@@ -0,0 +1,61 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.reporting;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+import org.archive.crawler.framework.CheckpointService;
+
+/**
+ * Report of the time taken by each step of the last checkpoint, including
+ * each Checkpointable bean's doCheckpoint().
+ */
+public class CheckpointTimingsReport extends Report {
+
+    @Override
+    public void write(PrintWriter writer, StatisticsTracker stats) {
+        Map<String,CheckpointService> services = 
+            stats.appCtx.getBeansOfType(CheckpointService.class);
+        if (services.isEmpty()) {
+            writer.println("no checkpoint service configured");
+            return;
+        }
+        for (CheckpointService service : services.values()) {
+            Map<String,Long> timings = service.getLastCheckpointTimings();
+            if (timings.isEmpty()) {
+                writer.println("no checkpoint yet");
+                continue;
+            }
+            writer.print("[ms] [step]\n");
+            for (Map.Entry<String,Long> entry : timings.entrySet()) {
+                writer.print(entry.getValue());
+                writer.print(" ");
+                writer.print(entry.getKey());
+                writer.print("\n");
+            }
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return "checkpoint-timings-report.txt";
+    }
+
+}
@@ -34,6 +34,7 @@ import org.apache.commons.httpclient.URIException;
 import org.archive.checkpointing.Checkpoint;
 import org.archive.checkpointing.Checkpointable;
 import org.archive.crawler.framework.Engine;
+import org.archive.crawler.io.CrawlLogWriter;
 import org.archive.crawler.io.NonFatalErrorFormatter;
 import org.archive.crawler.io.RuntimeErrorFormatter;
 import org.archive.crawler.io.StatisticsLogFormatter;
@@ -85,6 +86,61 @@ public class CrawlerLoggerModule
         this.logExtraInfo = logExtraInfo;
     }
     
+    /**
+     * Whether to write crawl.log asynchronously, through a CrawlLogWriter:
+     * logging threads only capture each line's values, and one writer 
+     * thread formats and writes them in batches, along with a 
+     * crawl.log.idx index of line offsets and times. On checkpoint 
+     * rotation, earlier generations of such a log are never merged, even 
+     * when the checkpoint forgets all but the latest. Default is false.
+     */
+    protected boolean asyncCrawlLog = false;
+    public boolean getAsyncCrawlLog() {
+        return asyncCrawlLog;
+    }
+    public void setAsyncCrawlLog(boolean asyncCrawlLog) {
+        this.asyncCrawlLog = asyncCrawlLog;
+    }
+    
+    /**
+     * With asyncCrawlLog, whether to gzip-compress crawl.log (then named 
+     * with a further ".gz"), one gzip member per batch of lines. The web 
+     * UI's crawl log tail and viewer read only uncompressed logs. Default
+     * is false.
+     */
+    protected boolean gzipCrawlLog = false;
+    public boolean getGzipCrawlLog() {
+        return gzipCrawlLog;
+    }
+    public void setGzipCrawlLog(boolean gzipCrawlLog) {
+        this.gzipCrawlLog = gzipCrawlLog;
+    }
+    
+    /**
+     * With asyncCrawlLog, the number of crawl.log lines which may await
+     * the writer thread before logging threads must wait for it.
+     */
+    protected int crawlLogRingCapacity = 16384;
+    public int getCrawlLogRingCapacity() {
+        return crawlLogRingCapacity;
+    }
+    public void setCrawlLogRingCapacity(int crawlLogRingCapacity) {
+        this.crawlLogRingCapacity = crawlLogRingCapacity;
+    }
+    
+    /**
+     * With asyncCrawlLog, the number of lines between entries in the 
+     * uncompressed crawl.log's index. (A gzipped crawl.log's index has an
+     * entry for each gzip member.)
+     */
+    protected int crawlLogIndexInterval = 1000;
+    public int getCrawlLogIndexInterval() {
+        return crawlLogIndexInterval;
+    }
+    public void setCrawlLogIndexInterval(int crawlLogIndexInterval) {
+        this.crawlLogIndexInterval = crawlLogIndexInterval;
+    }
+    
     // manifest support
     /** abbreviation label for config files in manifest */
     public static final char MANIFEST_CONFIG_FILE = 'C';
@@ -101,6 +157,9 @@ public class CrawlerLoggerModule
     private static final String LOGNAME_URI_ERRORS = "uri-errors";
     private static final String LOGNAME_RUNTIME_ERRORS = "runtime-errors";
     private static final String LOGNAME_NONFATAL_ERRORS = "nonfatal-errors";
+    
+    /** max crawl.log lines written together by a CrawlLogWriter */
+    private static final int CRAWL_LOG_BATCH_SIZE = 1000;
 
 
     protected ConfigPath crawlLogPath = 
@@ -199,6 +258,12 @@ public class CrawlerLoggerModule
      * assisting file rotation.
      */
     transient private Map<Logger,FileHandler> fileHandlers;
+    
+    /**
+     * Writer of crawl.log, if asyncCrawlLog; otherwise crawl.log is 
+     * among the fileHandlers.
+     */
+    transient private CrawlLogWriter crawlLogWriter;
 
     private StringBuffer manifest = new StringBuffer();
     
@@ -246,9 +311,13 @@ public class CrawlerLoggerModule
             logsPath);
 
         this.fileHandlers = new HashMap<Logger,FileHandler>();
-        setupLogFile(uriProcessing,
-            getCrawlLogPath().getFile().getAbsolutePath(),
-            new UriProcessingFormatter(getLogExtraInfo()), true);
+        if (getAsyncCrawlLog()) {
+            setupAsyncCrawlLog();
+        } else {
+            setupLogFile(uriProcessing,
+                getCrawlLogPath().getFile().getAbsolutePath(),
+                new UriProcessingFormatter(getLogExtraInfo()), true);
+        }
 
         setupLogFile(runtimeErrors,
             getRuntimeErrorsLogPath().getFile().getAbsolutePath(),
@@ -281,6 +350,27 @@ public class CrawlerLoggerModule
         this.fileHandlers.put(logger, fh);
     }
     
+    private void setupAsyncCrawlLog() throws IOException {
+        String filename = getCrawlLogPath().getFile().getAbsolutePath()
+            + (getGzipCrawlLog() ? ".gz" : "");
+        crawlLogWriter = new CrawlLogWriter(new File(filename), 
+                getGzipCrawlLog(), getCrawlLogRingCapacity(), 
+                CRAWL_LOG_BATCH_SIZE, getCrawlLogIndexInterval(), 
+                getLogExtraInfo());
+        uriProcessing.setLevel(Level.INFO);
+        uriProcessing.addHandler(crawlLogWriter);
+        addToManifest(filename, MANIFEST_LOG_FILE, true);
+        uriProcessing.setUseParentHandlers(false);
+    }
+    
+    /**
+     * @return asynchronous crawl.log writer, or null if crawl.log is 
+     * written synchronously
+     */
+    public CrawlLogWriter getCrawlLogWriter() {
+        return crawlLogWriter;
+    }
+    
     public Logger setupSimpleLog(String logName) {
         Formatter f = new Formatter() {
             public String format(java.util.logging.LogRecord record) {
@@ -339,6 +429,10 @@ public class CrawlerLoggerModule
             l.addHandler(newGfh);
             fileHandlers.put(l, newGfh);
         }
+        if (crawlLogWriter != null) {
+            File stored = crawlLogWriter.rotate(generationSuffix);
+            addToManifest(stored.getAbsolutePath(), MANIFEST_LOG_FILE, true);
+        }
     }
     
     /**
@@ -353,6 +447,11 @@ public class CrawlerLoggerModule
                 l.removeHandler(gfh);
             }
         }
+        if (crawlLogWriter != null) {
+            uriProcessing.removeHandler(crawlLogWriter);
+            crawlLogWriter.close();
+            crawlLogWriter = null;
+        }
     }
 
     
@@ -0,0 +1,53 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.reporting;
+
+import java.io.PrintWriter;
+
+import org.archive.crawler.framework.Frontier;
+import org.archive.crawler.frontier.QueueYieldRebalancer;
+import org.archive.crawler.frontier.WorkQueueFrontier;
+
+/**
+ * Report of the per-queue budget and precedence adjustments currently
+ * made by the frontier's QueueYieldRebalancer, if one is configured.
+ */
+public class QueueRebalancerReport extends Report {
+
+    @Override
+    public void write(PrintWriter writer, StatisticsTracker stats) {
+        Frontier frontier = stats.controller.getFrontier();
+        QueueYieldRebalancer rebalancer = null;
+        if (frontier instanceof WorkQueueFrontier) {
+            rebalancer = ((WorkQueueFrontier) frontier).getQueueRebalancer();
+        }
+        if (rebalancer == null) {
+            writer.println("no queue rebalancer configured");
+        } else {
+            rebalancer.reportTo(writer);
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return "queue-rebalancer-report.txt";
+    }
+
+}
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.ListIterator;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.archive.crawler.util.IndexedLogReader;
 import org.restlet.data.*;
 import org.restlet.engine.local.DirectoryServerResource;
 import org.restlet.representation.EmptyRepresentation;
@@ -102,12 +104,30 @@ public class EnhDirectoryResource extends DirectoryServerResource {
                         iter.add(new PagedRepresentation((
                                 FileRepresentation)v,
                                 this,
-                                f.getFirstValue("pos"),
+                                positionFor(file, f),
                                 f.getFirstValue("lines"),
                                 f.getFirstValue("reverse")));
                     };
                 }
             }
+        } else if("grep".equals(format)) {
+            ListIterator<Variant> iter = variants.listIterator(); 
+            while(iter.hasNext()) {
+                Variant v = iter.next(); 
+                if(v instanceof FileRepresentation) {
+                    File file = ((FileRepresentation)v).getFile();
+                    if(getEnhDirectory().allowsPaging(file)
+                            && IndexedLogReader.isIndexable(file)) {
+                        iter.remove();
+                        iter.add(new LogSearchRepresentation((
+                                FileRepresentation)v,
+                                this,
+                                f.getFirstValue("pattern"),
+                                f.getFirstValue("from"),
+                                f.getFirstValue("max")));
+                    };
+                }
+            }
         } else {
             ListIterator<Variant> iter = variants.listIterator(); 
             while(iter.hasNext()) {
@@ -119,6 +139,28 @@ public class EnhDirectoryResource extends DirectoryServerResource {
         return variants; 
     }
     
+    /**
+     * Byte position for a paged view: the 'pos' parameter, or else the
+     * start of the line given by the 'line' parameter (counting from 1),
+     * found by way of the file's line index.
+     */
+    protected String positionFor(File file, Form f) {
+        String line = f.getFirstValue("line");
+        if (StringUtils.isBlank(line) || !StringUtils.isBlank(f.getFirstValue("pos"))
+                || !IndexedLogReader.isIndexable(file)) {
+            return f.getFirstValue("pos");
+        }
+        try {
+            long lineNumber = Math.max(1, Long.parseLong(line.trim()));
+            return Long.toString(
+                    IndexedLogReader.getOffsetOfLine(file, lineNumber - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        } catch (IOException e) {
+            throw new ResourceException(e);
+        }
+    }
+    
     protected EnhDirectory getEnhDirectory() {
         return (EnhDirectory) getDirectory();
     }
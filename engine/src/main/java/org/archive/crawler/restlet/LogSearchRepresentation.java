@@ -0,0 +1,189 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.restlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.archive.crawler.util.IndexedLogReader;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.Form;
+import org.restlet.data.MediaType;
+import org.restlet.data.Reference;
+import org.restlet.representation.CharacterRepresentation;
+import org.restlet.representation.FileRepresentation;
+
+/**
+ * Representation wrapping a FileRepresentation, listing the lines of a 
+ * log that match a regular expression, each linked to the paged view at
+ * that line. Searches by way of IndexedLogReader, so chunks of a large 
+ * log are scanned in parallel.
+ */
+public class LogSearchRepresentation extends CharacterRepresentation {
+    /** wrapped FileRepresentation **/
+    protected FileRepresentation fileRepresentation;
+    /** wrapped EnhDirectoryResource; used to formulate self-links **/
+    protected EnhDirectoryResource dirResource;
+    
+    /** regular expression to find in lines **/
+    protected String pattern;
+    /** line number (counting from 1) at which to begin searching **/
+    protected long fromLine;
+    /** maximum count of matching lines to show; default 100 **/
+    protected int maxMatches;
+    /** most matching lines shown on one page, whatever is asked **/
+    protected static final int MAX_MATCHES_LIMIT = 1000;
+    
+    public LogSearchRepresentation(FileRepresentation representation,
+            EnhDirectoryResource resource, String pattern, String from,
+            String max) {
+        super(MediaType.TEXT_HTML);
+        fileRepresentation = representation;
+        dirResource = resource;
+        
+        this.pattern = StringUtils.defaultString(pattern);
+        fromLine = Math.max(1, NumberUtils.toLong(StringUtils.trim(from), 1));
+        maxMatches = Math.min(MAX_MATCHES_LIMIT, 
+                Math.max(1, NumberUtils.toInt(StringUtils.trim(max), 100)));
+        
+        setCharacterSet(CharacterSet.UTF_8);
+    }
+
+    @Override
+    public Reader getReader() throws IOException {
+        StringWriter writer = new StringWriter((maxMatches * 160) + 1000);
+        write(writer); 
+        return new StringReader(writer.toString());
+    }
+
+    /** 
+     * Write the search form and results.
+     * 
+     * @see org.restlet.representation.Representation#write(java.io.Writer)
+     */
+    @Override
+    public void write(Writer writer) throws IOException {
+        File file = fileRepresentation.getFile();
+        PrintWriter pw = new PrintWriter(writer); 
+        pw.println("<b>Search:</b> "+file);
+        emitLogForms(pw, dirResource, pattern);
+        
+        if (StringUtils.isEmpty(pattern)) {
+            pw.flush();
+            return;
+        }
+        Pattern p;
+        try {
+            p = Pattern.compile(pattern);
+        } catch (PatternSyntaxException e) {
+            pw.print("<p>bad pattern: ");
+            StringEscapeUtils.escapeHtml(pw, e.getMessage());
+            pw.println("</p>");
+            pw.flush();
+            return;
+        }
+        long start = System.currentTimeMillis();
+        SortedMap<Long,String> matches = 
+            IndexedLogReader.search(file, p, false, fromLine - 1, maxMatches);
+        long elapsed = System.currentTimeMillis() - start;
+        
+        pw.println("<p>" + matches.size() + " matching lines from line " 
+                + fromLine + " of " + IndexedLogReader.getLineCount(file) 
+                + " (" + elapsed + "ms)</p>");
+        pw.println("<pre>");
+        for (Map.Entry<Long,String> match : matches.entrySet()) {
+            long lineNumber = match.getKey() + 1;
+            pw.print("<a href=\"");
+            StringEscapeUtils.escapeHtml(pw, getLineUri(dirResource, lineNumber));
+            pw.print("\">");
+            pw.print(lineNumber);
+            pw.print("</a> ");
+            StringEscapeUtils.escapeHtml(pw, match.getValue());
+            pw.println();
+        }
+        pw.println("</pre>");
+        if (matches.size() >= maxMatches) {
+            Form query = new Form();
+            query.add("format", "grep");
+            query.add("pattern", pattern);
+            query.add("from", Long.toString(matches.lastKey() + 2));
+            if (maxMatches != 100) {
+                query.add("max", Integer.toString(maxMatches));
+            }
+            pw.print("<a href=\"");
+            StringEscapeUtils.escapeHtml(pw, getUri(dirResource, query));
+            pw.println("\">more &rsaquo;</a>");
+        }
+        pw.flush();
+    }
+    
+    /**
+     * Emit forms to go to a line in the paged view, or search the log.
+     */
+    protected static void emitLogForms(PrintWriter pw, 
+            EnhDirectoryResource resource, String pattern) {
+        // dynamic attribute values are double-quoted: escapeHtml() 
+        // escapes '"' but not '\''
+        String action = "\"" 
+            + StringEscapeUtils.escapeHtml(getUri(resource, new Form())) + "\"";
+        pw.println("<table><tr><td>");
+        pw.println("<form method='GET' action=" + action + ">");
+        pw.println("<input type='hidden' name='format' value='paged'/>");
+        pw.println("line <input name='line' size='10'/>");
+        pw.println("<input type='submit' value='go'/></form>");
+        pw.println("</td><td>");
+        pw.println("<form method='GET' action=" + action + ">");
+        pw.println("<input type='hidden' name='format' value='grep'/>");
+        pw.print("regex <input name='pattern' size='40' value=\"");
+        StringEscapeUtils.escapeHtml(pw, StringUtils.defaultString(pattern));
+        pw.println("\"/>");
+        pw.println("<input type='submit' value='search'/></form>");
+        pw.println("</td></tr></table>");
+    }
+    
+    /**
+     * @return URI of the paged view, starting at the given line (counting
+     * from 1)
+     */
+    protected static String getLineUri(EnhDirectoryResource resource, long line) {
+        Form query = new Form();
+        query.add("format", "paged");
+        query.add("line", Long.toString(line));
+        return getUri(resource, query);
+    }
+    
+    protected static String getUri(EnhDirectoryResource resource, Form query) {
+        Reference viewRef = resource.getRequest().getOriginalRef().clone(); 
+        viewRef.setQuery(query.isEmpty() ? null : query.getQueryString());
+        return viewRef.toString();
+    }
+}
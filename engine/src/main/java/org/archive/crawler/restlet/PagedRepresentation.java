@@ -33,6 +33,7 @@ import java.util.List;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.LongRange;
+import org.archive.crawler.util.IndexedLogReader;
 import org.archive.util.FileUtils;
 import org.restlet.data.CharacterSet;
 import org.restlet.data.Form;
@@ -68,6 +69,8 @@ public class PagedRepresentation extends CharacterRepresentation {
     protected LongRange range;
     /** File **/ 
     protected File file; 
+    /** number (from 0) of first line shown, if known from index; else -1 **/
+    protected long firstLine = -1;
     // TODO: maybe, freeze length for more consistent display of growing files
     // (now, as length/%/bumper are written after lines retrieved, they 
     // sometimes are indicative the file has grown before the page is 
@@ -119,6 +122,12 @@ public class PagedRepresentation extends CharacterRepresentation {
         if(reversedOrder) {
             Collections.reverse(lines);
         }
+        firstLine = -1;
+        // only where an index is already at hand (as after a search, or
+        // paging by line): building one here would read the whole file
+        if(IndexedLogReader.isIndexable(file) && IndexedLogReader.hasIndex(file)) {
+            firstLine = IndexedLogReader.getLineAtOffset(file, range.getMinimumLong());
+        }
     }
     
     /** 
@@ -132,6 +141,9 @@ public class PagedRepresentation extends CharacterRepresentation {
         
         PrintWriter pw = new PrintWriter(writer); 
         pw.println("<b>Paged view:</b> "+file);
+        if(IndexedLogReader.isIndexable(file)) {
+            LogSearchRepresentation.emitLogForms(pw, dirResource, null);
+        }
         emitControls(pw); 
         
         pw.println("<pre>");
@@ -228,6 +240,9 @@ public class PagedRepresentation extends CharacterRepresentation {
             pw.println("| <a href='"+getControlUri(position,lineCount,true)+"'>reversed</a>"); 
         }
                 
+        if(firstLine >= 0) {
+            pw.println("from line " + (firstLine + 1) + " |");
+        }
         pw.print("<a href='");
         pw.println(getControlUri(position,lineCount*2,reversedOrder));
         pw.println("'>&nbsp;+&nbsp;</a>"); 
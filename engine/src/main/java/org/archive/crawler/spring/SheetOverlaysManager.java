@@ -19,6 +19,8 @@
  
 package org.archive.crawler.spring;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -47,6 +49,9 @@ import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Manager which marks-up CrawlURIs with the names of all applicable 
  * Sheets, and returns overlay maps by name. 
@@ -67,6 +72,31 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
     /** all sheets by (bean)name*/
     protected Map<String,Sheet> sheetsByName = new ConcurrentHashMap<String, Sheet>();
     
+    /**
+     * Maximum number of distinct SURTs (or, when no SURT association
+     * extends past a host, distinct SURT authorities) for which the list
+     * of SURT-associated sheet names is remembered, sparing a prefix 
+     * search on every overlay application. 0 disables caching. 
+     */
+    protected int resolvedSurtCacheSize = 10000; 
+    public int getResolvedSurtCacheSize() {
+        return resolvedSurtCacheSize;
+    }
+    public void setResolvedSurtCacheSize(int size) {
+        this.resolvedSurtCacheSize = size;
+        invalidateResolvedOverlays();
+    }
+    
+    /** SURT-associated sheet names, by SURT or SURT authority */
+    protected volatile Cache<String,List<String>> resolvedSheetNamesBySurt;
+    
+    /** 
+     * whether all SURT associations end at or before the end of the
+     * host (the ')'), so that the matching prefixes depend only on 
+     * a URI's SURT authority
+     */
+    protected volatile boolean surtPrefixesHostOnly = true; 
+    
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         this.beanFactory = beanFactory;
     }
@@ -139,6 +169,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         }
         sheetNames.add(sheetName); 
         sheetNamesBySurt.put(prefix, sheetNames); 
+        invalidateResolvedOverlays();
     }
     
     public boolean removeSurtAssociation(String prefix, String sheetName) {
@@ -147,7 +178,9 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
             // no such association
             return false; 
         }
-        return sheetNames.remove(sheetName); 
+        boolean removed = sheetNames.remove(sheetName); 
+        invalidateResolvedOverlays();
+        return removed; 
     }
 
     /** 
@@ -271,6 +304,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
             anyDeleted |= sheetNames.remove(sheetName);            
         }
         anyDeleted |= (null != sheetsByName.remove(sheetName)); 
+        invalidateResolvedOverlays();
         return anyDeleted;
     }
     
@@ -317,12 +351,7 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         // apply SURT-based overlays
         curi.getOverlayNames().clear(); // clear previous info
         String effectiveSurt = SurtPrefixSet.getCandidateSurt(curi.getPolicyBasisUURI());
-        List<String> foundPrefixes = PrefixFinder.findKeys(sheetNamesBySurt, effectiveSurt);       
-        for(String prefix : foundPrefixes) {
-            for(String name : sheetNamesBySurt.get(prefix)) {
-                curi.getOverlayNames().add(name);
-            }
-        }
+        curi.getOverlayNames().addAll(getSurtSheetNames(effectiveSurt));
         // apply deciderule-based overlays
         for(DecideRuledSheetAssociation assoc : ruleAssociations) {
             try {
@@ -337,4 +366,75 @@ BeanFactoryAware, OverlayMapsSource, ApplicationListener<ApplicationEvent> {
         // step has occurred -- helps ensure overlays added once-only
         curi.getOverlayNames();
     }
+    
+    /**
+     * Names of all sheets associated with SURT prefixes of the given SURT,
+     * from cache if possible. 
+     * 
+     * @param effectiveSurt SURT form of a URI
+     * @return list of sheet names, possibly empty
+     */
+    protected List<String> getSurtSheetNames(String effectiveSurt) {
+        Cache<String,List<String>> cache = resolvedSheetNamesBySurt;
+        if (cache == null) {
+            if (resolvedSurtCacheSize <= 0) {
+                return findSurtSheetNames(effectiveSurt);
+            }
+            cache = getResolvedSheetNamesCache();
+        }
+        String key = effectiveSurt;
+        if (surtPrefixesHostOnly) {
+            int endHost = effectiveSurt.indexOf(')');
+            if (endHost >= 0) {
+                key = effectiveSurt.substring(0, endHost + 1);
+            }
+        }
+        List<String> names = cache.getIfPresent(key);
+        if (names == null) {
+            names = findSurtSheetNames(key);
+            cache.put(key, names);
+        }
+        return names;
+    }
+    
+    protected synchronized Cache<String,List<String>> getResolvedSheetNamesCache() {
+        if (resolvedSheetNamesBySurt == null) {
+            resolvedSheetNamesBySurt = CacheBuilder.newBuilder()
+                    .maximumSize(resolvedSurtCacheSize)
+                    .<String,List<String>>build();
+        }
+        return resolvedSheetNamesBySurt;
+    }
+    
+    protected List<String> findSurtSheetNames(String surt) {
+        List<String> foundPrefixes = PrefixFinder.findKeys(sheetNamesBySurt, surt);
+        if (foundPrefixes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> names = new ArrayList<String>();
+        for(String prefix : foundPrefixes) {
+            names.addAll(sheetNamesBySurt.get(prefix));
+        }
+        return Collections.unmodifiableList(names);
+    }
+    
+    /**
+     * Forget all cached SURT-to-sheet-names results. Called whenever
+     * SURT associations are changed through this manager's methods; 
+     * must be called by anything changing the map returned by 
+     * getSheetsNamesBySurt() (or its lists) directly. As with other
+     * sheet changes, best done while the crawl is paused. 
+     */
+    public synchronized void invalidateResolvedOverlays() {
+        boolean hostOnly = true;
+        for (String prefix : sheetNamesBySurt.keySet()) {
+            int endHost = prefix.indexOf(')');
+            if (endHost >= 0 && endHost < prefix.length() - 1) {
+                hostOnly = false;
+                break;
+            }
+        }
+        surtPrefixesHostOnly = hostOnly;
+        resolvedSheetNamesBySurt = null;
+    }
 }
\ No newline at end of file
@@ -43,7 +43,8 @@ public class BenchmarkUriUniqFilters implements UriUniqFilter.CrawlUriReceiver {
     
     /**
      * Test the UriUniqFilter implementation (MemUriUniqFilter,
-     * BloomUriUniqFilter, or BdbUriUniqFilter) named in first
+     * BloomUriUniqFilter, BdbUriUniqFilter, FPUriUniqFilter, or
+     * OffHeapFPUriUniqFilter) named in first
      * argument against the file of one-per-line URIs named
      * in the second argument. 
      * 
@@ -98,6 +99,11 @@ public class BenchmarkUriUniqFilters implements UriUniqFilter.CrawlUriReceiver {
         } else if (FPUriUniqFilter.class.getName().endsWith(testClass)) {
             // mem fp set (open-addressing) setup
             uniq = new FPUriUniqFilter(new MemLongFPSet(21,0.75f));
+        } else if (OffHeapFPUriUniqFilter.class.getName().endsWith(testClass)) {
+            // off-heap segmented fp set setup
+            OffHeapFPUriUniqFilter offHeap = new OffHeapFPUriUniqFilter();
+            offHeap.start();
+            uniq = offHeap;
         }
         uniq.setDestination(this);
         return uniq;
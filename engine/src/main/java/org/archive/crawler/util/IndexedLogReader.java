@@ -0,0 +1,364 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+/**
+ * Random access to the lines of (uncompressed) log files, by way of a 
+ * LogIndex per log, kept in memory and brought up to date with each 
+ * use. Fetching lines by number costs a seek and at most an index 
+ * interval of skipped lines, rather than a scan from the start; regex
+ * searches run over chunks of the log in parallel.
+ * 
+ * A sidecar index already written alongside a log (as by 
+ * CrawlLogWriter) is used as the starting point for that log's index.
+ * Indexes are held by path, but dropped when the file at that path is
+ * no longer the one indexed (as after rotation).
+ * 
+ * Line numbers here count from 0. All methods are static.
+ */
+public class IndexedLogReader {
+    /** bytes of log searched as one parallel task, at least */
+    protected static final long SEARCH_CHUNK_BYTES = 8 * 1024 * 1024;
+    /** lines searched between checks for cancellation */
+    protected static final int CANCEL_CHECK_LINES = 1024;
+    
+    protected static final ConcurrentMap<String,IdentifiedIndex> INDEXES = 
+        new ConcurrentHashMap<String,IdentifiedIndex>();
+
+    /**
+     * A log's index, with the identity of the file indexed: its file key
+     * (inode) where the platform has one, else its creation time.
+     */
+    protected static class IdentifiedIndex {
+        protected final Object identity;
+        protected final LogIndex index;
+        protected IdentifiedIndex(Object identity, LogIndex index) {
+            this.identity = identity;
+            this.index = index;
+        }
+    }
+    
+    protected static Object identityOf(File log) throws IOException {
+        BasicFileAttributes attributes = 
+            Files.readAttributes(log.toPath(), BasicFileAttributes.class);
+        return attributes.fileKey() != null 
+            ? attributes.fileKey() : attributes.creationTime();
+    }
+
+    /**
+     * @return true if the file may be read by way of an index (an 
+     * existing, uncompressed file)
+     */
+    public static boolean isIndexable(File log) {
+        return log.isFile() && !log.getName().endsWith(".gz");
+    }
+    
+    /**
+     * @return the index of the given log, updated to its current length
+     */
+    public static LogIndex indexFor(File log) throws IOException {
+        String key = log.getAbsolutePath();
+        Object identity = identityOf(log);
+        IdentifiedIndex held = INDEXES.get(key);
+        while (held == null || !held.identity.equals(identity)) {
+            File sidecar = LogIndex.indexFileFor(log);
+            LogIndex index = sidecar.exists() ? LogIndex.load(sidecar) : new LogIndex();
+            IdentifiedIndex fresh = new IdentifiedIndex(identity, index);
+            if (held == null 
+                    ? INDEXES.putIfAbsent(key, fresh) == null
+                    : INDEXES.replace(key, held, fresh)) {
+                held = fresh;
+            } else {
+                held = INDEXES.get(key);
+            }
+        }
+        held.index.update(log);
+        return held.index;
+    }
+    
+    /**
+     * @return true if an index of the given log is already at hand, in 
+     * memory or as a sidecar, so that using it needn't read the whole log
+     */
+    public static boolean hasIndex(File log) throws IOException {
+        IdentifiedIndex held = INDEXES.get(log.getAbsolutePath());
+        return (held != null && held.identity.equals(identityOf(log)))
+            || LogIndex.indexFileFor(log).exists();
+    }
+    
+    /**
+     * Forget any index of the given log (as when it's deleted).
+     */
+    public static void forget(File log) {
+        INDEXES.remove(log.getAbsolutePath());
+    }
+    
+    /**
+     * @return count of complete lines in the log
+     */
+    public static long getLineCount(File log) throws IOException {
+        return indexFor(log).getIndexedLines();
+    }
+    
+    protected static BufferedReader readerAt(File log, long offset) 
+    throws IOException {
+        FileInputStream in = new FileInputStream(log);
+        try {
+            in.getChannel().position(offset);
+            return new BufferedReader(new InputStreamReader(in, "UTF-8"), 64 * 1024);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return reader positioned at the start of the given line
+     */
+    protected static BufferedReader readerAtLine(File log, LogIndex index, 
+            long line) throws IOException {
+        int entry = index.entryForLine(line);
+        long offset = entry < 0 ? 0 : index.getOffset(entry);
+        long at = entry < 0 ? 0 : index.getLine(entry);
+        BufferedReader reader = readerAt(log, offset);
+        while (at < line && reader.readLine() != null) {
+            at++;
+        }
+        return reader;
+    }
+    
+    /**
+     * @param firstLine number of first line wanted
+     * @param n count of lines wanted
+     * @return up to n lines, from firstLine
+     */
+    public static List<String> getLines(File log, long firstLine, int n) 
+    throws IOException {
+        List<String> lines = new ArrayList<String>(Math.max(0, Math.min(n, 10000)));
+        LogIndex index = indexFor(log);
+        BufferedReader reader = readerAtLine(log, index, firstLine);
+        try {
+            String line;
+            while (lines.size() < n && (line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+    
+    /**
+     * @return byte offset at which the given line begins (or the indexed
+     * length, if the log has fewer lines)
+     */
+    public static long getOffsetOfLine(File log, long line) throws IOException {
+        LogIndex index = indexFor(log);
+        if (line >= index.getIndexedLines()) {
+            return index.getIndexedLength();
+        }
+        int entry = index.entryForLine(line);
+        long offset = entry < 0 ? 0 : index.getOffset(entry);
+        long at = entry < 0 ? 0 : index.getLine(entry);
+        if (at == line) {
+            return offset;
+        }
+        FileInputStream in = new FileInputStream(log);
+        try {
+            in.getChannel().position(offset);
+            BufferedInputStream bin = new BufferedInputStream(in, 64 * 1024);
+            int b;
+            while (at < line && (b = bin.read()) >= 0) {
+                offset++;
+                if (b == '\n') {
+                    at++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return offset;
+    }
+    
+    /**
+     * @return number of the line containing the given byte offset
+     */
+    public static long getLineAtOffset(File log, long offset) throws IOException {
+        LogIndex index = indexFor(log);
+        if (offset >= index.getIndexedLength()) {
+            return index.getIndexedLines();
+        }
+        int entry = index.entryForOffset(offset);
+        long position = entry < 0 ? 0 : index.getOffset(entry);
+        long line = entry < 0 ? 0 : index.getLine(entry);
+        FileInputStream in = new FileInputStream(log);
+        try {
+            in.getChannel().position(position);
+            BufferedInputStream bin = new BufferedInputStream(in, 64 * 1024);
+            int b;
+            while (position < offset && (b = bin.read()) >= 0) {
+                position++;
+                if (b == '\n') {
+                    line++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return line;
+    }
+    
+    /**
+     * @return number of the first line logged at or after the given time,
+     * approximately (to within an index interval)
+     */
+    public static long getLineForTime(File log, long time) throws IOException {
+        LogIndex index = indexFor(log);
+        int entry = index.entryForTime(time);
+        return entry < 0 ? 0 : index.getLine(entry);
+    }
+    
+    /**
+     * Find lines matching the pattern, searching chunks of the log in 
+     * parallel. 
+     * 
+     * @param pattern pattern to look for
+     * @param wholeLine if true, the whole line must match; otherwise, the
+     * pattern may be found anywhere in the line
+     * @param fromLine number of first line to search
+     * @param maxMatches maximum count of matches wanted
+     * @return line numbers and lines of the first matches, in log order
+     */
+    public static SortedMap<Long,String> search(final File log, 
+            final Pattern pattern, final boolean wholeLine, long fromLine, 
+            final int maxMatches) throws IOException {
+        final LogIndex index = indexFor(log);
+        long lineCount = index.getIndexedLines();
+        
+        // chunk boundaries, as line numbers, on index entries
+        List<Long> boundaries = new ArrayList<Long>();
+        boundaries.add(Math.max(0, fromLine));
+        int entry = index.entryForLine(fromLine);
+        long chunkStartOffset = entry < 0 ? 0 : index.getOffset(entry);
+        for (int i = Math.max(0, entry + 1); i < index.size(); i++) {
+            if (index.getOffset(i) - chunkStartOffset >= SEARCH_CHUNK_BYTES) {
+                boundaries.add(index.getLine(i));
+                chunkStartOffset = index.getOffset(i);
+            }
+        }
+        boundaries.add(lineCount);
+        
+        int chunks = boundaries.size() - 1;
+        SortedMap<Long,String> matches = new TreeMap<Long,String>();
+        if (chunks < 1 || boundaries.get(0) >= lineCount) {
+            return matches;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(chunks,
+                Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<SortedMap<Long,String>>> futures = 
+                new ArrayList<Future<SortedMap<Long,String>>>(chunks);
+            for (int i = 0; i < chunks; i++) {
+                final long startLine = boundaries.get(i);
+                final long endLine = boundaries.get(i + 1);
+                futures.add(executor.submit(new Callable<SortedMap<Long,String>>() {
+                    public SortedMap<Long,String> call() throws IOException {
+                        return searchLines(log, index, pattern, wholeLine, 
+                                startLine, endLine, maxMatches);
+                    }
+                }));
+            }
+            // take matches in log order; once enough, later chunks needn't finish
+            for (Future<SortedMap<Long,String>> future : futures) {
+                if (matches.size() >= maxMatches) {
+                    future.cancel(true);
+                    continue;
+                }
+                SortedMap<Long,String> chunkMatches;
+                try {
+                    chunkMatches = future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted searching " + log);
+                }
+                for (Long line : chunkMatches.keySet()) {
+                    if (matches.size() >= maxMatches) {
+                        break;
+                    }
+                    matches.put(line, chunkMatches.get(line));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return matches;
+    }
+    
+    protected static SortedMap<Long,String> searchLines(File log, LogIndex index,
+            Pattern pattern, boolean wholeLine, long startLine, long endLine, 
+            int maxMatches) throws IOException {
+        SortedMap<Long,String> matches = new TreeMap<Long,String>();
+        BufferedReader reader = readerAtLine(log, index, startLine);
+        try {
+            String line;
+            for (long i = startLine; i < endLine 
+                    && (line = reader.readLine()) != null; i++) {
+                if ((i % CANCEL_CHECK_LINES) == 0 
+                        && Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                boolean found = wholeLine 
+                    ? pattern.matcher(line).matches()
+                    : pattern.matcher(line).find();
+                if (found) {
+                    matches.put(i, line);
+                    if (matches.size() >= maxMatches) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Sidecar index of a log file, allowing readers to seek to a line (or 
+ * a time) rather than scan from the start. 
+ * 
+ * The index file (the log's name plus ".idx") holds fixed-width entries,
+ * each three big-endian longs: the 0-based number of a line; the byte 
+ * offset in the log at which that line begins (or, in a log written as
+ * a series of gzip members, at which the member beginning with that line
+ * begins); and the time, in milliseconds, logged on that line. Entries 
+ * are in line (hence offset) order, so may be binary-searched by line, 
+ * or, as logs are written in near time order, by time.
+ * 
+ * An index may also be built (in memory) for an uncompressed log, and 
+ * brought up to date as the log grows, by update(); only the lines added 
+ * since the last update are read. 
+ */
+public class LogIndex {
+    public static final String SUFFIX = ".idx";
+    public static final int ENTRY_BYTES = 24;
+    /** default lines between entries of a built index */
+    public static final int DEFAULT_INTERVAL = 1000;
+    /** length of the log timestamp at line start, as 2014-01-01T00:00:00.000Z */
+    protected static final int TIMESTAMP_LENGTH = 24;
+    
+    protected long[] lines = new long[16];
+    protected long[] offsets = new long[16];
+    protected long[] times = new long[16];
+    protected int size = 0;
+    
+    /** lines between entries added by update() */
+    protected int interval = DEFAULT_INTERVAL;
+    /** length of log indexed so far: the end of its last complete line */
+    protected long indexedLength = 0;
+    /** count of complete lines in the first indexedLength bytes of the log */
+    protected long indexedLines = 0;
+    
+    public LogIndex() {
+    }
+    
+    public LogIndex(int interval) {
+        this.interval = Math.max(1, interval);
+    }
+
+    public static File indexFileFor(File log) {
+        return new File(log.getPath() + SUFFIX);
+    }
+    
+    public static void writeEntry(DataOutput out, long line, long offset, 
+            long time) throws IOException {
+        out.writeLong(line);
+        out.writeLong(offset);
+        out.writeLong(time);
+    }
+    
+    /**
+     * Read all complete entries of the given index file (a partially 
+     * written last entry is ignored).
+     */
+    public static LogIndex load(File indexFile) throws IOException {
+        LogIndex index = new LogIndex();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            long complete = indexFile.length() / ENTRY_BYTES;
+            for (long i = 0; i < complete; i++) {
+                index.add(in.readLong(), in.readLong(), in.readLong());
+            }
+        } catch (EOFException e) {
+            // truncated since length taken; keep what was read
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (index.size > 0) {
+            // any update() resumes from the last entry
+            index.indexedLines = index.lines[index.size - 1];
+            index.indexedLength = index.offsets[index.size - 1];
+        }
+        return index;
+    }
+    
+    /**
+     * Index any complete lines added to the (uncompressed) log since the 
+     * last update. If the log is now shorter than was indexed, or no 
+     * longer has a line break just before the indexed length, it's 
+     * assumed rewritten, and indexed afresh. 
+     */
+    public synchronized void update(File log) throws IOException {
+        long length = log.length();
+        if (length < indexedLength) {
+            reset();
+        }
+        if (length == indexedLength) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        try {
+            if (indexedLength > 0) {
+                raf.seek(indexedLength - 1);
+                if (raf.read() != '\n') {
+                    reset();
+                }
+            }
+            raf.seek(indexedLength);
+            byte[] buf = new byte[64 * 1024];
+            byte[] head = new byte[TIMESTAMP_LENGTH];
+            int headLength = 0;
+            long lineStart = indexedLength;
+            long line = indexedLines;
+            long lastEntryLine = size > 0 ? lines[size - 1] : -interval;
+            long lastTime = size > 0 ? times[size - 1] : 0;
+            long position = indexedLength;
+            int read;
+            while ((read = raf.read(buf)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    byte b = buf[i];
+                    if (b == '\n') {
+                        if (line - lastEntryLine >= interval) {
+                            lastTime = parseTime(head, headLength, lastTime);
+                            add(line, lineStart, lastTime);
+                            lastEntryLine = line;
+                        }
+                        line++;
+                        lineStart = position + i + 1;
+                        headLength = 0;
+                    } else if (headLength < TIMESTAMP_LENGTH) {
+                        head[headLength++] = b;
+                    }
+                }
+                position += read;
+            }
+            indexedLength = lineStart;
+            indexedLines = line;
+        } finally {
+            raf.close();
+        }
+    }
+    
+    protected void reset() {
+        size = 0;
+        indexedLength = 0;
+        indexedLines = 0;
+    }
+    
+    /**
+     * @return time at the start of a line in the usual log format 
+     * (ArchiveUtils.getLog17Date()), or the fallback if none
+     */
+    protected static long parseTime(byte[] head, int length, long fallback) {
+        if (length < TIMESTAMP_LENGTH || head[4] != '-' || head[10] != 'T'
+                || head[23] != 'Z') {
+            return fallback;
+        }
+        try {
+            Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+            calendar.clear();
+            calendar.set(digits(head, 0, 4), digits(head, 5, 2) - 1, 
+                    digits(head, 8, 2), digits(head, 11, 2), 
+                    digits(head, 14, 2), digits(head, 17, 2));
+            calendar.set(Calendar.MILLISECOND, digits(head, 20, 3));
+            return calendar.getTimeInMillis();
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+    
+    protected static int digits(byte[] bytes, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException();
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+    
+    /**
+     * @return length of the log as indexed: the end of its last complete
+     * line (or, for a loaded index not since updated, the last entry)
+     */
+    public synchronized long getIndexedLength() {
+        return indexedLength;
+    }
+    
+    /**
+     * @return count of lines in getIndexedLength() bytes of the log
+     */
+    public synchronized long getIndexedLines() {
+        return indexedLines;
+    }
+    
+    public synchronized void add(long line, long offset, long time) {
+        if (size == lines.length) {
+            int capacity = size * 2;
+            lines = copyOf(lines, capacity);
+            offsets = copyOf(offsets, capacity);
+            times = copyOf(times, capacity);
+        }
+        lines[size] = line;
+        offsets[size] = offset;
+        times[size] = time;
+        size++;
+    }
+    
+    protected static long[] copyOf(long[] array, int capacity) {
+        long[] copy = new long[capacity];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized long getLine(int entry) {
+        return lines[entry];
+    }
+    
+    public synchronized long getOffset(int entry) {
+        return offsets[entry];
+    }
+    
+    public synchronized long getTime(int entry) {
+        return times[entry];
+    }
+    
+    /**
+     * @return the last entry at or before the given line, or -1 if none
+     */
+    public synchronized int entryForLine(long line) {
+        return lastAtOrBefore(lines, line);
+    }
+    
+    /**
+     * @return the last entry at or before the given offset, or -1 if none
+     */
+    public synchronized int entryForOffset(long offset) {
+        return lastAtOrBefore(offsets, offset);
+    }
+    
+    /**
+     * @return the last entry logged at or before the given time, or -1 if
+     * none (approximate, if the log isn't strictly in time order)
+     */
+    public synchronized int entryForTime(long time) {
+        return lastAtOrBefore(times, time);
+    }
+    
+    protected int lastAtOrBefore(long[] values, long value) {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+}
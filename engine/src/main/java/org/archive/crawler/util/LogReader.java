@@ -28,6 +28,7 @@ import java.io.RandomAccessFile;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.LinkedList;
+import java.util.SortedMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -107,6 +108,23 @@ public class LogReader
     {
         File f = new File(aFileName);
         long logsize = f.length();
+        if (IndexedLogReader.isIndexable(f)) {
+            // seek by way of the log's line index, rather than scanning
+            try {
+                StringBuffer ret = new StringBuffer();
+                for (String line : IndexedLogReader.getLines(f, 
+                        Math.max(0, lineNumber - 1), n)) {
+                    ret.append(line);
+                    ret.append('\n');
+                }
+                String[] tmp = {ret.toString(), 
+                        buildDisplayingHeader(ret.length(), logsize)};
+                return tmp;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
         try {
             return get(new FileReader(aFileName),lineNumber,n,logsize);
         } catch (FileNotFoundException e) {
@@ -220,6 +238,18 @@ public class LogReader
      */
     public static int findFirstLineContaining(String aFileName, String regex)
     {
+        File f = new File(aFileName);
+        if (IndexedLogReader.isIndexable(f)) {
+            // search chunks of the log in parallel
+            try {
+                SortedMap<Long,String> matches = IndexedLogReader.search(f, 
+                        Pattern.compile(regex), true, 0, 1);
+                return matches.isEmpty() ? -1 : (int) (matches.firstKey() + 1);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return -1;
+            }
+        }
         try {
             return findFirstLineContaining(new FileReader(aFileName), regex);
         } catch (FileNotFoundException e) {
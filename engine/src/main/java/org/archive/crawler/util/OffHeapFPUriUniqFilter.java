@@ -0,0 +1,539 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.checkpointing.Checkpoint;
+import org.archive.checkpointing.Checkpointable;
+import org.archive.spring.ConfigPath;
+import org.archive.util.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.Lifecycle;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * UriUniqFilter storing 64-bit UURI fingerprints in open-addressing
+ * (linear probing) hash tables held outside the Java heap, so that very
+ * large numbers of seen URIs create no GC work.
+ *
+ * The fingerprint space is split by its top bits into 2^segmentCountBits
+ * independently-locked segments, so concurrent adds from many threads
+ * rarely contend. Each segment doubles its table as it passes the load
+ * factor, up to 2^27 entries (1GiB) per segment.
+ *
+ * By default segment tables are direct ByteBuffers. With useMappedFiles,
+ * they are instead memory-mapped files in the given directory, so the
+ * operating system may page out cold segments (and cold regions of
+ * segments) rather than the whole set needing to stay resident.
+ *
+ * Checkpoints write each segment's raw table to the checkpoint directory,
+ * and recovery reads them back directly, with no rehashing.
+ *
+ * Like the other fingerprint-based filters, distinct URIs whose 64-bit
+ * fingerprints collide will be treated as duplicates.
+ */
+public class OffHeapFPUriUniqFilter extends SetBasedUriUniqFilter
+implements Lifecycle, Checkpointable, BeanNameAware, DisposableBean {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger =
+        Logger.getLogger(OffHeapFPUriUniqFilter.class.getName());
+
+    /** marks an unused table slot; a zero fingerprint is tracked apart */
+    protected static final long EMPTY = 0L;
+    /** largest segment table, in entries: 1GiB of longs, within the
+     * ByteBuffer int-index limit */
+    protected static final int MAX_SEGMENT_CAPACITY_BITS = 27;
+
+    /** log2 of number of independently locked segments */
+    protected int segmentCountBits = 8;
+    public int getSegmentCountBits() {
+        return this.segmentCountBits;
+    }
+    public void setSegmentCountBits(int bits) {
+        this.segmentCountBits = bits;
+    }
+
+    /** log2 of starting entry capacity of each segment; the default,
+     * with 256 segments, starts at 32MiB total */
+    protected int initialSegmentCapacityBits = 14;
+    public int getInitialSegmentCapacityBits() {
+        return this.initialSegmentCapacityBits;
+    }
+    public void setInitialSegmentCapacityBits(int bits) {
+        this.initialSegmentCapacityBits = bits;
+    }
+
+    /** fill ratio at which a segment doubles its table */
+    protected float loadFactor = 0.75f;
+    public float getLoadFactor() {
+        return this.loadFactor;
+    }
+    public void setLoadFactor(float loadFactor) {
+        this.loadFactor = loadFactor;
+    }
+
+    /** whether to back segment tables with memory-mapped files (in
+     * directory), rather than direct memory */
+    protected boolean useMappedFiles = false;
+    public boolean getUseMappedFiles() {
+        return this.useMappedFiles;
+    }
+    public void setUseMappedFiles(boolean useMappedFiles) {
+        this.useMappedFiles = useMappedFiles;
+    }
+
+    /** directory for segment files, if useMappedFiles */
+    protected ConfigPath directory =
+        new ConfigPath("off-heap fingerprint set subdirectory", "fpset");
+    public ConfigPath getDirectory() {
+        return this.directory;
+    }
+    public void setDirectory(ConfigPath directory) {
+        this.directory = directory;
+    }
+
+    protected String beanName;
+    public void setBeanName(String name) {
+        this.beanName = name;
+    }
+
+    protected transient FPGenerator fpgen = FPGenerator.std64;
+    protected transient Segment[] segments;
+    protected AtomicLong count = new AtomicLong(0);
+
+    public OffHeapFPUriUniqFilter() {
+        super();
+    }
+
+    protected boolean isRunning = false;
+    public void start() {
+        if(isRunning()) {
+            return;
+        }
+        try {
+            if(useMappedFiles) {
+                FileUtils.ensureWriteableDirectory(directory.getFile());
+            }
+            segments = new Segment[1 << segmentCountBits];
+            if(recoveryCheckpoint != null) {
+                recover(recoveryCheckpoint);
+            } else {
+                for(int i = 0; i < segments.length; i++) {
+                    segments[i] = new Segment(i, initialSegmentCapacityBits);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        isRunning = true;
+    }
+
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public void stop() {
+        if(!isRunning()) {
+            return;
+        }
+        isRunning = false;
+    }
+
+    public void destroy() {
+        close();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if(segments == null) {
+            return;
+        }
+        for(Segment segment : segments) {
+            if(segment != null) {
+                segment.release();
+            }
+        }
+        segments = null;
+    }
+
+    protected Segment segmentFor(long fp) {
+        if(segmentCountBits == 0) {
+            // (a shift by 64 would be a shift by 0)
+            return segments[0];
+        }
+        return segments[(int) (fp >>> (64 - segmentCountBits))];
+    }
+
+    protected long getFp(CharSequence canonical) {
+        return fpgen.fp(canonical);
+    }
+
+    protected boolean setAdd(CharSequence uri) {
+        long fp = getFp(uri);
+        if(segmentFor(fp).add(fp)) {
+            count.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean setRemove(CharSequence uri) {
+        long fp = getFp(uri);
+        if(segmentFor(fp).remove(fp)) {
+            count.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    protected long setCount() {
+        return count.get();
+    }
+
+    /**
+     * @return whether the given fingerprint is present
+     */
+    public boolean containsFp(long fp) {
+        return segmentFor(fp).contains(fp);
+    }
+
+    /**
+     * Allocate a zeroed table of the given entry capacity, either in
+     * direct memory or mapped from a fresh file.
+     */
+    protected ByteBuffer allocateTable(int index, int generation,
+            int capacityBits) throws IOException {
+        long bytes = 8L << capacityBits;
+        ByteBuffer table;
+        if(useMappedFiles) {
+            RandomAccessFile raf =
+                new RandomAccessFile(segmentFile(index, generation), "rw");
+            try {
+                // truncate then extend: a sparse, all-zero file
+                raf.setLength(0);
+                raf.setLength(bytes);
+                table = raf.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, bytes);
+            } finally {
+                raf.close();
+            }
+        } else {
+            table = ByteBuffer.allocateDirect((int) bytes);
+        }
+        return table.order(ByteOrder.nativeOrder());
+    }
+
+    protected File segmentFile(int index, int generation) {
+        return new File(directory.getFile(),
+                "segment-" + index + "." + generation);
+    }
+
+    /**
+     * One independently locked, independently resized, open-addressing
+     * table of fingerprints.
+     */
+    protected class Segment {
+        protected final int index;
+        protected int generation = 0;
+        protected int capacityBits;
+        protected int mask;
+        protected int threshold;
+        protected int size = 0;
+        protected boolean hasZero = false;
+        protected ByteBuffer table;
+
+        protected Segment(int index, int capacityBits) throws IOException {
+            this(index);
+            setTable(allocateTable(index, generation, capacityBits),
+                    capacityBits);
+        }
+
+        /** segment without table, to be filled by readFrom() */
+        protected Segment(int index) {
+            this.index = index;
+        }
+
+        protected void setTable(ByteBuffer table, int capacityBits) {
+            this.table = table;
+            this.capacityBits = capacityBits;
+            this.mask = (1 << capacityBits) - 1;
+            this.threshold = (int) ((1 << capacityBits) * loadFactor);
+        }
+
+        protected int home(long fp) {
+            // top bits chose the segment; mix all bits for the slot
+            long h = fp * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
+        }
+
+        protected synchronized boolean add(long fp) {
+            if(fp == EMPTY) {
+                if(hasZero) {
+                    return false;
+                }
+                hasZero = true;
+                size++;
+                return true;
+            }
+            if(size >= threshold) {
+                grow();
+            }
+            int slot = home(fp);
+            while(true) {
+                long current = table.getLong(slot << 3);
+                if(current == EMPTY) {
+                    table.putLong(slot << 3, fp);
+                    size++;
+                    return true;
+                }
+                if(current == fp) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        protected synchronized boolean contains(long fp) {
+            if(fp == EMPTY) {
+                return hasZero;
+            }
+            return find(fp) >= 0;
+        }
+
+        protected int find(long fp) {
+            int slot = home(fp);
+            while(true) {
+                long current = table.getLong(slot << 3);
+                if(current == EMPTY) {
+                    return -1;
+                }
+                if(current == fp) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * Remove, shifting back any later entries of the same probe run
+         * so that no tombstones are needed.
+         */
+        protected synchronized boolean remove(long fp) {
+            if(fp == EMPTY) {
+                if(!hasZero) {
+                    return false;
+                }
+                hasZero = false;
+                size--;
+                return true;
+            }
+            int hole = find(fp);
+            if(hole < 0) {
+                return false;
+            }
+            int slot = hole;
+            while(true) {
+                slot = (slot + 1) & mask;
+                long current = table.getLong(slot << 3);
+                if(current == EMPTY) {
+                    break;
+                }
+                int home = home(current);
+                boolean homeInRun = (hole <= slot)
+                    ? (hole < home && home <= slot)
+                    : (hole < home || home <= slot);
+                if(!homeInRun) {
+                    table.putLong(hole << 3, current);
+                    hole = slot;
+                }
+            }
+            table.putLong(hole << 3, EMPTY);
+            size--;
+            return true;
+        }
+
+        protected void grow() {
+            if(capacityBits >= MAX_SEGMENT_CAPACITY_BITS) {
+                if(size >= mask) {
+                    throw new IllegalStateException("fingerprint segment "
+                            + index + " full at " + size + " entries");
+                }
+                if(size == threshold) {
+                    logger.warning("fingerprint segment " + index
+                            + " at maximum capacity; consider more segments");
+                }
+                return;
+            }
+            ByteBuffer oldTable = table;
+            int oldCapacity = 1 << capacityBits;
+            try {
+                setTable(allocateTable(index, generation + 1, capacityBits + 1),
+                        capacityBits + 1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            for(int i = 0; i < oldCapacity; i++) {
+                long fp = oldTable.getLong(i << 3);
+                if(fp != EMPTY) {
+                    int slot = home(fp);
+                    while(table.getLong(slot << 3) != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table.putLong(slot << 3, fp);
+                }
+            }
+            if(useMappedFiles) {
+                // unmapped when collected; unlinked now
+                segmentFile(index, generation).delete();
+            }
+            generation++;
+            if(logger.isLoggable(Level.FINE)) {
+                logger.fine("fingerprint segment " + index + " grown to "
+                        + (1 << capacityBits) + " entries");
+            }
+        }
+
+        protected synchronized void release() {
+            table = null;
+            if(useMappedFiles) {
+                segmentFile(index, generation).delete();
+            }
+        }
+
+        /** write raw table to given file */
+        protected synchronized void writeTo(File file) throws IOException {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                FileChannel channel = out.getChannel();
+                ByteBuffer src = table.duplicate();
+                src.clear();
+                while(src.hasRemaining()) {
+                    channel.write(src);
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        /** replace table with raw contents of given file */
+        protected synchronized void readFrom(File file, int capacityBits,
+                int size, boolean hasZero) throws IOException {
+            ByteBuffer dst = allocateTable(index, generation, capacityBits);
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer dup = dst.duplicate();
+                while(dup.hasRemaining()) {
+                    if(channel.read(dup) < 0) {
+                        throw new IOException("truncated segment file " + file);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            setTable(dst, capacityBits);
+            this.size = size;
+            this.hasZero = hasZero;
+        }
+    }
+
+    // Checkpointable
+    public void startCheckpoint(Checkpoint checkpointInProgress) {}
+
+    public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("count", setCount());
+            json.put("segmentCountBits", segmentCountBits);
+            JSONArray capacities = new JSONArray();
+            JSONArray sizes = new JSONArray();
+            JSONArray zeroes = new JSONArray();
+            for(Segment segment : segments) {
+                // lock each segment only while it's written
+                synchronized(segment) {
+                    segment.writeTo(checkpointSegmentFile(
+                            checkpointInProgress, segment.index));
+                    capacities.put(segment.capacityBits);
+                    sizes.put(segment.size);
+                    zeroes.put(segment.hasZero);
+                }
+            }
+            json.put("capacityBits", capacities);
+            json.put("sizes", sizes);
+            json.put("hasZero", zeroes);
+            checkpointInProgress.saveJson(beanName, json);
+        } catch (JSONException e) {
+            // impossible
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {}
+
+    protected Checkpoint recoveryCheckpoint;
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        this.recoveryCheckpoint = recoveryCheckpoint;
+    }
+
+    protected File checkpointSegmentFile(Checkpoint checkpoint, int index) {
+        return new File(checkpoint.getCheckpointDir().getFile(),
+                beanName + "-segment-" + index);
+    }
+
+    protected void recover(Checkpoint checkpoint) throws IOException {
+        JSONObject json = checkpoint.loadJson(beanName);
+        try {
+            if(json.getInt("segmentCountBits") != segmentCountBits) {
+                throw new IllegalStateException("checkpoint has "
+                        + json.getInt("segmentCountBits")
+                        + " segmentCountBits; configured " + segmentCountBits);
+            }
+            JSONArray capacities = json.getJSONArray("capacityBits");
+            JSONArray sizes = json.getJSONArray("sizes");
+            JSONArray zeroes = json.getJSONArray("hasZero");
+            for(int i = 0; i < segments.length; i++) {
+                segments[i] = new Segment(i);
+                segments[i].readFrom(checkpointSegmentFile(checkpoint, i),
+                        capacities.getInt(i), sizes.getInt(i),
+                        zeroes.getBoolean(i));
+            }
+            count.set(json.getLong("count"));
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -246,6 +246,14 @@
 							</#if>
 						</td>
 					</tr>
+					<#if job.recoveryReport??>
+					<tr>
+						<th>Recovery</th>
+						<td>
+							${job.recoveryReport.phase}: ${job.recoveryReport.linesRead}<#if (job.recoveryReport.totalLines > 0)>/${job.recoveryReport.totalLines}</#if> lines; ${job.recoveryReport.urisApplied} URIs applied; ${job.recoveryReport.linesPerSecond} lines/sec (${job.recoveryReport.threads} threads)
+						</td>
+					</tr>
+					</#if>
 					<tr>
 						<th>Memory</th>
 						<td>${(heapReport.usedBytes/1024)?string("0")} KiB used; ${(heapReport.totalBytes/1024)?string("0")} KiB current heap; ${(heapReport.maxBytes/1024)?string("0")} KiB max heap</td>
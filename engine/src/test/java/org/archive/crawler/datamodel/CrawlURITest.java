@@ -26,6 +26,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 import org.apache.commons.httpclient.URIException;
+import org.archive.bdb.KryoBinding;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.SchedulingConstants;
 import org.archive.modules.extractor.LinkContext.SimpleLinkContext;
@@ -33,6 +34,8 @@ import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
 import org.archive.util.TmpDirTestCase;
 
+import com.sleepycat.je.DatabaseEntry;
+
 /**
  * Tests related to CrawlURI
  *
@@ -215,4 +218,54 @@ public class CrawlURITest extends TmpDirTestCase {
         assertEquals(0, a.compareTo(b));
         assertEquals(0, b.compareTo(a));
     }
+
+    public void testCompactKryoSerialization() throws URIException {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://example.com/1"),
+                "LLX",
+                UURIFactory.getInstance("http://example.com/via/1"),
+                new SimpleLinkContext("a/@href"));
+        curi.setClassKey("com,example,");
+        curi.setPrecedence(3);
+        curi.setSchedulingDirective(SchedulingConstants.HIGH);
+        curi.setContentSize(12345);
+        curi.setFetchType(CrawlURI.FetchType.HTTP_POST);
+        curi.setContentDigest("sha1", new byte[] {1, 2, 3});
+        curi.setSourceTag("seeds.txt");
+        curi.getAnnotations().add("test-annotation");
+        curi.getData().put("custom-key", "custom-value");
+        curi.addExtraInfo("extra", "info");
+
+        KryoBinding<CrawlURI> defaultBinding =
+            new KryoBinding<CrawlURI>(CrawlURI.class);
+        KryoBinding<CrawlURI> compactBinding =
+            new KryoBinding<CrawlURI>(CrawlURI.class);
+        CrawlURI.registerCompactSerializer(compactBinding.getKryo());
+
+        DatabaseEntry defaultEntry = new DatabaseEntry();
+        defaultBinding.objectToEntry(curi, defaultEntry);
+        DatabaseEntry compactEntry = new DatabaseEntry();
+        compactBinding.objectToEntry(curi, compactEntry);
+        assertTrue("compact form not smaller",
+                compactEntry.getSize() < defaultEntry.getSize());
+
+        CrawlURI copy = compactBinding.entryToObject(compactEntry);
+        assertEquals(curi.toString(), copy.toString());
+        assertEquals(curi.getPathFromSeed(), copy.getPathFromSeed());
+        assertEquals(curi.getVia(), copy.getVia());
+        assertEquals(curi.getViaContext().toString(),
+                copy.getViaContext().toString());
+        assertEquals("com,example,", copy.getClassKey());
+        assertEquals(3, copy.getPrecedence());
+        assertEquals(SchedulingConstants.HIGH, copy.getSchedulingDirective());
+        assertEquals(12345, copy.getContentSize());
+        assertEquals(CrawlURI.FetchType.HTTP_POST, copy.getFetchType());
+        assertEquals(curi.getContentDigestSchemeString(),
+                copy.getContentDigestSchemeString());
+        assertEquals("seeds.txt", copy.getSourceTag());
+        assertTrue(copy.getAnnotations().contains("test-annotation"));
+        assertEquals("custom-value", copy.getData().get("custom-key"));
+        assertEquals(curi.getExtraInfo().toString(),
+                copy.getExtraInfo().toString());
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.framework;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_REFERENCE_LENGTH;
+
+import java.util.HashMap;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Recorder;
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests of RecorderPool's size classes.
+ */
+public class RecorderPoolTest extends TmpDirTestCase {
+
+    @SuppressWarnings("unchecked")
+    protected CrawlURI uriWithReferenceLength(long length) throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/"));
+        if (length >= 0) {
+            HashMap<String,Object> latest = new HashMap<String,Object>();
+            latest.put(A_REFERENCE_LENGTH, length);
+            curi.setFetchHistory(new HashMap[] { latest, null });
+        }
+        return curi;
+    }
+
+    public void testSizeClasses() throws Exception {
+        RecorderPool pool = new RecorderPool(getTmpDir(), 1024,
+                new int[] { 512 * 1024, 16 * 1024 });
+
+        Recorder unknown = pool.borrow(uriWithReferenceLength(-1));
+        Recorder small = pool.borrow(uriWithReferenceLength(2000));
+        Recorder large = pool.borrow(uriWithReferenceLength(100 * 1024));
+        Recorder huge = pool.borrow(uriWithReferenceLength(10 * 1024 * 1024));
+
+        assertEquals(4, pool.getInUseCount());
+        assertEquals(2, pool.getSizeClassOccupancy().get(16 * 1024)[0]);
+        assertEquals(2, pool.getSizeClassOccupancy().get(512 * 1024)[0]);
+        assertEquals(2L * (16 * 1024 + 1024) + 2L * (512 * 1024 + 1024),
+                pool.getBufferBytes());
+
+        pool.release(small);
+        pool.release(huge);
+        assertEquals(2, pool.getInUseCount());
+        // released recorders are reused within their class
+        assertSame(small, pool.borrow(uriWithReferenceLength(100)));
+        assertSame(huge, pool.borrow());
+        assertEquals(4, pool.getCreatedCount());
+
+        for (Recorder recorder : new Recorder[] {unknown, small, large, huge}) {
+            pool.release(recorder);
+        }
+        assertEquals(0, pool.getInUseCount());
+        pool.cleanup();
+    }
+
+    public void testQueueAverageSizes() throws Exception {
+        RecorderPool pool = new RecorderPool(getTmpDir(), 1024,
+                new int[] { 16 * 1024, 64 * 1024, 512 * 1024 });
+
+        // nothing known: middle class
+        CrawlURI first = uriWithReferenceLength(-1);
+        first.setClassKey("www.example.com,");
+        Recorder recorder = pool.borrow(first);
+        assertEquals(1, pool.getSizeClassOccupancy().get(64 * 1024)[0]);
+
+        // a large response from the queue steers later URIs from it
+        first.setContentSize(200 * 1024);
+        pool.release(recorder, first);
+        CrawlURI second = uriWithReferenceLength(-1);
+        second.setClassKey("www.example.com,");
+        recorder = pool.borrow(second);
+        assertEquals(1, pool.getSizeClassOccupancy().get(512 * 1024)[0]);
+        pool.release(recorder, second);
+
+        CrawlURI other = uriWithReferenceLength(-1);
+        other.setClassKey("www.example.org,");
+        recorder = pool.borrow(other);
+        assertEquals(1, pool.getSizeClassOccupancy().get(64 * 1024)[0]);
+        pool.release(recorder);
+        pool.cleanup();
+    }
+}
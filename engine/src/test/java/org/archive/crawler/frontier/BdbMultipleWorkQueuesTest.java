@@ -18,6 +18,9 @@
  */
 package org.archive.crawler.frontier;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
@@ -100,4 +103,36 @@ public class BdbMultipleWorkQueuesTest extends TestCase {
                     .compareKeys(key5, key4, null) < 0);
         }
     }
+
+    /**
+     * Ensure the in-memory sort used for batched puts orders CrawlURIs
+     * exactly as the database compares their keys.
+     * 
+     * @throws URIException
+     */
+    public void testInsertKeyOrder() throws URIException {
+        List<CrawlURI> curis = new ArrayList<CrawlURI>();
+        String[] classKeys = {"foo", "foo.bar", "fo", "\u00e9t\u00e9", "foo"};
+        for (int i = 0; i < 50; i++) {
+            CrawlURI curi = new CrawlURI(
+                    UURIFactory.getInstance("http://archive.org/" + i));
+            curi.setOrdinal((i * 7919L) % 1000);
+            curi.setClassKey(classKeys[i % classKeys.length]);
+            curi.setPrecedence(i % 3);
+            if (i % 4 == 0) {
+                curi.setSchedulingDirective(SchedulingConstants.HIGH);
+            }
+            curi.setHolderKey(BdbMultipleWorkQueues.calculateInsertKey(curi));
+            curis.add(curi);
+        }
+        Collections.sort(curis, BdbMultipleWorkQueues.INSERT_KEY_ORDER);
+        for (int i = 1; i < curis.size(); i++) {
+            byte[] prior = BdbMultipleWorkQueues.calculateInsertKey(
+                    curis.get(i - 1)).getData();
+            byte[] next = BdbMultipleWorkQueues.calculateInsertKey(
+                    curis.get(i)).getData();
+            assertTrue("batch order disagrees with database order at " + i,
+                    Key.compareKeys(prior, next, null) <= 0);
+        }
+    }
 }
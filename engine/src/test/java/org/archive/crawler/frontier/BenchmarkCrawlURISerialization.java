@@ -0,0 +1,112 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.bdb.KryoBinding;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.extractor.HTMLLinkContext;
+import org.archive.net.UURIFactory;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * Simple benchmark of the CrawlURI serialization used for frontier
+ * records by BdbMultipleWorkQueues: average record size, and time to
+ * write then read back a batch of typical queued CrawlURIs, with the
+ * default Kryo field serialization versus the compact serializer.
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and core count of the test machine may affect relative
+ * tallies in unpredictable ways.
+ */
+public class BenchmarkCrawlURISerialization {
+
+    public static void main(String[] args) throws URIException {
+        (new BenchmarkCrawlURISerialization()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws URIException {
+        int count =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int reps =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        List<CrawlURI> curis = makeCrawlURIs(count);
+        KryoBinding<CrawlURI> defaultBinding =
+            new KryoBinding<CrawlURI>(CrawlURI.class);
+        KryoBinding<CrawlURI> compactBinding =
+            new KryoBinding<CrawlURI>(CrawlURI.class);
+        CrawlURI.registerCompactSerializer(compactBinding.getKryo());
+
+        System.out.println("count=" + count + " reps=" + reps);
+        for (int r = 0; r < reps; r++) {
+            run("default", defaultBinding, curis);
+            run("compact", compactBinding, curis);
+        }
+    }
+
+    protected List<CrawlURI> makeCrawlURIs(int count) throws URIException {
+        List<CrawlURI> curis = new ArrayList<CrawlURI>(count);
+        for (int i = 0; i < count; i++) {
+            String host = "www" + (i % 97) + ".example.com";
+            CrawlURI curi = new CrawlURI(
+                    UURIFactory.getInstance("http://" + host + "/page/" + i),
+                    "LLL",
+                    UURIFactory.getInstance("http://" + host + "/"),
+                    HTMLLinkContext.A_HREF);
+            curi.setClassKey(host);
+            curi.setPrecedence(1 + i % 5);
+            curi.setSourceTag("seeds.txt");
+            curi.setOrdinal(i);
+            if (i % 10 == 0) {
+                curi.getAnnotations().add("annotated");
+            }
+            curis.add(curi);
+        }
+        return curis;
+    }
+
+    protected void run(String label, KryoBinding<CrawlURI> binding,
+            List<CrawlURI> curis) {
+        List<DatabaseEntry> entries =
+            new ArrayList<DatabaseEntry>(curis.size());
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (CrawlURI curi : curis) {
+            DatabaseEntry entry = new DatabaseEntry();
+            binding.objectToEntry(curi, entry);
+            bytes += entry.getSize();
+            entries.add(entry);
+        }
+        long wrote = System.nanoTime();
+        for (DatabaseEntry entry : entries) {
+            binding.entryToObject(entry);
+        }
+        long read = System.nanoTime();
+        System.out.println(label + ": avg " + (bytes / curis.size())
+                + " bytes, write " + ((wrote - start) / curis.size())
+                + "ns/uri, read " + ((read - wrote) / curis.size())
+                + "ns/uri");
+    }
+}
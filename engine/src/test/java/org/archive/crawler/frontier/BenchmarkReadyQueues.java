@@ -0,0 +1,131 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simple many-thread benchmark of the ready-queue structure used by
+ * WorkQueueFrontier.findEligibleURI(): each thread repeatedly polls a
+ * queue key, does a little simulated work, then re-readies the key, as
+ * ToeThreads do when cycling through queues. Compares the single shared
+ * LinkedBlockingQueue with ShardedBlockingQueue at various shard counts.
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and core count of the test machine may affect relative
+ * tallies in unpredictable ways.
+ */
+public class BenchmarkReadyQueues {
+
+    public static void main(String[] args) throws InterruptedException {
+        (new BenchmarkReadyQueues()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws InterruptedException {
+        int threads =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        int queues =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        long durationMs =
+            (args.length > 2) ? Long.parseLong(args[2]) : 5000;
+        int reps =
+            (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+
+        System.out.println("threads=" + threads + " queues=" + queues
+                + " durationMs=" + durationMs + " reps=" + reps);
+        int[] shardCounts = {1, 4, 16, 64};
+        for (int r = 0; r < reps; r++) {
+            for (int shardCount : shardCounts) {
+                BlockingQueue<String> ready = makeReadyQueues(shardCount);
+                for (int i = 0; i < queues; i++) {
+                    ready.add("queue" + i);
+                }
+                long ops = run(ready, threads, durationMs);
+                System.out.println("shards=" + shardCount + ": " + ops
+                        + " polls (" + (ops * 1000 / durationMs) + "/s)");
+            }
+        }
+    }
+
+    protected BlockingQueue<String> makeReadyQueues(int shardCount) {
+        if (shardCount <= 1) {
+            return new LinkedBlockingQueue<String>();
+        }
+        List<BlockingQueue<String>> shards = new ArrayList<BlockingQueue<String>>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new LinkedBlockingQueue<String>());
+        }
+        return new ShardedBlockingQueue<String>(shards) {
+            protected String shardKey(String e) {
+                return e;
+            }
+        };
+    }
+
+    protected long run(final BlockingQueue<String> ready, int threadCount,
+            long durationMs) throws InterruptedException {
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        List<Thread> threads = new ArrayList<Thread>(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long local = 0;
+                    while (System.currentTimeMillis() < deadline[0]) {
+                        String key = ready.poll();
+                        if (key == null) {
+                            continue;
+                        }
+                        // simulated per-emission bookkeeping
+                        int h = key.hashCode();
+                        for (int i = 0; i < 50; i++) {
+                            h = h * 31 + i;
+                        }
+                        if (h == 42) {
+                            System.out.print("");
+                        }
+                        ready.offer(key);
+                        local++;
+                    }
+                    ops.addAndGet(local);
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        deadline[0] = System.currentTimeMillis() + durationMs;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return ops.get();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.crawler.frontier.QueueYieldRebalancer.QueueYield;
+import org.archive.crawler.frontier.precedence.SimplePrecedenceProvider;
+import org.archive.crawler.util.CrawledBytesHistotable;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStats;
+
+/**
+ * Tests for QueueYieldRebalancer.
+ */
+public class QueueYieldRebalancerTest extends TestCase {
+
+    protected static class TestWorkQueue extends WorkQueue {
+        private static final long serialVersionUID = 1L;
+
+        public TestWorkQueue(String classKey) {
+            super(classKey);
+        }
+        protected void insertItem(WorkQueueFrontier frontier, CrawlURI curi,
+                boolean overwriteIfPresent) {
+        }
+        protected long deleteMatchingFromQueue(WorkQueueFrontier frontier,
+                String match) {
+            return 0;
+        }
+        protected void deleteItem(WorkQueueFrontier frontier, CrawlURI item) {
+        }
+        protected CrawlURI peekItem(WorkQueueFrontier frontier) {
+            return null;
+        }
+    }
+
+    protected void tally(FetchStats stats, int successes, int failures) {
+        stats.tally(FetchStats.FETCH_SUCCESSES, successes);
+        stats.tally(CrawledBytesHistotable.NOVELCOUNT, successes);
+        stats.tally(CrawledBytesHistotable.NOVEL, successes * 10000L);
+        stats.tally(FetchStats.FETCH_FAILURES, failures);
+    }
+
+    public void testDecisions() {
+        QueueYieldRebalancer rebalancer = new QueueYieldRebalancer();
+        String[] keys = {"fast", "typical1", "typical2", "slow", "erroring"};
+        int[][] tallies = {{100, 0}, {20, 1}, {25, 0}, {2, 0}, {5, 20}};
+        List<QueueYield> measured = new ArrayList<QueueYield>();
+        for (int i = 0; i < keys.length; i++) {
+            TestWorkQueue wq = new TestWorkQueue(keys[i]);
+            // activation starts tracking
+            assertEquals(3000, rebalancer.adjustSessionBudget(wq, 3000));
+            QueueYield qy = rebalancer.tracked.get(keys[i]);
+            assertFalse("no activity yet",
+                    rebalancer.measure(qy, wq.getSubstats(), 0));
+            tally(wq.getSubstats(), tallies[i][0], tallies[i][1]);
+            assertTrue(rebalancer.measure(qy, wq.getSubstats(), 10000));
+            measured.add(qy);
+        }
+        rebalancer.decideAll(measured);
+
+        assertEquals(2.0, rebalancer.lastMedianUrisPerSecond, 0.001);
+        QueueYield fast = rebalancer.tracked.get("fast");
+        assertEquals(4.0, fast.budgetFactor, 0.001);
+        assertEquals(-1, fast.precedenceAdjustment);
+        QueueYield typical = rebalancer.tracked.get("typical1");
+        assertEquals(1.0, typical.budgetFactor, 0.001);
+        assertEquals(0, typical.precedenceAdjustment);
+        QueueYield slow = rebalancer.tracked.get("slow");
+        assertEquals(0.25, slow.budgetFactor, 0.001);
+        assertEquals(1, slow.precedenceAdjustment);
+        QueueYield erroring = rebalancer.tracked.get("erroring");
+        assertEquals(0.8, erroring.errorRate, 0.001);
+        assertEquals(0.25, erroring.budgetFactor, 0.001);
+        assertEquals(1, erroring.precedenceAdjustment);
+
+        StringWriter report = new StringWriter();
+        rebalancer.reportTo(new PrintWriter(report));
+        assertTrue(report.toString().contains("5 queues tracked"));
+        assertTrue(report.toString().indexOf("fast")
+                < report.toString().indexOf("slow"));
+    }
+
+    public void testAdjustments() {
+        QueueYieldRebalancer rebalancer = new QueueYieldRebalancer();
+        TestWorkQueue wq = new TestWorkQueue("example.com");
+        wq.setPrecedenceProvider(new SimplePrecedenceProvider(3));
+        rebalancer.adjustSessionBudget(wq, 3000);
+        QueueYield qy = rebalancer.tracked.get("example.com");
+
+        qy.budgetFactor = 0.25;
+        qy.precedenceAdjustment = 1;
+        assertEquals(750, rebalancer.adjustSessionBudget(wq, 3000));
+        assertEquals("unlimited budget kept", 0,
+                rebalancer.adjustSessionBudget(wq, 0));
+        rebalancer.adjustPrecedence(wq);
+        assertEquals(4, wq.getPrecedence());
+
+        qy.precedenceAdjustment = -1;
+        wq.setPrecedenceProvider(new SimplePrecedenceProvider(1));
+        rebalancer.adjustPrecedence(wq);
+        assertEquals("precedence floored at 1", 1, wq.getPrecedence());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.util.TmpDirTestCase;
+
+public class RecoveryLogReplayTest extends TmpDirTestCase {
+
+    public void testReplay() throws Exception {
+        File log = new File(getTmpDir(), "RecoveryLogReplayTest.recover.gz");
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(log)), "UTF-8"));
+        for (int i = 0; i < 2500; i++) {
+            writer.println(FrontierJournal.F_ADD + "http://www.example.com/" + i 
+                    + " L http://www.example.com/");
+            if (i % 2 == 0) {
+                writer.println(FrontierJournal.F_SUCCESS + "http://www.example.com/" + i
+                        + " L http://www.example.com/");
+            }
+        }
+        writer.println(FrontierJournal.F_ADD + "not a uri");
+        writer.close();
+
+        RecoveryLogReplay replay = new RecoveryLogReplay(log, 4, 100);
+        final Set<String> applied = 
+            Collections.synchronizedSet(new HashSet<String>());
+        long lines = replay.replay("test", new RecoveryLogReplay.LineHandler() {
+            public boolean accepts(String lineType) {
+                return FrontierJournal.F_ADD.equals(lineType);
+            }
+            public CrawlURI parse(String line) throws URIException {
+                CrawlURI curi = CrawlURI.fromHopsViaString(line.substring(3));
+                // skip those ending 1, as if out of scope
+                return curi.getURI().endsWith("1") ? null : curi;
+            }
+            public void apply(String line, CrawlURI curi) {
+                applied.add(curi.getURI());
+            }
+        });
+        assertEquals(2500 + 1250 + 1, lines);
+        assertEquals(2250, applied.size());
+        assertTrue(applied.contains("http://www.example.com/2498"));
+        assertFalse(applied.contains("http://www.example.com/11"));
+        assertEquals(2250L, replay.getProgressData().get("urisApplied"));
+        assertEquals(lines, replay.getProgressData().get("linesRead"));
+        log.delete();
+    }
+}
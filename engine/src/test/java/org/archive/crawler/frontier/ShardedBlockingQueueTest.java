@@ -0,0 +1,106 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ShardedBlockingQueue.
+ */
+public class ShardedBlockingQueueTest extends TestCase {
+
+    protected ShardedBlockingQueue<String> makeQueue(int shardCount) {
+        List<BlockingQueue<String>> shards = new ArrayList<BlockingQueue<String>>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new LinkedBlockingQueue<String>());
+        }
+        return new ShardedBlockingQueue<String>(shards) {
+            protected String shardKey(String e) {
+                return e;
+            }
+        };
+    }
+
+    public void testEverythingPolledOnce() {
+        ShardedBlockingQueue<String> q = makeQueue(8);
+        for (int i = 0; i < 1000; i++) {
+            q.add("key" + i);
+        }
+        assertEquals("wrong size", 1000, q.size());
+        Set<String> seen = new HashSet<String>();
+        String key;
+        while ((key = q.poll()) != null) {
+            assertTrue("duplicate " + key, seen.add(key));
+        }
+        assertEquals("not all polled", 1000, seen.size());
+        assertTrue("not empty", q.isEmpty());
+    }
+
+    public void testSameKeySameShardFifo() {
+        ShardedBlockingQueue<String> q = makeQueue(4);
+        BlockingQueue<String> shard = q.shardFor("example.com");
+        q.add("example.com");
+        q.add("example.com");
+        assertEquals("both in one shard", 2, shard.size());
+    }
+
+    public void testIteratorCoversAllShards() {
+        ShardedBlockingQueue<String> q = makeQueue(5);
+        for (int i = 0; i < 100; i++) {
+            q.add("key" + i);
+        }
+        int count = 0;
+        for (String key : q) {
+            assertNotNull(key);
+            count++;
+        }
+        assertEquals("iterator missed entries", 100, count);
+        assertTrue(q.contains("key42"));
+        assertTrue(q.remove("key42"));
+        assertFalse(q.contains("key42"));
+    }
+
+    public void testTimedPollSteals() throws InterruptedException {
+        final ShardedBlockingQueue<String> q = makeQueue(16);
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // lands in whatever shard, likely not the consumer's home
+                q.add("late-arrival");
+            }
+        };
+        producer.start();
+        String got = q.poll(5, TimeUnit.SECONDS);
+        assertEquals("late-arrival", got);
+        producer.join();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.frontier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.fetcher.FetchStatusCodes;
+import org.archive.net.UURIFactory;
+import org.archive.spring.KeyedProperties;
+
+/**
+ * Tests of WorkQueueFrontier's handling of batched enqueues.
+ */
+public class WorkQueueFrontierTest extends TestCase {
+
+    /**
+     * Frontier recording enqueues and finishes, in order, rather than 
+     * performing them.
+     */
+    protected static class RecordingFrontier extends BdbFrontier {
+        protected List<String> events = new ArrayList<String>();
+
+        @Override
+        protected void sendToQueue(CrawlURI curi) {
+            events.add("enqueue " + curi.getURI());
+        }
+
+        @Override
+        protected void sendToQueue(List<CrawlURI> curis) {
+            for (CrawlURI curi : curis) {
+                events.add("enqueue " + curi.getURI());
+            }
+        }
+
+        @Override
+        protected void processFinish(CrawlURI curi) {
+            events.add("finish " + curi.getURI());
+        }
+    }
+
+    protected void schedule(RecordingFrontier frontier, CrawlURI curi) {
+        KeyedProperties.loadOverridesFrom(curi);
+        try {
+            frontier.processScheduleAlways(curi);
+        } finally {
+            KeyedProperties.clearOverridesFrom(curi);
+        }
+    }
+
+    public void testDeferredPrerequisiteBatched() throws Exception {
+        RecordingFrontier frontier = new RecordingFrontier();
+        frontier.setBatchEnqueues(true);
+
+        CrawlURI deferred = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/"));
+        deferred.setClassKey("com,example,www,");
+        deferred.setFetchStatus(FetchStatusCodes.S_DEFERRED);
+        CrawlURI dns = new CrawlURI(
+                UURIFactory.getInstance("dns:www.example.com"));
+        dns.setClassKey("com,example,www,");
+        CrawlURI other = new CrawlURI(
+                UURIFactory.getInstance("http://other.example.com/"));
+        other.setClassKey("com,example,other,");
+
+        frontier.beginDisposition(deferred);
+        try {
+            schedule(frontier, dns);
+            // held back during the disposition
+            assertTrue(frontier.events.isEmpty());
+            frontier.finished(deferred);
+            // scheduled after the finish, so enqueued at the end
+            schedule(frontier, other);
+        } finally {
+            frontier.endDisposition();
+        }
+
+        // the prerequisite is in its queue before the deferred URI's
+        // queue can be readied again
+        assertEquals(Arrays.asList(
+                "enqueue dns:www.example.com",
+                "finish http://www.example.com/",
+                "enqueue http://other.example.com/"), frontier.events);
+    }
+}
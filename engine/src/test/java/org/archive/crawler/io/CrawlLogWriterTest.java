@@ -0,0 +1,135 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.crawler.util.LogIndex;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.TmpDirTestCase;
+
+public class CrawlLogWriterTest extends TmpDirTestCase {
+
+    protected void logFromThreads(final CrawlLogWriter writer, int threadCount,
+            final int perThread) throws Exception {
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int threadNumber = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            CrawlURI curi = new CrawlURI(UURIFactory.getInstance(
+                                    "http://www.example.com/" + threadNumber + "/" + i));
+                            curi.setFetchStatus(200);
+                            LogRecord record = new LogRecord(Level.INFO, curi.toString());
+                            record.setParameters(new Object[] {curi});
+                            writer.publish(record);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testPlain() throws Exception {
+        File log = new File(getTmpDir(), "CrawlLogWriterTest.log");
+        CrawlLogWriter writer = new CrawlLogWriter(log, false, 64, 100, 500, false);
+        logFromThreads(writer, 4, 1000);
+        writer.close();
+
+        List<String> lines = FileUtils.readLines(log);
+        assertEquals(4000, lines.size());
+        assertTrue(lines.get(0), lines.get(0).contains(" 200 "));
+        assertEquals(4000, writer.getWrittenCount());
+
+        LogIndex index = LogIndex.load(LogIndex.indexFileFor(log));
+        assertEquals(8, index.size());
+        assertEquals(2500, index.getLine(5));
+        // offset is that of the line's start
+        long offset = 0;
+        for (int i = 0; i < 2500; i++) {
+            offset += lines.get(i).getBytes("UTF-8").length + 1;
+        }
+        assertEquals(offset, index.getOffset(5));
+        assertEquals(5, index.entryForLine(2999));
+        
+        log.delete();
+        LogIndex.indexFileFor(log).delete();
+    }
+
+    public void testGzipAndRotate() throws Exception {
+        File log = new File(getTmpDir(), "CrawlLogWriterTest.log.gz");
+        CrawlLogWriter writer = new CrawlLogWriter(log, true, 64, 100, 500, false);
+        logFromThreads(writer, 4, 500);
+        File stored = writer.rotate(".first");
+        assertEquals("CrawlLogWriterTest.log.first.gz", stored.getName());
+        logFromThreads(writer, 1, 10);
+        writer.close();
+
+        assertEquals(2000, readGzipLines(new FileInputStream(stored)).size());
+        assertEquals(10, readGzipLines(new FileInputStream(log)).size());
+
+        // each index entry is the start of a gzip member
+        LogIndex index = LogIndex.load(LogIndex.indexFileFor(stored));
+        assertTrue(index.size() >= 20);
+        int last = index.size() - 1;
+        FileInputStream in = new FileInputStream(stored);
+        in.getChannel().position(index.getOffset(last));
+        assertEquals(2000 - index.getLine(last), readGzipLines(in).size());
+
+        for (File f : new File[] {stored, log}) {
+            f.delete();
+            LogIndex.indexFileFor(f).delete();
+        }
+    }
+
+    protected List<String> readGzipLines(InputStream in) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(in), "UTF-8"));
+        List<String> lines = new ArrayList<String>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
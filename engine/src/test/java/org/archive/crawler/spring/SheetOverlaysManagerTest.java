@@ -0,0 +1,81 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.crawler.spring;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for SheetOverlaysManager's cached SURT-association lookups.
+ */
+public class SheetOverlaysManagerTest extends TestCase {
+
+    public void testHostOnlySurtSheetNames() {
+        SheetOverlaysManager manager = new SheetOverlaysManager();
+        manager.addSurtAssociation("http://(org,example,", "exampleSheet");
+        manager.addSurtAssociation("http://(org,example,www,)", "wwwSheet");
+        assertTrue(manager.surtPrefixesHostOnly);
+
+        assertEquals(Arrays.asList("exampleSheet", "wwwSheet"),
+                manager.getSurtSheetNames("http://(org,example,www,)/a"));
+        // served from the entry cached for the host
+        assertEquals(Arrays.asList("exampleSheet", "wwwSheet"),
+                manager.getSurtSheetNames("http://(org,example,www,)/b"));
+        assertEquals(1, manager.resolvedSheetNamesBySurt.size());
+        assertEquals(Arrays.asList("exampleSheet"),
+                manager.getSurtSheetNames("http://(org,example,images,)/c"));
+        assertEquals(Collections.emptyList(),
+                manager.getSurtSheetNames("http://(org,other,)/"));
+    }
+
+    public void testPathSurtSheetNames() {
+        SheetOverlaysManager manager = new SheetOverlaysManager();
+        manager.addSurtAssociation("http://(org,example,www,)", "wwwSheet");
+        assertEquals(Arrays.asList("wwwSheet"),
+                manager.getSurtSheetNames("http://(org,example,www,)/private/x"));
+
+        // a path association invalidates, and stops host-only keying
+        manager.addSurtAssociation("http://(org,example,www,)/private/", "privateSheet");
+        assertFalse(manager.surtPrefixesHostOnly);
+        assertEquals(Arrays.asList("wwwSheet", "privateSheet"),
+                manager.getSurtSheetNames("http://(org,example,www,)/private/x"));
+        assertEquals(Arrays.asList("wwwSheet"),
+                manager.getSurtSheetNames("http://(org,example,www,)/public/x"));
+
+        manager.removeSurtAssociation("http://(org,example,www,)/private/", "privateSheet");
+        assertEquals(Arrays.asList("wwwSheet"),
+                manager.getSurtSheetNames("http://(org,example,www,)/private/x"));
+
+        manager.deleteSheet("wwwSheet");
+        assertEquals(Collections.emptyList(),
+                manager.getSurtSheetNames("http://(org,example,www,)/private/x"));
+    }
+
+    public void testCacheDisabled() {
+        SheetOverlaysManager manager = new SheetOverlaysManager();
+        manager.setResolvedSurtCacheSize(0);
+        manager.addSurtAssociation("http://(org,example,", "exampleSheet");
+        assertEquals(Arrays.asList("exampleSheet"),
+                manager.getSurtSheetNames("http://(org,example,www,)/a"));
+        assertNull(manager.resolvedSheetNamesBySurt);
+    }
+}
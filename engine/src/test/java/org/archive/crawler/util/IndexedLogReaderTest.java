@@ -0,0 +1,165 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+import org.archive.util.TmpDirTestCase;
+
+/**
+ * Tests of LogIndex building and IndexedLogReader access.
+ */
+public class IndexedLogReaderTest extends TmpDirTestCase {
+
+    protected static String lineFor(int i) {
+        // one second per line, from 2014-01-01T00:00:00.000Z
+        return String.format("2014-01-01T%02d:%02d:%02d.000Z line %d", 
+                i / 3600, (i / 60) % 60, i % 60, i);
+    }
+    
+    protected void appendLines(File log, int from, int to) throws IOException {
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(log, true), "UTF-8");
+        try {
+            for (int i = from; i < to; i++) {
+                writer.write(lineFor(i));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+    
+    public void testIncrementalIndex() throws Exception {
+        File log = new File(getTmpDir(), "incremental.log");
+        log.delete();
+        appendLines(log, 0, 2500);
+        // a partial last line isn't indexed
+        FileOutputStream out = new FileOutputStream(log, true);
+        out.write("2014-01-01T00:".getBytes("UTF-8"));
+        out.close();
+        
+        LogIndex index = new LogIndex(1000);
+        index.update(log);
+        assertEquals(2500, index.getIndexedLines());
+        assertEquals(3, index.size());
+        assertEquals(2000, index.getLine(2));
+        assertEquals(2000 * 1000L, index.getTime(2) - index.getTime(0));
+        
+        out = new FileOutputStream(log, true);
+        out.write("41:40.000Z line 2500\n".getBytes("UTF-8"));
+        out.close();
+        appendLines(log, 2501, 3100);
+        index.update(log);
+        assertEquals(3100, index.getIndexedLines());
+        assertEquals(log.length(), index.getIndexedLength());
+        assertEquals(4, index.size());
+        assertEquals(3000, index.getLine(3));
+        assertEquals(2, index.entryForTime(index.getTime(2) + 999999));
+    }
+    
+    public void testLinesAndOffsets() throws Exception {
+        File log = new File(getTmpDir(), "lines.log");
+        log.delete();
+        IndexedLogReader.forget(log);
+        appendLines(log, 0, 5000);
+        
+        assertEquals(5000, IndexedLogReader.getLineCount(log));
+        List<String> lines = IndexedLogReader.getLines(log, 4998, 5);
+        assertEquals(2, lines.size());
+        assertEquals(lineFor(4998), lines.get(0));
+        assertEquals(lineFor(4999), lines.get(1));
+        
+        long offset = IndexedLogReader.getOffsetOfLine(log, 1234);
+        assertEquals(1234, IndexedLogReader.getLineAtOffset(log, offset));
+        assertEquals(1234, IndexedLogReader.getLineAtOffset(log, offset + 5));
+        
+        // log grows after first indexed
+        appendLines(log, 5000, 5010);
+        assertEquals(lineFor(5005), IndexedLogReader.getLines(log, 5005, 1).get(0));
+        
+        // old-style access, counting lines from 1
+        String[] got = LogReader.get(log.getPath(), 5001, 1);
+        assertEquals(lineFor(5000) + "\n", got[0]);
+        assertEquals(4322, LogReader.findFirstLineContaining(log.getPath(), 
+                ".* line 4321"));
+    }
+    
+    public void testRotatedLog() throws Exception {
+        File log = new File(getTmpDir(), "rotated.log");
+        log.delete();
+        IndexedLogReader.forget(log);
+        appendLines(log, 0, 3000);
+        assertFalse(IndexedLogReader.hasIndex(log));
+        assertEquals(3000, IndexedLogReader.getLineCount(log));
+        assertTrue(IndexedLogReader.hasIndex(log));
+        
+        // rotated away, and a longer log started in its place
+        File rotated = new File(getTmpDir(), "rotated.log.1");
+        rotated.delete();
+        assertTrue(log.renameTo(rotated));
+        appendLines(log, 10000, 14000);
+        assertEquals(4000, IndexedLogReader.getLineCount(log));
+        assertEquals(lineFor(10000), IndexedLogReader.getLines(log, 0, 1).get(0));
+        
+        // rewritten in place, longer, with lines of another length
+        LogIndex index = new LogIndex(1000);
+        index.update(log);
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(log, false), "UTF-8");
+        for (int i = 0; i < 5000; i++) {
+            writer.write(String.format("%046d\n", i));
+        }
+        writer.close();
+        index.update(log);
+        assertEquals(5000, index.getIndexedLines());
+        assertEquals(log.length(), index.getIndexedLength());
+    }
+    
+    public void testParallelSearch() throws Exception {
+        File log = new File(getTmpDir(), "search.log");
+        log.delete();
+        IndexedLogReader.forget(log);
+        // enough for several search chunks
+        appendLines(log, 0, 300000);
+        
+        SortedMap<Long,String> matches = IndexedLogReader.search(log, 
+                Pattern.compile("line \\d*777$"), false, 0, 1000);
+        assertEquals(300, matches.size());
+        assertEquals(777L, (long) matches.firstKey());
+        assertEquals(299777L, (long) matches.lastKey());
+        
+        // limited, and from a later line
+        matches = IndexedLogReader.search(log, 
+                Pattern.compile("line \\d*777$"), false, 100000, 3);
+        assertEquals(3, matches.size());
+        assertEquals(100777L, (long) matches.firstKey());
+        assertEquals(lineFor(102777), matches.get(102777L));
+        
+        assertTrue(IndexedLogReader.search(log, Pattern.compile("line 777"), 
+                true, 0, 10).isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.crawler.util;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.archive.checkpointing.Checkpoint;
+import org.archive.crawler.datamodel.UriUniqFilter;
+import org.archive.modules.CrawlURI;
+import org.archive.spring.ConfigPath;
+import org.archive.util.TmpDirTestCase;
+
+import st.ata.util.FPGenerator;
+
+/**
+ * Test OffHeapFPUriUniqFilter.
+ */
+public class OffHeapFPUriUniqFilterTest extends TmpDirTestCase
+implements UriUniqFilter.CrawlUriReceiver {
+
+    protected int receivedCount = 0;
+
+    public void receive(CrawlURI item) {
+        receivedCount++;
+    }
+
+    protected OffHeapFPUriUniqFilter makeFilter(boolean mapped) {
+        OffHeapFPUriUniqFilter filter = new OffHeapFPUriUniqFilter();
+        // tiny segments, to exercise growth
+        filter.setSegmentCountBits(2);
+        filter.setInitialSegmentCapacityBits(4);
+        filter.setUseMappedFiles(mapped);
+        filter.setDirectory(new ConfigPath("fpset",
+                getTmpDir().getAbsolutePath() + "/offheap-fpset"));
+        filter.setBeanName("uriUniqFilter");
+        filter.setDestination(this);
+        return filter;
+    }
+
+    public void testAdding() {
+        OffHeapFPUriUniqFilter filter = makeFilter(false);
+        filter.start();
+        filter.add("http://www.archive.org", null);
+        filter.add("http://www.archive.org", null);
+        filter.addNow("http://www.archive.org", null);
+        assertEquals("count is off", 1, filter.count());
+        assertEquals("receiver not called once", 1, receivedCount);
+        filter.forget("http://www.archive.org", null);
+        assertEquals("didn't forget", 0, filter.count());
+        filter.close();
+    }
+
+    public void testDirectAgainstHashSet() {
+        checkAgainstHashSet(makeFilter(false));
+    }
+
+    public void testMappedAgainstHashSet() {
+        checkAgainstHashSet(makeFilter(true));
+    }
+
+    /**
+     * Random mix of adds and removes, enough to grow every segment
+     * several times, compared to a plain HashSet.
+     */
+    protected void checkAgainstHashSet(OffHeapFPUriUniqFilter filter) {
+        filter.start();
+        Set<String> expected = new HashSet<String>();
+        Random random = new Random(1);
+        for (int i = 0; i < 50000; i++) {
+            String uri = "http://www" + random.nextInt(20000) + ".archive.org/";
+            if (random.nextInt(4) == 0) {
+                filter.forget(uri, null);
+                expected.remove(uri);
+            } else {
+                filter.note(uri);
+                expected.add(uri);
+            }
+        }
+        assertEquals("count is off", expected.size(), filter.count());
+        for (int i = 0; i < 20000; i++) {
+            String uri = "http://www" + i + ".archive.org/";
+            assertEquals("wrong membership for " + uri, expected.contains(uri),
+                    filter.containsFp(FPGenerator.std64.fp(uri)));
+        }
+        filter.close();
+    }
+
+    public void testCheckpointRecovery() throws Exception {
+        ConfigPath basePath =
+            new ConfigPath("testBase", getTmpDir().getAbsolutePath());
+        ConfigPath checkpointsPath = new ConfigPath("checkpoints", "fpset-checkpoints");
+        checkpointsPath.setBase(basePath);
+        FileUtils.deleteDirectory(checkpointsPath.getFile());
+
+        OffHeapFPUriUniqFilter filter = makeFilter(false);
+        filter.start();
+        for (int i = 0; i < 1000; i++) {
+            filter.note("http://www" + i + ".archive.org/");
+        }
+        Checkpoint checkpointInProgress = new Checkpoint();
+        checkpointInProgress.generateFrom(checkpointsPath, 1);
+        filter.doCheckpoint(checkpointInProgress);
+        filter.stop();
+        filter.close();
+
+        Checkpoint recoveryCheckpoint = new Checkpoint();
+        ConfigPath recoverPath =
+            new ConfigPath("recover", checkpointInProgress.getName());
+        recoverPath.setBase(checkpointsPath);
+        recoveryCheckpoint.setCheckpointDir(recoverPath);
+        recoveryCheckpoint.afterPropertiesSet();
+
+        OffHeapFPUriUniqFilter restored = makeFilter(false);
+        restored.setRecoveryCheckpoint(recoveryCheckpoint);
+        restored.start();
+        assertEquals("count not restored", 1000, restored.count());
+        restored.add("http://www999.archive.org/", null);
+        assertEquals("restored entry re-added", 0, receivedCount);
+        restored.add("http://www1000.archive.org/", null);
+        assertEquals("new entry not added", 1001, restored.count());
+        restored.close();
+    }
+}
@@ -63,6 +63,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -95,6 +96,13 @@ import org.archive.util.Reporter;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.SerializationException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.serialize.IntSerializer;
+import com.esotericsoftware.kryo.serialize.LongSerializer;
+import com.esotericsoftware.kryo.serialize.StringSerializer;
+
 
 /**
  * Represents a candidate URI and the associated state it
@@ -1754,8 +1762,189 @@ implements Reporter, Serializable, OverlayContext, Comparable<CrawlURI> {
         kryo.autoregister(org.apache.commons.httpclient.NameValuePair.class);
         kryo.autoregister(org.apache.commons.httpclient.NameValuePair[].class);
         kryo.autoregister(FetchType.class);
+        // later additions; append only, as registration order fixes the
+        // class ids written into already-stored records
+        kryo.autoregister(java.util.LinkedHashSet.class);
+        kryo.autoregister(java.util.LinkedHashMap.class);
+        kryo.autoregister(java.util.ArrayList.class);
+        kryo.autoregister(String[].class);
+        kryo.autoregister(JSONObject.class);
         kryo.setRegistrationOptional(true);
     }
+
+    /**
+     * Replace the default field-by-field serialization of CrawlURI in the
+     * given (already autoregistered) Kryo with the more compact
+     * {@link CompactKryoSerializer}. Records written by one form cannot
+     * be read by the other, so this must be applied (or not)
+     * consistently for the life of any store, including across
+     * checkpoint recovery.
+     *
+     * @param kryo
+     */
+    public static void registerCompactSerializer(Kryo kryo) {
+        kryo.register(CrawlURI.class, new CompactKryoSerializer(kryo));
+    }
+
+    /**
+     * Commonly-present data-map keys, written as small integer tags rather
+     * than as strings by {@link CompactKryoSerializer}. Tags are positions
+     * in this array (plus one), so it may only ever be appended to.
+     */
+    protected static final String[] COMPACT_DATA_KEYS = {
+        A_HERITABLE_KEYS,
+        A_SOURCE_TAG,
+        A_ANNOTATIONS,
+        A_PREREQUISITE_URI,
+        A_FETCH_HISTORY,
+        A_CONTENT_DIGEST_HISTORY,
+        A_FORCE_RETIRE,
+        A_CREDENTIALS_KEY,
+        A_HTTP_AUTH_CHALLENGES,
+        A_HTTP_RESPONSE_HEADERS,
+        A_FETCH_COMPLETED_TIME,
+        A_NONFATAL_ERRORS,
+        A_HTML_BASE,
+        A_DNS_SERVER_IP_LABEL,
+        CoreAttributeConstants.A_PRECALC_PRECEDENCE,
+        CoreAttributeConstants.A_SUBMIT_DATA,
+        CoreAttributeConstants.A_SUBMIT_ENCTYPE,
+    };
+    protected static final Map<String,Integer> COMPACT_DATA_KEY_TAGS;
+    static {
+        COMPACT_DATA_KEY_TAGS = new HashMap<String,Integer>();
+        for (int i = 0; i < COMPACT_DATA_KEYS.length; i++) {
+            COMPACT_DATA_KEY_TAGS.put(COMPACT_DATA_KEYS[i], i + 1);
+        }
+    }
+
+    /**
+     * Kryo serializer writing each persistent CrawlURI field explicitly,
+     * with variable-length integers, without the per-field overhead of
+     * the reflective default, and with common data-map keys as small
+     * integer tags. Data-map values, and any other classes not
+     * registered, are written generically.
+     */
+    public static class CompactKryoSerializer extends Serializer {
+        protected static final int FLAG_SEED = 1;
+        protected static final int FLAG_FORCE_REVISIT = 2;
+        protected static final int FLAG_PREREQUISITE = 4;
+
+        protected Kryo kryo;
+
+        public CompactKryoSerializer(Kryo kryo) {
+            this.kryo = kryo;
+        }
+
+        @Override
+        public void writeObjectData(ByteBuffer buffer, Object object) {
+            CrawlURI curi = (CrawlURI) object;
+            kryo.writeObject(buffer, curi.uuri);
+            buffer.put((byte) ((curi.isSeed ? FLAG_SEED : 0)
+                    | (curi.forceRevisit ? FLAG_FORCE_REVISIT : 0)
+                    | (curi.prerequisite ? FLAG_PREREQUISITE : 0)));
+            kryo.writeClassAndObject(buffer, curi.pathFromSeed);
+            kryo.writeClassAndObject(buffer, curi.via);
+            kryo.writeClassAndObject(buffer, curi.viaContext);
+            IntSerializer.put(buffer, curi.schedulingDirective, true);
+            kryo.writeClassAndObject(buffer, curi.classKey);
+            IntSerializer.put(buffer, curi.precedence, true);
+            IntSerializer.put(buffer, curi.fetchStatus, false);
+            IntSerializer.put(buffer, curi.deferrals, true);
+            IntSerializer.put(buffer, curi.fetchAttempts, true);
+            kryo.writeClassAndObject(buffer, curi.userAgent);
+            LongSerializer.put(buffer, curi.contentSize, false);
+            LongSerializer.put(buffer, curi.contentLength, false);
+            kryo.writeClassAndObject(buffer, curi.contentType);
+            IntSerializer.put(buffer, curi.fetchType.ordinal(), true);
+            LongSerializer.put(buffer, curi.ordinal, true);
+            kryo.writeClassAndObject(buffer, curi.contentDigest);
+            kryo.writeClassAndObject(buffer, curi.contentDigestScheme);
+            IntSerializer.put(buffer, curi.holderCost, false);
+            kryo.writeClassAndObject(buffer, curi.canonicalString);
+            LongSerializer.put(buffer, curi.politenessDelay, false);
+            LongSerializer.put(buffer, curi.rescheduleTime, false);
+            kryo.writeClassAndObject(buffer,
+                    curi.extraInfo == null ? null : curi.extraInfo.toString());
+            writeData(buffer, curi.data);
+        }
+
+        protected void writeData(ByteBuffer buffer, Map<String,Object> data) {
+            if (data == null) {
+                IntSerializer.put(buffer, 0, true);
+                return;
+            }
+            IntSerializer.put(buffer, data.size() + 1, true);
+            for (Map.Entry<String,Object> entry : data.entrySet()) {
+                Integer tag = COMPACT_DATA_KEY_TAGS.get(entry.getKey());
+                if (tag != null) {
+                    IntSerializer.put(buffer, tag, true);
+                } else {
+                    IntSerializer.put(buffer, 0, true);
+                    StringSerializer.put(buffer, entry.getKey());
+                }
+                kryo.writeClassAndObject(buffer, entry.getValue());
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T readObjectData(ByteBuffer buffer, Class<T> type) {
+            CrawlURI curi = new CrawlURI();
+            curi.uuri = kryo.readObject(buffer, UURI.class);
+            int flags = buffer.get();
+            curi.isSeed = (flags & FLAG_SEED) != 0;
+            curi.forceRevisit = (flags & FLAG_FORCE_REVISIT) != 0;
+            curi.prerequisite = (flags & FLAG_PREREQUISITE) != 0;
+            curi.pathFromSeed = (String) kryo.readClassAndObject(buffer);
+            curi.via = (UURI) kryo.readClassAndObject(buffer);
+            curi.viaContext = (LinkContext) kryo.readClassAndObject(buffer);
+            curi.schedulingDirective = IntSerializer.get(buffer, true);
+            curi.classKey = (String) kryo.readClassAndObject(buffer);
+            curi.precedence = IntSerializer.get(buffer, true);
+            curi.fetchStatus = IntSerializer.get(buffer, false);
+            curi.deferrals = IntSerializer.get(buffer, true);
+            curi.fetchAttempts = IntSerializer.get(buffer, true);
+            curi.userAgent = (String) kryo.readClassAndObject(buffer);
+            curi.contentSize = LongSerializer.get(buffer, false);
+            curi.contentLength = LongSerializer.get(buffer, false);
+            curi.contentType = (String) kryo.readClassAndObject(buffer);
+            curi.fetchType = FetchType.values()[IntSerializer.get(buffer, true)];
+            curi.ordinal = LongSerializer.get(buffer, true);
+            curi.contentDigest = (byte[]) kryo.readClassAndObject(buffer);
+            curi.contentDigestScheme = (String) kryo.readClassAndObject(buffer);
+            curi.holderCost = IntSerializer.get(buffer, false);
+            curi.canonicalString = (String) kryo.readClassAndObject(buffer);
+            curi.politenessDelay = LongSerializer.get(buffer, false);
+            curi.rescheduleTime = LongSerializer.get(buffer, false);
+            String extraInfo = (String) kryo.readClassAndObject(buffer);
+            if (extraInfo != null) {
+                try {
+                    curi.extraInfo = new JSONObject(extraInfo);
+                } catch (JSONException e) {
+                    throw new SerializationException("bad extraInfo", e);
+                }
+            }
+            curi.data = readData(buffer);
+            return (T) curi;
+        }
+
+        protected Map<String,Object> readData(ByteBuffer buffer) {
+            int size = IntSerializer.get(buffer, true) - 1;
+            if (size < 0) {
+                return null;
+            }
+            Map<String,Object> data = new HashMap<String,Object>();
+            for (int i = 0; i < size; i++) {
+                int tag = IntSerializer.get(buffer, true);
+                String key = (tag == 0)
+                        ? StringSerializer.get(buffer)
+                        : COMPACT_DATA_KEYS[tag - 1];
+                data.put(key, kryo.readClassAndObject(buffer));
+            }
+            return data;
+        }
+    }
     
     /**
      * Do all actions associated with setting a <code>CrawlURI</code> as
@@ -115,8 +115,28 @@ implements Iterable<Processor>,
     }
 
     public void process(CrawlURI curi, ChainStatusReceiver thread) throws InterruptedException {
+        process(curi, thread, null, null);
+    }
+
+    /**
+     * Process the URI through part of the chain: starting at the processor 
+     * named startAt (or the first, if null), and stopping just before the
+     * processor named stopAt (if non-null and reached). JUMPs are followed
+     * as usual; a processor jumped over is not 'reached'.  
+     * 
+     * @param curi
+     * @param thread
+     * @param startAt bean name of first processor to run, or null
+     * @param stopAt bean name of processor before which to stop, or null
+     * @return true if processing stopped at stopAt, so that a later call
+     * with startAt of the same name may resume it; false if the end of the
+     * chain or a FINISH was reached
+     * @throws InterruptedException
+     */
+    public boolean process(CrawlURI curi, ChainStatusReceiver thread, 
+            String startAt, String stopAt) throws InterruptedException {
         assert KeyedProperties.overridesActiveFrom(curi);
-        String skipToProc = null; 
+        String skipToProc = startAt; 
         
         ploop: for(Processor curProc : this ) {
             if(skipToProc!=null && !curProc.getBeanName().equals(skipToProc)) {
@@ -124,6 +144,10 @@ implements Iterable<Processor>,
             } else {
                 skipToProc = null; 
             }
+            if(stopAt!=null && curProc.getBeanName().equals(stopAt)
+                    && !curProc.getBeanName().equals(startAt)) {
+                return true;
+            }
             if(thread!=null) {
                 thread.atProcessor(curProc);
             }
@@ -139,6 +163,7 @@ implements Iterable<Processor>,
                     continue;
             }
         }
+        return false;
     }
     
     public interface ChainStatusReceiver {
@@ -368,36 +368,64 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
     }
     
 
-    protected void processGeneralTag(CrawlURI curi, CharSequence element,
-            CharSequence cs) {
+    /*
+     * Kinds of attribute recognized by processGeneralTag(), numbered as
+     * the corresponding groups of EACH_ATTRIBUTE_EXTRACTOR.
+     */
+    protected static final int ATTR_HREF = 2;
+    protected static final int ATTR_ACTION = 3;
+    protected static final int ATTR_ON = 4;
+    protected static final int ATTR_SRC = 5;
+    protected static final int ATTR_CODEBASE = 6;
+    protected static final int ATTR_CLASSID = 7;
+    protected static final int ATTR_ARCHIVE = 8;
+    protected static final int ATTR_CODE = 9;
+    protected static final int ATTR_VALUE = 10;
+    protected static final int ATTR_STYLE = 11;
+    protected static final int ATTR_METHOD = 12;
+    protected static final int ATTR_OTHER = 13;
 
-        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+    /**
+     * State of one tag whose attributes are being processed, for those
+     * links (codebase-relative resources, form actions, values) which 
+     * can only be handled once all of a tag's attributes have been seen.
+     */
+    protected class GeneralTag {
+        protected final CharSequence element;
+        protected final String elementStr;
+        /** the whole tag, without '&lt;' '&gt;' */
+        protected final CharSequence cs;
+
+        protected final boolean framesAsEmbeds = getTreatFramesAsEmbedLinks();
+        protected final boolean ignoreFormActions = getIgnoreFormActionUrls();
+        protected final boolean extractValueAttributes = getExtractValueAttributes();
 
         // Just in case it's an OBJECT or APPLET tag
-        String codebase = null;
-        ArrayList<String> resources = null;
-        
+        protected String codebase = null;
+        protected ArrayList<String> resources = null;
+
         // Just in case it's a FORM
-        CharSequence action = null;
-        CharSequence actionContext = null;
-        CharSequence method = null; 
-        
+        protected CharSequence action = null;
+        protected CharSequence actionContext = null;
+        protected CharSequence method = null;
+
         // Just in case it's a VALUE whose interpretation depends on accompanying NAME
-        CharSequence valueVal = null; 
-        CharSequence valueContext = null;
-        CharSequence nameVal = null; 
-        
-        final boolean framesAsEmbeds = 
-            getTreatFramesAsEmbedLinks();
+        protected CharSequence valueVal = null;
+        protected CharSequence valueContext = null;
+        protected CharSequence nameVal = null;
+
+        protected GeneralTag(CharSequence element, CharSequence cs) {
+            this.element = element;
+            this.elementStr = element.toString();
+            this.cs = cs;
+        }
+    }
 
-        final boolean ignoreFormActions = 
-            getIgnoreFormActionUrls();
-        
-        final boolean extractValueAttributes = 
-            getExtractValueAttributes();
-        
-        final String elementStr = element.toString();
+    protected void processGeneralTag(CrawlURI curi, CharSequence element,
+            CharSequence cs) {
 
+        Matcher attr = TextUtils.getMatcher(eachAttributePattern,cs);
+        GeneralTag tag = new GeneralTag(element, cs);
         while (attr.find()) {
             int valueGroup =
                 (attr.start(14) > -1) ? 14 : (attr.start(15) > -1) ? 15 : 16;
@@ -405,133 +433,167 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             int end = attr.end(valueGroup);
             assert start >= 0: "Start is: " + start + ", " + curi;
             assert end >= 0: "End is :" + end + ", " + curi;
-            CharSequence value = cs.subSequence(start, end);
-            CharSequence attrName = cs.subSequence(attr.start(1),attr.end(1));
-            value = TextUtils.unescapeHtml(value);
-            if (attr.start(2) > -1) {
-                CharSequence context;
-                // HREF
-                if ("a".equals(element) && TextUtils.matches("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1", cs)) {
-                    context = "a[data-remote='true']/@href";
-                } else {
-                    context = elementContext(element, attr.group(2));
+            int kind = ATTR_OTHER;
+            for (int group = ATTR_HREF; group < ATTR_OTHER; group++) {
+                if (attr.start(group) > -1) {
+                    kind = group;
+                    break;
                 }
+            }
+            processAttribute(curi, tag, kind, attr.group(1),
+                    cs.subSequence(start, end));
+        }
+        TextUtils.recycleMatcher(attr);
+        finishGeneralTag(curi, tag);
+    }
 
-                if ("a[data-remote='true']/@href".equals(context) || elementStr.equalsIgnoreCase(LINK)) {
-                    // <LINK> elements treated as embeds (css, ico, etc)
-                    processEmbed(curi, value, context);
-                } else {
-                    // other HREFs treated as links
-                    processLink(curi, value, context);
-                }
-                // Set the relative or absolute base URI if it's not already been modified. 
-                // See https://github.com/internetarchive/heritrix3/pull/209
-                if (elementStr.equalsIgnoreCase(BASE) && !curi.containsDataKey(CoreAttributeConstants.A_HTML_BASE)) {
-                    try {
-                        UURI base = UURIFactory.getInstance(curi.getUURI(),value.toString());
-                        curi.setBaseURI(base);
-                    } catch (URIException e) {
-                        logUriError(e, curi.getUURI(), value);
-                    }
-                }
-            } else if (attr.start(3) > -1) {
-                // ACTION
-                if (!ignoreFormActions) {
-                    action = value; 
-                    actionContext = elementContext(element, attr.group(3));
-                    // handling finished only at end (after METHOD also collected)
-                }
-            } else if (attr.start(4) > -1) {
-                // ON____
-                processScriptCode(curi, value); // TODO: context?
-            } else if (attr.start(5) > -1) {
-                // SRC etc.
-                CharSequence context = elementContext(element, attr.group(5));
-                if (!context.toString().toLowerCase().startsWith("data:")) {
-
-                    // true, if we expect another HTML page instead of an image etc.
-                    final Hop hop;
-
-                    if (!framesAsEmbeds
-                            && (elementStr.equalsIgnoreCase(FRAME) || elementStr
-                            .equalsIgnoreCase(IFRAME))) {
-                        hop = Hop.NAVLINK;
-                    } else {
-                        hop = Hop.EMBED;
-                    }
-                    processEmbed(curi, value, context, hop);
-                }
-            } else if (attr.start(6) > -1) {
-                // CODEBASE
-                codebase = (value instanceof String)?
-                    (String)value: value.toString();
-                CharSequence context = elementContext(element,
-                    attr.group(6));
-                processLink(curi, codebase, context);
-            } else if (attr.start(7) > -1) {
-                // CLASSID, DATA
-                if (resources == null) {
-                    resources = new ArrayList<String>();
-                }
-                resources.add(value.toString());
-            } else if (attr.start(8) > -1) {
-                // ARCHIVE
-                if (resources==null) {
-                    resources = new ArrayList<String>();
-                }
-                String[] multi = TextUtils.split(WHITESPACE, value);
-                for(int i = 0; i < multi.length; i++ ) {
-                    resources.add(multi[i]);
-                }
-            } else if (attr.start(9) > -1) {
-                // CODE
-                if (resources==null) {
-                    resources = new ArrayList<String>();
+    /**
+     * Handle one attribute of a tag.
+     * 
+     * @param curi CrawlURI we're processing
+     * @param tag tag the attribute belongs to
+     * @param kind one of the ATTR_ constants
+     * @param attrName attribute name
+     * @param value raw (still HTML-escaped) attribute value
+     */
+    protected void processAttribute(CrawlURI curi, GeneralTag tag, int kind,
+            CharSequence attrName, CharSequence value) {
+        final CharSequence element = tag.element;
+        final String elementStr = tag.elementStr;
+        value = TextUtils.unescapeHtml(value);
+        if (kind == ATTR_HREF) {
+            CharSequence context;
+            // HREF
+            if ("a".equals(element) && TextUtils.matches("(?i).*data-remote\\s*=\\s*([\"'])true.*\\1", tag.cs)) {
+                context = "a[data-remote='true']/@href";
+            } else {
+                context = elementContext(element, attrName);
+            }
+
+            if ("a[data-remote='true']/@href".equals(context) || elementStr.equalsIgnoreCase(LINK)) {
+                // <LINK> elements treated as embeds (css, ico, etc)
+                processEmbed(curi, value, context);
+            } else {
+                // other HREFs treated as links
+                processLink(curi, value, context);
+            }
+            // Set the relative or absolute base URI if it's not already been modified. 
+            // See https://github.com/internetarchive/heritrix3/pull/209
+            if (elementStr.equalsIgnoreCase(BASE) && !curi.containsDataKey(CoreAttributeConstants.A_HTML_BASE)) {
+                try {
+                    UURI base = UURIFactory.getInstance(curi.getUURI(),value.toString());
+                    curi.setBaseURI(base);
+                } catch (URIException e) {
+                    logUriError(e, curi.getUURI(), value);
                 }
-                // If element is applet and code value does not end with
-                // '.class' then append '.class' to the code value.
-                if (elementStr.equalsIgnoreCase(APPLET) &&
-                        !value.toString().toLowerCase().endsWith(CLASSEXT)) {
-                    resources.add(value.toString() + CLASSEXT);
+            }
+        } else if (kind == ATTR_ACTION) {
+            // ACTION
+            if (!tag.ignoreFormActions) {
+                tag.action = value; 
+                tag.actionContext = elementContext(element, attrName);
+                // handling finished only at end (after METHOD also collected)
+            }
+        } else if (kind == ATTR_ON) {
+            // ON____
+            processScriptCode(curi, value); // TODO: context?
+        } else if (kind == ATTR_SRC) {
+            // SRC etc.
+            CharSequence context = elementContext(element, attrName);
+            if (!context.toString().toLowerCase().startsWith("data:")) {
+
+                // true, if we expect another HTML page instead of an image etc.
+                final Hop hop;
+
+                if (!tag.framesAsEmbeds
+                        && (elementStr.equalsIgnoreCase(FRAME) || elementStr
+                        .equalsIgnoreCase(IFRAME))) {
+                    hop = Hop.NAVLINK;
                 } else {
-                    resources.add(value.toString());
-                }
-            } else if (attr.start(10) > -1) {
-                // VALUE, with possibility of URI
-                // store value, context for handling at end
-                valueVal = value; 
-                valueContext = elementContext(element,attr.group(10));
-            } else if (attr.start(11) > -1) {
-                // STYLE inline attribute
-                // then, parse for URIs
-                numberOfLinksExtracted.addAndGet(ExtractorCSS.processStyleCode(
-                        this, curi, value));        
-            } else if (attr.start(12) > -1) {
-                // METHOD
-                method = value;
-                // form processing finished at end (after ACTION also collected)
-            } else if (attr.start(13) > -1) {
-                if("NAME".equalsIgnoreCase(attrName.toString())) {
-                    // remember 'name' for end-analysis
-                    nameVal = value; 
+                    hop = Hop.EMBED;
                 }
-                if("FLASHVARS".equalsIgnoreCase(attrName.toString())) {
-                    // consider FLASHVARS attribute immediately
-                    valueContext = elementContext(element,attr.group(13));
-                    considerQueryStringValues(curi, value, valueContext,Hop.SPECULATIVE);
-                }
-                // any other attribute
-                // ignore for now
-                // could probe for path- or script-looking strings, but
-                // those should be vanishingly rare in other attributes,
-                // and/or symptomatic of page bugs
+                processEmbed(curi, value, context, hop);
+            }
+        } else if (kind == ATTR_CODEBASE) {
+            // CODEBASE
+            tag.codebase = (value instanceof String)?
+                (String)value: value.toString();
+            CharSequence context = elementContext(element, attrName);
+            processLink(curi, tag.codebase, context);
+        } else if (kind == ATTR_CLASSID) {
+            // CLASSID, DATA
+            if (tag.resources == null) {
+                tag.resources = new ArrayList<String>();
+            }
+            tag.resources.add(value.toString());
+        } else if (kind == ATTR_ARCHIVE) {
+            // ARCHIVE
+            if (tag.resources==null) {
+                tag.resources = new ArrayList<String>();
+            }
+            String[] multi = TextUtils.split(WHITESPACE, value);
+            for(int i = 0; i < multi.length; i++ ) {
+                tag.resources.add(multi[i]);
             }
+        } else if (kind == ATTR_CODE) {
+            // CODE
+            if (tag.resources==null) {
+                tag.resources = new ArrayList<String>();
+            }
+            // If element is applet and code value does not end with
+            // '.class' then append '.class' to the code value.
+            if (elementStr.equalsIgnoreCase(APPLET) &&
+                    !value.toString().toLowerCase().endsWith(CLASSEXT)) {
+                tag.resources.add(value.toString() + CLASSEXT);
+            } else {
+                tag.resources.add(value.toString());
+            }
+        } else if (kind == ATTR_VALUE) {
+            // VALUE, with possibility of URI
+            // store value, context for handling at end
+            tag.valueVal = value; 
+            tag.valueContext = elementContext(element, attrName);
+        } else if (kind == ATTR_STYLE) {
+            // STYLE inline attribute
+            // then, parse for URIs
+            numberOfLinksExtracted.addAndGet(ExtractorCSS.processStyleCode(
+                    this, curi, value));        
+        } else if (kind == ATTR_METHOD) {
+            // METHOD
+            tag.method = value;
+            // form processing finished at end (after ACTION also collected)
+        } else {
+            if("NAME".equalsIgnoreCase(attrName.toString())) {
+                // remember 'name' for end-analysis
+                tag.nameVal = value; 
+            }
+            if("FLASHVARS".equalsIgnoreCase(attrName.toString())) {
+                // consider FLASHVARS attribute immediately
+                tag.valueContext = elementContext(element, attrName);
+                considerQueryStringValues(curi, value, tag.valueContext,Hop.SPECULATIVE);
+            }
+            // any other attribute
+            // ignore for now
+            // could probe for path- or script-looking strings, but
+            // those should be vanishingly rare in other attributes,
+            // and/or symptomatic of page bugs
         }
-        TextUtils.recycleMatcher(attr);
+    }
+
+    /**
+     * Handle those links which depend on several attributes of a tag, 
+     * once all have been seen.
+     * 
+     * @param curi CrawlURI we're processing
+     * @param tag tag whose attributes have all been processed
+     */
+    protected void finishGeneralTag(CrawlURI curi, GeneralTag tag) {
+        final CharSequence element = tag.element;
+        final String codebase = tag.codebase;
 
         // handle codebase/resources
-        if (resources != null) {
-            Iterator<String> iter = resources.iterator();
+        if (tag.resources != null) {
+            Iterator<String> iter = tag.resources.iterator();
             UURI codebaseURI = null;
             String res = null;
             try {
@@ -558,25 +620,25 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
         }
            
         // finish handling form action, now method is available
-        if(action != null) {
-            if(method == null || "GET".equalsIgnoreCase(method.toString()) 
+        if(tag.action != null) {
+            if(tag.method == null || "GET".equalsIgnoreCase(tag.method.toString()) 
                         || ! getExtractOnlyFormGets()) {
-                processLink(curi, action, actionContext);
+                processLink(curi, tag.action, tag.actionContext);
             }
         }
         
         // finish handling VALUE
-        if(valueVal != null) {
-            if ("PARAM".equalsIgnoreCase(elementStr) && nameVal != null
-                    && "flashvars".equalsIgnoreCase(nameVal.toString())) {
+        if(tag.valueVal != null) {
+            if ("PARAM".equalsIgnoreCase(tag.elementStr) && tag.nameVal != null
+                    && "flashvars".equalsIgnoreCase(tag.nameVal.toString())) {
                 // special handling for <PARAM NAME='flashvars" VALUE="">
-                String queryStringLike = valueVal.toString();
+                String queryStringLike = tag.valueVal.toString();
                 // treat value as query-string-like "key=value[&key=value]*" pairings
-                considerQueryStringValues(curi, queryStringLike, valueContext,Hop.SPECULATIVE);
+                considerQueryStringValues(curi, queryStringLike, tag.valueContext,Hop.SPECULATIVE);
             } else {
                 // regular VALUE handling
-                if (extractValueAttributes) {
-                    considerIfLikelyUri(curi,valueVal,valueContext,Hop.NAVLINK);
+                if (tag.extractValueAttributes) {
+                    considerIfLikelyUri(curi,tag.valueVal,tag.valueContext,Hop.NAVLINK);
                 }
             }
         }
@@ -968,7 +1030,19 @@ public class ExtractorHTML extends ContentExtractor implements InitializingBean
             // TODO: handle other stuff
         }
         TextUtils.recycleMatcher(attr);
+        return processMeta(curi, name, httpEquiv, content);
+    }
 
+    /**
+     * Process the interesting attributes of a metadata tag.
+     * @param curi CrawlURI we're processing.
+     * @param name NAME attribute value, or null
+     * @param httpEquiv HTTP-EQUIV attribute value, or null
+     * @param content CONTENT attribute value, or null
+     * @return True robots exclusion metatag.
+     */
+    protected boolean processMeta(CrawlURI curi, String name, 
+            String httpEquiv, String content) {
         // Look for the 'robots' meta-tag
         if("robots".equalsIgnoreCase(name) && content != null ) {
             curi.getData().put(A_META_ROBOTS, content);
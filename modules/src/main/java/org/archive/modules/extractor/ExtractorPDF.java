@@ -18,17 +18,16 @@
  */
 package org.archive.modules.extractor;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
 import org.apache.commons.httpclient.URIException;
-import org.archive.io.SinkHandlerLogThread;
+import org.apache.commons.io.IOUtils;
 import org.archive.modules.CrawlURI;
 import org.archive.net.UURI;
 import org.archive.net.UURIFactory;
-import org.archive.util.FileUtils;
 
 /** Allows the caller to process a CrawlURI representing a PDF
  *  for the purpose of extracting URIs
@@ -74,26 +73,15 @@ public class ExtractorPDF extends ContentExtractor {
     
     
     protected boolean innerExtract(CrawlURI curi){
-        File tempFile;
-
-        int sn;
-	Thread thread = Thread.currentThread();
-        if (thread instanceof SinkHandlerLogThread) {
-            sn = ((SinkHandlerLogThread)thread).getSerialNumber();
-        } else {
-            sn = System.identityHashCode(thread);
-        }
-        try {
-            tempFile = File.createTempFile("tt" + sn , "tmp.pdf");
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
         PDFParser parser;
         ArrayList<String> uris;
+        InputStream in = null;
         try {
-            curi.getRecorder().copyContentBodyTo(tempFile);
-            parser = new PDFParser(tempFile.getAbsolutePath());
+            // the parser works on the whole document in memory (size
+            // limited by maxSizeToParse), so read the content body
+            // straight in, rather than via a temp file read back whole
+            in = curi.getRecorder().getContentReplayInputStream();
+            parser = new PDFParser(IOUtils.toByteArray(in));
             uris = parser.extractURIs();
         } catch (IOException e) {
             curi.getNonFatalFailures().add(e);
@@ -104,7 +92,7 @@ public class ExtractorPDF extends ContentExtractor {
             curi.getNonFatalFailures().add(e);
             return false;
         } finally {
-            FileUtils.deleteSoonerOrLater(tempFile);
+            IOUtils.closeQuietly(in);
         }
         
         if (uris == null) {
@@ -0,0 +1,400 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.archive.modules.CrawlURI;
+import org.archive.util.TextUtils;
+
+/**
+ * Link-extraction from an HTML content-body, finding the same tags and
+ * attributes (and so the same outlinks, with the same contexts) as
+ * ExtractorHTML, but by a single forward scan rather than regular
+ * expressions.
+ *
+ * ExtractorHTML's backtracking expressions can take time quadratic in the
+ * size of some malformed pages (for example, many unclosed SCRIPT tags),
+ * costing seconds of CPU per URI. Here, every search for the end of a
+ * tag, script, style or comment remembers its result, so no stretch of
+ * the content is searched more than a bounded number of times, and
+ * tags and attributes are delimited by index into the content, without
+ * an intermediate copy of each.
+ *
+ * The tag and attribute boundaries follow ExtractorHTML's expressions
+ * exactly, quirks included (for example, a tag ends at the first '&gt;'
+ * even inside a quoted attribute value), so the two may be swapped
+ * freely.
+ */
+public class StreamingExtractorHTML extends ExtractorHTML {
+
+    @SuppressWarnings("unused")
+    private static final long serialVersionUID = 1L;
+
+    /** lowercase attribute name -&gt; ATTR_ kind, for all but ATTR_ON/ATTR_OTHER */
+    protected static final Map<String,Integer> ATTRIBUTE_KINDS =
+        new HashMap<String,Integer>();
+    static {
+        ATTRIBUTE_KINDS.put("href", ATTR_HREF);
+        ATTRIBUTE_KINDS.put("action", ATTR_ACTION);
+        for (String name : new String[] {"src", "srcset", "lowsrc",
+                "background", "cite", "longdesc", "usemap", "profile",
+                "datasrc", "data-src", "data-srcset", "data-original",
+                "data-original-set"}) {
+            ATTRIBUTE_KINDS.put(name, ATTR_SRC);
+        }
+        ATTRIBUTE_KINDS.put("codebase", ATTR_CODEBASE);
+        ATTRIBUTE_KINDS.put("classid", ATTR_CLASSID);
+        ATTRIBUTE_KINDS.put("data", ATTR_CLASSID);
+        ATTRIBUTE_KINDS.put("archive", ATTR_ARCHIVE);
+        ATTRIBUTE_KINDS.put("code", ATTR_CODE);
+        ATTRIBUTE_KINDS.put("value", ATTR_VALUE);
+        ATTRIBUTE_KINDS.put("style", ATTR_STYLE);
+        ATTRIBUTE_KINDS.put("method", ATTR_METHOD);
+    }
+
+    public StreamingExtractorHTML() {
+        super();
+    }
+
+    /**
+     * Finds successive occurrences of a fixed string (ignoring ASCII case)
+     * in a CharSequence, for a caller whose start positions (mostly) only
+     * move forward: the last result is reused while still valid, so
+     * repeated searches cover each stretch of the sequence only once.
+     */
+    protected static class Finder {
+        protected final CharSequence cs;
+        protected final String target;
+        protected int searchedFrom = Integer.MAX_VALUE;
+        protected int found = -1;
+
+        protected Finder(CharSequence cs, String target) {
+            this.cs = cs;
+            this.target = target;
+        }
+
+        /**
+         * @param from position to search from
+         * @return position of next occurrence at or after from, or -1
+         */
+        protected int find(int from) {
+            if (from >= searchedFrom && (found < 0 || found >= from)) {
+                return found;
+            }
+            searchedFrom = from;
+            found = -1;
+            int last = cs.length() - target.length();
+            for (int i = from; i <= last; i++) {
+                if (regionMatches(cs, i, target)) {
+                    found = i;
+                    break;
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * @return true if cs has target (lowercase) at offset, ignoring case
+     */
+    protected static boolean regionMatches(CharSequence cs, int offset,
+            String target) {
+        if (offset + target.length() > cs.length()) {
+            return false;
+        }
+        for (int i = 0; i < target.length(); i++) {
+            char c = cs.charAt(offset + i);
+            if (c >= 'A' && c <= 'Z') {
+                // (?i) without UNICODE_CASE folds only ASCII
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (c != target.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** \w without UNICODE_CHARACTER_CLASS, as in the regexes matched */
+    protected static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** \s, as in the regexes matched */
+    protected static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\013'
+                || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Scan for tags as ExtractorHTML.RELEVANT_TAG_EXTRACTOR would: at each
+     * '&lt;', try in turn a SCRIPT element, a STYLE element, a META or
+     * other open-tag with attributes, and a comment.
+     */
+    @Override
+    protected void extract(CrawlURI curi, CharSequence cs) {
+        final int length = cs.length();
+        final int maxElementLength = getMaxElementLength();
+        Finder tagEnd = new Finder(cs, ">");
+        Finder scriptEnd = new Finder(cs, "</script>");
+        Finder styleEnd = new Finder(cs, "</style>");
+        Finder commentEnd = new Finder(cs, "-->");
+
+        int i = 0;
+        while (i < length) {
+            if (cs.charAt(i) != '<') {
+                i++;
+                continue;
+            }
+            if (Thread.interrupted()) {
+                break;
+            }
+            int p = i + 1;
+
+            if (regionMatches(cs, p, "script")) {
+                int openEnd = tagEnd.find(p + 6);
+                int close = openEnd < 0 ? -1 : scriptEnd.find(openEnd + 1);
+                if (close >= 0) {
+                    processScript(curi, cs.subSequence(p, close + 8),
+                            openEnd - p);
+                    i = close + 9;
+                    continue;
+                }
+            }
+            if (regionMatches(cs, p, "style")) {
+                int openEnd = tagEnd.find(p + 5);
+                int close = openEnd < 0 ? -1 : styleEnd.find(openEnd + 1);
+                if (close >= 0) {
+                    processStyle(curi, cs.subSequence(p, close + 7),
+                            openEnd - p);
+                    i = close + 8;
+                    continue;
+                }
+            }
+
+            int elementEnd = p;
+            while (elementEnd < length && isWordChar(cs.charAt(elementEnd))) {
+                elementEnd++;
+            }
+            int elementLength = elementEnd - p;
+            if (elementLength > 0 && elementLength <= maxElementLength
+                    && elementEnd < length && isSpace(cs.charAt(elementEnd))) {
+                int end = tagEnd.find(elementEnd + 1);
+                if (end >= 0) {
+                    CharSequence innards = cs.subSequence(p, end);
+                    if (elementLength == 4 && regionMatches(cs, p, "meta")) {
+                        if (processMeta(curi, innards)) {
+                            // meta tag included NOFOLLOW; abort processing
+                            break;
+                        }
+                    } else {
+                        String element = cs.subSequence(p, elementEnd).toString();
+                        processGeneralTag(curi, element, innards);
+                        // remember FORM to help later extra processing
+                        if ("form".equalsIgnoreCase(element)) {
+                            curi.getDataList(A_FORM_OFFSETS).add((Integer)i);
+                        }
+                    }
+                    i = end + 1;
+                    continue;
+                }
+            }
+
+            if (regionMatches(cs, p, "!--") && p + 3 < length
+                    && cs.charAt(p + 3) != '>' && !regionMatches(cs, p + 3, "[if")) {
+                int close = commentEnd.find(p + 3);
+                if (close >= 0) {
+                    // comment: skip
+                    i = close + 3;
+                    continue;
+                }
+            }
+            i = p;
+        }
+    }
+
+    /**
+     * Callback for each attribute found by scanAttributes().
+     */
+    protected interface AttributeHandler {
+        void attribute(int kind, CharSequence name, CharSequence value);
+    }
+
+    /**
+     * Find the attributes of a tag as ExtractorHTML.EACH_ATTRIBUTE_EXTRACTOR
+     * would: a name of word characters and hyphens, optionally-spaced '=',
+     * and a double-quoted, single-quoted, or unquoted value; a quoted value
+     * missing its closing quote runs to the end of the tag, if within
+     * maxAttributeValLength.
+     *
+     * @param cs tag innards, without '&lt;' '&gt;'
+     * @param handler receives each attribute found
+     */
+    protected void scanAttributes(CharSequence cs, AttributeHandler handler) {
+        final int length = cs.length();
+        final int maxNameLength = getMaxAttributeNameLength();
+        final int maxValueLength = getMaxAttributeValLength();
+        int i = 0;
+        while (i < length) {
+            char c = cs.charAt(i);
+            if (!(isWordChar(c) || c == '-')) {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            int nameEnd = i;
+            while (nameEnd < length
+                    && (isWordChar(cs.charAt(nameEnd)) || cs.charAt(nameEnd) == '-')) {
+                nameEnd++;
+            }
+            // too-long names are matched by their tail
+            nameStart = Math.max(nameStart, nameEnd - maxNameLength);
+            i = nameEnd;
+
+            int j = nameEnd;
+            while (j < length && isSpace(cs.charAt(j))) {
+                j++;
+            }
+            if (j >= length || cs.charAt(j) != '=') {
+                continue;
+            }
+            j++;
+            while (j < length && isSpace(cs.charAt(j))) {
+                j++;
+            }
+            int valueStart = -1;
+            int valueEnd = -1;
+            int next = -1;
+            if (j < length) {
+                char q = cs.charAt(j);
+                if (q == '"' || q == '\'') {
+                    int limit = Math.min(length, j + 2 + maxValueLength);
+                    int close = -1;
+                    for (int k = j + 1; k < limit; k++) {
+                        if (cs.charAt(k) == q) {
+                            close = k;
+                            break;
+                        }
+                    }
+                    if (close >= 0) {
+                        valueStart = j + 1;
+                        valueEnd = close;
+                        next = close + 1;
+                    } else {
+                        int end = endOfInput(cs);
+                        if (end - (j + 1) <= maxValueLength) {
+                            valueStart = j + 1;
+                            valueEnd = end;
+                            next = end;
+                        }
+                    }
+                }
+                if (valueStart < 0) {
+                    int k = j;
+                    while (k < length && k - j < maxValueLength
+                            && !isSpace(cs.charAt(k))) {
+                        k++;
+                    }
+                    if (k > j) {
+                        valueStart = j;
+                        valueEnd = k;
+                        next = k;
+                    }
+                }
+            }
+            if (valueStart < 0) {
+                continue;
+            }
+            CharSequence name = cs.subSequence(nameStart, nameEnd);
+            handler.attribute(kindOf(name), name,
+                    cs.subSequence(valueStart, valueEnd));
+            i = next;
+        }
+    }
+
+    /**
+     * Where '$' (without MULTILINE) matches last: before a final line
+     * terminator, if any, else at the very end.
+     */
+    protected static int endOfInput(CharSequence cs) {
+        int length = cs.length();
+        if (length > 0) {
+            char last = cs.charAt(length - 1);
+            if (last == '\n') {
+                if (length > 1 && cs.charAt(length - 2) == '\r') {
+                    return length - 2;
+                }
+                return length - 1;
+            }
+            if (last == '\r' || last == 0x85 || last == 0x2028
+                    || last == 0x2029) {
+                return length - 1;
+            }
+        }
+        return length;
+    }
+
+    protected static int kindOf(CharSequence name) {
+        String lower = name.toString().toLowerCase();
+        Integer kind = ATTRIBUTE_KINDS.get(lower);
+        if (kind != null) {
+            return kind;
+        }
+        if (lower.startsWith("on") && lower.indexOf('-') < 0) {
+            return ATTR_ON;
+        }
+        return ATTR_OTHER;
+    }
+
+    @Override
+    protected void processGeneralTag(final CrawlURI curi,
+            CharSequence element, CharSequence cs) {
+        final GeneralTag tag = new GeneralTag(element, cs);
+        scanAttributes(cs, new AttributeHandler() {
+            public void attribute(int kind, CharSequence name,
+                    CharSequence value) {
+                processAttribute(curi, tag, kind, name.toString(), value);
+            }
+        });
+        finishGeneralTag(curi, tag);
+    }
+
+    @Override
+    protected boolean processMeta(CrawlURI curi, CharSequence cs) {
+        final String[] values = new String[3]; // name, http-equiv, content
+        scanAttributes(cs, new AttributeHandler() {
+            public void attribute(int kind, CharSequence name,
+                    CharSequence value) {
+                String n = name.toString();
+                String v = TextUtils.unescapeHtml(value).toString();
+                if (n.equalsIgnoreCase("name")) {
+                    values[0] = v;
+                } else if (n.equalsIgnoreCase("http-equiv")) {
+                    values[1] = v;
+                } else if (n.equalsIgnoreCase("content")) {
+                    values[2] = v;
+                }
+            }
+        });
+        return processMeta(curi, values[0], values[1], values[2]);
+    }
+}
@@ -0,0 +1,631 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.util.InetAddressUtil;
+import org.springframework.context.Lifecycle;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Shared, caching, nonblocking resolver of DNS A records.
+ *
+ * All queries go out over a few nonblocking UDP channels serviced by
+ * one I/O thread, so any number of lookups may be outstanding at once
+ * without tying up a thread each. Each query leaves from a channel
+ * chosen at random, and only a response from the server queried, to
+ * that channel, with the query's ID and question, is accepted. Answers
+ * are cached (positive answers for their TTL, negative answers for
+ * negativeTtlSeconds), and concurrent requests for the same name share
+ * a single query.
+ *
+ * Used by FetchDNS in place of a blocking dnsjava Lookup, and by
+ * DefaultServerCache to start resolving hosts as soon as they are first
+ * seen, so that by the time the 'dns:' prerequisite is processed its
+ * answer is usually already in hand. Anything this resolver can't
+ * answer definitively (timeouts, server failures, truncated responses,
+ * CNAME chains not resolved by the server) is reported as a failure,
+ * and FetchDNS falls back to its usual Lookup; so is any lookup while
+ * the resolver isn't running.
+ */
+public class AsyncDnsResolver implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(AsyncDnsResolver.class.getName());
+
+    protected static final int DNS_PORT = 53;
+    protected static final long SELECT_TIMEOUT_MS = 50;
+
+    /**
+     * DNS servers to query, as 'host' or 'host:port'. If empty, the
+     * servers of the system resolver configuration (as used by dnsjava)
+     * are used. Retries rotate through the list.
+     */
+    protected List<String> servers = new ArrayList<String>();
+    public List<String> getServers() {
+        return servers;
+    }
+    public void setServers(List<String> servers) {
+        this.servers = servers;
+    }
+
+    /**
+     * Milliseconds to wait for a response before retrying a query.
+     */
+    protected long timeoutMs = 2000;
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * How many times to resend a query that got no response before
+     * reporting failure.
+     */
+    protected int retries = 2;
+    public int getRetries() {
+        return retries;
+    }
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Maximum number of queries in flight at once; further queries wait
+     * their turn.
+     */
+    protected int maxOutstanding = 500;
+    public int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+    public void setMaxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * Number of UDP channels, each bound to its own system-chosen
+     * ephemeral port, that queries are spread over at random, so that
+     * forging a response takes guessing the port as well as the query ID.
+     * Only consulted at start.
+     */
+    protected int sourcePorts = 8;
+    public int getSourcePorts() {
+        return sourcePorts;
+    }
+    public void setSourcePorts(int sourcePorts) {
+        this.sourcePorts = sourcePorts;
+    }
+
+    /**
+     * Maximum number of answers to hold in the cache.
+     */
+    protected int cacheSize = 100000;
+    public int getCacheSize() {
+        return cacheSize;
+    }
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Seconds to remember that a name does not exist (or has no A
+     * records).
+     */
+    protected int negativeTtlSeconds = 300;
+    public int getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+    public void setNegativeTtlSeconds(int negativeTtlSeconds) {
+        this.negativeTtlSeconds = negativeTtlSeconds;
+    }
+
+    /**
+     * Whether to start resolving hosts as soon as they are first
+     * added to the server cache.
+     */
+    protected boolean prefetchNewHosts = true;
+    public boolean getPrefetchNewHosts() {
+        return prefetchNewHosts;
+    }
+    public void setPrefetchNewHosts(boolean prefetchNewHosts) {
+        this.prefetchNewHosts = prefetchNewHosts;
+    }
+
+    /**
+     * Result of a lookup: the A records found (null if the name doesn't
+     * exist or has none) and the server which supplied them.
+     */
+    public static class Answer {
+        protected Record[] records;
+        protected String server;
+        protected long expires;
+
+        public Answer(Record[] records, String server, long expires) {
+            this.records = records;
+            this.server = server;
+            this.expires = expires;
+        }
+        public Record[] getRecords() {
+            return records;
+        }
+        public String getServer() {
+            return server;
+        }
+    }
+
+    /** A query, in flight or waiting for a slot. */
+    protected static class Query {
+        protected String key;
+        protected Name name;
+        protected CompletableFuture<Answer> future;
+        protected int id;
+        protected int attempts = 0;
+        protected long deadline;
+        protected InetSocketAddress server;
+        protected DatagramChannel channel;
+
+        protected Query(String key, Name name, CompletableFuture<Answer> future) {
+            this.key = key;
+            this.name = name;
+            this.future = future;
+        }
+    }
+
+    protected Cache<String, Answer> cache;
+    protected ConcurrentHashMap<String, CompletableFuture<Answer>> inFlight =
+        new ConcurrentHashMap<String, CompletableFuture<Answer>>();
+
+    protected ConcurrentLinkedQueue<Query> submitted =
+        new ConcurrentLinkedQueue<Query>();
+    // remaining fields only touched by the I/O thread
+    protected LinkedList<Query> waiting = new LinkedList<Query>();
+    protected Map<Integer, Query> outstanding = new HashMap<Integer, Query>();
+    protected Random random = new Random();
+    protected ByteBuffer receiveBuffer = ByteBuffer.allocate(65535);
+
+    protected List<InetSocketAddress> serverAddresses;
+    protected int nextServer = 0;
+    protected DatagramChannel[] channels;
+    protected Selector selector;
+    protected Thread ioThread;
+    protected volatile boolean running = false;
+
+    protected AtomicLong cacheHits = new AtomicLong();
+    protected AtomicLong sharedLookups = new AtomicLong();
+    protected AtomicLong queriesSent = new AtomicLong();
+    protected AtomicLong timeouts = new AtomicLong();
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        cache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        serverAddresses = parseServers();
+        channels = new DatagramChannel[Math.max(1, sourcePorts)];
+        try {
+            selector = Selector.open();
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].configureBlocking(false);
+                channels[i].socket().bind(null);
+                channels[i].register(selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw new IllegalStateException("unable to open DNS channel", e);
+        }
+        running = true;
+        ioThread = new Thread("AsyncDnsResolver") {
+            public void run() {
+                ioLoop();
+            }
+        };
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(SELECT_TIMEOUT_MS * 10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannels();
+        IOException stopped = new IOException("resolver stopped");
+        for (CompletableFuture<Answer> future : inFlight.values()) {
+            future.completeExceptionally(stopped);
+        }
+    }
+
+    protected void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "problem closing DNS channel", e);
+            }
+        }
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "problem closing DNS selector", e);
+        }
+    }
+
+    protected List<InetSocketAddress> parseServers() {
+        List<String> names = servers;
+        if (names == null || names.isEmpty()) {
+            String[] configured = ResolverConfig.getCurrentConfig().servers();
+            names = (configured == null)
+                    ? Collections.singletonList("127.0.0.1")
+                    : Arrays.asList(configured);
+        }
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+        for (String server : names) {
+            int colon = server.lastIndexOf(':');
+            // a single colon separates a port; more means a bare IPv6 address
+            if (colon > 0 && server.indexOf(':') == colon) {
+                addresses.add(new InetSocketAddress(server.substring(0, colon),
+                        Integer.parseInt(server.substring(colon + 1))));
+            } else {
+                addresses.add(new InetSocketAddress(server, DNS_PORT));
+            }
+        }
+        return addresses;
+    }
+
+    protected static String toKey(String hostname) {
+        String key = hostname.toLowerCase();
+        return key.endsWith(".") ? key : key + ".";
+    }
+
+    /**
+     * Start resolving a host just added to the server cache, if
+     * prefetching is enabled and the host is a plausible DNS name.
+     *
+     * @param hostname
+     */
+    public void prefetch(String hostname) {
+        if (!prefetchNewHosts || !running || hostname.indexOf(':') >= 0
+                || InetAddressUtil.IPV4_QUADS.matcher(hostname).matches()) {
+            return;
+        }
+        resolve(hostname);
+    }
+
+    /**
+     * Look up the A records for the given name, from cache if possible,
+     * otherwise joining any query already in flight for the name, or
+     * else sending a new one.
+     *
+     * @param hostname
+     * @return future completing with the Answer, or exceptionally if no
+     * definitive answer could be had (as when the resolver isn't running)
+     */
+    public CompletableFuture<Answer> resolve(String hostname) {
+        if (!running) {
+            CompletableFuture<Answer> failed = new CompletableFuture<Answer>();
+            failed.completeExceptionally(
+                    new IOException("resolver not running"));
+            return failed;
+        }
+        final String key = toKey(hostname);
+        Answer cached = cache.getIfPresent(key);
+        if (cached != null) {
+            if (cached.expires > System.currentTimeMillis()) {
+                cacheHits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached);
+            }
+            cache.invalidate(key);
+        }
+        final CompletableFuture<Answer> future = new CompletableFuture<Answer>();
+        CompletableFuture<Answer> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            sharedLookups.incrementAndGet();
+            return existing;
+        }
+        future.whenComplete(new BiConsumer<Answer, Throwable>() {
+            public void accept(Answer answer, Throwable failure) {
+                if (answer != null) {
+                    cache.put(key, answer);
+                }
+                inFlight.remove(key, future);
+            }
+        });
+        try {
+            submitted.add(new Query(key, Name.fromString(key), future));
+            selector.wakeup();
+        } catch (TextParseException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Resolve the given name, waiting as long as the resolver's own
+     * timeouts and retries could take.
+     *
+     * @param hostname
+     * @return Answer, or null if no definitive answer could be had
+     * (caller should fall back to another means of resolution)
+     */
+    public Answer await(String hostname) {
+        long maxWait = timeoutMs * (retries + 1) + SELECT_TIMEOUT_MS * 2;
+        try {
+            return resolve(hostname).get(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("no answer for " + hostname + ": " + e.getCause());
+            }
+        } catch (TimeoutException e) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("gave up waiting for " + hostname);
+            }
+        }
+        return null;
+    }
+
+    protected void ioLoop() {
+        while (running) {
+            try {
+                sendWaiting();
+                if (selector.select(SELECT_TIMEOUT_MS) > 0) {
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        receiveResponses((DatagramChannel) key.channel());
+                    }
+                    selector.selectedKeys().clear();
+                }
+                expireOutstanding();
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.WARNING, "DNS channel problem", e);
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.SEVERE, "unexpected DNS resolver problem", e);
+            }
+        }
+    }
+
+    protected void sendWaiting() {
+        Query query;
+        while ((query = submitted.poll()) != null) {
+            waiting.add(query);
+        }
+        while (!waiting.isEmpty() && outstanding.size() < maxOutstanding) {
+            send(waiting.removeFirst());
+        }
+    }
+
+    /**
+     * Send the query (again), to the next server in turn. If it can't be
+     * sent, the lookup fails, rather than being left waiting forever.
+     */
+    protected void send(Query query) {
+        int id;
+        do {
+            id = random.nextInt(0x10000);
+        } while (outstanding.containsKey(id));
+        query.id = id;
+        query.attempts++;
+        query.server = serverAddresses.get(nextServer++ % serverAddresses.size());
+        query.channel = channels[random.nextInt(channels.length)];
+        query.deadline = System.currentTimeMillis() + timeoutMs;
+
+        Message message = Message.newQuery(
+                Record.newRecord(query.name, Type.A, DClass.IN));
+        message.getHeader().setID(id);
+        outstanding.put(id, query);
+        queriesSent.incrementAndGet();
+        try {
+            query.channel.send(ByteBuffer.wrap(message.toWire()), query.server);
+        } catch (IOException e) {
+            sendFailed(query, e);
+        } catch (RuntimeException e) {
+            // as for an unresolvable server address
+            sendFailed(query, e);
+        }
+    }
+
+    protected void sendFailed(Query query, Exception e) {
+        outstanding.remove(query.id);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("unable to send query for " + query.name + " to "
+                    + query.server + ": " + e);
+        }
+        query.future.completeExceptionally(e);
+    }
+
+    protected void receiveResponses(DatagramChannel channel) throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress from = channel.receive(receiveBuffer);
+            if (from == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            byte[] bytes = new byte[receiveBuffer.remaining()];
+            receiveBuffer.get(bytes);
+            Message response;
+            try {
+                response = new Message(bytes);
+            } catch (IOException e) {
+                logger.fine("unparseable DNS response from " + from);
+                continue;
+            }
+            Query query = outstanding.get(response.getHeader().getID());
+            if (query == null || query.channel != channel
+                    || !query.server.equals(from)
+                    || response.getQuestion() == null
+                    || !query.name.equals(response.getQuestion().getName())) {
+                // late, duplicate, not ours, or forged
+                continue;
+            }
+            outstanding.remove(query.id);
+            handleResponse(query, response);
+        }
+    }
+
+    protected void handleResponse(Query query, Message response) {
+        String server = query.server.getAddress().getHostAddress();
+        long now = System.currentTimeMillis();
+        if (response.getHeader().getFlag(Flags.TC)) {
+            query.future.completeExceptionally(
+                    new IOException("truncated response"));
+            return;
+        }
+        int rcode = response.getRcode();
+        if (rcode == Rcode.NXDOMAIN) {
+            query.future.complete(new Answer(null, server,
+                    now + negativeTtlSeconds * 1000L));
+            return;
+        }
+        if (rcode != Rcode.NOERROR) {
+            query.future.completeExceptionally(
+                    new IOException("response code " + Rcode.string(rcode)));
+            return;
+        }
+        List<Record> aRecords = new ArrayList<Record>();
+        boolean sawCname = false;
+        long minTtl = Long.MAX_VALUE;
+        for (Record record : response.getSectionArray(Section.ANSWER)) {
+            if (record instanceof ARecord) {
+                aRecords.add(record);
+                minTtl = Math.min(minTtl, record.getTTL());
+            } else if (record instanceof CNAMERecord) {
+                sawCname = true;
+            }
+        }
+        if (aRecords.isEmpty()) {
+            if (sawCname) {
+                // unresolved alias; leave chasing it to a full Lookup
+                query.future.completeExceptionally(
+                        new IOException("unresolved CNAME"));
+            } else {
+                query.future.complete(new Answer(null, server,
+                        now + negativeTtlSeconds * 1000L));
+            }
+            return;
+        }
+        query.future.complete(new Answer(
+                aRecords.toArray(new Record[aRecords.size()]), server,
+                now + minTtl * 1000L));
+    }
+
+    protected void expireOutstanding() {
+        long now = System.currentTimeMillis();
+        List<Query> expired = null;
+        Iterator<Query> iter = outstanding.values().iterator();
+        while (iter.hasNext()) {
+            Query query = iter.next();
+            if (query.deadline <= now) {
+                iter.remove();
+                if (expired == null) {
+                    expired = new ArrayList<Query>();
+                }
+                expired.add(query);
+            }
+        }
+        if (expired == null) {
+            return;
+        }
+        for (Query query : expired) {
+            timeouts.incrementAndGet();
+            if (query.attempts <= retries) {
+                send(query);
+            } else {
+                query.future.completeExceptionally(new SocketTimeoutException(
+                        "no response for " + query.name + " after "
+                        + query.attempts + " attempts"));
+            }
+        }
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getSharedLookups() {
+        return sharedLookups.get();
+    }
+
+    public long getQueriesSent() {
+        return queriesSent.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+}
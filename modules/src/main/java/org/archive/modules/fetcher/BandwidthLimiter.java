@@ -0,0 +1,511 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.archive.util.ReportUtils;
+import org.archive.util.Reporter;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Crawl-wide bandwidth budget, enforced by hierarchical token buckets: one
+ * for the whole crawl, and one per subnet (IPv4 /24, IPv6 /48), per IP
+ * address, and per hostname. Each limit is in KB/sec, 0 meaning
+ * unlimited.
+ *
+ * FetchHTTP brackets each fetch with beginFetch()/endFetch(), which
+ * select the buckets that apply to the fetching thread. Socket input
+ * streams wrapped by throttle() debit those buckets as bytes arrive, and
+ * when any bucket is in debt, sleep until it is repaid; since the
+ * recording stream sits on top of the throttled stream, what's recorded
+ * is paced too. Buckets hold up to burstMs worth of bytes, so short
+ * responses go through unhindered.
+ *
+ * DispositionProcessor also consults delayFor() when computing a URI's
+ * politeness delay, so a host (or IP or subnet) that has overdrawn its
+ * bucket has its queue snoozed until the debt is repaid, rather than
+ * occupying a ToeThread sleeping in the throttled stream. The crawl-wide
+ * bucket is deliberately not considered there: queues are snoozed only
+ * for their own overuse, so when the crawl as a whole is at its budget,
+ * all queues keep taking turns and small hosts aren't starved by large
+ * ones.
+ *
+ * Buckets untouched for idleBucketMinutes are forgotten.
+ */
+public class BandwidthLimiter implements Reporter {
+
+    /** buckets applying to the current thread's fetch, if any */
+    protected static final ThreadLocal<TokenBucket[]> CURRENT =
+        new ThreadLocal<TokenBucket[]>();
+
+    protected static final String CRAWL_KEY = "crawl";
+
+    /**
+     * Bandwidth budget, in KB/sec, for the whole crawl; 0 means unlimited.
+     */
+    protected int crawlKBSec = 0;
+    public int getCrawlKBSec() {
+        return crawlKBSec;
+    }
+    public void setCrawlKBSec(int crawlKBSec) {
+        this.crawlKBSec = crawlKBSec;
+    }
+
+    /**
+     * Bandwidth budget, in KB/sec, for each subnet (IPv4 /24, IPv6 /48);
+     * 0 means unlimited.
+     */
+    protected int subnetKBSec = 0;
+    public int getSubnetKBSec() {
+        return subnetKBSec;
+    }
+    public void setSubnetKBSec(int subnetKBSec) {
+        this.subnetKBSec = subnetKBSec;
+    }
+
+    /**
+     * Bandwidth budget, in KB/sec, for each IP address; 0 means unlimited.
+     */
+    protected int ipKBSec = 0;
+    public int getIpKBSec() {
+        return ipKBSec;
+    }
+    public void setIpKBSec(int ipKBSec) {
+        this.ipKBSec = ipKBSec;
+    }
+
+    /**
+     * Bandwidth budget, in KB/sec, for each hostname; 0 means unlimited.
+     */
+    protected int hostKBSec = 0;
+    public int getHostKBSec() {
+        return hostKBSec;
+    }
+    public void setHostKBSec(int hostKBSec) {
+        this.hostKBSec = hostKBSec;
+    }
+
+    /**
+     * Milliseconds of each bucket's rate it may accumulate while idle, and
+     * so spend at once.
+     */
+    protected int burstMs = 1000;
+    public int getBurstMs() {
+        return burstMs;
+    }
+    public void setBurstMs(int burstMs) {
+        this.burstMs = burstMs;
+    }
+
+    /**
+     * Minutes after which an unused bucket is discarded. Only consulted
+     * when the first bucket is created.
+     */
+    protected int idleBucketMinutes = 10;
+    public int getIdleBucketMinutes() {
+        return idleBucketMinutes;
+    }
+    public void setIdleBucketMinutes(int idleBucketMinutes) {
+        this.idleBucketMinutes = idleBucketMinutes;
+    }
+
+    protected volatile Cache<String,TokenBucket> buckets;
+
+    protected Cache<String,TokenBucket> buckets() {
+        if (buckets == null) {
+            synchronized (this) {
+                if (buckets == null) {
+                    buckets = CacheBuilder.newBuilder()
+                        .expireAfterAccess(idleBucketMinutes, TimeUnit.MINUTES)
+                        .<String,TokenBucket>build();
+                }
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Token bucket admitting bytesPerSec bytes per second on average, up
+     * to capacity at once. Tokens may go negative: a read that overdraws
+     * the bucket is not refused (the bytes have already arrived), but
+     * puts it in debt, which must be repaid before further reads proceed.
+     */
+    public static class TokenBucket {
+        protected final String key;
+        protected final long bytesPerSec;
+        protected final long capacity;
+        protected final long createdNanos;
+        protected double tokens;
+        protected long lastRefillNanos;
+        protected long totalBytes;
+        protected long totalWaitMs;
+
+        public TokenBucket(String key, long bytesPerSec, long capacity,
+                long nowNanos) {
+            this.key = key;
+            this.bytesPerSec = bytesPerSec;
+            this.capacity = Math.max(1, capacity);
+            this.createdNanos = nowNanos;
+            this.lastRefillNanos = nowNanos;
+            this.tokens = this.capacity;
+        }
+
+        protected void refill(long nowNanos) {
+            long elapsed = nowNanos - lastRefillNanos;
+            if (elapsed > 0) {
+                tokens = Math.min(capacity,
+                        tokens + (double) elapsed * bytesPerSec / 1e9);
+                lastRefillNanos = nowNanos;
+            }
+        }
+
+        /**
+         * Take count bytes' worth of tokens.
+         *
+         * @return milliseconds until the bucket is out of debt, or 0
+         */
+        public synchronized long consume(long count, long nowNanos) {
+            refill(nowNanos);
+            tokens -= count;
+            totalBytes += count;
+            return debtMs();
+        }
+
+        /**
+         * @return milliseconds until the bucket is out of debt, or 0
+         */
+        public synchronized long debtMs(long nowNanos) {
+            refill(nowNanos);
+            return debtMs();
+        }
+
+        protected long debtMs() {
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) Math.ceil(-tokens * 1000 / bytesPerSec);
+        }
+
+        public synchronized void noteWait(long ms) {
+            totalWaitMs += ms;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getBytesPerSec() {
+            return bytesPerSec;
+        }
+
+        public synchronized long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public synchronized long getTotalWaitMs() {
+            return totalWaitMs;
+        }
+
+        /**
+         * @return bytes taken over bytes the bucket's rate would have
+         * allowed since it was created
+         */
+        public synchronized double getUtilization(long nowNanos) {
+            double allowed = (double) (nowNanos - createdNanos)
+                * bytesPerSec / 1e9 + capacity;
+            return totalBytes / allowed;
+        }
+    }
+
+    /**
+     * @return bucket for key at kbSec, created if necessary; null if
+     * kbSec is unlimited
+     */
+    protected TokenBucket bucketFor(String key, int kbSec, long nowNanos) {
+        if (key == null || kbSec <= 0) {
+            return null;
+        }
+        long bytesPerSec = kbSec * 1024L;
+        Map<String,TokenBucket> map = buckets().asMap();
+        TokenBucket bucket = map.get(key);
+        if (bucket == null || bucket.getBytesPerSec() != bytesPerSec) {
+            // new, or limit changed since created
+            TokenBucket fresh = new TokenBucket(key, bytesPerSec,
+                    bytesPerSec * burstMs / 1000, nowNanos);
+            if (bucket == null) {
+                bucket = map.putIfAbsent(key, fresh);
+                if (bucket == null) {
+                    bucket = fresh;
+                }
+            } else {
+                map.put(key, fresh);
+                bucket = fresh;
+            }
+        }
+        return bucket;
+    }
+
+    protected TokenBucket existingBucket(String key) {
+        return key == null ? null : buckets().getIfPresent(key);
+    }
+
+    protected static String ipKey(InetAddress ip) {
+        return ip == null ? null : "ip:" + ip.getHostAddress();
+    }
+
+    protected static String subnetKey(InetAddress ip) {
+        if (ip == null) {
+            return null;
+        }
+        byte[] addr = ip.getAddress();
+        StringBuilder sb = new StringBuilder("subnet:");
+        if (ip instanceof Inet4Address) {
+            sb.append(addr[0] & 0xff).append('.').append(addr[1] & 0xff)
+                .append('.').append(addr[2] & 0xff).append("/24");
+        } else {
+            for (int i = 0; i < 6; i += 2) {
+                sb.append(Integer.toHexString(
+                        ((addr[i] & 0xff) << 8) | (addr[i + 1] & 0xff)));
+                sb.append(':');
+            }
+            sb.append(":/48");
+        }
+        return sb.toString();
+    }
+
+    protected static String hostKey(String hostName) {
+        return hostName == null ? null : "host:" + hostName;
+    }
+
+    /**
+     * Select the buckets against which the current thread's reads of
+     * throttled streams are debited, until endFetch().
+     *
+     * @param hostName host being fetched from
+     * @param ip its address, if known
+     */
+    public void beginFetch(String hostName, InetAddress ip) {
+        long now = System.nanoTime();
+        List<TokenBucket> chain = new ArrayList<TokenBucket>(4);
+        addIfLimited(chain, bucketFor(CRAWL_KEY, getCrawlKBSec(), now));
+        addIfLimited(chain, bucketFor(subnetKey(ip), getSubnetKBSec(), now));
+        addIfLimited(chain, bucketFor(ipKey(ip), getIpKBSec(), now));
+        addIfLimited(chain, bucketFor(hostKey(hostName), getHostKBSec(), now));
+        CURRENT.set(chain.isEmpty()
+                ? null : chain.toArray(new TokenBucket[chain.size()]));
+    }
+
+    protected void addIfLimited(List<TokenBucket> chain, TokenBucket bucket) {
+        if (bucket != null) {
+            chain.add(bucket);
+        }
+    }
+
+    public void endFetch() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return whether the current thread is between beginFetch() and
+     * endFetch() with at least one limit in effect
+     */
+    public static boolean isThrottling() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * @return milliseconds until the buckets for hostName, ip, and its
+     * subnet are all out of debt; 0 if none are in debt. The crawl-wide
+     * bucket is not considered.
+     */
+    public long delayFor(String hostName, InetAddress ip) {
+        long now = System.nanoTime();
+        long delay = 0;
+        for (String key : new String[] {
+                subnetKey(ip), ipKey(ip), hostKey(hostName) }) {
+            TokenBucket bucket = existingBucket(key);
+            if (bucket != null) {
+                delay = Math.max(delay, bucket.debtMs(now));
+            }
+        }
+        return delay;
+    }
+
+    /**
+     * Debit count bytes just read by the current thread from its buckets,
+     * then sleep until all are out of debt.
+     */
+    protected static void debit(long count) throws InterruptedIOException {
+        TokenBucket[] chain = CURRENT.get();
+        if (chain == null || count <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long wait = 0;
+        for (TokenBucket bucket : chain) {
+            long w = bucket.consume(count, now);
+            if (w > 0) {
+                bucket.noteWait(w);
+                wait = Math.max(wait, w);
+            }
+        }
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttled");
+            }
+        }
+    }
+
+    /**
+     * Wrap a socket input stream so that reads by a thread between
+     * beginFetch() and endFetch() are debited from (and paced by) its
+     * buckets. As pooled connections' streams outlive any one fetch,
+     * the buckets are looked up at each read. Reads by other threads, or
+     * outside any fetch, pass through unthrottled.
+     */
+    public static InputStream throttle(InputStream in) {
+        return new ThrottledInputStream(in);
+    }
+
+    protected static class ThrottledInputStream extends FilterInputStream {
+        protected ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                debit(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            debit(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            debit(count);
+            return count;
+        }
+    }
+
+    /**
+     * @return snapshot of all current buckets, most-utilized first
+     */
+    public List<TokenBucket> getBuckets() {
+        final long now = System.nanoTime();
+        List<TokenBucket> list =
+            new ArrayList<TokenBucket>(buckets().asMap().values());
+        Collections.sort(list, new Comparator<TokenBucket>() {
+            public int compare(TokenBucket a, TokenBucket b) {
+                return Double.compare(b.getUtilization(now),
+                        a.getUtilization(now));
+            }
+        });
+        return list;
+    }
+
+    //
+    // Reporter implementation
+    //
+
+    @Override
+    public void reportTo(PrintWriter writer) {
+        long now = System.nanoTime();
+        List<TokenBucket> list = getBuckets();
+        writer.print("Bandwidth limiter report - " + list.size() + " buckets\n");
+        writer.print(" key KB/sec bytes waitMs utilization\n");
+        int shown = 0;
+        for (TokenBucket bucket : list) {
+            if (shown++ >= 50) {
+                writer.print(" ...\n");
+                break;
+            }
+            writer.print(" " + bucket.getKey() + " "
+                    + (bucket.getBytesPerSec() / 1024) + " "
+                    + bucket.getTotalBytes() + " "
+                    + bucket.getTotalWaitMs() + " "
+                    + String.format("%.2f", bucket.getUtilization(now)) + "\n");
+        }
+    }
+
+    @Override
+    public String shortReportLegend() {
+        return "buckets crawlBytes crawlWaitMs crawlUtilization";
+    }
+
+    public String shortReportLine() {
+        return ReportUtils.shortReportLine(this);
+    }
+
+    @Override
+    public Map<String, Object> shortReportMap() {
+        Map<String,Object> map = new LinkedHashMap<String, Object>();
+        map.put("buckets", buckets().size());
+        TokenBucket crawl = existingBucket(CRAWL_KEY);
+        if (crawl != null) {
+            map.put("crawlBytes", crawl.getTotalBytes());
+            map.put("crawlWaitMs", crawl.getTotalWaitMs());
+            map.put("crawlUtilization", crawl.getUtilization(System.nanoTime()));
+        }
+        return map;
+    }
+
+    @Override
+    public void shortReportLineTo(PrintWriter writer) {
+        Map<String,Object> map = shortReportMap();
+        writer.print(map.get("buckets"));
+        TokenBucket crawl = existingBucket(CRAWL_KEY);
+        if (crawl != null) {
+            writer.print(" ");
+            writer.print(crawl.getTotalBytes());
+            writer.print(" ");
+            writer.print(crawl.getTotalWaitMs());
+            writer.print(" ");
+            writer.print(String.format("%.2f",
+                    crawl.getUtilization(System.nanoTime())));
+        }
+    }
+}
@@ -58,6 +58,18 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
      */
     protected ObjectIdentityCache<CrawlHost> hosts = null;
     
+    /**
+     * Optional resolver to be told of each newly-created host, so it
+     * can start resolving the host's name ahead of the 'dns:' fetch.
+     */
+    protected transient AsyncDnsResolver dnsResolver = null;
+    public AsyncDnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+    public void setDnsResolver(AsyncDnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+    
     /**
      * Constructor.
      */
@@ -105,6 +117,9 @@ public class DefaultServerCache extends ServerCache implements Closeable, Serial
                 new Supplier<CrawlHost>() {
                     public CrawlHost get() {
                         String hkey = new String(hostname); // ensure private minimal key
+                        if (dnsResolver != null) {
+                            dnsResolver.prefetch(hkey);
+                        }
                         return new CrawlHost(hkey);
                     }});
         if (host != null && host.getIP() != null
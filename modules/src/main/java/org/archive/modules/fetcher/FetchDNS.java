@@ -115,6 +115,21 @@ public class FetchDNS extends Processor {
         this.serverCache = serverCache;
     }
     
+    /**
+     * Optional shared resolver which caches answers, combines concurrent
+     * lookups of the same name, and may already have resolved the name
+     * by the time its 'dns:' URI comes up (see
+     * AsyncDnsResolver.prefetchNewHosts). If not set, or if it can't give
+     * a definitive answer, a dnsjava Lookup is run as usual.
+     */
+    protected AsyncDnsResolver dnsResolver;
+    public AsyncDnsResolver getDnsResolver() {
+        return this.dnsResolver;
+    }
+    public void setDnsResolver(AsyncDnsResolver dnsResolver) {
+        this.dnsResolver = dnsResolver;
+    }
+    
     /**
      * Whether or not to perform an on-the-fly digest hash of retrieved
      * content-bodies.
@@ -178,12 +193,22 @@ public class FetchDNS extends Processor {
         // Try to get the records for this host (assume domain name)
         // TODO: Bug #935119 concerns potential hang here
         String lookupName = dnsName.endsWith(".") ? dnsName : dnsName + ".";
+        String dnsServer = null;
         // If we have not disabled JavaDNS, use that:
         if (!getDisableJavaDnsResolves()) {
-            try {
-                rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
-            } catch (TextParseException e) {
-                rrecordSet = null;
+            AsyncDnsResolver.Answer answer = null;
+            if (getDnsResolver() != null) {
+                answer = getDnsResolver().await(lookupName);
+            }
+            if (answer != null) {
+                rrecordSet = answer.getRecords();
+                dnsServer = answer.getServer();
+            } else {
+                try {
+                    rrecordSet = (new Lookup(lookupName, TypeType, ClassType)).run();
+                } catch (TextParseException e) {
+                    rrecordSet = null;
+                }
             }
         }
         curi.setContentType("text/dns");
@@ -192,6 +217,9 @@ public class FetchDNS extends Processor {
                 logger.fine("Found recordset for " + lookupName);
             }
         	storeDNSRecord(curi, dnsName, targetHost, rrecordSet);
+            if (dnsServer != null && curi.getFetchStatus() == S_DNS_SUCCESS) {
+                curi.setDNSServerIPLabel(dnsServer);
+            }
         } else {
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine("Failed find of recordset for " + lookupName);
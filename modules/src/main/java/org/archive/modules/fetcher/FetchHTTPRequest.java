@@ -22,6 +22,8 @@ import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADE
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_LAST_MODIFIED_HEADER;
 import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_STATUS;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -39,6 +41,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
@@ -46,6 +49,8 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 
 import org.apache.commons.httpclient.URIException;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
@@ -88,12 +93,14 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.DefaultBHttpClientConnection;
+import org.apache.http.impl.NoConnectionReuseStrategy;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
 import org.apache.http.impl.conn.DefaultHttpResponseParserFactory;
 import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.io.DefaultHttpRequestWriterFactory;
 import org.apache.http.io.HttpMessageParserFactory;
 import org.apache.http.io.HttpMessageWriterFactory;
@@ -120,6 +127,12 @@ import org.archive.util.Recorder;
  */
 public class FetchHTTPRequest {
     
+    /**
+     * HttpContext attribute consulted by the ssl socket factory, which may
+     * be shared among many requests when connection pooling is enabled.
+     */
+    protected static final String DISABLE_SNI_ATTR = "heritrix.disableSNI";
+
     private boolean disableSNI = false;
     
     public boolean isDisableSNI() {
@@ -128,8 +141,17 @@ public class FetchHTTPRequest {
 
     public void setDisableSNI(boolean disableSNI) {
         this.disableSNI = disableSNI;
+        httpClientContext.setAttribute(DISABLE_SNI_ATTR, disableSNI);
     }
 
+    /**
+     * Source of identifiers for each execute() ('exchange'), so that a
+     * pooled connection can tell when it is being reused for a different
+     * fetch than the one whose Recorder it last wrapped.
+     */
+    protected static final AtomicLong EXCHANGE_COUNTER = new AtomicLong();
+    protected static final ThreadLocal<Long> CURRENT_EXCHANGE = new ThreadLocal<Long>();
+
     /**
      * Implementation of {@link DnsResolver} that uses the server cache which is
      * normally expected to have been populated by FetchDNS.
@@ -547,12 +569,55 @@ public class FetchHTTPRequest {
         CookieStore cookieStore = fetcher.getCookieStore().cookieStoreFor(curi);
         httpClientBuilder.setDefaultCookieStore(cookieStore);
         
-        connMan = buildConnectionManager();
+        if (fetcher.getPooledConnectionManager() != null) {
+            connMan = fetcher.getPooledConnectionManager();
+            if (fetcher.getSendConnectionClose()) {
+                // never return a connection we asked to have closed 
+                httpClientBuilder.setConnectionReuseStrategy(
+                        NoConnectionReuseStrategy.INSTANCE);
+            }
+        } else {
+            connMan = buildConnectionManager();
+        }
         httpClientBuilder.setConnectionManager(connMan);
     }
 
     protected HttpClientConnectionManager buildConnectionManager() {
-        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+        BasicHttpClientConnectionManager connMan = new BasicHttpClientConnectionManager(
+                buildSocketFactoryRegistry(fetcher), 
+                buildConnectionFactory(false), null, 
+                new ServerCacheResolver(fetcher.getServerCache()));
+        
+        SocketConfig.Builder socketConfigBuilder = SocketConfig.custom();
+        socketConfigBuilder.setSoTimeout(fetcher.getSoTimeoutMs());
+        connMan.setSocketConfig(socketConfigBuilder.build());
+        
+        return connMan;
+    }
+
+    /**
+     * Build a connection manager keeping a bounded number of keep-alive
+     * connections per route (roughly, per CrawlServer), for use by all
+     * requests of the given fetcher.
+     */
+    protected static PoolingHttpClientConnectionManager buildPooledConnectionManager(FetchHTTP fetcher) {
+        PoolingHttpClientConnectionManager connMan = new PoolingHttpClientConnectionManager(
+                buildSocketFactoryRegistry(fetcher), 
+                buildConnectionFactory(true), null, 
+                new ServerCacheResolver(fetcher.getServerCache()),
+                -1, TimeUnit.MILLISECONDS);
+        connMan.setMaxTotal(fetcher.getMaxPooledConnections());
+        connMan.setDefaultMaxPerRoute(fetcher.getMaxPooledConnectionsPerServer());
+        
+        SocketConfig.Builder socketConfigBuilder = SocketConfig.custom();
+        socketConfigBuilder.setSoTimeout(fetcher.getSoTimeoutMs());
+        connMan.setDefaultSocketConfig(socketConfigBuilder.build());
+        
+        return connMan;
+    }
+
+    protected static Registry<ConnectionSocketFactory> buildSocketFactoryRegistry(FetchHTTP fetcher) {
+        return RegistryBuilder.<ConnectionSocketFactory>create()
                 .register("http", PlainConnectionSocketFactory.INSTANCE)
                 .register(
                         "https",
@@ -565,16 +630,18 @@ public class FetchHTTPRequest {
                                     final int port, final HttpContext context)
                                     throws IOException {
 
+                                boolean disableSNI = Boolean.TRUE.equals(
+                                        context.getAttribute(DISABLE_SNI_ATTR));
                                 return super.createLayeredSocket(socket,
-                                        isDisableSNI() ? "" : target, port,
+                                        disableSNI ? "" : target, port,
                                         context);
                             }
                         })
                 .build();
+    }
 
-        DnsResolver dnsResolver = new ServerCacheResolver(fetcher.getServerCache());
-
-        ManagedHttpClientConnectionFactory connFactory = new ManagedHttpClientConnectionFactory(){
+    protected static ManagedHttpClientConnectionFactory buildConnectionFactory(final boolean pooled) {
+        return new ManagedHttpClientConnectionFactory(){
             private static final int DEFAULT_BUFSIZE = 8 * 1024;
 
             @Override
@@ -600,24 +667,31 @@ public class FetchHTTPRequest {
                         DEFAULT_BUFSIZE, chardecoder, charencoder,
                         cconfig.getMessageConstraints(), null, null,
                         DefaultHttpRequestWriterFactory.INSTANCE,
-                        DefaultHttpResponseParserFactory.INSTANCE);
+                        DefaultHttpResponseParserFactory.INSTANCE, pooled);
             }
         };
-        BasicHttpClientConnectionManager connMan = new BasicHttpClientConnectionManager(
-                socketFactoryRegistry, connFactory, null, dnsResolver);
-        
-        SocketConfig.Builder socketConfigBuilder = SocketConfig.custom();
-        socketConfigBuilder.setSoTimeout(fetcher.getSoTimeoutMs());
-        connMan.setSocketConfig(socketConfigBuilder.build());
-        
-        return connMan;
     }
     
+    /**
+     * Connection whose socket streams are wrapped by the current thread's
+     * Recorder, so that all bytes on the wire are captured.
+     * 
+     * A pooled connection may outlive the fetch that opened it. Its socket
+     * streams are then rebound to the Recorder of each new exchange (see
+     * {@link #sendRequestHeader(HttpRequest)}), are shielded from being
+     * closed when that Recorder closes, and read unrecorded when no
+     * recording is open (as during stale-connection checks).
+     */
     protected static class RecordingHttpClientConnection extends DefaultBHttpClientConnection
     implements ManagedHttpClientConnection {
 
         private static final AtomicLong COUNTER = new AtomicLong();
         private String id;
+        protected final boolean pooled;
+        protected RebindableInputStream pooledIn;
+        protected RebindableOutputStream pooledOut;
+        /** exchange whose Recorder currently wraps the socket streams */
+        protected Long boundExchange;
 
         public RecordingHttpClientConnection(
                 final int buffersize,
@@ -629,36 +703,94 @@ public class FetchHTTPRequest {
                 final ContentLengthStrategy outgoingContentStrategy,
                 final HttpMessageWriterFactory<HttpRequest> requestWriterFactory,
                 final HttpMessageParserFactory<HttpResponse> responseParserFactory) {
+            this(buffersize, fragmentSizeHint, chardecoder, charencoder,
+                    constraints, incomingContentStrategy, outgoingContentStrategy,
+                    requestWriterFactory, responseParserFactory, false);
+        }
+
+        public RecordingHttpClientConnection(
+                final int buffersize,
+                final int fragmentSizeHint,
+                final CharsetDecoder chardecoder,
+                final CharsetEncoder charencoder,
+                final MessageConstraints constraints,
+                final ContentLengthStrategy incomingContentStrategy,
+                final ContentLengthStrategy outgoingContentStrategy,
+                final HttpMessageWriterFactory<HttpRequest> requestWriterFactory,
+                final HttpMessageParserFactory<HttpResponse> responseParserFactory,
+                final boolean pooled) {
             super(buffersize, fragmentSizeHint, chardecoder, charencoder,
                     constraints, incomingContentStrategy, outgoingContentStrategy,
                     requestWriterFactory, responseParserFactory);
             id = "recording-http-connection-" + Long.toString(COUNTER.getAndIncrement());
+            this.pooled = pooled;
         }
 
         @Override
         protected InputStream getSocketInputStream(final Socket socket) throws IOException {
             Recorder recorder = Recorder.getHttpRecorder();
-            if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
-                return recorder.inputWrap(super.getSocketInputStream(socket));
+            InputStream in = super.getSocketInputStream(socket);
+            if (BandwidthLimiter.isThrottling()) {
+                // below the recorder, so recording is paced too
+                in = BandwidthLimiter.throttle(in);
+            }
+            if (pooled) {
+                pooledIn = new RebindableInputStream(in);
+                pooledIn.rebind(recorder);
+                boundExchange = CURRENT_EXCHANGE.get();
+                return pooledIn;
+            } else if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
+                return recorder.inputWrap(in);
             } else {
-                return super.getSocketInputStream(socket);
+                return in;
             }
         }
 
         @Override
         protected OutputStream getSocketOutputStream(final Socket socket) throws IOException {
             Recorder recorder = Recorder.getHttpRecorder();
-            if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
+            if (pooled) {
+                pooledOut = new RebindableOutputStream(super.getSocketOutputStream(socket));
+                pooledOut.rebind(recorder);
+                return pooledOut;
+            } else if (recorder != null) {   // XXX || (isSecure() && isProxied())) {
                 return recorder.outputWrap(super.getSocketOutputStream(socket));
             } else {
                 return super.getSocketOutputStream(socket);
             }
         }
+
+        /**
+         * On a pooled connection reused by a new exchange, start recording
+         * into the current thread's Recorder before any request bytes go out.
+         */
+        @Override
+        public void sendRequestHeader(final HttpRequest request)
+                throws HttpException, IOException {
+            if (pooled && pooledIn != null) {
+                Long exchange = CURRENT_EXCHANGE.get();
+                if (exchange != null && !exchange.equals(boundExchange)) {
+                    Recorder recorder = Recorder.getHttpRecorder();
+                    pooledOut.rebind(recorder);
+                    pooledIn.rebind(recorder);
+                    boundExchange = exchange;
+                }
+            }
+            super.sendRequestHeader(request);
+        }
         
         @Override
         public void close() throws IOException {
         	super.close();
         	
+            if (pooled) {
+                Long exchange = CURRENT_EXCHANGE.get();
+                if (exchange == null || !exchange.equals(boundExchange)) {
+                    // closed by idle eviction, or by lease-time stale check
+                    // of a later fetch: the Recorder isn't ours to close
+                    return;
+                }
+            }
             /*
              * Need to do this to avoid "java.io.IOException: RIS already open"
              * on urls that are retried within httpcomponents. Exercised by
@@ -692,6 +824,85 @@ public class FetchHTTPRequest {
         }
     }
     
+    /**
+     * Socket input stream of a pooled connection, read through the
+     * RecordingInputStream of the Recorder it was last bound to while that
+     * recording is open, and read directly otherwise. 
+     */
+    protected static class RebindableInputStream extends FilterInputStream {
+        protected final InputStream socketIn;
+        protected Recorder recorder;
+        protected InputStream recordingIn;
+
+        public RebindableInputStream(InputStream socketIn) {
+            super(socketIn);
+            this.socketIn = socketIn;
+        }
+
+        public void rebind(Recorder recorder) throws IOException {
+            this.recorder = recorder;
+            // shield so closing the recording leaves the socket open
+            this.recordingIn = (recorder == null) ? null 
+                    : recorder.inputWrap(new CloseShieldInputStream(socketIn));
+        }
+
+        protected InputStream current() {
+            if (recordingIn != null && recorder.getRecordedInput().isOpen()) {
+                return recordingIn;
+            }
+            return socketIn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return current().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return current().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return socketIn.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socketIn.close();
+        }
+    }
+
+    /**
+     * Socket output stream of a pooled connection, written through the
+     * RecordingOutputStream of the Recorder it was last bound to.
+     */
+    protected static class RebindableOutputStream extends FilterOutputStream {
+        protected final OutputStream socketOut;
+
+        public RebindableOutputStream(OutputStream socketOut) {
+            super(socketOut);
+            this.socketOut = socketOut;
+        }
+
+        public void rebind(Recorder recorder) throws IOException {
+            // shield so closing the recording leaves the socket open
+            this.out = (recorder == null) ? socketOut 
+                    : recorder.outputWrap(new CloseShieldOutputStream(socketOut));
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socketOut.close();
+        }
+    }
+
     protected static final HttpRoutePlanner ROUTE_PLANNER = new HttpRoutePlanner() {
         @Override
         public HttpRoute determineRoute(HttpHost host, HttpRequest request,
@@ -738,6 +949,7 @@ public class FetchHTTPRequest {
     
     public HttpResponse execute() throws ClientProtocolException, IOException {
         HttpClient httpClient = httpClientBuilder.build();
+        CURRENT_EXCHANGE.set(EXCHANGE_COUNTER.incrementAndGet());
         
         RequestConfig requestConfig = requestConfigBuilder.build();
         httpClientContext.setRequestConfig(requestConfig);
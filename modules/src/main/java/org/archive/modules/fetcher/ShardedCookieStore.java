@@ -0,0 +1,455 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+import org.archive.bdb.BdbModule;
+import org.archive.checkpointing.Checkpoint;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.net.InternetDomainName;
+import com.sleepycat.bind.serial.SerialBinding;
+import com.sleepycat.bind.serial.StoredClassCatalog;
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.StoredMap;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseException;
+
+/**
+ * Cookie store keeping the cookies of recently-active registered domains
+ * (such as example.com, or example.co.uk) in memory, and those of
+ * other domains in bdb.
+ *
+ * Cookies are grouped by the registered domain of the cookie's domain.
+ * Up to maxHotDomains groups are held in a concurrent map, so a lookup
+ * for a host whose group is in memory takes no locks and touches no
+ * disk. A group not in memory is read from bdb, as a single record, on
+ * first use. When there are more than maxHotDomains groups in memory,
+ * those idle longest are written back to bdb (dropping any expired
+ * cookies) and released.
+ *
+ * Loading, changing, and evicting a group happen under one of
+ * lockStripes locks, chosen by the group's registered domain, so
+ * threads working on different sites rarely contend. Holding the lock
+ * also makes the MAX_COOKIES_FOR_DOMAIN check and the addition of a
+ * cookie one atomic step. Unlike in BdbCookieStore, only cookies under
+ * the same registered domain count towards that limit.
+ *
+ * Changed groups still in memory are written to bdb at each checkpoint
+ * and at stop.
+ */
+public class ShardedCookieStore extends AbstractCookieStore {
+
+    /** 
+     * cookies of one registered domain, by normalized cookie domain, then
+     * by sortableKey(); only changed under lock 
+     */
+    protected class DomainCookies {
+        protected ConcurrentMap<String,ConcurrentMap<String,Cookie>> byDomain =
+            new ConcurrentHashMap<String,ConcurrentMap<String,Cookie>>();
+        protected volatile long lastAccess = System.currentTimeMillis();
+        /** changed since last written to bdb */
+        protected boolean dirty = false;
+
+        protected void put(Cookie cookie) {
+            String domain = normalizeHost(cookie.getDomain());
+            ConcurrentMap<String,Cookie> cookies = byDomain.get(domain);
+            if (cookies == null) {
+                cookies = new ConcurrentHashMap<String,Cookie>();
+                byDomain.put(domain, cookies);
+            }
+            cookies.put(sortableKey(cookie), cookie);
+        }
+
+        protected void remove(Cookie cookie) {
+            ConcurrentMap<String,Cookie> cookies =
+                byDomain.get(normalizeHost(cookie.getDomain()));
+            if (cookies != null) {
+                cookies.remove(sortableKey(cookie));
+            }
+        }
+
+        protected int count(Set<String> domains) {
+            int count = 0;
+            for (String domain : domains) {
+                ConcurrentMap<String,Cookie> cookies = byDomain.get(domain);
+                if (cookies != null) {
+                    count += cookies.size();
+                }
+            }
+            return count;
+        }
+
+        protected void collect(Set<String> domains, Date now,
+                List<Cookie> result) {
+            for (String domain : domains) {
+                ConcurrentMap<String,Cookie> cookies = byDomain.get(domain);
+                if (cookies == null) {
+                    continue;
+                }
+                for (Cookie cookie : cookies.values()) {
+                    if (now == null || !cookie.isExpired(now)) {
+                        result.add(cookie);
+                    }
+                }
+            }
+        }
+    }
+
+    protected BdbModule bdb;
+    @Autowired
+    public void setBdbModule(BdbModule bdb) {
+        this.bdb = bdb;
+    }
+
+    /**
+     * Maximum number of registered domains whose cookies (or lack of
+     * cookies) are held in memory.
+     */
+    protected int maxHotDomains = 10000;
+    public int getMaxHotDomains() {
+        return maxHotDomains;
+    }
+    public void setMaxHotDomains(int maxHotDomains) {
+        this.maxHotDomains = maxHotDomains;
+    }
+
+    /**
+     * Number of locks among which registered domains are divided; rounded
+     * up to a power of 2. Only consulted at start.
+     */
+    protected int lockStripes = 1024;
+    public int getLockStripes() {
+        return lockStripes;
+    }
+    public void setLockStripes(int lockStripes) {
+        this.lockStripes = lockStripes;
+    }
+
+    public static String COOKIEDB_NAME = "sharded_cookies";
+
+    private transient Database cookieDb;
+    /** evicted groups, keyed by registered domain */
+    private transient StoredMap<String,Cookie[]> cold;
+    protected ConcurrentMap<String,DomainCookies> hot =
+        new ConcurrentHashMap<String,DomainCookies>();
+    protected Object[] locks;
+    protected AtomicBoolean evicting = new AtomicBoolean(false);
+
+    @Override
+    protected void prepare() {
+        int stripes = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+        locks = new Object[stripes];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        try {
+            StoredClassCatalog classCatalog = bdb.getClassCatalog();
+            BdbModule.BdbConfig dbConfig = new BdbModule.BdbConfig();
+            dbConfig.setTransactional(false);
+            dbConfig.setAllowCreate(true);
+            dbConfig.setSortedDuplicates(false);
+            cookieDb = bdb.openDatabase(COOKIEDB_NAME, dbConfig,
+                    isCheckpointRecovery);
+            cold = new StoredMap<String,Cookie[]>(cookieDb,
+                    new StringBinding(),
+                    new SerialBinding<Cookie[]>(classCatalog, Cookie[].class),
+                    true);
+        } catch (DatabaseException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (isRunning()) {
+            flush();
+        }
+        super.stop();
+    }
+
+    protected Object lockFor(String groupKey) {
+        int h = groupKey.hashCode();
+        h ^= (h >>> 16);
+        return locks[h & (locks.length - 1)];
+    }
+
+    /**
+     * @param domain normalized domain
+     * @return registered domain of domain, or domain itself if it has
+     * none (as with IP addresses, and public suffixes such as co.uk)
+     */
+    protected String groupKeyFor(String domain) {
+        if (InternetDomainName.isValid(domain)) {
+            InternetDomainName idn = InternetDomainName.from(domain);
+            if (idn.isUnderPublicSuffix()) {
+                return idn.topPrivateDomain().toString();
+            }
+        }
+        return domain;
+    }
+
+    /**
+     * Get the in-memory group for groupKey, reading it from bdb (or
+     * creating it empty) if necessary.
+     */
+    protected DomainCookies groupFor(String groupKey) {
+        DomainCookies group = hot.get(groupKey);
+        if (group == null) {
+            synchronized (lockFor(groupKey)) {
+                group = hot.get(groupKey);
+                if (group == null) {
+                    group = new DomainCookies();
+                    Cookie[] stored = cold.get(groupKey);
+                    if (stored != null) {
+                        for (Cookie cookie : stored) {
+                            group.put(cookie);
+                        }
+                    }
+                    hot.put(groupKey, group);
+                }
+            }
+            if (hot.size() > maxHotDomains) {
+                evictIdle();
+            }
+        }
+        group.lastAccess = System.currentTimeMillis();
+        return group;
+    }
+
+    /**
+     * Write back and release the longest-idle groups, down to 90% of
+     * maxHotDomains. Only one thread evicts at a time; others carry on.
+     */
+    protected void evictIdle() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<Map.Entry<String,DomainCookies>> entries =
+                new ArrayList<Map.Entry<String,DomainCookies>>(hot.entrySet());
+            final Map<DomainCookies,Long> accessTimes =
+                new IdentityHashMap<DomainCookies,Long>();
+            for (Map.Entry<String,DomainCookies> entry : entries) {
+                // fixed for sorting, as other threads may touch any entry
+                accessTimes.put(entry.getValue(), entry.getValue().lastAccess);
+            }
+            Collections.sort(entries, new Comparator<Map.Entry<String,DomainCookies>>() {
+                public int compare(Map.Entry<String,DomainCookies> e1,
+                        Map.Entry<String,DomainCookies> e2) {
+                    return accessTimes.get(e1.getValue()).compareTo(
+                            accessTimes.get(e2.getValue()));
+                }
+            });
+            int target = maxHotDomains - maxHotDomains / 10;
+            for (Map.Entry<String,DomainCookies> entry : entries) {
+                if (hot.size() <= target) {
+                    break;
+                }
+                String groupKey = entry.getKey();
+                synchronized (lockFor(groupKey)) {
+                    if (hot.get(groupKey) != entry.getValue()) {
+                        continue;
+                    }
+                    writeBack(groupKey, entry.getValue());
+                    hot.remove(groupKey);
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /** write group to bdb if changed; caller must hold its lock */
+    protected void writeBack(String groupKey, DomainCookies group) {
+        if (!group.dirty) {
+            return;
+        }
+        List<Cookie> live = new ArrayList<Cookie>();
+        group.collect(group.byDomain.keySet(), new Date(), live);
+        if (live.isEmpty()) {
+            cold.remove(groupKey);
+        } else {
+            cold.put(groupKey, live.toArray(new Cookie[live.size()]));
+        }
+        group.dirty = false;
+    }
+
+    /**
+     * Write all changed in-memory groups to bdb, leaving them in memory.
+     */
+    public void flush() {
+        for (Map.Entry<String,DomainCookies> entry : hot.entrySet()) {
+            synchronized (lockFor(entry.getKey())) {
+                if (hot.get(entry.getKey()) == entry.getValue()) {
+                    writeBack(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return host and its parent domains, if applicable
+     */
+    protected Set<String> domainsVisibleFrom(String host) {
+        Set<String> domains = new LinkedHashSet<String>();
+        if (InternetDomainName.isValid(host)) {
+            InternetDomainName domain = InternetDomainName.from(host);
+            while (domain != null) {
+                domains.add(domain.toString());
+                domain = domain.hasParent() ? domain.parent() : null;
+            }
+        } else {
+            domains.add(host);
+        }
+        return domains;
+    }
+
+    /**
+     * Returns a {@link LimitedCookieStoreFacade} whose
+     * {@link LimitedCookieStoreFacade#getCookies()} method returns a
+     * snapshot of unexpired cookies from {@code host} and its parent
+     * domains, if applicable.
+     */
+    @Override
+    public CookieStore cookieStoreFor(String host) {
+        Set<String> domains = domainsVisibleFrom(host);
+        Set<String> groupKeys = new LinkedHashSet<String>();
+        for (String domain : domains) {
+            groupKeys.add(groupKeyFor(domain));
+        }
+        Date now = new Date();
+        List<Cookie> result = new ArrayList<Cookie>();
+        for (String groupKey : groupKeys) {
+            groupFor(groupKey).collect(domains, now, result);
+        }
+        return new LimitedCookieStoreFacade(result);
+    }
+
+    /**
+     * Add (or replace, or if expired remove) a cookie, unless its domain
+     * already has MAX_COOKIES_FOR_DOMAIN cookies in its registered
+     * domain. The limit check and addition are atomic.
+     */
+    @Override
+    public void addCookie(Cookie cookie) {
+        String domain = normalizeHost(cookie.getDomain());
+        String groupKey = groupKeyFor(domain);
+        synchronized (lockFor(groupKey)) {
+            DomainCookies group = groupFor(groupKey);
+            if (group.count(domainsVisibleFrom(domain)) >= MAX_COOKIES_FOR_DOMAIN) {
+                logger.log(Level.FINEST,
+                        "Maximum number of cookies reached for domain "
+                        + cookie.getDomain() + ". Will not add new cookie "
+                        + cookie.getName() + " with value "
+                        + cookie.getValue());
+                return;
+            }
+            addCookieImpl(cookie);
+        }
+    }
+
+    @Override
+    protected void addCookieImpl(Cookie cookie) {
+        String groupKey = groupKeyFor(normalizeHost(cookie.getDomain()));
+        synchronized (lockFor(groupKey)) {
+            DomainCookies group = groupFor(groupKey);
+            if (!cookie.isExpired(new Date())) {
+                group.put(cookie);
+            } else {
+                group.remove(cookie);
+            }
+            group.dirty = true;
+        }
+    }
+
+    @Override
+    public void clear() {
+        hot.clear();
+        cold.clear();
+    }
+
+    /**
+     * @return a snapshot of all cookies, in memory or in bdb
+     */
+    @Override
+    public List<Cookie> getCookies() {
+        if (cold == null) {
+            return null;
+        }
+        flush();
+        List<Cookie> result = new ArrayList<Cookie>();
+        for (Cookie[] stored : cold.values().toArray(new Cookie[0][])) {
+            Collections.addAll(result, stored);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean clearExpired(Date date) {
+        throw new RuntimeException("not implemented");
+    }
+
+    /**
+     * @return number of registered domains whose cookies are in memory
+     */
+    public int getHotDomainCount() {
+        return hot.size();
+    }
+
+    @Override
+    public void startCheckpoint(Checkpoint checkpointInProgress) {
+        // get in-memory changes into bdb before BdbModule checkpoints it
+        flush();
+    }
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress)
+            throws IOException {
+        // do nothing; handled by map checkpoint via BdbModule
+    }
+    @Override
+    public void finishCheckpoint(Checkpoint checkpointInProgress) {
+        // do nothing; handled by map checkpoint via BdbModule
+    }
+
+    /** are we a checkpoint recovery? (in which case, reuse stored cookie data?) */
+    protected boolean isCheckpointRecovery = false;
+    @Override
+    public void setRecoveryCheckpoint(Checkpoint recoveryCheckpoint) {
+        // just remember that we are doing checkpoint-recovery;
+        // actual state recovery happens via BdbModule
+        isCheckpointRecovery = true;
+    }
+}
@@ -64,6 +64,8 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     private String server; // actually, host+port in the https case
     private int port;
     protected Robotstxt robotstxt;
+    /** whether robotstxt is known to be the shared instance for its rules */
+    protected transient boolean robotstxtShared = false;
     protected long robotsFetched = ROBOTS_NOT_FETCHED;
     protected boolean validRobots = false;
     protected FetchStats substats = new FetchStats();
@@ -124,6 +126,11 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
     }
     
     public Robotstxt getRobotstxt() {
+        if (!robotstxtShared && robotstxt != null) {
+            // deserialized copy; swap for the shared equivalent
+            robotstxt = Robotstxt.intern(robotstxt);
+            robotstxtShared = true;
+        }
         return robotstxt;
     }
 
@@ -177,7 +184,8 @@ public class CrawlServer implements Serializable, FetchStats.HasFetchStats, Iden
             contentBodyStream = curi.getRecorder().getContentReplayInputStream();
 
             InputStreamReader reader = new InputStreamReader(contentBodyStream);
-            robotstxt = new Robotstxt(reader);
+            robotstxt = Robotstxt.intern(new Robotstxt(reader));
+            robotstxtShared = true;
             validRobots = true;
         } catch (IOException e) {
             robotstxt = Robotstxt.NO_ROBOTS;
@@ -36,25 +36,16 @@ public class RobotsDirectives implements Serializable {
     protected ConcurrentSkipListSet<String> allows = new ConcurrentSkipListSet<String>();
     protected float crawlDelay = -1; 
     public transient boolean hasDirectives = false;
+    /** compiled allows/disallows; built on first use, dropped on change */
+    protected transient volatile RobotsPathMatcher matcher = null;
 
     public boolean allows(String path) {
-        return !(longestPrefixLength(disallows, path) > longestPrefixLength(allows, path));
-    }
-
-    /**
-     * @param prefixSet
-     * @param str
-     * @return length of longest entry in {@code prefixSet} that prefixes {@code str}, or zero
-     *         if no entry prefixes {@code str}
-     */
-    protected int longestPrefixLength(ConcurrentSkipListSet<String> prefixSet,
-            String str) {
-        String possiblePrefix = prefixSet.floor(str);
-        if (possiblePrefix != null && str.startsWith(possiblePrefix)) {
-            return possiblePrefix.length();
-        } else {
-            return 0;
-        }
+        RobotsPathMatcher m = matcher;
+        if (m == null) {
+            m = new RobotsPathMatcher(allows, disallows);
+            matcher = m;
+        }
+        return m.allows(path);
     }
 
     public void addDisallow(String path) {
@@ -65,11 +56,13 @@ public class RobotsDirectives implements Serializable {
             return;
         }
         disallows.add(path);
+        matcher = null;
     }
 
     public void addAllow(String path) {
         hasDirectives = true;
         allows.add(path);
+        matcher = null;
     }
 
     public void setCrawlDelay(float i) {
@@ -0,0 +1,191 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.net;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compiled form of one RobotsDirectives' allow and disallow paths.
+ *
+ * Plain paths go into a character trie, so a check walks the path
+ * once, noting the deepest rule passed. Paths using the common '*'
+ * (any characters) and trailing '$' (end of path) extensions are
+ * matched separately. As with Google's interpretation, the longest
+ * matching rule wins, and an allow wins a tie with a disallow; a path
+ * no rule matches is allowed.
+ *
+ * Immutable once built, so may be shared by any number of threads.
+ */
+public class RobotsPathMatcher {
+    protected static final byte NO_RULE = 0;
+    protected static final byte ALLOW = 1;
+    protected static final byte DISALLOW = 2;
+
+    protected static final char[] NO_KEYS = new char[0];
+    protected static final Node[] NO_CHILDREN = new Node[0];
+
+    /** trie node; children kept in parallel arrays sorted by key */
+    protected static class Node {
+        protected char[] keys = NO_KEYS;
+        protected Node[] children = NO_CHILDREN;
+        protected byte rule = NO_RULE;
+
+        protected Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        protected Node addChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int insert = -i - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            newKeys[insert] = c;
+            newChildren[insert] = new Node();
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[insert];
+        }
+    }
+
+    protected Node root = new Node();
+    protected String[] wildcardPaths;
+    protected byte[] wildcardRules;
+
+    public RobotsPathMatcher(Collection<String> allows, Collection<String> disallows) {
+        List<String> wildcards = new ArrayList<String>();
+        List<Byte> rules = new ArrayList<Byte>();
+        for (String path : disallows) {
+            add(path, DISALLOW, wildcards, rules);
+        }
+        // added after disallows so an identical allow wins the tie
+        for (String path : allows) {
+            add(path, ALLOW, wildcards, rules);
+        }
+        wildcardPaths = wildcards.toArray(new String[wildcards.size()]);
+        wildcardRules = new byte[rules.size()];
+        for (int i = 0; i < wildcardRules.length; i++) {
+            wildcardRules[i] = rules.get(i);
+        }
+    }
+
+    protected void add(String path, byte rule, List<String> wildcards,
+            List<Byte> rules) {
+        if (isWildcard(path)) {
+            wildcards.add(path);
+            rules.add(rule);
+            return;
+        }
+        Node node = root;
+        for (int i = 0; i < path.length(); i++) {
+            node = node.addChild(path.charAt(i));
+        }
+        node.rule = rule;
+    }
+
+    protected static boolean isWildcard(String path) {
+        return path.indexOf('*') >= 0 || path.endsWith("$");
+    }
+
+    /**
+     * @param path path (and query) to test
+     * @return true if the longest rule matching path is an allow, or no
+     * rule matches
+     */
+    public boolean allows(String path) {
+        int bestLength = -1;
+        byte bestRule = NO_RULE;
+        Node node = root;
+        if (node.rule != NO_RULE) {
+            bestLength = 0;
+            bestRule = node.rule;
+        }
+        for (int i = 0; i < path.length(); i++) {
+            node = node.child(path.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.rule != NO_RULE) {
+                bestLength = i + 1;
+                bestRule = node.rule;
+            }
+        }
+        for (int i = 0; i < wildcardPaths.length; i++) {
+            String pattern = wildcardPaths[i];
+            if (pattern.length() < bestLength
+                    || (pattern.length() == bestLength && bestRule == ALLOW)) {
+                // can't improve on what's already matched
+                continue;
+            }
+            if (wildcardMatches(pattern, path)) {
+                bestLength = pattern.length();
+                bestRule = wildcardRules[i];
+            }
+        }
+        return bestRule != DISALLOW;
+    }
+
+    /**
+     * Whether a robots.txt path using '*' and a trailing '$' matches
+     * (a prefix of, unless '$'-anchored) the given path.
+     *
+     * @param pattern
+     * @param path
+     * @return true if pattern matches
+     */
+    protected static boolean wildcardMatches(String pattern, String path) {
+        boolean anchored = pattern.endsWith("$");
+        int patternLength = anchored ? pattern.length() - 1 : pattern.length();
+        int p = 0;
+        int s = 0;
+        int starP = -1;
+        int starS = 0;
+        while (true) {
+            if (p == patternLength) {
+                if (!anchored || s == path.length()) {
+                    return true;
+                }
+            } else if (pattern.charAt(p) == '*') {
+                starP = p++;
+                starS = s;
+                continue;
+            } else if (s < path.length() && pattern.charAt(p) == path.charAt(s)) {
+                p++;
+                s++;
+                continue;
+            }
+            // mismatch: let the last '*' swallow one more character
+            if (starP < 0 || starS >= path.length()) {
+                return false;
+            }
+            p = starP + 1;
+            s = ++starS;
+        }
+    }
+}
@@ -22,10 +22,14 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.Serializable;
 import java.nio.CharBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -33,6 +37,10 @@ import java.util.regex.Pattern;
 import org.apache.commons.io.IOUtils;
 import org.archive.bdb.AutoKryo;
 import org.archive.io.ReadSource;
+import org.archive.util.Base32;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Utility class for parsing and representing 'robots.txt' format 
@@ -62,6 +70,23 @@ public class Robotstxt implements Serializable {
     /** empty, reusable instance for all sites providing no rules */
     public static Robotstxt NO_ROBOTS = new Robotstxt();
     
+    /** maximum number of distinct rule-sets held for sharing */
+    protected static final int MAX_SHARED = 10000;
+    /** 
+     * digest of rules -&gt; Robotstxt, so that the many servers (often on 
+     * one hosting platform) with identical rules share a single instance,
+     * and its compiled matchers, rather than each holding its own copy
+     */
+    protected static final Cache<String,Robotstxt> SHARED = 
+        CacheBuilder.newBuilder().maximumSize(MAX_SHARED).weakValues().build();
+    
+    /** marks a User-Agent known to match no named agent */
+    protected static final RobotsDirectives NO_MATCH = new RobotsDirectives();
+    protected static final int MAX_REMEMBERED_USER_AGENTS = 64;
+    /** User-Agent -&gt; directives found by getDirectivesFor() */
+    protected transient ConcurrentHashMap<String,RobotsDirectives> userAgentMatches;
+    protected transient String digest;
+    
     public Robotstxt() {
     }
 
@@ -225,11 +250,9 @@ public class Robotstxt implements Serializable {
      * non-wildcard directives match the supplied User-Agent
      */
     public RobotsDirectives getDirectivesFor(String ua, boolean useFallbacks) {
-        // find matching ua
-        for(String uaListed : namedUserAgents) {
-            if(ua.indexOf(uaListed)>-1) {
-                return agentsToDirectives.get(uaListed);
-            }
+        RobotsDirectives matched = findNamedDirectivesFor(ua);
+        if (matched != NO_MATCH) {
+            return matched;
         }
         if(useFallbacks==false) {
             return null; 
@@ -251,6 +274,101 @@ public class Robotstxt implements Serializable {
     public RobotsDirectives getDirectivesFor(String userAgent) {
         return getDirectivesFor(userAgent, true);
     }
+
+    /**
+     * Find the directives of the first named user-agent contained in the
+     * given User-Agent string, remembering the result as a crawl 
+     * typically uses only one or a few User-Agents.
+     * 
+     * @param ua String User-Agent to lookup
+     * @return matching directives, or NO_MATCH
+     */
+    protected RobotsDirectives findNamedDirectivesFor(String ua) {
+        ConcurrentHashMap<String,RobotsDirectives> matches = userAgentMatches;
+        if (matches == null) {
+            matches = new ConcurrentHashMap<String,RobotsDirectives>();
+            userAgentMatches = matches;
+        }
+        RobotsDirectives matched = matches.get(ua);
+        if (matched != null) {
+            return matched;
+        }
+        matched = NO_MATCH;
+        for(String uaListed : namedUserAgents) {
+            if(ua.indexOf(uaListed)>-1) {
+                matched = agentsToDirectives.get(uaListed);
+                break;
+            }
+        }
+        if (matches.size() < MAX_REMEMBERED_USER_AGENTS) {
+            matches.put(ua, matched);
+        }
+        return matched;
+    }
+
+    /**
+     * @return digest of the effective rules (not the raw text), identical
+     * for any two instances which would give identical answers 
+     */
+    public String getDigest() {
+        if (digest == null) {
+            StringBuilder rules = new StringBuilder();
+            Map<RobotsDirectives,Integer> groups = 
+                new IdentityHashMap<RobotsDirectives,Integer>();
+            appendGroup(rules, groups, wildcardDirectives);
+            for (String ua : namedUserAgents) {
+                rules.append("agent ").append(ua).append('\n');
+                appendGroup(rules, groups, agentsToDirectives.get(ua));
+            }
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-1");
+                digest = Base32.encode(md.digest(rules.toString().getBytes("UTF-8")));
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return digest;
+    }
+
+    protected void appendGroup(StringBuilder rules,
+            Map<RobotsDirectives,Integer> groups, RobotsDirectives directives) {
+        if (directives == null) {
+            rules.append("none\n");
+            return;
+        }
+        Integer index = groups.get(directives);
+        if (index != null) {
+            // shared with an earlier agent
+            rules.append("group ").append(index).append('\n');
+            return;
+        }
+        groups.put(directives, groups.size());
+        rules.append("group ").append(groups.size() - 1)
+            .append(" delay ").append(directives.getCrawlDelay()).append('\n');
+        for (String path : directives.disallows) {
+            rules.append("disallow ").append(path).append('\n');
+        }
+        for (String path : directives.allows) {
+            rules.append("allow ").append(path).append('\n');
+        }
+    }
+
+    /**
+     * Return the shared instance with the same rules as the given one,
+     * making the given one the shared instance if there is none.
+     * 
+     * @param robotstxt freshly-parsed or deserialized Robotstxt
+     * @return equivalent shared Robotstxt
+     */
+    public static Robotstxt intern(Robotstxt robotstxt) {
+        if (robotstxt == null || robotstxt == NO_ROBOTS) {
+            return robotstxt;
+        }
+        Robotstxt shared = SHARED.asMap().putIfAbsent(robotstxt.getDigest(), robotstxt);
+        return shared != null ? shared : robotstxt;
+    }
     
     // Kryo support
     public static void autoregisterTo(AutoKryo kryo) {
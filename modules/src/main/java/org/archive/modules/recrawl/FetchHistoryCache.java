@@ -0,0 +1,345 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.recrawl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.archive.modules.CrawlURI;
+import org.springframework.context.Lifecycle;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded in-memory tier over the fetch history store shared by
+ * PersistLoadProcessor and PersistStoreProcessor, with lookahead
+ * prefetching.
+ *
+ * The frontier offers the head URI of each queue as the queue becomes
+ * ready; a background thread reads history for batches of such URIs (in
+ * key order, for locality in the store) into the cache, so that by the
+ * time the URI reaches PersistLoadProcessor on a ToeThread, its prior
+ * ETag and Last-Modified are usually already in memory for FetchHTTP's
+ * conditional request headers. URIs with no history are cached too, as
+ * such, so new URIs in a recrawl don't cost a store read either.
+ *
+ * PersistStoreProcessor writes through: the store is always written
+ * first, so an entry evicted from the cache is simply reread later.
+ *
+ * Only the {@link #getCachedKeys() cachedKeys} of each URI's data are
+ * held, copied down through nested history maps, so cached entries
+ * share nothing with a CrawlURI still in process. A URI whose history
+ * comes from the cache has only those keys merged into it by
+ * PersistLoadProcessor, not everything else the store may hold.
+ *
+ * Enabled by declaring this bean and setting it as the historyCache of
+ * both persist processors, and as the frontier's fetchHistoryCache for
+ * prefetching.
+ */
+public class FetchHistoryCache implements Lifecycle {
+    private static final Logger logger =
+        Logger.getLogger(FetchHistoryCache.class.getName());
+
+    /** cached marker for a URI with no history in the store */
+    protected static final Map<String,Object> NO_HISTORY =
+        Collections.emptyMap();
+
+    /**
+     * Maximum number of URIs' history held in memory. Only consulted at
+     * start.
+     */
+    protected int maxEntries = 100000;
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Maximum number of URIs read from the store together by the
+     * prefetching thread.
+     */
+    protected int prefetchBatchSize = 100;
+    public int getPrefetchBatchSize() {
+        return prefetchBatchSize;
+    }
+    public void setPrefetchBatchSize(int prefetchBatchSize) {
+        this.prefetchBatchSize = prefetchBatchSize;
+    }
+
+    /**
+     * Maximum number of URIs awaiting prefetch; further offers are
+     * dropped, and those URIs' history read when needed. Only consulted
+     * at start.
+     */
+    protected int maxPendingPrefetches = 10000;
+    public int getMaxPendingPrefetches() {
+        return maxPendingPrefetches;
+    }
+    public void setMaxPendingPrefetches(int maxPendingPrefetches) {
+        this.maxPendingPrefetches = maxPendingPrefetches;
+    }
+
+    /**
+     * Keys of the stored data map held in memory; others are dropped from
+     * cached entries. Only consulted at start.
+     */
+    protected List<String> cachedKeys =
+        Arrays.asList(CrawlURI.A_FETCH_HISTORY);
+    public List<String> getCachedKeys() {
+        return cachedKeys;
+    }
+    public void setCachedKeys(List<String> cachedKeys) {
+        this.cachedKeys = cachedKeys;
+    }
+
+    @SuppressWarnings("rawtypes")
+    protected volatile Map<String,Map> store;
+    /**
+     * Set by the persist processors as they start.
+     */
+    @SuppressWarnings("rawtypes")
+    public void setStore(Map<String,Map> store) {
+        this.store = store;
+    }
+
+    protected Cache<String,Map<String,Object>> cache;
+    protected Set<String> keys;
+    protected BlockingQueue<String> pending;
+    protected Set<String> pendingKeys;
+    protected Thread prefetcher;
+
+    protected AtomicLong hits = new AtomicLong(0);
+    protected AtomicLong misses = new AtomicLong(0);
+    protected AtomicLong prefetched = new AtomicLong(0);
+    protected AtomicLong prefetchesDropped = new AtomicLong(0);
+
+    protected volatile boolean isRunning = false;
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    public synchronized void start() {
+        if (isRunning) {
+            return;
+        }
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .<String,Map<String,Object>>build();
+        keys = new HashSet<String>(cachedKeys);
+        pending = new LinkedBlockingQueue<String>(Math.max(1, maxPendingPrefetches));
+        pendingKeys = Collections.newSetFromMap(
+                new ConcurrentHashMap<String,Boolean>());
+        isRunning = true;
+        prefetcher = new Thread("FetchHistoryCache prefetcher") {
+            public void run() {
+                prefetchLoop();
+            }
+        };
+        prefetcher.setDaemon(true);
+        prefetcher.start();
+    }
+
+    public synchronized void stop() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        prefetcher.interrupt();
+        try {
+            prefetcher.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        cache.invalidateAll();
+        pending.clear();
+        pendingKeys.clear();
+    }
+
+    /**
+     * Get the stored history for key, from memory if possible, otherwise
+     * from the store. The caller receives its own copy, which it may
+     * modify.
+     *
+     * @return history map, or null if none
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String,Object> get(String key) {
+        if (!isRunning) {
+            return store.get(key);
+        }
+        Map<String,Object> history = cache.getIfPresent(key);
+        if (history != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            history = load(key);
+        }
+        return history == NO_HISTORY ? null : copy(history);
+    }
+
+    /**
+     * Note that history for key has just been written to the store.
+     */
+    public void put(String key, Map<String,Object> history) {
+        if (isRunning) {
+            cache.put(key, subset(history));
+        }
+    }
+
+    /**
+     * Offer the URI for reading of its history into memory in the
+     * background, unless it's already there or pending.
+     */
+    public void prefetch(CrawlURI curi) {
+        if (!isRunning || store == null || !isPersistable(curi)) {
+            return;
+        }
+        String key = PersistProcessor.persistKeyFor(curi);
+        if (cache.getIfPresent(key) != null || !pendingKeys.add(key)) {
+            return;
+        }
+        if (!pending.offer(key)) {
+            pendingKeys.remove(key);
+            prefetchesDropped.incrementAndGet();
+        }
+    }
+
+    protected boolean isPersistable(CrawlURI curi) {
+        String scheme = curi.getUURI().getScheme();
+        return scheme.equals("http") || scheme.equals("https")
+            || scheme.equals("ftp") || scheme.equals("sftp");
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String,Object> load(String key) {
+        Map<String,Object> history = store.get(key);
+        history = history == null ? NO_HISTORY : subset(history);
+        // a concurrent write-through is newer; keep it
+        Map<String,Object> existing = cache.asMap().putIfAbsent(key, history);
+        return existing != null ? existing : history;
+    }
+
+    protected void prefetchLoop() {
+        List<String> batch = new ArrayList<String>(prefetchBatchSize);
+        while (isRunning) {
+            try {
+                String first = pending.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch, Math.max(0, prefetchBatchSize - 1));
+                // key (SURT) order is store order
+                Collections.sort(batch);
+                for (String key : batch) {
+                    if (cache.getIfPresent(key) == null) {
+                        load(key);
+                        prefetched.incrementAndGet();
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                // as when the store is closing; those URIs load on demand
+                logger.log(Level.WARNING, "problem prefetching history", e);
+            } finally {
+                pendingKeys.removeAll(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Copy of just the cached keys of data, or NO_HISTORY if it has none.
+     */
+    protected Map<String,Object> subset(Map<String,Object> data) {
+        Map<String,Object> subset = new HashMap<String,Object>();
+        for (String key : keys) {
+            Object value = data.get(key);
+            if (value != null) {
+                subset.put(key, copyValue(value));
+            }
+        }
+        return subset.isEmpty() ? NO_HISTORY : subset;
+    }
+
+    /**
+     * Copy of the map, its arrays (notably the fetch history array, which
+     * FetchHistoryProcessor rotates in place) and the maps within them
+     * (the history entries), so cached entries and processing of the URI
+     * never see each other's changes.
+     */
+    protected static Map<String,Object> copy(Map<String,Object> history) {
+        Map<String,Object> copy = new HashMap<String,Object>(history);
+        for (Map.Entry<String,Object> entry : copy.entrySet()) {
+            entry.setValue(copyValue(entry.getValue()));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            return copy((Map<String,Object>) value);
+        } else if (value instanceof Object[]) {
+            Object[] array = ((Object[]) value).clone();
+            for (int i = 0; i < array.length; i++) {
+                array[i] = copyValue(array[i]);
+            }
+            return array;
+        }
+        return value;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getPrefetchedCount() {
+        return prefetched.get();
+    }
+
+    public long getPrefetchesDroppedCount() {
+        return prefetchesDropped.get();
+    }
+
+    public long getSize() {
+        return cache == null ? 0 : cache.size();
+    }
+}
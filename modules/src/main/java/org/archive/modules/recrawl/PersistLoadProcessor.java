@@ -85,8 +85,9 @@ public class PersistLoadProcessor extends PersistOnlineProcessor {
     protected void innerProcess(CrawlURI curi) throws InterruptedException {
         String pkey = persistKeyFor(curi);
         @SuppressWarnings("unchecked")
-        Map<String, Object> prior = 
-        	(Map<String,Object>) store.get(pkey);
+        Map<String, Object> prior = historyCache != null
+            ? historyCache.get(pkey)
+            : (Map<String,Object>) store.get(pkey);
         if(prior!=null) {
             // merge in keys
             prior.keySet().removeAll(curi.getData().keySet());
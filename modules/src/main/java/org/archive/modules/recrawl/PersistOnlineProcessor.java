@@ -57,6 +57,18 @@ implements Lifecycle {
         this.historyDbName = name; 
     }
 
+    /**
+     * Optional in-memory tier over the history store, shared by load and
+     * store processors (and the frontier, for prefetching).
+     */
+    protected FetchHistoryCache historyCache;
+    public FetchHistoryCache getHistoryCache() {
+        return this.historyCache;
+    }
+    public void setHistoryCache(FetchHistoryCache historyCache) {
+        this.historyCache = historyCache;
+    }
+
     @SuppressWarnings("unchecked")
     protected StoredSortedMap<String,Map> store;
     protected Database historyDb;
@@ -88,6 +100,9 @@ implements Lifecycle {
         	throw new RuntimeException(e);
         }
         store = historyMap;
+        if (historyCache != null) {
+            historyCache.setStore(store);
+        }
     }
     
     public boolean isRunning() {
@@ -40,7 +40,11 @@ public class PersistStoreProcessor extends PersistOnlineProcessor
     
     @Override
     protected void innerProcess(CrawlURI curi) throws InterruptedException {
-        store.put(persistKeyFor(curi), curi.getData());
+        String pkey = persistKeyFor(curi);
+        store.put(pkey, curi.getData());
+        if (historyCache != null) {
+            historyCache.put(pkey, curi.getData());
+        }
     }
 
     @Override
@@ -202,31 +202,50 @@ abstract public class BaseWARCWriterProcessor extends WriterPoolProcessor
    
     protected void updateMetadataAfterWrite(final CrawlURI curi,
             WARCWriter writer, long startPosition) {
-        if (WARCWriter.getStat(writer.getTmpStats(), WARCWriter.TOTALS, WARCWriter.NUM_RECORDS) > 0l) {
-             addStats(writer.getTmpStats());
+        updateMetadataAfterWrite(curi, writer.getTmpStats(), 
+                writer.getFilenameWithoutOccupiedSuffix(), startPosition, 
+                writer.getPosition(), writer.getTmpRecordLog());
+    }
+
+    /**
+     * Tally stats and note where the URI's records were written, given 
+     * the records written and their stats.
+     * 
+     * @param recordStats stats of just this URI's records
+     * @param filename name of file written (without any '.open' suffix)
+     * @param startPosition offset in file of first record
+     * @param endPosition offset in file just past last record
+     * @param recordLog records written
+     */
+    protected void updateMetadataAfterWrite(final CrawlURI curi,
+            Map<String, Map<String, Long>> recordStats, String filename,
+            long startPosition, long endPosition, 
+            Iterable<WARCRecordInfo> recordLog) {
+        if (WARCWriter.getStat(recordStats, WARCWriter.TOTALS, WARCWriter.NUM_RECORDS) > 0l) {
+             addStats(recordStats);
              urlsWritten.incrementAndGet();
         }
         if (logger.isLoggable(Level.FINE)) { 
             logger.fine("wrote " 
-                + WARCWriter.getStat(writer.getTmpStats(), WARCWriter.TOTALS, WARCWriter.SIZE_ON_DISK) 
-                + " bytes to " + writer.getFile().getName() + " for " + curi);
+                + WARCWriter.getStat(recordStats, WARCWriter.TOTALS, WARCWriter.SIZE_ON_DISK) 
+                + " bytes to " + filename + " for " + curi);
         }
-        setTotalBytesWritten(getTotalBytesWritten() + (writer.getPosition() - startPosition));
+        setTotalBytesWritten(getTotalBytesWritten() + (endPosition - startPosition));
 
-        curi.addExtraInfo("warcFilename", writer.getFilenameWithoutOccupiedSuffix());
+        curi.addExtraInfo("warcFilename", filename);
         curi.addExtraInfo("warcFileOffset", startPosition);
 
-        curi.getData().put(A_WARC_STATS, copyStats(writer.getTmpStats()));
+        curi.getData().put(A_WARC_STATS, copyStats(recordStats));
 
         // history for uri-based dedupe
         Map<String,Object>[] history = curi.getFetchHistory();
         if (history != null && history[0] != null) {
-            history[0].put(A_WRITE_TAG, writer.getFilenameWithoutOccupiedSuffix());
+            history[0].put(A_WRITE_TAG, filename);
         }
         
         // history for uri-agnostic, content digest based dedupe
         if (curi.getContentDigest() != null && curi.hasContentDigestHistory()) {
-            for (WARCRecordInfo warcRecord: writer.getTmpRecordLog()) {
+            for (WARCRecordInfo warcRecord: recordLog) {
                 if ((warcRecord.getType() == WARCRecordType.response 
                         || warcRecord.getType() == WARCRecordType.resource)
                         && warcRecord.getContentStream() != null
@@ -2,11 +2,13 @@ package org.archive.modules.writer;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.archive.checkpointing.Checkpoint;
 import org.archive.io.warc.WARCRecordInfo;
 import org.archive.io.warc.WARCWriter;
 import org.archive.modules.CrawlURI;
@@ -73,6 +75,106 @@ public class WARCWriterChainProcessor extends BaseWARCWriterProcessor implements
         kp.put("chain", chain);
     }
 
+    /**
+     * Number of files to write at once by way of a {@link WARCWriterPipeline}
+     * (each by its own appender thread, on store path i modulo the number 
+     * of store paths), with records compressed in parallel by a separate
+     * pool of threads. Default 0 means don't use a pipeline: ToeThreads 
+     * borrow a writer from the pool and compress records themselves. Only
+     * consulted at start.
+     */
+    protected int pipelineWriters = 0;
+    public int getPipelineWriters() {
+        return pipelineWriters;
+    }
+    public void setPipelineWriters(int pipelineWriters) {
+        this.pipelineWriters = pipelineWriters;
+    }
+
+    /**
+     * Number of threads compressing records for the pipeline (if 
+     * pipelineWriters is nonzero). Only consulted at start.
+     */
+    protected int pipelineCompressionThreads = 
+        Runtime.getRuntime().availableProcessors();
+    public int getPipelineCompressionThreads() {
+        return pipelineCompressionThreads;
+    }
+    public void setPipelineCompressionThreads(int pipelineCompressionThreads) {
+        this.pipelineCompressionThreads = pipelineCompressionThreads;
+    }
+
+    /**
+     * Number of URIs' records that may wait for each pipeline writer; 
+     * when full, ToeThreads wait. Only consulted at start.
+     */
+    protected int pipelineQueueLength = 16;
+    public int getPipelineQueueLength() {
+        return pipelineQueueLength;
+    }
+    public void setPipelineQueueLength(int pipelineQueueLength) {
+        this.pipelineQueueLength = pipelineQueueLength;
+    }
+
+    /**
+     * Largest record content compressed in memory by the pipeline's 
+     * compression threads; larger records are compressed as they're 
+     * written, by the pipeline writer. Only consulted at start.
+     */
+    protected long pipelineMaxBufferedRecordBytes = 16 * 1024 * 1024;
+    public long getPipelineMaxBufferedRecordBytes() {
+        return pipelineMaxBufferedRecordBytes;
+    }
+    public void setPipelineMaxBufferedRecordBytes(long pipelineMaxBufferedRecordBytes) {
+        this.pipelineMaxBufferedRecordBytes = pipelineMaxBufferedRecordBytes;
+    }
+
+    protected WARCWriterPipeline pipeline;
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        super.start();
+        if (getPipelineWriters() > 0) {
+            pipeline = new WARCWriterPipeline(this, getPipelineWriters(),
+                    getPipelineCompressionThreads(), getPipelineQueueLength(),
+                    getPipelineMaxBufferedRecordBytes());
+            pipeline.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        super.stop();
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
+        }
+    }
+
+    @Override
+    public void doCheckpoint(Checkpoint checkpointInProgress)
+            throws IOException {
+        if (pipeline != null) {
+            try {
+                if (getStartNewFilesOnCheckpoint()) {
+                    pipeline.closeFiles();
+                } else {
+                    pipeline.flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted checkpointing WARC pipeline");
+            }
+        }
+        super.doCheckpoint(checkpointInProgress);
+    }
+
     @Override
     protected boolean shouldWrite(CrawlURI curi) {
         if (getSkipIdenticalDigests()
@@ -109,6 +211,9 @@ public class WARCWriterChainProcessor extends BaseWARCWriterProcessor implements
     
     protected ProcessResult write(final CrawlURI curi)
     throws IOException {
+        if (pipeline != null) {
+            return writeToPipeline(curi);
+        }
         WARCWriter writer = (WARCWriter) getPool().borrowFile();
 
         // Reset writer temp stats so they reflect only this set of records.
@@ -152,18 +257,52 @@ public class WARCWriterChainProcessor extends BaseWARCWriterProcessor implements
         return checkBytesWritten();
     }
 
+    /**
+     * Write the URI's records by way of the pipeline, waiting until 
+     * they're written.
+     */
+    protected ProcessResult writeToPipeline(final CrawlURI curi)
+    throws IOException {
+        List<WARCRecordInfo> records = buildRecords(curi);
+        if (records.isEmpty()) {
+            return ProcessResult.PROCEED;
+        }
+        WARCWriterPipeline.WriteBatch batch;
+        try {
+            batch = pipeline.write(records);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted writing records of " + curi);
+        }
+        updateMetadataAfterWrite(curi, batch.getStats(), batch.getFilename(),
+                batch.getStartPosition(), batch.getEndPosition(), 
+                batch.getRecords());
+        return checkBytesWritten();
+    }
+
     protected void writeRecords(CrawlURI curi, WARCWriter writer) throws IOException {
+        for (WARCRecordInfo record: buildRecords(curi)) {
+            writer.writeRecord(record);
+        }
+    }
+
+    /**
+     * @return records built for the URI by the chain, in order
+     */
+    protected List<WARCRecordInfo> buildRecords(CrawlURI curi) throws IOException {
+        List<WARCRecordInfo> records = new ArrayList<WARCRecordInfo>();
         URI concurrentTo = null;
         for (WARCRecordBuilder recordBuilder: getChain()) {
             if (recordBuilder.shouldBuildRecord(curi)) {
                 WARCRecordInfo record = recordBuilder.buildRecord(curi, concurrentTo);
                 if (record != null) {
-                    writer.writeRecord(record);
+                    records.add(record);
                     if (concurrentTo == null) {
                         concurrentTo = record.getRecordId();
                     }
                 }
             }
         }
+        return records;
     }
 }
@@ -0,0 +1,586 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.writer;
+
+import static org.archive.format.warc.WARCConstants.HEADER_KEY_FILENAME;
+import static org.archive.format.warc.WARCConstants.WARC_FILE_EXTENSION;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.lang.StringUtils;
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.io.ArchiveFileConstants;
+import org.archive.io.warc.WARCRecordInfo;
+import org.archive.io.warc.WARCWriter;
+import org.archive.util.ArchiveUtils;
+import org.archive.util.anvl.ANVLRecord;
+
+/**
+ * Writes WARC records from many threads at once, by stages: the 
+ * submitting thread (a ToeThread) hands over a URI's assembled records; 
+ * a pool of compression threads renders each record, as a gzip member 
+ * if compressing, in memory; and appender threads, each with its own 
+ * file, append the rendered records in submission order. Appender i 
+ * writes to store path i (modulo the number of store paths), so several
+ * appenders stripe output across disks.
+ * 
+ * The records of one URI are appended together, in the order given, to 
+ * one file. The submitting thread waits until they're appended, as the 
+ * file and offset written are noted on the CrawlURI, and the records' 
+ * content is read (by the compression threads) from its Recorder; 
+ * concurrency comes from many threads' records compressing at once.
+ * Each appender's queue is bounded; when full, submitters wait.
+ * 
+ * Records larger than maxBufferedRecordBytes aren't rendered in memory,
+ * but written (and compressed) straight to the file by the appender.
+ * 
+ * Files are named, rolled over at maxFileSizeBytes, and begun with a 
+ * warcinfo record as by the usual writer pool, using the same settings
+ * and serial number.
+ */
+public class WARCWriterPipeline {
+    private static final Logger logger = 
+        Logger.getLogger(WARCWriterPipeline.class.getName());
+    
+    protected static final Pattern TEMPLATE_VARIABLE = 
+        Pattern.compile("\\$\\{([^}]+)\\}");
+    
+    /** what an appender is to do with a batch */
+    protected enum Action { APPEND, FLUSH, CLOSE_FILE }
+    
+    /**
+     * One URI's records (or other work for an appender), and once 
+     * appended, where they were written.
+     */
+    public static class WriteBatch {
+        protected Action action;
+        protected List<WARCRecordInfo> records;
+        /** per record, its rendering, or null if to be written directly */
+        protected List<Future<RenderedRecord>> rendered;
+        protected CountDownLatch done = new CountDownLatch(1);
+        protected IOException failure;
+        
+        protected String filename;
+        protected long startPosition;
+        protected long endPosition;
+        protected Map<String,Map<String,Long>> stats = 
+            new HashMap<String,Map<String,Long>>();
+        
+        protected WriteBatch(Action action, List<WARCRecordInfo> records) {
+            this.action = action;
+            this.records = records;
+        }
+        
+        protected void await() throws IOException, InterruptedException {
+            done.await();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        
+        public List<WARCRecordInfo> getRecords() {
+            return records;
+        }
+        /** @return name of file written, without '.open' suffix */
+        public String getFilename() {
+            return filename;
+        }
+        public long getStartPosition() {
+            return startPosition;
+        }
+        public long getEndPosition() {
+            return endPosition;
+        }
+        /** @return stats of just this batch's records */
+        public Map<String,Map<String,Long>> getStats() {
+            return stats;
+        }
+    }
+    
+    /** a record as written, and its stats */
+    protected static class RenderedRecord {
+        protected byte[] bytes;
+        protected Map<String,Map<String,Long>> stats;
+        
+        protected RenderedRecord(byte[] bytes, 
+                Map<String,Map<String,Long>> stats) {
+            this.bytes = bytes;
+            this.stats = stats;
+        }
+    }
+    
+    /** a compression thread's in-memory writer */
+    protected class RenderingWriter {
+        protected ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        protected WARCWriter writer = new WARCWriter(new AtomicInteger(), 
+                buffer, new File("pipeline"), processor);
+    }
+    
+    protected BaseWARCWriterProcessor processor;
+    protected int writers;
+    protected int compressionThreads;
+    protected int queueLength;
+    protected long maxBufferedRecordBytes;
+    
+    protected ExecutorService compressors;
+    protected Appender[] appenders;
+    protected AtomicInteger nextAppender = new AtomicInteger();
+    protected ThreadLocal<RenderingWriter> renderingWriters = 
+        new ThreadLocal<RenderingWriter>() {
+            protected RenderingWriter initialValue() {
+                return new RenderingWriter();
+            }
+        };
+    
+    /**
+     * @param processor source of settings (compression, naming, store 
+     * paths, file size, metadata) and recipient of stats
+     * @param writers count of appender threads (hence open files)
+     * @param compressionThreads size of the compression pool
+     * @param queueLength batches that may wait for each appender
+     * @param maxBufferedRecordBytes largest record content rendered in 
+     * memory by the compression pool
+     */
+    public WARCWriterPipeline(BaseWARCWriterProcessor processor, int writers,
+            int compressionThreads, int queueLength, long maxBufferedRecordBytes) {
+        this.processor = processor;
+        this.writers = Math.max(1, writers);
+        this.compressionThreads = Math.max(1, compressionThreads);
+        this.queueLength = Math.max(1, queueLength);
+        this.maxBufferedRecordBytes = maxBufferedRecordBytes;
+    }
+    
+    public void start() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        compressors = Executors.newFixedThreadPool(compressionThreads, 
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "WARC compressor #"
+                                + threadNumber.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        appenders = new Appender[writers];
+        for (int i = 0; i < writers; i++) {
+            appenders[i] = new Appender(i);
+            appenders[i].start();
+        }
+    }
+    
+    /**
+     * Write the records, together and in order, waiting until written.
+     * 
+     * @return the batch written, with filename, offsets and stats
+     * @throws IOException if the records couldn't be written (the file
+     * being written is then abandoned, with '.invalid' suffix)
+     */
+    public WriteBatch write(List<WARCRecordInfo> records) 
+    throws IOException, InterruptedException {
+        WriteBatch batch = new WriteBatch(Action.APPEND, records);
+        batch.rendered = new ArrayList<Future<RenderedRecord>>(records.size());
+        for (final WARCRecordInfo record : records) {
+            if (record.getContentLength() > maxBufferedRecordBytes) {
+                batch.rendered.add(null);
+            } else {
+                batch.rendered.add(compressors.submit(new Callable<RenderedRecord>() {
+                    public RenderedRecord call() throws IOException {
+                        return render(record);
+                    }
+                }));
+            }
+        }
+        // waits here if the appender's queue is full
+        leastLoadedAppender().queue.put(batch);
+        batch.await();
+        return batch;
+    }
+    
+    protected Appender leastLoadedAppender() {
+        int start = (nextAppender.getAndIncrement() & Integer.MAX_VALUE) % writers;
+        Appender best = appenders[start];
+        for (int i = 1; i < writers && best.queue.size() > 0; i++) {
+            Appender candidate = appenders[(start + i) % writers];
+            if (candidate.queue.size() < best.queue.size()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * Render the record as it would be written to a file (compressed, 
+     * if compressing), on a compression thread.
+     */
+    protected RenderedRecord render(WARCRecordInfo record) throws IOException {
+        RenderingWriter rw = renderingWriters.get();
+        rw.writer.resetTmpStats();
+        rw.writer.resetTmpRecordLog();
+        rw.writer.writeRecord(record);
+        rw.writer.flush();
+        RenderedRecord rendered = new RenderedRecord(rw.buffer.toByteArray(),
+                processor.copyStats(rw.writer.getTmpStats()));
+        rw.writer.resetTmpRecordLog();
+        if (rw.buffer.size() > 1024 * 1024) {
+            // don't hold on to buffers grown for unusually large records
+            renderingWriters.remove();
+        } else {
+            rw.buffer.reset();
+        }
+        return rendered;
+    }
+    
+    /**
+     * Flush all appenders' files to disk.
+     */
+    public void flush() throws IOException, InterruptedException {
+        toAllAppenders(Action.FLUSH);
+    }
+    
+    /**
+     * Close all appenders' current files; later writes begin new files.
+     */
+    public void closeFiles() throws IOException, InterruptedException {
+        toAllAppenders(Action.CLOSE_FILE);
+    }
+    
+    protected void toAllAppenders(Action action) 
+    throws IOException, InterruptedException {
+        List<WriteBatch> batches = new ArrayList<WriteBatch>(writers);
+        for (Appender appender : appenders) {
+            WriteBatch batch = new WriteBatch(action, null);
+            appender.queue.put(batch);
+            batches.add(batch);
+        }
+        IOException failure = null;
+        for (WriteBatch batch : batches) {
+            try {
+                batch.await();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    /**
+     * Close all files and stop all threads.
+     */
+    public void close() {
+        try {
+            closeFiles();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "problem closing WARC files", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Appender appender : appenders) {
+            appender.interrupt();
+        }
+        for (Appender appender : appenders) {
+            try {
+                appender.join(10000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        compressors.shutdownNow();
+    }
+    
+    /**
+     * @return count of batches waiting for each appender
+     */
+    public int[] getQueuedCounts() {
+        int[] counts = new int[writers];
+        for (int i = 0; i < writers; i++) {
+            counts[i] = appenders[i].queue.size();
+        }
+        return counts;
+    }
+    
+    /**
+     * @return next base filename (without extension), from the 
+     * processor's template, with prefix, timestamp17, timestamp14 and 
+     * serialno, and otherwise system properties, interpolated
+     */
+    protected String nextBasename() {
+        Map<String,String> values = new HashMap<String,String>();
+        values.put("prefix", processor.getPrefix());
+        values.put("timestamp17", ArchiveUtils.getUnique17DigitDate());
+        values.put("timestamp14", ArchiveUtils.getUnique14DigitDate());
+        values.put("serialno", new DecimalFormat("00000").format(
+                processor.getSerialNo().getAndIncrement()));
+        Matcher m = TEMPLATE_VARIABLE.matcher(processor.getTemplate());
+        StringBuffer name = new StringBuffer();
+        while (m.find()) {
+            String value = values.get(m.group(1));
+            if (value == null) {
+                value = System.getProperty(m.group(1), m.group());
+            }
+            m.appendReplacement(name, Matcher.quoteReplacement(value));
+        }
+        m.appendTail(name);
+        return name.toString();
+    }
+    
+    protected WARCRecordInfo warcinfoRecord(String filename) throws IOException {
+        WARCRecordInfo record = new WARCRecordInfo();
+        record.setType(WARCRecordType.warcinfo);
+        record.setRecordId(processor.getRecordID());
+        record.setCreate14DigitDate(ArchiveUtils.get14DigitDate());
+        record.setMimetype(ANVLRecord.MIMETYPE);
+        record.addExtraHeader(HEADER_KEY_FILENAME, filename);
+        record.setEnforceLength(true);
+        byte[] content = StringUtils.join(processor.getMetadata(), "").getBytes("UTF-8");
+        record.setContentStream(new ByteArrayInputStream(content));
+        record.setContentLength((long) content.length);
+        return record;
+    }
+    
+    protected static void addStats(Map<String,Map<String,Long>> totals, 
+            Map<String,Map<String,Long>> stats) {
+        for (Map.Entry<String,Map<String,Long>> entry : stats.entrySet()) {
+            Map<String,Long> total = totals.get(entry.getKey());
+            if (total == null) {
+                total = new HashMap<String,Long>();
+                totals.put(entry.getKey(), total);
+            }
+            for (Map.Entry<String,Long> stat : entry.getValue().entrySet()) {
+                Long sum = total.get(stat.getKey());
+                total.put(stat.getKey(), 
+                        sum == null ? stat.getValue() : sum + stat.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Thread appending batches, in turn, to its own file.
+     */
+    protected class Appender extends Thread {
+        protected int index;
+        protected BlockingQueue<WriteBatch> queue;
+        
+        /** file being written (with '.open' suffix), or null */
+        protected File file;
+        /** name of file being written, without '.open' suffix */
+        protected String filename;
+        protected CountingOutputStream out;
+        /** writer to the file, for records not rendered in memory */
+        protected WARCWriter fileWriter;
+        
+        protected Appender(int index) {
+            super("WARC appender #" + index);
+            setDaemon(true);
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<WriteBatch>(queueLength);
+        }
+        
+        public void run() {
+            while (true) {
+                WriteBatch batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    switch (batch.action) {
+                    case APPEND:
+                        append(batch);
+                        break;
+                    case FLUSH:
+                        if (out != null) {
+                            out.flush();
+                        }
+                        break;
+                    case CLOSE_FILE:
+                        closeFile();
+                        break;
+                    }
+                } catch (IOException e) {
+                    batch.failure = e;
+                    invalidateFile();
+                } catch (RuntimeException e) {
+                    batch.failure = new IOException(e);
+                    invalidateFile();
+                } finally {
+                    batch.done.countDown();
+                }
+            }
+            try {
+                closeFile();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "problem closing " + file, e);
+            }
+        }
+        
+        protected void append(WriteBatch batch) throws IOException {
+            // all renderings first: a failed one fails the batch, but 
+            // leaves the file as it was
+            List<RenderedRecord> rendered = 
+                new ArrayList<RenderedRecord>(batch.records.size());
+            for (Future<RenderedRecord> future : batch.rendered) {
+                try {
+                    rendered.add(future == null ? null : future.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    batch.failure = cause instanceof IOException 
+                        ? (IOException) cause : new IOException(cause);
+                    return;
+                } catch (InterruptedException e) {
+                    batch.failure = new IOException(
+                            "interrupted awaiting record rendering");
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            
+            if (out != null 
+                    && out.getByteCount() >= processor.getMaxFileSizeBytes()) {
+                closeFile();
+            }
+            if (out == null) {
+                openFile();
+            }
+            
+            batch.filename = filename;
+            batch.startPosition = out.getByteCount();
+            for (int i = 0; i < batch.records.size(); i++) {
+                WARCRecordInfo record = batch.records.get(i);
+                long offset = out.getByteCount();
+                if (rendered.get(i) != null) {
+                    out.write(rendered.get(i).bytes);
+                    addStats(batch.stats, rendered.get(i).stats);
+                } else {
+                    addStats(batch.stats, writeDirectly(record));
+                }
+                record.setWARCFilename(filename);
+                record.setWARCFileOffset(offset);
+            }
+            if (processor.getFrequentFlushes()) {
+                out.flush();
+            }
+            batch.endPosition = out.getByteCount();
+        }
+        
+        /**
+         * Write the record by way of the file's own writer (compressing,
+         * if compressing, on this thread).
+         * 
+         * @return stats of the record written
+         */
+        protected Map<String,Map<String,Long>> writeDirectly(WARCRecordInfo record) 
+        throws IOException {
+            fileWriter.resetTmpStats();
+            fileWriter.resetTmpRecordLog();
+            fileWriter.writeRecord(record);
+            fileWriter.flush();
+            Map<String,Map<String,Long>> stats = 
+                processor.copyStats(fileWriter.getTmpStats());
+            fileWriter.resetTmpRecordLog();
+            return stats;
+        }
+        
+        protected void openFile() throws IOException {
+            List<File> dirs = processor.calcOutputDirs();
+            if (dirs.isEmpty()) {
+                throw new IOException("no writable store path");
+            }
+            File dir = dirs.get(index % dirs.size());
+            filename = nextBasename() + "." + WARC_FILE_EXTENSION
+                + (processor.getCompress() 
+                        ? ArchiveFileConstants.DOT_COMPRESSED_FILE_EXTENSION : "");
+            file = new File(dir, filename + ArchiveFileConstants.OCCUPIED_SUFFIX);
+            out = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), processor.getWriteBufferSize()));
+            fileWriter = new WARCWriter(new AtomicInteger(), out, file, processor);
+            logger.info("opened " + file);
+            
+            Map<String,Map<String,Long>> stats = 
+                writeDirectly(warcinfoRecord(filename));
+            processor.addStats(stats);
+            processor.setTotalBytesWritten(
+                    processor.getTotalBytesWritten() + out.getByteCount());
+        }
+        
+        protected void closeFile() throws IOException {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } finally {
+                File closed = new File(file.getParentFile(), filename);
+                if (!file.renameTo(closed)) {
+                    logger.warning("unable to rename " + file + " to " + closed);
+                }
+                logger.info("closed " + closed);
+                out = null;
+                fileWriter = null;
+                file = null;
+            }
+        }
+        
+        /**
+         * Abandon the current file, after a failure writing it. 
+         */
+        protected void invalidateFile() {
+            if (out == null) {
+                return;
+            }
+            IOUtils.closeQuietly(out);
+            File invalid = new File(file.getParentFile(), 
+                    filename + ArchiveFileConstants.INVALID_SUFFIX);
+            file.renameTo(invalid);
+            logger.warning("abandoned " + invalid);
+            out = null;
+            fileWriter = null;
+            file = null;
+        }
+    }
+}
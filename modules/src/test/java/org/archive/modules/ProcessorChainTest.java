@@ -0,0 +1,98 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.archive.net.UURIFactory;
+import org.archive.spring.KeyedProperties;
+
+/**
+ * Tests of ProcessorChain's processing of a part of the chain.
+ */
+public class ProcessorChainTest extends TestCase {
+
+    protected List<String> visited = new ArrayList<String>();
+
+    protected class RecordingProcessor extends Processor {
+        protected ProcessResult result;
+
+        public RecordingProcessor(String name, ProcessResult result) {
+            setBeanName(name);
+            this.result = result;
+        }
+
+        protected boolean shouldProcess(CrawlURI uri) {
+            return true;
+        }
+
+        protected ProcessResult innerProcessResult(CrawlURI uri) {
+            visited.add(getBeanName());
+            return result;
+        }
+
+        protected void innerProcess(CrawlURI uri) {
+        }
+    }
+
+    protected ProcessorChain makeChain(ProcessResult resultOfB) {
+        ProcessorChain chain = new ProcessorChain();
+        chain.setProcessors(Arrays.<Processor>asList(
+                new RecordingProcessor("a", ProcessResult.PROCEED),
+                new RecordingProcessor("b", resultOfB),
+                new RecordingProcessor("c", ProcessResult.PROCEED),
+                new RecordingProcessor("d", ProcessResult.PROCEED)));
+        return chain;
+    }
+
+    protected boolean process(ProcessorChain chain, String startAt,
+            String stopAt) throws Exception {
+        CrawlURI curi = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/"));
+        KeyedProperties.loadOverridesFrom(curi);
+        try {
+            return chain.process(curi, null, startAt, stopAt);
+        } finally {
+            KeyedProperties.clearOverridesFrom(curi);
+        }
+    }
+
+    public void testStopAndResume() throws Exception {
+        ProcessorChain chain = makeChain(ProcessResult.PROCEED);
+        assertTrue(process(chain, null, "c"));
+        assertEquals(Arrays.asList("a", "b"), visited);
+        assertFalse(process(chain, "c", null));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), visited);
+    }
+
+    public void testStopNotReached() throws Exception {
+        assertFalse(process(makeChain(ProcessResult.FINISH), null, "c"));
+        assertEquals(Arrays.asList("a", "b"), visited);
+        visited.clear();
+        assertFalse(process(makeChain(ProcessResult.jump("d")), null, "c"));
+        assertEquals(Arrays.asList("a", "b", "d"), visited);
+        visited.clear();
+        assertFalse(process(makeChain(ProcessResult.PROCEED), null, "nonesuch"));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), visited);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.archive.modules.extractor;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Simple single-thread throughput comparison of ExtractorHTML and
+ * StreamingExtractorHTML, on generated ordinary pages and on pathological
+ * markup (many unclosed SCRIPT tags) that sends the regex extractor
+ * searching to the end of the content from each tag.
+ *
+ * Take care when interpreting results; the effect of GC, dynamic
+ * compilation, and the (unrealistically uniform) generated markup may
+ * affect relative tallies in unpredictable ways.
+ */
+public class BenchmarkExtractorHTML {
+
+    public static void main(String[] args) throws URIException {
+        (new BenchmarkExtractorHTML()).instanceMain(args);
+    }
+
+    public void instanceMain(String[] args) throws URIException {
+        int links =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        int iterations =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        int unclosedScripts =
+            (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+        int reps =
+            (args.length > 3) ? Integer.parseInt(args[3]) : 3;
+
+        System.out.println("links=" + links + " iterations=" + iterations
+                + " unclosedScripts=" + unclosedScripts + " reps=" + reps);
+        String ordinary = makeOrdinaryPage(links);
+        String pathological = makeUnclosedScripts(unclosedScripts);
+        for (int r = 0; r < reps; r++) {
+            for (ExtractorHTML extractor : new ExtractorHTML[] {
+                    configure(new ExtractorHTML()),
+                    configure(new StreamingExtractorHTML()) }) {
+                String name = extractor.getClass().getSimpleName();
+                report(name + " ordinary", extractor, ordinary, iterations);
+                report(name + " pathological", extractor, pathological, 1);
+            }
+        }
+    }
+
+    protected ExtractorHTML configure(ExtractorHTML extractor) {
+        extractor.setLoggerModule(new UnitTestUriLoggerModule());
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        extractor.setMetadata(metadata);
+        extractor.setExtractorJS(new ExtractorJS());
+        extractor.afterPropertiesSet();
+        return extractor;
+    }
+
+    protected void report(String label, ExtractorHTML extractor,
+            String content, int iterations) throws URIException {
+        long outlinks = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory
+                    .getInstance("http://www.example.com/dir/page.html"));
+            extractor.extract(curi, content);
+            outlinks += curi.getOutLinks().size();
+        }
+        long elapsedMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+        long chars = (long) content.length() * iterations;
+        System.out.println(label + ": " + elapsedMs + "ms, "
+                + (chars * 1000 / elapsedMs / 1024) + "KiB/s, "
+                + (outlinks / iterations) + " outlinks/page");
+    }
+
+    protected String makeOrdinaryPage(int links) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<html><head><title>benchmark</title>\n")
+            .append("<meta http-equiv=\"Content-Type\" content=\"text/html\">\n")
+            .append("<link rel=\"stylesheet\" href=\"/css/site.css\">\n")
+            .append("<script src=\"/js/site.js\"></script>\n")
+            .append("<style>body { background: url(/img/bg.png) }</style>\n")
+            .append("</head><body>\n");
+        for (int i = 0; i < links; i++) {
+            sb.append("<!-- item ").append(i).append(" -->\n")
+                .append("<div class=\"item\" id=\"item").append(i).append("\">")
+                .append("<a href=\"/items/").append(i).append(".html\" title=\"Item ")
+                .append(i).append("\">Item ").append(i).append("</a> ")
+                .append("<img src=\"/thumbs/").append(i).append(".jpg\" alt=\"\" width=80 height=60>")
+                .append(" Some ordinary descriptive text about this item.</div>\n");
+        }
+        sb.append("<form action=\"/search\" method=get><input name=q></form>\n")
+            .append("</body></html>\n");
+        return sb.toString();
+    }
+
+    protected String makeUnclosedScripts(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("<script src=s").append(i).append(".js>\n");
+        }
+        return sb.toString();
+    }
+}
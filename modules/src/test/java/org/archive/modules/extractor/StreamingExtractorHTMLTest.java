@@ -0,0 +1,172 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.extractor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+/**
+ * Runs all ExtractorHTMLTest cases against StreamingExtractorHTML, and
+ * compares its results directly with ExtractorHTML's on assorted
+ * well- and ill-formed markup.
+ */
+public class StreamingExtractorHTMLTest extends ExtractorHTMLTest {
+
+    /** markup whose outlinks should be identical from both extractors */
+    final public static String[] DIFFERENTIAL_TEST_DATA = new String[] {
+        "<a href=\"one.html\">1</a><A HREF='two.html'>2</A><a href=three.html>3",
+        "<a\nhref = \"spaced.html\" >x</a><a href=>empty</a><a href= >x</a>",
+        "<frame name=\"main\"src=\"glued.html\"><img src=a.gif alt=\"b\"data-src=\"c.gif\">",
+        "<img srcset=\"s1.jpg 1x, s2.jpg 2x\" src=\"s.jpg\"><source data-original-set=\"o.jpg\">",
+        "<a href=\"unclosed.html>next<a href=\"after.html\">",
+        "<a href='has>gt.html'>x</a><a title=\"x href=inside.html\" href=outside.html>",
+        "<link rel=stylesheet href=\"style.css\"><base href=\"http://example.org/base/\"><a href=rel.html>",
+        "<a data-remote=\"true\" href=\"/remote\">r</a><a href=\"/local\" data-remote='false'>",
+        "<script src=\"s.js\">var u = \"/in/script.html\";</script><script src=unclosed.js>",
+        "<SCRIPT type=text/javascript>document.write('<a href=\"/written.html\">');</SCRIPT>",
+        "<style type=\"text/css\">@import url(imported.css); body { background: url(bg.png) }</style>",
+        "<style>unclosed { background: url(nope.png) }<a href=\"after-style.html\">",
+        "<div style=\"background-image: url('inline.png')\" onclick=\"go('/clicked.html')\">",
+        "<!-- <a href=\"commented.html\"> --><a href=\"uncommented.html\">",
+        "<!--[if IE]><link href=\"ie.css\"><![endif]--><!--><a href=\"after-empty-comment.html\">",
+        "<!-- unterminated comment <a href=\"maybe.html\">",
+        "<meta http-equiv=\"refresh\" content=\"0; url=/refreshed.html\">"
+            + "<meta property=og:image content=\"http://example.com/og.png\">",
+        "<meta name=\"robots\" content=\"noindex,nofollow\"><a href=\"not-followed.html\">",
+        "<form action=\"/get\"><form method=post action=\"/post\"><form action=/q method=GET>",
+        "<input type=hidden name=next value=\"http://example.com/value.html\">",
+        "<object codebase=\"http://example.com/cb/\" classid=\"clsid:123\" data=\"movie.swf\" archive=\"a.jar b.jar\">"
+            + "<applet code=Applet archive=x.jar codebase=/applets/>",
+        "<param name=\"flashvars\" value=\"file=/fv.flv&amp;img=/fv.jpg\"><embed flashvars=\"a=/e.xml\" src=e.swf>",
+        "<a hreflang=en href=\"lang.html\"><a data-href=\"not-a-link.html\" href=real.html>",
+        "<a href=\"javascript:go('/js.html')\">j</a><a href=\"&amp;amp;escaped&quot;.html\">",
+        "<custom-element src=\"ignored.png\"><o:p href=\"ns.html\"><a\thref=tab.html>",
+        "<a href=\"x.html\"\n<img src=\"y.gif\"><a href='single\nline.html'>",
+        "<< <a <a href=double-lt.html> <scriptx src=sx.js>x</script> <stylez src=sz.css>z</style>",
+        "<A HREF=\"upper.html\"><Img SRC=\"Mixed.GIF\"><META NAME=ROBOTS CONTENT=FOLLOW>",
+        "<a href=\"trailing-newline.html\n",
+        "<a href='trailing-quote.html",
+        "<a href=\"nl-before-gt.html\n><a href='crlf-before-gt.html\r\n>",
+    };
+
+    @Override
+    protected Extractor makeExtractor() {
+        StreamingExtractorHTML result = new StreamingExtractorHTML();
+        configure(result);
+        return result;
+    }
+
+    protected ExtractorHTML makeRegexExtractor() {
+        ExtractorHTML result = new ExtractorHTML();
+        configure(result);
+        return result;
+    }
+
+    protected void configure(ExtractorHTML result) {
+        UriErrorLoggerModule ulm = new UnitTestUriLoggerModule();
+        result.setLoggerModule(ulm);
+        CrawlMetadata metadata = new CrawlMetadata();
+        metadata.afterPropertiesSet();
+        result.setMetadata(metadata);
+        result.setExtractorJS(new ExtractorJS());
+        result.afterPropertiesSet();
+    }
+
+    protected List<String> describeExtraction(ExtractorHTML extractor,
+            String content) throws URIException {
+        CrawlURI curi = new CrawlURI(UURIFactory
+                .getInstance("http://www.example.com/dir/page.html"));
+        extractor.extract(curi, content);
+        TreeSet<String> links = new TreeSet<String>();
+        for (CrawlURI link : curi.getOutLinks()) {
+            links.add(link.getURI() + " " + link.getLastHop() + " "
+                    + link.getViaContext());
+        }
+        List<String> result = new ArrayList<String>(links);
+        result.add("meta-robots: " + curi.getData().get(ExtractorHTML.A_META_ROBOTS));
+        result.add("form-offsets: " + (curi.containsDataKey(ExtractorHTML.A_FORM_OFFSETS)
+                ? curi.getDataList(ExtractorHTML.A_FORM_OFFSETS) : null));
+        result.add("base: " + curi.getBaseURI());
+        return result;
+    }
+
+    public void testSameAsRegexExtractor() throws URIException {
+        ExtractorHTML regex = makeRegexExtractor();
+        List<String> inputs = new ArrayList<String>();
+        for (String s : DIFFERENTIAL_TEST_DATA) {
+            inputs.add(s);
+        }
+        for (int i = 0; i < VALID_TEST_DATA.length; i += 2) {
+            inputs.add(VALID_TEST_DATA[i]);
+        }
+        // everything at once, so earlier markup can affect later
+        StringBuilder all = new StringBuilder();
+        for (String s : DIFFERENTIAL_TEST_DATA) {
+            all.append(s).append('\n');
+        }
+        inputs.add(all.toString());
+        for (String input : inputs) {
+            assertEquals("differing results for: " + input,
+                    describeExtraction(regex, input),
+                    describeExtraction(getExtractor(), input));
+        }
+    }
+
+    public void testLongAttributeValues() throws URIException {
+        ExtractorHTML regex = makeRegexExtractor();
+        regex.setMaxAttributeValLength(16);
+        regex.afterPropertiesSet();
+        getExtractor().setMaxAttributeValLength(16);
+        String[] inputs = {
+            "<a href=\"0123456789abcdef.html\">",
+            "<a href=\"0123456789abcde\">",
+            "<a href=\"0123456789abcdef\">",
+            "<a href=0123456789abcdef0123456789.html>",
+            "<a title=\"long and unclosed href=\"x.html\">",
+        };
+        for (String input : inputs) {
+            assertEquals("differing results for: " + input,
+                    describeExtraction(regex, input),
+                    describeExtraction(getExtractor(), input));
+        }
+    }
+
+    /**
+     * Many unclosed SCRIPT tags make the regex extractor search to the end
+     * of the content from each; this should still finish promptly.
+     */
+    public void testManyUnclosedScripts() throws URIException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append("<script src=s").append(i).append(".js>");
+        }
+        CrawlURI curi = new CrawlURI(UURIFactory
+                .getInstance("http://www.example.com/"));
+        long start = System.currentTimeMillis();
+        getExtractor().extract(curi, content);
+        assertEquals(5000, curi.getOutLinks().size());
+        assertTrue("took too long", System.currentTimeMillis() - start < 10000);
+    }
+}
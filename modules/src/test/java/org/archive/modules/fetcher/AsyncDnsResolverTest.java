@@ -0,0 +1,248 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+
+/**
+ * Test AsyncDnsResolver against a minimal local DNS responder.
+ */
+public class AsyncDnsResolverTest extends TestCase {
+
+    /**
+     * Answers www.example.com with an A record, slow.example.com likewise
+     * but after a delay, spoofed.example.com likewise but only after a
+     * forged answer from another port, ignores silent.example.com
+     * entirely, and says NXDOMAIN to everything else.
+     */
+    protected static class TestDnsServer extends Thread {
+        protected DatagramSocket socket;
+        protected DatagramSocket forger;
+        protected AtomicInteger queries = new AtomicInteger();
+
+        public TestDnsServer() throws SocketException {
+            socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+            forger = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+            setDaemon(true);
+        }
+
+        public int getPort() {
+            return socket.getLocalPort();
+        }
+
+        public void run() {
+            byte[] buf = new byte[512];
+            while (!socket.isClosed()) {
+                try {
+                    DatagramPacket packet = new DatagramPacket(buf, buf.length);
+                    socket.receive(packet);
+                    queries.incrementAndGet();
+                    Message query = new Message(packet.getData());
+                    Record question = query.getQuestion();
+                    String name = question.getName().toString();
+                    if (name.equals("silent.example.com.")) {
+                        continue;
+                    }
+                    if (name.equals("spoofed.example.com.")) {
+                        Message forged = new Message(query.getHeader().getID());
+                        forged.getHeader().setFlag(Flags.QR);
+                        forged.addRecord(question, Section.QUESTION);
+                        forged.addRecord(new ARecord(question.getName(),
+                                DClass.IN, 3600, InetAddress.getByAddress(
+                                        new byte[] {10, 6, 6, 6})),
+                                Section.ANSWER);
+                        byte[] wire = forged.toWire();
+                        forger.send(new DatagramPacket(wire, wire.length,
+                                packet.getSocketAddress()));
+                        Thread.sleep(100);
+                    }
+                    Message response = new Message(query.getHeader().getID());
+                    response.getHeader().setFlag(Flags.QR);
+                    response.addRecord(question, Section.QUESTION);
+                    if (name.equals("www.example.com.")
+                            || name.equals("spoofed.example.com.")
+                            || name.equals("slow.example.com.")) {
+                        if (name.startsWith("slow")) {
+                            Thread.sleep(300);
+                        }
+                        response.addRecord(new ARecord(question.getName(),
+                                DClass.IN, 3600, InetAddress.getByAddress(
+                                        new byte[] {10, 0, 0, 1})),
+                                Section.ANSWER);
+                    } else {
+                        response.getHeader().setRcode(Rcode.NXDOMAIN);
+                    }
+                    byte[] wire = response.toWire();
+                    socket.send(new DatagramPacket(wire, wire.length,
+                            packet.getSocketAddress()));
+                } catch (Exception e) {
+                    // closed, or unparseable; keep going while open
+                }
+            }
+        }
+    }
+
+    protected TestDnsServer server;
+    protected AsyncDnsResolver resolver;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new TestDnsServer();
+        server.start();
+        resolver = new AsyncDnsResolver();
+        resolver.setServers(Collections.singletonList(
+                "127.0.0.1:" + server.getPort()));
+        resolver.setTimeoutMs(200);
+        resolver.setRetries(1);
+        resolver.start();
+    }
+
+    protected void tearDown() throws Exception {
+        resolver.stop();
+        server.socket.close();
+        server.forger.close();
+        super.tearDown();
+    }
+
+    public void testResolveAndCache() {
+        AsyncDnsResolver.Answer answer = resolver.await("www.example.com");
+        assertNotNull("no answer", answer);
+        assertEquals(1, answer.getRecords().length);
+        assertEquals("10.0.0.1",
+                ((ARecord) answer.getRecords()[0]).getAddress().getHostAddress());
+        assertEquals("127.0.0.1", answer.getServer());
+
+        assertNotNull(resolver.await("WWW.example.com."));
+        assertEquals("cached answer not used", 1, server.queries.get());
+        assertEquals(1, resolver.getCacheHits());
+    }
+
+    public void testNegativeAnswer() {
+        AsyncDnsResolver.Answer answer = resolver.await("nx.example.com");
+        assertNotNull("no definitive answer", answer);
+        assertNull(answer.getRecords());
+        resolver.await("nx.example.com");
+        assertEquals("negative answer not cached", 1, server.queries.get());
+    }
+
+    public void testTimeout() throws InterruptedException {
+        CompletableFuture<AsyncDnsResolver.Answer> future =
+            resolver.resolve("silent.example.com");
+        try {
+            future.get();
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        assertEquals("query not retried", 2, server.queries.get());
+        assertNull(resolver.await("silent.example.com"));
+    }
+
+    public void testSharedLookup() throws Exception {
+        List<CompletableFuture<AsyncDnsResolver.Answer>> futures =
+            new ArrayList<CompletableFuture<AsyncDnsResolver.Answer>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(resolver.resolve("slow.example.com"));
+        }
+        for (CompletableFuture<AsyncDnsResolver.Answer> future : futures) {
+            assertEquals(1, future.get().getRecords().length);
+        }
+        assertEquals("lookups not shared", 1, server.queries.get());
+        assertEquals(9, resolver.getSharedLookups());
+    }
+
+    public void testPrefetch() throws Exception {
+        resolver.prefetch("192.168.0.1");
+        resolver.prefetch("dns:");
+        resolver.prefetch("www.example.com");
+        resolver.resolve("www.example.com").get();
+        assertEquals("prefetch not used, or quad/pseudo-host queried",
+                1, server.queries.get());
+        assertNotNull(resolver.await("www.example.com"));
+    }
+
+    public void testForgedResponseIgnored() {
+        AsyncDnsResolver.Answer answer = resolver.await("spoofed.example.com");
+        assertNotNull("no answer", answer);
+        assertEquals("10.0.0.1",
+                ((ARecord) answer.getRecords()[0]).getAddress().getHostAddress());
+    }
+
+    public void testSendFailure() throws Exception {
+        resolver.stop();
+        // unsendable without SO_BROADCAST (and failing by timeout, where
+        // sent anyway)
+        resolver.setServers(Collections.singletonList("255.255.255.255"));
+        resolver.start();
+        List<CompletableFuture<AsyncDnsResolver.Answer>> futures =
+            new ArrayList<CompletableFuture<AsyncDnsResolver.Answer>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(resolver.resolve("host" + i + ".example.com"));
+        }
+        for (CompletableFuture<AsyncDnsResolver.Answer> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected failure");
+            } catch (ExecutionException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testNotRunning() {
+        resolver.stop();
+        assertNull(resolver.await("www.example.com"));
+        assertFalse("resolver restarted", resolver.isRunning());
+        assertEquals(0, server.queries.get());
+    }
+
+    public void testManyOutstanding() throws Exception {
+        resolver.setMaxOutstanding(4);
+        List<CompletableFuture<AsyncDnsResolver.Answer>> futures =
+            new ArrayList<CompletableFuture<AsyncDnsResolver.Answer>>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(resolver.resolve("nx" + i + ".example.com"));
+        }
+        for (CompletableFuture<AsyncDnsResolver.Answer> future : futures) {
+            assertNull(future.get().getRecords());
+        }
+        assertEquals(50, server.queries.get());
+        assertEquals(50, resolver.getQueriesSent());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.fetcher.BandwidthLimiter.TokenBucket;
+
+public class BandwidthLimiterTest extends TestCase {
+
+    /** debit the current thread's buckets, without waiting */
+    protected void overdraw(long bytes) {
+        long now = System.nanoTime();
+        for (TokenBucket bucket : BandwidthLimiter.CURRENT.get()) {
+            bucket.consume(bytes, now);
+        }
+    }
+
+    public void testTokenBucket() {
+        long now = 0;
+        // 1000 bytes/sec, burst of 500
+        TokenBucket bucket = new TokenBucket("test", 1000, 500, now);
+        assertEquals(0, bucket.consume(500, now));
+        // 100 bytes of debt at 1000/sec: 100ms
+        assertEquals(100, bucket.consume(100, now));
+        // 50ms later, half repaid
+        now += 50 * 1000000L;
+        assertEquals(50, bucket.debtMs(now));
+        // long idle refills only up to burst capacity
+        now += 10 * 1000000000L;
+        assertEquals(0, bucket.consume(500, now));
+        assertEquals(1, bucket.consume(1, now));
+        assertEquals(1001, bucket.getTotalBytes());
+    }
+
+    public void testDelayForIgnoresCrawlBucket() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setCrawlKBSec(1);
+        limiter.setHostKBSec(1000);
+        limiter.setBurstMs(100);
+        InetAddress ip = InetAddress.getByName("192.168.1.10");
+        limiter.beginFetch("big.example.com", ip);
+        try {
+            assertTrue(BandwidthLimiter.isThrottling());
+            // overdraw crawl bucket but not host bucket
+            overdraw(10 * 1024);
+        } finally {
+            limiter.endFetch();
+        }
+        assertFalse(BandwidthLimiter.isThrottling());
+        assertEquals(0, limiter.delayFor("big.example.com", ip));
+        assertEquals(0, limiter.delayFor("small.example.com", ip));
+    }
+
+    public void testDelayForOverdrawnHostAndSubnet() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setSubnetKBSec(1);
+        limiter.setHostKBSec(1000);
+        limiter.setBurstMs(100);
+        InetAddress ip = InetAddress.getByName("192.168.1.10");
+        limiter.beginFetch("big.example.com", ip);
+        try {
+            // subnet bucket at 1KB/sec, overdrawn by ~10KB: ~10s
+            overdraw(10 * 1024);
+        } finally {
+            limiter.endFetch();
+        }
+        long delay = limiter.delayFor("other.example.com",
+                InetAddress.getByName("192.168.1.99"));
+        assertTrue("delay " + delay, delay > 9000 && delay <= 10000);
+        assertEquals(0, limiter.delayFor("other.example.com",
+                InetAddress.getByName("192.168.2.10")));
+        assertEquals("subnet:192.168.1/24",
+                BandwidthLimiter.subnetKey(ip));
+    }
+
+    public void testThrottledStream() throws Exception {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.setCrawlKBSec(100);
+        limiter.setBurstMs(100);
+        byte[] content = new byte[30 * 1024];
+        InputStream in = BandwidthLimiter.throttle(
+                new ByteArrayInputStream(content));
+        limiter.beginFetch("www.example.com", null);
+        long start = System.currentTimeMillis();
+        try {
+            byte[] buf = new byte[1024];
+            while (in.read(buf) >= 0) {
+                // consume
+            }
+        } finally {
+            limiter.endFetch();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        // 30KB at 100KB/sec, less 10KB burst: ~200ms
+        assertTrue("elapsed " + elapsed, elapsed >= 150);
+        assertEquals(30 * 1024, limiter.getBuckets().get(0).getTotalBytes());
+
+        // outside a fetch, unthrottled
+        in = BandwidthLimiter.throttle(new ByteArrayInputStream(content));
+        start = System.currentTimeMillis();
+        while (in.read(new byte[1024]) >= 0) {
+            // consume
+        }
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+}
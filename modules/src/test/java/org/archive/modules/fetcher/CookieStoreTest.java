@@ -53,7 +53,7 @@ public class CookieStoreTest extends TmpDirTestCase {
     private static Logger logger = Logger.getLogger(CookieStoreTest.class.getName());
 
     protected BdbModule bdb;
-    protected BdbCookieStore bdbCookieStore;
+    protected AbstractCookieStore bdbCookieStore;
     protected BasicCookieStore basicCookieStore;
 
     protected BdbModule bdb() throws IOException {
@@ -74,18 +74,26 @@ public class CookieStoreTest extends TmpDirTestCase {
 
     protected AbstractCookieStore bdbCookieStore() throws IOException {
         if (bdbCookieStore == null) {
-            bdbCookieStore = new BdbCookieStore();
+            bdbCookieStore = newCookieStore();
             ConfigPath basePath = new ConfigPath("testBase", 
                     getTmpDir().getAbsolutePath());
             ConfigFile cookiesSaveFile = new ConfigFile("cookiesSaveFile", "cookies.txt");
             cookiesSaveFile.setBase(basePath);
             bdbCookieStore.setCookiesSaveFile(cookiesSaveFile);
-            bdbCookieStore.setBdbModule(bdb());
             bdbCookieStore.start();
         }
         return bdbCookieStore;
     }
 
+    /**
+     * @return the (unstarted) cookie store under test
+     */
+    protected AbstractCookieStore newCookieStore() throws IOException {
+        BdbCookieStore store = new BdbCookieStore();
+        store.setBdbModule(bdb());
+        return store;
+    }
+
     protected BasicCookieStore basicCookieStore() {
         if (basicCookieStore == null) {
             basicCookieStore = new BasicCookieStore();
@@ -341,7 +349,7 @@ public class CookieStoreTest extends TmpDirTestCase {
         assertCookieListsEquivalent(bdbCookieList, basicCookieStore().getCookies());        
     }
 
-    protected void assertCookieStoreCountEquals(BdbCookieStore bdb, int count) {
+    protected void assertCookieStoreCountEquals(AbstractCookieStore bdb, int count) {
         assertEquals(bdb.getCookies().size(), count);
     }    
 
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -35,6 +36,7 @@ import junit.extensions.TestSetup;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.security.*;
 import org.eclipse.jetty.security.authentication.BasicAuthenticator;
 import org.eclipse.jetty.security.authentication.DigestAuthenticator;
@@ -217,6 +219,9 @@ public class FetchHTTPTest extends ProcessorTestBase {
 
     protected static Map<Integer, Server> httpServers;
 
+    /** connections accepted by the plain http server on port 7777 */
+    protected static final AtomicInteger connectionsOpened7777 = new AtomicInteger(0);
+
     protected static SecurityHandler makeAuthWrapper(Authenticator authenticator,
             final String role, String realm, final String login,
             final String password) {
@@ -257,6 +262,13 @@ public class FetchHTTPTest extends ProcessorTestBase {
         ServerConnector sc = new ServerConnector(server);
         sc.setHost("127.0.0.1");
         sc.setPort(7777);
+        sc.addBean(new Connection.Listener() {
+            public void onOpened(Connection connection) {
+                connectionsOpened7777.incrementAndGet();
+            }
+            public void onClosed(Connection connection) {
+            }
+        });
         server.addConnector(sc);
 
         SecurityHandler authWrapper = makeAuthWrapper(new BasicAuthenticator(),
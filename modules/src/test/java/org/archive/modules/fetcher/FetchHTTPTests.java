@@ -706,6 +706,40 @@ public class FetchHTTPTests extends ProcessorTestBase {
         assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
     }
 
+    public void testConnectionPooling() throws Exception {
+        FetchHTTP fetchHttp = new FetchHTTP();
+        fetchHttp.setCookieStore(new SimpleCookieStore());
+        fetchHttp.setServerCache(new DefaultServerCache());
+        CrawlMetadata uap = new CrawlMetadata();
+        uap.setUserAgentTemplate(getUserAgentString());
+        fetchHttp.setUserAgentProvider(uap);
+        fetchHttp.setConnectionPooling(true);
+        fetchHttp.setUseHTTP11(true);
+        fetchHttp.setSendConnectionClose(false);
+        fetchHttp.start();
+        fetcher = fetchHttp; // so tearDown() stops it
+
+        int connectionsBefore = FetchHTTPTest.connectionsOpened7777.get();
+        for (int i = 0; i < 2; i++) {
+            CrawlURI curi = makeCrawlURI("http://localhost:7777/chunked.txt");
+            fetcher().process(curi);
+
+            // each fetch records exactly its own request and response
+            assertTrue(httpRequestString(curi).startsWith("GET /chunked.txt HTTP/1.1\r\n"));
+            assertFalse(httpRequestString(curi).matches("(?s).*Connection: [Cc]lose\r\n.*"));
+            assertEquals("chunked", curi.getHttpResponseHeader("transfer-encoding"));
+            assertEquals("25\r\n" + DEFAULT_PAYLOAD_STRING + "\r\n0\r\n\r\n", messageBodyString(curi));
+            assertEquals(DEFAULT_PAYLOAD_STRING, contentString(curi));
+            assertEquals("sha1:TQ5R6YVOZLTQENRIIENVGXHOPX3YCRNJ", curi.getContentDigestSchemeString());
+        }
+
+        // second fetch reused the first fetch's connection: the server
+        // saw only one
+        assertEquals(1, FetchHTTPTest.connectionsOpened7777.get() - connectionsBefore);
+        assertEquals(0, fetcher.getPooledConnectionManager().getTotalStats().getLeased());
+        assertEquals(1, fetcher.getPooledConnectionManager().getTotalStats().getAvailable());
+    }
+
     protected static class NoResponseServer extends Thread {
         protected String listenAddress;
         protected int listenPort;
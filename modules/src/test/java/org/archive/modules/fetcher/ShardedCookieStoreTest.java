@@ -0,0 +1,116 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.fetcher;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+
+/**
+ * Runs the CookieStoreTest cases against ShardedCookieStore, with few
+ * enough in-memory domains that some are evicted to bdb, plus tests of
+ * eviction itself.
+ */
+public class ShardedCookieStoreTest extends CookieStoreTest {
+
+    @Override
+    protected AbstractCookieStore newCookieStore() throws IOException {
+        ShardedCookieStore store = new ShardedCookieStore();
+        store.setBdbModule(bdb());
+        store.setMaxHotDomains(50);
+        store.setLockStripes(16);
+        return store;
+    }
+
+    protected ShardedCookieStore shardedCookieStore() throws IOException {
+        return (ShardedCookieStore) bdbCookieStore();
+    }
+
+    public void testEvictionAndReload() throws IOException {
+        shardedCookieStore().clear();
+        for (int i = 0; i < 500; i++) {
+            BasicClientCookie cookie = new BasicClientCookie("name", "value" + i);
+            cookie.setDomain("www.example" + i + ".org");
+            shardedCookieStore().addCookie(cookie);
+        }
+        assertTrue(shardedCookieStore().getHotDomainCount() <= 50);
+        assertEquals(500, shardedCookieStore().getCookies().size());
+
+        // a long-evicted domain's cookie comes back from bdb
+        List<Cookie> cookies = shardedCookieStore()
+                .cookieStoreFor("www.example0.org").getCookies();
+        assertEquals(1, cookies.size());
+        assertEquals("value0", cookies.get(0).getValue());
+        // parent domain doesn't see subdomain cookie
+        assertEquals(0, shardedCookieStore()
+                .cookieStoreFor("example0.org").getCookies().size());
+    }
+
+    public void testGroupedByRegisteredDomain() throws IOException {
+        shardedCookieStore().clear();
+        BasicClientCookie cookie = new BasicClientCookie("parent", "p");
+        cookie.setDomain(".example.co.uk");
+        shardedCookieStore().addCookie(cookie);
+        cookie = new BasicClientCookie("child", "c");
+        cookie.setDomain("www.example.co.uk");
+        shardedCookieStore().addCookie(cookie);
+        cookie = new BasicClientCookie("other", "o");
+        cookie.setDomain("other.co.uk");
+        shardedCookieStore().addCookie(cookie);
+
+        assertEquals(2, shardedCookieStore()
+                .cookieStoreFor("www.example.co.uk").getCookies().size());
+        assertEquals(1, shardedCookieStore()
+                .cookieStoreFor("img.example.co.uk").getCookies().size());
+        assertEquals(1, shardedCookieStore()
+                .cookieStoreFor("other.co.uk").getCookies().size());
+    }
+
+    public void testConcurrentSameDomainLimit() throws Exception {
+        shardedCookieStore().clear();
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] threads = new Thread[50];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        BasicClientCookie cookie = new BasicClientCookie(
+                                "name" + next.incrementAndGet(), "value");
+                        cookie.setDomain("example.com");
+                        try {
+                            shardedCookieStore().addCookie(cookie);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(AbstractCookieStore.MAX_COOKIES_FOR_DOMAIN,
+                shardedCookieStore().cookieStoreFor("example.com")
+                    .getCookies().size());
+    }
+}
@@ -244,6 +244,58 @@ public class RobotstxtTest extends TestCase {
                 rt.getDirectivesFor("c").allows("/foo"));
     }
 
+    public void testLongestMatch() throws IOException {
+        Robotstxt rt = new Robotstxt(new StringReader(
+                "User-agent: *\n"
+                + "Disallow: /a\n"
+                + "Disallow: /ab\n"
+                + "Allow: /a/ok\n"
+                + "Allow: /same\n"
+                + "Disallow: /same\n"));
+        RobotsDirectives d = rt.getDirectivesFor("anybot");
+        assertFalse("shorter disallow ignored", d.allows("/ac"));
+        assertFalse(d.allows("/abc"));
+        assertTrue(d.allows("/a/ok/x"));
+        assertTrue("allow should win tie", d.allows("/same"));
+        assertTrue(d.allows("/b"));
+    }
+
+    public void testWildcards() throws IOException {
+        Robotstxt rt = new Robotstxt(new StringReader(
+                "User-agent: *\n"
+                + "Disallow: /*.php$\n"
+                + "Disallow: /private*/secret\n"
+                + "Disallow: /tmp/\n"
+                + "Allow: /tmp/*.gif$\n"));
+        RobotsDirectives d = rt.getDirectivesFor("anybot");
+        assertFalse(d.allows("/index.php"));
+        assertTrue("anchored pattern matched prefix", d.allows("/index.php?x=1"));
+        assertFalse(d.allows("/private-area/secret/x"));
+        assertTrue(d.allows("/private-area/public"));
+        assertFalse(d.allows("/tmp/a.jpg"));
+        assertTrue("longer wildcard allow should win", d.allows("/tmp/a.gif"));
+    }
+
+    public void testSharedInstances() throws IOException {
+        Robotstxt a = new Robotstxt(new StringReader(
+                "# platform default\n"
+                + "User-agent: *\n"
+                + "Disallow: /admin\n"
+                + "Disallow: /cart\n"));
+        Robotstxt b = new Robotstxt(new StringReader(
+                "User-agent: *\n"
+                + "Disallow: /cart   # no carts\n"
+                + "Disallow: /admin\n"));
+        Robotstxt c = new Robotstxt(new StringReader(
+                "User-agent: *\n"
+                + "Disallow: /cart\n"));
+        assertEquals(a.getDigest(), b.getDigest());
+        assertFalse(a.getDigest().equals(c.getDigest()));
+        Robotstxt shared = Robotstxt.intern(a);
+        assertSame(shared, Robotstxt.intern(b));
+        assertNotSame(shared, Robotstxt.intern(c));
+    }
+
     public void testAllBlankLines() throws IOException {
         StringBuilder builder = new StringBuilder();
         for (int i = 0; i < Robotstxt.MAX_SIZE; i++) {
@@ -0,0 +1,141 @@
+/*
+ *  This file is part of the Heritrix web crawler (crawler.archive.org).
+ *
+ *  Licensed to the Internet Archive (IA) by one or more individual
+ *  contributors.
+ *
+ *  The IA licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.archive.modules.recrawl;
+
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_ETAG_HEADER;
+import static org.archive.modules.recrawl.RecrawlAttributeConstants.A_FETCH_HISTORY;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+
+public class FetchHistoryCacheTest extends TestCase {
+
+    @SuppressWarnings("rawtypes")
+    protected Map<String,Map> store = new ConcurrentHashMap<String,Map>();
+    protected FetchHistoryCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        cache = new FetchHistoryCache();
+        cache.setStore(store);
+        cache.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.stop();
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String,Object> historyWithEtag(String etag) {
+        HashMap<String,Object> latest = new HashMap<String,Object>();
+        latest.put(A_ETAG_HEADER, etag);
+        HashMap<String,Object>[] history = new HashMap[] { latest, null };
+        Map<String,Object> data = new HashMap<String,Object>();
+        data.put(A_FETCH_HISTORY, history);
+        return data;
+    }
+
+    public void testHitsAndMisses() {
+        store.put("a", historyWithEtag("etag-a"));
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.getMissCount());
+
+        // store changes behind the cache's back aren't seen: both are
+        // served from memory, including the absence
+        store.remove("a");
+        store.put("b", historyWithEtag("etag-b"));
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testWriteThroughAndCopies() {
+        Map<String,Object> data = historyWithEtag("v1");
+        store.put("a", data);
+        cache.put("a", data);
+
+        Map<String,Object> got = cache.get("a");
+        Map<String,Object>[] history = (Map<String,Object>[]) got.get(A_FETCH_HISTORY);
+        // as FetchHistoryProcessor does, rotating in place
+        history[1] = history[0];
+        history[0] = new HashMap<String,Object>();
+        got.put("other", "x");
+
+        Map<String,Object> again = cache.get("a");
+        assertFalse(again.containsKey("other"));
+        history = (Map<String,Object>[]) again.get(A_FETCH_HISTORY);
+        assertEquals("v1", history[0].get(A_ETAG_HEADER));
+        assertNull(history[1]);
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testOnlyHistoryCached() {
+        Map<String,Object> data = historyWithEtag("v1");
+        data.put("other", "x");
+        cache.put("a", data);
+
+        // later changes to the live history entries don't reach the cache
+        Map<String,Object>[] live = (Map<String,Object>[]) data.get(A_FETCH_HISTORY);
+        live[0].put(A_ETAG_HEADER, "v2");
+
+        Map<String,Object> got = cache.get("a");
+        assertFalse(got.containsKey("other"));
+        Map<String,Object>[] history = (Map<String,Object>[]) got.get(A_FETCH_HISTORY);
+        assertEquals("v1", history[0].get(A_ETAG_HEADER));
+        history[0].put(A_ETAG_HEADER, "v3");
+        history = (Map<String,Object>[]) cache.get("a").get(A_FETCH_HISTORY);
+        assertEquals("v1", history[0].get(A_ETAG_HEADER));
+
+        Map<String,Object> noHistory = new HashMap<String,Object>();
+        noHistory.put("other", "x");
+        store.put("b", noHistory);
+        assertNull(cache.get("b"));
+    }
+
+    public void testPrefetch() throws Exception {
+        store.put(PersistProcessor.persistKeyFor("http://www.example.com/a"),
+                historyWithEtag("etag-a"));
+        CrawlURI a = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/a"));
+        CrawlURI b = new CrawlURI(
+                UURIFactory.getInstance("http://www.example.com/b"));
+        CrawlURI dns = new CrawlURI(UURIFactory.getInstance("dns:www.example.com"));
+        cache.prefetch(a);
+        cache.prefetch(b);
+        cache.prefetch(dns);
+        for (int i = 0; i < 100 && cache.getPrefetchedCount() < 2; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, cache.getPrefetchedCount());
+        assertNotNull(cache.get(PersistProcessor.persistKeyFor(a)));
+        assertNull(cache.get(PersistProcessor.persistKeyFor(b)));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+}
@@ -1,10 +1,29 @@
 package org.archive.modules.writer;
 
+import static org.archive.format.warc.WARCConstants.HEADER_KEY_TYPE;
+import static org.archive.format.warc.WARCConstants.HEADER_KEY_URI;
+
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
+import org.archive.format.warc.WARCConstants.WARCRecordType;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.warc.WARCReader;
+import org.archive.io.warc.WARCReaderFactory;
 import org.archive.modules.CrawlMetadata;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.CrawlURI.FetchType;
 import org.archive.modules.fetcher.DefaultServerCache;
+import org.archive.net.UURIFactory;
 import org.archive.spring.ConfigPath;
 import org.archive.util.FileUtils;
 import org.archive.util.TmpDirTestCase;
@@ -18,6 +37,89 @@ public class WARCWriterChainProcessorTest extends WARCWriterProcessorTest {
         return result;
     }
 
+    public void testPipeline() throws Exception {
+        WARCWriterChainProcessor wwp = makeTestWARCWriterChainProcessor();
+        File workDir = new File(TmpDirTestCase.tmpDir(), 
+                "WARCWriterChainProcessorTest-testPipeline");
+        org.apache.commons.io.FileUtils.deleteDirectory(workDir);
+        wwp.setDirectory(new ConfigPath(null, workDir.getPath()));
+        wwp.setStorePaths(Arrays.asList(new ConfigPath("a", "warcs-a"), 
+                new ConfigPath("b", "warcs-b")));
+        DefaultServerCache serverCache = new DefaultServerCache();
+        serverCache.getHostFor("test.com").setIP(InetAddress.getLoopbackAddress(), -1);
+        wwp.setServerCache(serverCache);
+        wwp.setPipelineWriters(2);
+        wwp.setPipelineCompressionThreads(2);
+        // exercise writing of large records directly, too
+        wwp.setPipelineMaxBufferedRecordBytes(200);
+        wwp.start();
+
+        List<CrawlURI> curis = new ArrayList<CrawlURI>();
+        for (int i = 0; i < 10; i++) {
+            CrawlURI curi = new CrawlURI(UURIFactory.getInstance("http://test.com/" + i));
+            String responseBody = "<html><body>" + StringUtils.repeat("x", i * 30)
+                    + "</body></html>\r\n";
+            byte[] responseBytes = ("HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: text/html\r\n"
+                    + "Content-Length: " + responseBody.length() + "\r\n"
+                    + "\r\n" + responseBody).getBytes("ASCII");
+            curi.setRecorder(getRecorder());
+            curi.getRecorder().inputWrap(new ByteArrayInputStream(responseBytes));
+            curi.getRecorder().getRecordedInput().readFully();
+            curi.getRecorder().close();
+            curi.setFetchStatus(200);
+            curi.setFetchType(FetchType.HTTP_GET);
+            curi.setContentSize(responseBytes.length);
+
+            wwp.process(curi);
+            assertTrue(curi.getNonFatalFailures().isEmpty());
+            curis.add(curi);
+        }
+        wwp.stop();
+        assertEquals(10, wwp.getStats().get("response").get("numRecords").get());
+        assertEquals(2, wwp.getStats().get("warcinfo").get("numRecords").get());
+
+        // one closed file per writer, each on its own store path
+        Map<String,File> warcs = new HashMap<String,File>();
+        for (File dir : wwp.calcOutputDirs()) {
+            File[] files = dir.listFiles();
+            assertEquals(1, files.length);
+            assertTrue(files[0].getName().endsWith(".warc.gz"));
+            warcs.put(files[0].getName(), files[0]);
+        }
+        assertEquals(2, warcs.size());
+
+        // each URI's records together, in chain order, where noted
+        Map<String,Long> offsets = new HashMap<String,Long>();
+        for (File warc : warcs.values()) {
+            WARCReader reader = WARCReaderFactory.get(warc);
+            Iterator<ArchiveRecord> records = reader.iterator();
+            assertEquals(WARCRecordType.warcinfo.toString(), 
+                    records.next().getHeader().getHeaderValue(HEADER_KEY_TYPE));
+            while (records.hasNext()) {
+                ArchiveRecord response = records.next();
+                assertEquals(WARCRecordType.response.toString(), 
+                        response.getHeader().getHeaderValue(HEADER_KEY_TYPE));
+                String uri = (String) response.getHeader().getHeaderValue(HEADER_KEY_URI);
+                offsets.put(warc.getName() + " " + uri, response.getHeader().getOffset());
+                for (WARCRecordType type : new WARCRecordType[] {
+                        WARCRecordType.request, WARCRecordType.metadata }) {
+                    ArchiveRecord record = records.next();
+                    assertEquals(type.toString(), 
+                            record.getHeader().getHeaderValue(HEADER_KEY_TYPE));
+                    assertEquals(uri, record.getHeader().getHeaderValue(HEADER_KEY_URI));
+                }
+            }
+            reader.close();
+        }
+        assertEquals(10, offsets.size());
+        for (CrawlURI curi : curis) {
+            assertEquals(offsets.get(curi.getExtraInfo().getString("warcFilename")
+                    + " " + curi.toString()), 
+                    (Long) curi.getExtraInfo().getLong("warcFileOffset"));
+        }
+    }
+
     public static WARCWriterChainProcessor makeTestWARCWriterChainProcessor()
             throws IOException {
         File tmp = TmpDirTestCase.tmpDir();